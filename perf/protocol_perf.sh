@@ -0,0 +1,52 @@
+#! /bin/sh
+
+# Compares the throughput of the download strategies over HTTP/1.1 and HTTP/2 with h2load (nghttp2-client):
+#   ./protocol_perf.sh DOWNLOAD_SERVER_HOST [SCHEME] [CLIENTS] [STREAMS] [REQUESTS]
+# SCHEME is http (HTTP/2 over h2c with prior knowledge) or https (HTTP/2 negotiated with ALPN). Every strategy is run
+# with CLIENTS connections: over HTTP/1.1 one request at a time per connection, over HTTP/2 with up to STREAMS
+# concurrent streams per connection. The downloads are paced by the windows of the client, set here to 16 MB per
+# stream and 64 MB per connection.
+
+DOWNLOAD_TEST_HOME=$PWD
+DOWNLOAD_SERVER_HOST=$1
+DOWNLOAD_SERVER_PORT=8080
+SCHEME=${2:-http}
+CLIENTS=${3:-30}
+STREAMS=${4:-10}
+REQUESTS=${5:-3000}
+FILE_LIST=$DOWNLOAD_TEST_HOME/file_list.csv
+REPORT_PATH=$DOWNLOAD_TEST_HOME/report/report_protocol.csv
+# The download strategies
+DOWNLOAD_CONTEXTS="asyncFile asyncBuffer asyncMultiBuffer sendFile stream byteArray byteArrayVirtual"
+
+if [ "$SCHEME" = "https" ]; then
+  DOWNLOAD_SERVER_PORT=8443
+fi
+
+mkdir -p "$(dirname "$REPORT_PATH")"
+echo "context,protocol,requests_per_second,throughput,succeeded,failed" > "$REPORT_PATH"
+
+for DOWNLOAD_CONTEXT in $DOWNLOAD_CONTEXTS; do
+  URIS=""
+  for FILE_NAME in $(cat "$FILE_LIST"); do
+    URIS="$URIS $SCHEME://$DOWNLOAD_SERVER_HOST:$DOWNLOAD_SERVER_PORT/download/$DOWNLOAD_CONTEXT/$FILE_NAME"
+  done
+  for PROTOCOL in http/1.1 h2; do
+    echo "Starting h2load test - download context: $DOWNLOAD_CONTEXT, protocol: $PROTOCOL"
+    if [ "$PROTOCOL" = "h2" ]; then
+      OPTIONS="-m $STREAMS -w 24 -W 26"
+    else
+      OPTIONS="--h1 -m 1"
+    fi
+    # shellcheck disable=SC2086
+    OUTPUT=$(h2load -n "$REQUESTS" -c "$CLIENTS" $OPTIONS $URIS)
+    echo "$OUTPUT" | tail -n 12
+    # finished in 10.01s, 299.60 req/s, 1.23GB/s
+    THROUGHPUT=$(echo "$OUTPUT" | sed -n 's/^finished in [^,]*, \([0-9.]*\) req\/s, \(.*\)$/\1,\2/p')
+    # requests: 3000 total, 3000 started, 3000 done, 3000 succeeded, 0 failed, 0 errored, 0 timeout
+    REQUESTS_DONE=$(echo "$OUTPUT" | sed -n 's/^requests: .* done, \([0-9]*\) succeeded, \([0-9]*\) failed.*$/\1,\2/p')
+    echo "$DOWNLOAD_CONTEXT,$PROTOCOL,$THROUGHPUT,$REQUESTS_DONE" >> "$REPORT_PATH"
+  done
+done
+
+echo "Report written to $REPORT_PATH"
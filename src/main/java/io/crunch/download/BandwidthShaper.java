@@ -0,0 +1,388 @@
+package io.crunch.download;
+
+import io.quarkus.runtime.configuration.MemorySize;
+import io.quarkus.scheduler.Scheduled;
+import io.quarkus.vertx.http.runtime.CurrentVertxRequest;
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.Uni;
+import io.vertx.ext.web.RoutingContext;
+import io.vertx.mutiny.core.Vertx;
+import io.vertx.mutiny.core.buffer.Buffer;
+import io.vertx.mutiny.core.file.AsyncFile;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.function.ToIntFunction;
+
+/**
+ * {@code BandwidthShaper} limits the bytes per second the streamed downloads send to a client and to a tenant, so a
+ * few bulk clients cannot saturate the network interface at the expense of the interactive ones.
+ * <p>
+ * Every client, identified by its remote address (the forwarded one when {@code quarkus.http.proxy.*} trusts a
+ * proxy), gets a {@link TokenBucket} of {@code app.download.shaping.client-rate} bytes per second with a burst of
+ * {@code app.download.shaping.client-burst}, and every tenant, named by the {@code app.download.shaping.tenant-header}
+ * request header, a bucket of {@code app.download.shaping.tenant-rate} with a burst of
+ * {@code app.download.shaping.tenant-burst}. The concurrent downloads of a client or a tenant share its bucket. A rate
+ * of {@code 0} disables the limit, and the shaping is off while both are disabled.
+ * <p>
+ * A {@link Throttle} paces the content of a download through the buckets of its request, keeping its backpressure:
+ * <ul>
+ *   <li>a {@link Multi} emits its next buffer once the buffer has been paid for, on a timer of the event loop, and
+ *   requests the following one only then;</li>
+ *   <li>an {@link AsyncFile} is paused until the buffer it has read has been paid for, which also paces the
+ *   {@code sendFile} downloads, that are sent through the file instead of the kernel {@code sendfile} when they are
+ *   shaped, since a file region is written at once;</li>
+ *   <li>an {@link OutputStream} parks its thread before a write, since a blocking download holds its thread whatever
+ *   the pace.</li>
+ * </ul>
+ * A shaped download therefore holds at most one buffer more than it would unshaped. The time a download has waited
+ * for its buckets is kept with its request, so the {@link ConcurrencyLimitFilter} does not take it for latency.
+ * <p>
+ * The buckets refilled to their burst are dropped every {@code app.download.shaping.idle-timeout}. The statistics are
+ * exposed as the {@code io.crunch.download:type=BandwidthShaper} MBean.
+ */
+@ApplicationScoped
+public class BandwidthShaper implements BandwidthShaperMXBean {
+
+    private static final String THROTTLE = BandwidthShaper.class.getName() + ".throttle";
+
+    /**
+     * The pace of a download, through the buckets of its client and its tenant.
+     */
+    public final class Throttle {
+
+        private final TokenBucket client;
+
+        private final TokenBucket tenant;
+
+        private final AtomicLong delayed = new AtomicLong();
+
+        private Throttle(TokenBucket client, TokenBucket tenant) {
+            this.client = client;
+            this.tenant = tenant;
+        }
+
+        /**
+         * @return {@code true} if the download is paced, {@code false} if the throttle lets it through as it is
+         */
+        public boolean isShaping() {
+            return client != null || tenant != null;
+        }
+
+        /**
+         * Acquires the given number of bytes from the buckets.
+         *
+         * @param bytes the number of bytes to send
+         * @return the time to wait before sending them, in nanoseconds
+         */
+        long acquire(long bytes) {
+            var now = System.nanoTime();
+            var delay = Math.max(client == null ? 0 : client.acquire(bytes, now), tenant == null ? 0 : tenant.acquire(bytes, now));
+            shapedBytes.add(bytes);
+            if (delay > 0) {
+                delayed.addAndGet(delay);
+                delays.increment();
+                delayNanos.add(delay);
+            }
+            return delay;
+        }
+
+        /**
+         * Paces a stream of buffers.
+         *
+         * @param content the buffers of the download
+         * @return the buffers, emitted at the pace of the buckets
+         */
+        public Multi<Buffer> shape(Multi<Buffer> content) {
+            return shape(content, Buffer::length, buffer -> {
+            });
+        }
+
+        /**
+         * Paces a stream of {@link PooledBuffer}s, releasing the buffer held when the stream is cancelled.
+         *
+         * @param content the buffers of the download
+         * @return the buffers, emitted at the pace of the buckets
+         */
+        public Multi<PooledBuffer> shapePooled(Multi<PooledBuffer> content) {
+            return shape(content, PooledBuffer::length, PooledBuffer::release);
+        }
+
+        private <T> Multi<T> shape(Multi<T> content, ToIntFunction<T> length, Consumer<T> discard) {
+            if (!isShaping()) {
+                return content;
+            }
+            // the next buffer is requested once the delayed one has been emitted
+            return content.onItem().transformToUniAndConcatenate(item -> {
+                var delay = acquire(length.applyAsInt(item));
+                if (delay == 0) {
+                    return Uni.createFrom().item(item);
+                }
+                return Uni.createFrom().<T>emitter(emitter -> {
+                        var timer = vertx.setTimer(toMillis(delay), id -> emitter.complete(item));
+                        emitter.onTermination(() -> vertx.cancelTimer(timer));
+                    })
+                    .onCancellation()
+                    .invoke(() -> discard.accept(item));
+            });
+        }
+
+        /**
+         * Paces a file streamed to the response by Quarkus REST.
+         *
+         * @param file the file, positioned at the content to send
+         * @return the file, that pauses after reading a buffer until it has been paid for
+         */
+        public AsyncFile shape(AsyncFile file) {
+            return isShaping() ? new ShapedAsyncFile(file, this) : file;
+        }
+
+        /**
+         * Paces the writes of a blocking download.
+         *
+         * @param output the response stream
+         * @return the stream, that parks the writing thread until the bytes have been paid for
+         */
+        public OutputStream wrap(OutputStream output) {
+            if (!isShaping()) {
+                return output;
+            }
+            return new FilterOutputStream(output) {
+                @Override
+                public void write(int b) throws IOException {
+                    pace(1);
+                    out.write(b);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    pace(len);
+                    out.write(b, off, len);
+                }
+
+                private void pace(int bytes) throws InterruptedIOException {
+                    var deadline = System.nanoTime() + acquire(bytes);
+                    for (var remaining = deadline - System.nanoTime(); remaining > 0; remaining = deadline - System.nanoTime()) {
+                        LockSupport.parkNanos(remaining);
+                        if (Thread.interrupted()) {
+                            throw new InterruptedIOException("Interrupted while shaping");
+                        }
+                    }
+                }
+            };
+        }
+    }
+
+    /**
+     * An {@link AsyncFile} that pauses after reading a buffer until the buffer has been paid for.
+     * <p>
+     * The file and its timers run on the event loop of the file.
+     */
+    private final class ShapedAsyncFile extends AsyncFile {
+
+        private final Throttle throttle;
+
+        /**
+         * Whether the reader has paused the file, which must not be resumed when a delay is over.
+         */
+        private boolean paused;
+
+        /**
+         * Whether a buffer is waiting to be paid for, during which the file must not be resumed by the reader.
+         */
+        private boolean delaying;
+
+        private ShapedAsyncFile(AsyncFile file, Throttle throttle) {
+            super(file.getDelegate());
+            this.throttle = throttle;
+        }
+
+        @Override
+        public AsyncFile handler(Consumer<Buffer> handler) {
+            if (handler == null) {
+                return super.handler(null);
+            }
+            return super.handler(buffer -> {
+                var delay = throttle.acquire(buffer.length());
+                if (delay == 0) {
+                    handler.accept(buffer);
+                    return;
+                }
+                delaying = true;
+                super.pause();
+                vertx.setTimer(toMillis(delay), id -> {
+                    delaying = false;
+                    handler.accept(buffer);
+                    if (!paused) {
+                        super.resume();
+                    }
+                });
+            });
+        }
+
+        @Override
+        public AsyncFile pause() {
+            paused = true;
+            return super.pause();
+        }
+
+        @Override
+        public AsyncFile resume() {
+            paused = false;
+            return delaying ? this : super.resume();
+        }
+    }
+
+    private final Vertx vertx;
+
+    private final CurrentVertxRequest currentRequest;
+
+    private final long clientRate;
+
+    private final long clientBurst;
+
+    private final long tenantRate;
+
+    private final long tenantBurst;
+
+    private final String tenantHeader;
+
+    private final ConcurrentHashMap<String, TokenBucket> clients = new ConcurrentHashMap<>();
+
+    private final ConcurrentHashMap<String, TokenBucket> tenants = new ConcurrentHashMap<>();
+
+    private final LongAdder shapedBytes = new LongAdder();
+
+    private final LongAdder delays = new LongAdder();
+
+    private final LongAdder delayNanos = new LongAdder();
+
+    private final Throttle unlimited = new Throttle(null, null);
+
+    @Inject
+    public BandwidthShaper(Vertx vertx,
+                           CurrentVertxRequest currentRequest,
+                           @ConfigProperty(name = "app.download.shaping.client-rate", defaultValue = "0") MemorySize clientRate,
+                           @ConfigProperty(name = "app.download.shaping.client-burst", defaultValue = "1M") MemorySize clientBurst,
+                           @ConfigProperty(name = "app.download.shaping.tenant-rate", defaultValue = "0") MemorySize tenantRate,
+                           @ConfigProperty(name = "app.download.shaping.tenant-burst", defaultValue = "4M") MemorySize tenantBurst,
+                           @ConfigProperty(name = "app.download.shaping.tenant-header", defaultValue = "X-Tenant-Id") String tenantHeader) {
+        this.vertx = vertx;
+        this.currentRequest = currentRequest;
+        this.clientRate = clientRate.asLongValue();
+        this.clientBurst = clientBurst.asLongValue();
+        this.tenantRate = tenantRate.asLongValue();
+        this.tenantBurst = tenantBurst.asLongValue();
+        this.tenantHeader = tenantHeader;
+    }
+
+    /**
+     * Registers the MBean.
+     */
+    @PostConstruct
+    void start() {
+        MBeans.register("BandwidthShaper", this);
+    }
+
+    /**
+     * Returns the throttle of the current request.
+     * <p>
+     * It must be called while the request is being processed, before the endpoint returns.
+     *
+     * @return the throttle, that lets the content through as it is if the request is not shaped
+     */
+    public Throttle throttle() {
+        if (clientRate <= 0 && tenantRate <= 0) {
+            return unlimited;
+        }
+        var context = currentRequest.getCurrent();
+        if (context == null) {
+            return unlimited;
+        }
+        Throttle throttle = context.get(THROTTLE);
+        if (throttle == null) {
+            var request = context.request();
+            var client = clientRate > 0 && request.remoteAddress() != null
+                ? clients.computeIfAbsent(request.remoteAddress().hostAddress(), key -> new TokenBucket(clientRate, clientBurst))
+                : null;
+            var tenant = tenantRate > 0 && request.getHeader(tenantHeader) != null
+                ? tenants.computeIfAbsent(request.getHeader(tenantHeader), key -> new TokenBucket(tenantRate, tenantBurst))
+                : null;
+            throttle = new Throttle(client, tenant);
+            context.put(THROTTLE, throttle);
+        }
+        return throttle;
+    }
+
+    /**
+     * Returns the time a request has waited for its buckets.
+     *
+     * @param context the request
+     * @return the time in nanoseconds, {@code 0} if the request has not been shaped
+     */
+    static long delayed(RoutingContext context) {
+        Throttle throttle = context.get(THROTTLE);
+        return throttle == null ? 0 : throttle.delayed.get();
+    }
+
+    /**
+     * Drops the buckets that have been refilled to their burst, whose clients and tenants are idle.
+     */
+    @Scheduled(every = "${app.download.shaping.idle-timeout:1m}", concurrentExecution = Scheduled.ConcurrentExecution.SKIP)
+    void dropIdleBuckets() {
+        var now = System.nanoTime();
+        clients.values().removeIf(bucket -> bucket.isFull(now));
+        tenants.values().removeIf(bucket -> bucket.isFull(now));
+    }
+
+    private static long toMillis(long nanos) {
+        return Math.max(1, TimeUnit.NANOSECONDS.toMillis(nanos + 999_999));
+    }
+
+    @Override
+    public long getClientRate() {
+        return clientRate;
+    }
+
+    @Override
+    public long getTenantRate() {
+        return tenantRate;
+    }
+
+    @Override
+    public int getClientCount() {
+        return clients.size();
+    }
+
+    @Override
+    public int getTenantCount() {
+        return tenants.size();
+    }
+
+    @Override
+    public long getShapedBytes() {
+        return shapedBytes.sum();
+    }
+
+    @Override
+    public long getDelayCount() {
+        return delays.sum();
+    }
+
+    @Override
+    public long getDelayMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(delayNanos.sum());
+    }
+}
@@ -0,0 +1,42 @@
+package io.crunch.download;
+
+/**
+ * The management interface of the {@link BandwidthShaper}, exposing its statistics through JMX.
+ */
+public interface BandwidthShaperMXBean {
+
+    /**
+     * @return the number of bytes per second sent to a client, {@code 0} if unlimited
+     */
+    long getClientRate();
+
+    /**
+     * @return the number of bytes per second sent to a tenant, {@code 0} if unlimited
+     */
+    long getTenantRate();
+
+    /**
+     * @return the number of clients with a bucket
+     */
+    int getClientCount();
+
+    /**
+     * @return the number of tenants with a bucket
+     */
+    int getTenantCount();
+
+    /**
+     * @return the number of bytes that have been sent through the buckets
+     */
+    long getShapedBytes();
+
+    /**
+     * @return the number of times a download has waited for its buckets
+     */
+    long getDelayCount();
+
+    /**
+     * @return the total time the downloads have waited for their buckets, in milliseconds
+     */
+    long getDelayMillis();
+}
@@ -0,0 +1,104 @@
+package io.crunch.download;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * {@code BloomFilter} is a space-efficient set of strings that answers membership queries with no false negatives
+ * and a bounded rate of false positives.
+ * <p>
+ * The filter is sized from the expected number of keys and the acceptable false positive probability, and every key
+ * sets {@code k} bits selected by double hashing of a 64-bit hash of the key's UTF-8 bytes. Keys cannot be removed,
+ * so a filter whose keys are removed over time has to be rebuilt. The filter is thread-safe: bits are set atomically,
+ * and a key is visible to the queries once {@link #put(String)} has returned.
+ *
+ * @see <a href="https://doi.org/10.1145/362686.362692">Space/Time Trade-offs in Hash Coding with Allowable Errors</a>
+ */
+public class BloomFilter {
+
+    private final AtomicLongArray bits;
+
+    private final long bitCount;
+
+    private final int hashCount;
+
+    /**
+     * Creates a filter sized for the given number of keys.
+     *
+     * @param expectedKeys              the number of keys expected to be added
+     * @param falsePositiveProbability the acceptable probability that a key that was not added is reported present
+     */
+    public BloomFilter(long expectedKeys, double falsePositiveProbability) {
+        var keys = Math.max(1, expectedKeys);
+        var optimalBits = (long) Math.ceil(-keys * Math.log(falsePositiveProbability) / (Math.log(2) * Math.log(2)));
+        this.bits = new AtomicLongArray(Math.toIntExact(Math.max(1, (optimalBits + 63) / 64)));
+        this.bitCount = bits.length() * 64L;
+        this.hashCount = Math.max(1, (int) Math.round((double) bitCount / keys * Math.log(2)));
+    }
+
+    /**
+     * Adds the given key to the filter.
+     *
+     * @param key the key to add
+     */
+    public void put(String key) {
+        var hash = hash(key);
+        var h1 = (int) hash;
+        var h2 = (int) (hash >>> 32);
+        for (int i = 1; i <= hashCount; i++) {
+            var bit = index(h1 + i * h2);
+            var mask = 1L << bit;
+            bits.getAndAccumulate((int) (bit >>> 6), mask, (word, m) -> word | m);
+        }
+    }
+
+    /**
+     * Returns whether the given key may have been added to the filter.
+     *
+     * @param key the key to look up
+     * @return {@code false} if the key has certainly not been added, {@code true} if it probably has
+     */
+    public boolean mightContain(String key) {
+        var hash = hash(key);
+        var h1 = (int) hash;
+        var h2 = (int) (hash >>> 32);
+        for (int i = 1; i <= hashCount; i++) {
+            var bit = index(h1 + i * h2);
+            if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the size of the filter.
+     *
+     * @return the number of bits of the filter
+     */
+    public long bitCount() {
+        return bitCount;
+    }
+
+    private long index(int combinedHash) {
+        return (combinedHash & Integer.MAX_VALUE) % bitCount;
+    }
+
+    /**
+     * Computes the 64-bit FNV-1a hash of the key's UTF-8 bytes, with a final avalanche step so both halves of the
+     * hash are well distributed.
+     */
+    private static long hash(String key) {
+        var hash = 0xcbf29ce484222325L;
+        for (var b : key.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
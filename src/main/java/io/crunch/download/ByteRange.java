@@ -0,0 +1,94 @@
+package io.crunch.download;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * {@code ByteRange} represents a satisfiable byte range of a file, as requested by the HTTP {@code Range} header.
+ *
+ * @param offset the position of the first byte of the range
+ * @param length the number of bytes in the range
+ * @see <a href="https://www.rfc-editor.org/rfc/rfc9110#name-range-requests">RFC 9110 Range Requests</a>
+ */
+public record ByteRange(long offset, long length) {
+
+    /**
+     * The only range unit supported by the file store.
+     */
+    public static final String UNIT = "bytes";
+
+    private static final Pattern RANGE_SPEC = Pattern.compile("(\\d*)-(\\d*)");
+
+    public ByteRange {
+        if (offset < 0 || length <= 0) {
+            throw new IllegalArgumentException("Offset must not be negative and length must be positive");
+        }
+    }
+
+    /**
+     * Returns the position of the last byte of the range (inclusive).
+     *
+     * @return the position of the last byte
+     */
+    public long last() {
+        return offset + length - 1;
+    }
+
+    /**
+     * Returns the value of the {@code Content-Range} header describing this range.
+     *
+     * @param size the complete size of the file
+     * @return the {@code Content-Range} header value, for example {@code bytes 0-499/1234}
+     */
+    public String toContentRange(long size) {
+        return UNIT + " " + offset + "-" + last() + "/" + size;
+    }
+
+    /**
+     * Parses the value of the HTTP {@code Range} header against a file of the given size.
+     * <p>
+     * Ranges that exceed the end of the file are truncated, and unsatisfiable ranges are dropped.
+     * A missing or syntactically invalid header yields an empty list, which means the whole file should be sent.
+     *
+     * @param header the value of the {@code Range} header, may be {@code null}
+     * @param size   the size of the file in bytes
+     * @return the satisfiable ranges in the order they were requested, or an empty list
+     * @throws RangeNotSatisfiableException if the header is valid but none of its ranges can be satisfied
+     */
+    public static List<ByteRange> parse(String header, long size) {
+        if (header == null || !header.startsWith(UNIT + "=")) {
+            return List.of();
+        }
+        var ranges = new ArrayList<ByteRange>();
+        for (var spec : header.substring(UNIT.length() + 1).split(",")) {
+            var matcher = RANGE_SPEC.matcher(spec.trim());
+            if (!matcher.matches() || matcher.group(1).isEmpty() && matcher.group(2).isEmpty()) {
+                return List.of();
+            }
+            try {
+                if (matcher.group(1).isEmpty()) {
+                    var suffix = Math.min(Long.parseLong(matcher.group(2)), size);
+                    if (suffix > 0) {
+                        ranges.add(new ByteRange(size - suffix, suffix));
+                    }
+                } else {
+                    var first = Long.parseLong(matcher.group(1));
+                    var last = matcher.group(2).isEmpty() ? Long.MAX_VALUE : Long.parseLong(matcher.group(2));
+                    if (last < first) {
+                        return List.of();
+                    }
+                    if (first < size) {
+                        ranges.add(new ByteRange(first, Math.min(last, size - 1) - first + 1));
+                    }
+                }
+            } catch (NumberFormatException e) {
+                return List.of();
+            }
+        }
+        if (ranges.isEmpty()) {
+            throw new RangeNotSatisfiableException(size);
+        }
+        return ranges;
+    }
+}
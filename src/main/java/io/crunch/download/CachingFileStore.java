@@ -0,0 +1,224 @@
+package io.crunch.download;
+
+import io.netty.buffer.ByteBuf;
+import io.quarkus.runtime.configuration.MemorySize;
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.Uni;
+import io.vertx.mutiny.core.buffer.Buffer;
+import jakarta.annotation.Priority;
+import jakarta.decorator.Decorator;
+import jakarta.decorator.Delegate;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@code CachingFileStore} is a CDI decorator of the {@link FileStore} that serves the content of popular files
+ * from memory.
+ * <p>
+ * The full-content operations ({@link #getBuffer(String)}, {@link #getByteArray(String)} and
+ * {@link #getMultiBuffer(String)}) look up the heap {@link HotFileCache} with the entity tag of the file as its version,
+ * so a replaced file is never served from the cache. On a miss the content is read by the decorated store and
+ * offered to the cache, that decides with its size-aware W-TinyLFU policy whether the file is worth keeping.
+ * {@link #getPooledBuffer(String)} and {@link #getPooledMultiBuffer(String)} are served the same way from an off-heap
+ * cache of pooled direct buffers, that hands out retained slices, so neither the cache nor the responses allocate heap
+ * memory for the content.
+ * <p>
+ * The byte budgets are configured with {@code app.filestore.cache.max-size} and
+ * {@code app.filestore.cache.off-heap.max-size}, {@code 0} disables the cache. The statistics of the caches are
+ * registered as the {@code io.crunch.download:type=HotFileCache} and {@code io.crunch.download:type=OffHeapFileCache}
+ * MBeans.
+ */
+@Decorator
+@Priority(CachingFileStore.PRIORITY)
+public class CachingFileStore extends ForwardingFileStore {
+
+    /**
+     * The priority of the decorator, decorators with lower priority are called first.
+     */
+    public static final int PRIORITY = 100;
+
+    private final HotFileCache<byte[]> cache;
+
+    private final HotFileCache<ByteBuf> offHeapCache;
+
+    /**
+     * The names of the files whose streamed content is being collected for the cache, so a popular file is
+     * collected by one stream at a time.
+     */
+    private final Set<String> collecting = ConcurrentHashMap.newKeySet();
+
+    @Inject
+    public CachingFileStore(@Delegate FileStore delegate,
+                            @ConfigProperty(name = "app.filestore.cache.max-size", defaultValue = "256M") MemorySize maxSize,
+                            @ConfigProperty(name = "app.filestore.cache.off-heap.max-size", defaultValue = "256M") MemorySize offHeapMaxSize) {
+        super(delegate);
+        this.cache = HotFileCache.heap(maxSize.asLongValue());
+        this.offHeapCache = HotFileCache.offHeap(offHeapMaxSize.asLongValue());
+        MBeans.register("HotFileCache", cache);
+        MBeans.register("OffHeapFileCache", offHeapCache);
+    }
+
+    /**
+     * Reads the content of the specified file from the cache, or from the decorated store on a miss.
+     *
+     * @param fileName the name of the file to read
+     * @return a {@link Uni} emitting the {@link Buffer} containing the file's content,
+     *         or a failure if the file cannot be read
+     */
+    @Override
+    public Uni<Buffer> getBuffer(String fileName) {
+        if (!cache.isEnabled()) {
+            return delegate.getBuffer(fileName);
+        }
+        return delegate.getMetadata(fileName)
+            .onItem()
+            .transformToUni(metadata -> {
+                var content = cache.get(fileName, metadata.etag());
+                if (content != null) {
+                    return Uni.createFrom().item(Buffer.buffer(content));
+                }
+                return delegate.getBuffer(fileName)
+                    .onItem()
+                    .invoke(buffer -> cache.put(fileName, metadata.etag(), buffer.getBytes()));
+            });
+    }
+
+    /**
+     * Reads the content of the specified file from the off-heap cache, or from the decorated store on a miss.
+     * <p>
+     * A hit returns a retained slice of the cached buffer, and a miss offers a retained duplicate of the buffer read
+     * by the decorated store to the cache, so the cache and the response release their own references independently.
+     *
+     * @param fileName the name of the file to read
+     * @return a {@link Uni} emitting the {@link PooledBuffer} containing the file's content, that must be released
+     *         by the receiver, or a failure if the file cannot be read
+     */
+    @Override
+    public Uni<PooledBuffer> getPooledBuffer(String fileName) {
+        if (!offHeapCache.isEnabled()) {
+            return delegate.getPooledBuffer(fileName);
+        }
+        return delegate.getMetadata(fileName)
+            .onItem()
+            .transformToUni(metadata -> {
+                var content = offHeapCache.get(fileName, metadata.etag());
+                if (content != null) {
+                    return Uni.createFrom().item(new PooledBuffer(content));
+                }
+                return delegate.getPooledBuffer(fileName)
+                    .onItem()
+                    .invoke(buffer -> offHeapCache.put(fileName, metadata.etag(), buffer.byteBuf().retainedDuplicate()));
+            });
+    }
+
+    /**
+     * Streams the content of the specified file from the cache, or from the decorated store on a miss.
+     * <p>
+     * On a miss the streamed chunks are collected, and the content is offered to the cache when the stream completes.
+     *
+     * @param fileName the name of the file to read
+     * @return a {@link Multi} emitting {@link Buffer} instances containing the file's content.
+     */
+    @Override
+    public Multi<Buffer> getMultiBuffer(String fileName) {
+        if (!cache.isEnabled()) {
+            return delegate.getMultiBuffer(fileName);
+        }
+        return delegate.getMetadata(fileName)
+            .onItem()
+            .transformToMulti(metadata -> {
+                var content = cache.get(fileName, metadata.etag());
+                if (content != null) {
+                    return Multi.createFrom().item(Buffer.buffer(content));
+                }
+                if (!cache.fits(metadata.size()) || !collecting.add(fileName)) {
+                    return delegate.getMultiBuffer(fileName);
+                }
+                var collected = new byte[(int) metadata.size()];
+                var position = new AtomicInteger();
+                return delegate.getMultiBuffer(fileName)
+                    .onItem()
+                    .invoke(buffer -> {
+                        var offset = position.getAndAdd(buffer.length());
+                        if (offset + buffer.length() <= collected.length) {
+                            buffer.getBytes(0, buffer.length(), collected, offset);
+                        }
+                    })
+                    .onCompletion()
+                    .invoke(() -> {
+                        if (position.get() == collected.length) {
+                            cache.put(fileName, metadata.etag(), collected);
+                        }
+                    })
+                    .onTermination()
+                    .invoke(() -> collecting.remove(fileName));
+            });
+    }
+
+    /**
+     * Streams the content of the specified file from the off-heap cache, or from the decorated store on a miss.
+     * <p>
+     * A hit emits a retained slice of the cached buffer as a single chunk, that is released if the subscription is
+     * cancelled before the chunk has been written. The streamed chunks are not collected on a miss, the off-heap
+     * cache is filled by {@link #getPooledBuffer(String)}.
+     *
+     * @param fileName the name of the file to read
+     * @return a {@link Multi} emitting {@link PooledBuffer} instances containing the file's content.
+     */
+    @Override
+    public Multi<PooledBuffer> getPooledMultiBuffer(String fileName) {
+        if (!offHeapCache.isEnabled()) {
+            return delegate.getPooledMultiBuffer(fileName);
+        }
+        return delegate.getMetadata(fileName)
+            .onItem()
+            .transformToMulti(metadata -> {
+                var content = offHeapCache.get(fileName, metadata.etag());
+                if (content == null) {
+                    return delegate.getPooledMultiBuffer(fileName);
+                }
+                var buffer = new PooledBuffer(content);
+                return Multi.createFrom().item(buffer)
+                    .onCancellation()
+                    .invoke(buffer::release);
+            });
+    }
+
+    /**
+     * Reads the content of the specified file from the cache, or from the decorated store on a miss.
+     *
+     * @param fileName the name of the file to read
+     * @return a byte array containing the file's content, that must not be modified
+     */
+    @Override
+    public byte[] getByteArray(String fileName) {
+        if (!cache.isEnabled()) {
+            return delegate.getByteArray(fileName);
+        }
+        var version = delegate.getMetadata(fileName).await().indefinitely().etag();
+        var content = cache.get(fileName, version);
+        if (content == null) {
+            content = delegate.getByteArray(fileName);
+            cache.put(fileName, version, content);
+        }
+        return content;
+    }
+
+    /**
+     * Returns whether the current content of the specified file is held by the heap or the off-heap cache, without
+     * recording an access.
+     *
+     * @param fileName the name of the file
+     * @param metadata the current metadata of the file
+     * @return {@code true} if one of the caches holds the content with the entity tag of the metadata
+     */
+    @Override
+    public boolean isCached(String fileName, FileMetadata metadata) {
+        return offHeapCache.contains(fileName, metadata.etag()) || cache.contains(fileName, metadata.etag())
+            || delegate.isCached(fileName, metadata);
+    }
+}
@@ -0,0 +1,150 @@
+package io.crunch.download;
+
+import io.quarkus.runtime.configuration.MemorySize;
+import io.smallrye.mutiny.Multi;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@code ChunkSizePolicy} chooses the size of the chunks in which the streaming operations of the file stores read
+ * a file: the read buffer size of the {@link io.vertx.mutiny.core.file.AsyncFile}s, and the size of the
+ * {@link io.vertx.mutiny.core.buffer.Buffer}s emitted by the {@link Multi} based reads.
+ * <p>
+ * Small chunks cost a read, a buffer and a write per few kilobytes, large chunks cost memory per concurrent stream.
+ * The policy reads a file in about {@value #CHUNKS_PER_STREAM} chunks, so larger files are read in larger chunks,
+ * and shrinks the chunks when many streams are read concurrently, so the chunks of all the active streams fit in
+ * the memory budget. The size is a power of two between the minimum and the maximum chunk size, and is chosen once
+ * per stream, when it is opened.
+ * <p>
+ * The sizes are configured with {@code app.filestore.chunk.min-size}, {@code app.filestore.chunk.max-size} and
+ * {@code app.filestore.chunk.memory-budget}; setting the minimum and the maximum to the same value gives a fixed
+ * chunk size. The chosen sizes are registered as the {@code io.crunch.download:type=ChunkSizePolicy} MBean.
+ */
+@ApplicationScoped
+public class ChunkSizePolicy implements ChunkSizePolicyMXBean {
+
+    /**
+     * The number of chunks a stream is read in, when neither the minimum nor the maximum chunk size applies.
+     */
+    static final int CHUNKS_PER_STREAM = 32;
+
+    private final int minimumChunkSize;
+
+    private final int maximumChunkSize;
+
+    private final long memoryBudget;
+
+    private final AtomicInteger activeStreams = new AtomicInteger();
+
+    private final LongAdder streams = new LongAdder();
+
+    private final LongAdder chunkBytes = new LongAdder();
+
+    private volatile int lastChunkSize;
+
+    @Inject
+    public ChunkSizePolicy(@ConfigProperty(name = "app.filestore.chunk.min-size", defaultValue = "8K") MemorySize minimumChunkSize,
+                           @ConfigProperty(name = "app.filestore.chunk.max-size", defaultValue = "256K") MemorySize maximumChunkSize,
+                           @ConfigProperty(name = "app.filestore.chunk.memory-budget", defaultValue = "64M") MemorySize memoryBudget) {
+        this(Math.toIntExact(minimumChunkSize.asLongValue()), Math.toIntExact(maximumChunkSize.asLongValue()),
+            memoryBudget.asLongValue());
+    }
+
+    /**
+     * Creates a policy choosing chunk sizes between the given bounds.
+     *
+     * @param minimumChunkSize the smallest chunk size in bytes
+     * @param maximumChunkSize the largest chunk size in bytes
+     * @param memoryBudget     the total number of bytes the chunks of the concurrent streams may hold together
+     */
+    public ChunkSizePolicy(int minimumChunkSize, int maximumChunkSize, long memoryBudget) {
+        if (minimumChunkSize <= 0 || maximumChunkSize < minimumChunkSize) {
+            throw new IllegalArgumentException("Invalid chunk size bounds: " + minimumChunkSize + ", " + maximumChunkSize);
+        }
+        this.minimumChunkSize = minimumChunkSize;
+        this.maximumChunkSize = maximumChunkSize;
+        this.memoryBudget = memoryBudget;
+        this.lastChunkSize = minimumChunkSize;
+    }
+
+    /**
+     * Registers the MBean.
+     */
+    @PostConstruct
+    void start() {
+        MBeans.register("ChunkSizePolicy", this);
+    }
+
+    /**
+     * Chooses the chunk size of a stream of the given length, given the number of streams being read.
+     *
+     * @param length the number of bytes of the stream
+     * @return the chunk size in bytes
+     */
+    public int chunkSize(long length) {
+        var bySize = Long.highestOneBit(Math.max(1, length / CHUNKS_PER_STREAM));
+        var byBudget = Long.highestOneBit(Math.max(1, memoryBudget / Math.max(1, activeStreams.get())));
+        var chunkSize = Math.clamp(Math.min(bySize, byBudget), minimumChunkSize, maximumChunkSize);
+        lastChunkSize = chunkSize;
+        streams.increment();
+        chunkBytes.add(chunkSize);
+        return chunkSize;
+    }
+
+    /**
+     * Counts the given stream as active from its subscription to its termination, so the chunk sizes chosen in the
+     * meantime take it into account.
+     *
+     * @param stream the stream to count
+     * @param <T>    the type of the items of the stream
+     * @return the counted stream
+     */
+    public <T> Multi<T> track(Multi<T> stream) {
+        return stream
+            .onSubscription()
+            .invoke(subscription -> activeStreams.incrementAndGet())
+            .onTermination()
+            .invoke(activeStreams::decrementAndGet);
+    }
+
+    @Override
+    public int getMinimumChunkSize() {
+        return minimumChunkSize;
+    }
+
+    @Override
+    public int getMaximumChunkSize() {
+        return maximumChunkSize;
+    }
+
+    @Override
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    @Override
+    public int getLastChunkSize() {
+        return lastChunkSize;
+    }
+
+    @Override
+    public long getAverageChunkSize() {
+        var count = streams.sum();
+        return count == 0 ? 0 : chunkBytes.sum() / count;
+    }
+
+    @Override
+    public long getStreamCount() {
+        return streams.sum();
+    }
+
+    @Override
+    public int getActiveStreamCount() {
+        return activeStreams.get();
+    }
+}
@@ -0,0 +1,42 @@
+package io.crunch.download;
+
+/**
+ * The management interface of the {@link ChunkSizePolicy}, exposing the chosen chunk sizes through JMX.
+ */
+public interface ChunkSizePolicyMXBean {
+
+    /**
+     * @return the smallest chunk size in bytes
+     */
+    int getMinimumChunkSize();
+
+    /**
+     * @return the largest chunk size in bytes
+     */
+    int getMaximumChunkSize();
+
+    /**
+     * @return the total number of bytes the chunks of the concurrent streams may hold together
+     */
+    long getMemoryBudget();
+
+    /**
+     * @return the chunk size in bytes chosen for the latest stream
+     */
+    int getLastChunkSize();
+
+    /**
+     * @return the average chunk size in bytes chosen for the streams
+     */
+    long getAverageChunkSize();
+
+    /**
+     * @return the number of streams whose chunk size was chosen
+     */
+    long getStreamCount();
+
+    /**
+     * @return the number of streams that are currently being read
+     */
+    int getActiveStreamCount();
+}
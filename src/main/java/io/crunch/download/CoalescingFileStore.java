@@ -0,0 +1,88 @@
+package io.crunch.download;
+
+import io.smallrye.mutiny.Uni;
+import io.vertx.mutiny.core.buffer.Buffer;
+import jakarta.annotation.Priority;
+import jakarta.decorator.Decorator;
+import jakarta.decorator.Delegate;
+import jakarta.inject.Inject;
+
+/**
+ * {@code CoalescingFileStore} is a CDI decorator of the {@link FileStore} that makes the concurrent full-file loads
+ * of the same file share one read, so a burst of requests for a newly published document reads it once instead of
+ * once per request.
+ * <p>
+ * {@link #getBuffer(String)}, {@link #getPooledBuffer(String)} and {@link #getByteArray(String)} are coalesced by a
+ * {@link SingleFlight} keyed by the operation, the file name and the entity tag of the file, so a load started
+ * before the file changed is never shared with the callers that see the new version. The decorator is called after
+ * {@link CachingFileStore}, so it coalesces the cache misses, and the statistics are registered as the
+ * {@code io.crunch.download:type=SingleFlight} MBean.
+ */
+@Decorator
+@Priority(CoalescingFileStore.PRIORITY)
+public class CoalescingFileStore extends ForwardingFileStore {
+
+    /**
+     * The priority of the decorator, decorators with lower priority are called first.
+     */
+    public static final int PRIORITY = 120;
+
+    private record Key(String operation, String fileName, String version) {
+    }
+
+    private final SingleFlight<Key> singleFlight = new SingleFlight<>();
+
+    @Inject
+    public CoalescingFileStore(@Delegate FileStore delegate) {
+        super(delegate);
+        MBeans.register("SingleFlight", singleFlight);
+    }
+
+    /**
+     * Reads the content of the specified file, sharing the read in flight for the same version of the file.
+     *
+     * @param fileName the name of the file to read
+     * @return a {@link Uni} emitting the {@link Buffer} containing the file's content, that must not be modified,
+     *         or a failure if the file cannot be read
+     */
+    @Override
+    public Uni<Buffer> getBuffer(String fileName) {
+        return delegate.getMetadata(fileName)
+            .onItem()
+            .transformToUni(metadata ->
+                singleFlight.load(new Key("buffer", fileName, metadata.etag()), () -> delegate.getBuffer(fileName)));
+    }
+
+    /**
+     * Reads the content of the specified file into a {@link PooledBuffer}, sharing the read in flight for the same
+     * version of the file.
+     * <p>
+     * Every caller receives a retained duplicate of the buffer read once, so every response releases its own reference.
+     *
+     * @param fileName the name of the file to read
+     * @return a {@link Uni} emitting the {@link PooledBuffer} containing the file's content, that must be released
+     *         by the receiver, or a failure if the file cannot be read
+     */
+    @Override
+    public Uni<PooledBuffer> getPooledBuffer(String fileName) {
+        return delegate.getMetadata(fileName)
+            .onItem()
+            .transformToUni(metadata -> singleFlight.load(
+                new Key("pooledBuffer", fileName, metadata.etag()),
+                () -> delegate.getPooledBuffer(fileName),
+                shared -> new PooledBuffer(shared.byteBuf().retainedDuplicate()),
+                PooledBuffer::release));
+    }
+
+    /**
+     * Reads the content of the specified file, waiting for the read in flight for the same version of the file.
+     *
+     * @param fileName the name of the file to read
+     * @return a byte array containing the file's content, that must not be modified
+     */
+    @Override
+    public byte[] getByteArray(String fileName) {
+        var version = delegate.getMetadata(fileName).await().indefinitely().etag();
+        return singleFlight.loadBlocking(new Key("byteArray", fileName, version), () -> delegate.getByteArray(fileName));
+    }
+}
@@ -0,0 +1,163 @@
+package io.crunch.download;
+
+import io.quarkus.vertx.http.runtime.filters.Filters;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.ext.web.RoutingContext;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.core.HttpHeaders;
+import jakarta.ws.rs.core.Response;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.resteasy.reactive.server.ServerRequestFilter;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * {@code ConcurrencyLimitFilter} puts a {@link ConcurrencyLimiter} in front of each blocking download strategy of the
+ * {@link FileDownloadResource} ({@code stream}, {@code byteArray} and {@code byteArrayVirtual}), so an overload is
+ * answered at once with {@code 503 Service Unavailable} instead of queueing requests for the worker pool without
+ * bound.
+ * <p>
+ * The requests are admitted by a route filter on the event loop, before they are dispatched to a worker thread, and
+ * the requests above the limit of their strategy are rejected with a {@code Retry-After} header. The latency of an
+ * admitted request is measured until its response has been sent, so a slow client counts as a busy thread, but the
+ * time the {@link BandwidthShaper} has paced it does not. The admitted requests that waited for a worker thread
+ * longer than the target queue delay are shed with the same response when their endpoint is about to run, as told by
+ * the limiter.
+ * <p>
+ * The limiters are configured with the {@code app.download.limiter.*} properties, and their statistics are
+ * registered as the {@code io.crunch.download:type=ConcurrencyLimiter,name=<strategy>} MBeans.
+ */
+@ApplicationScoped
+public class ConcurrencyLimitFilter {
+
+    /**
+     * The download strategies that block a thread for the whole download.
+     */
+    static final List<String> STRATEGIES = List.of("stream", "byteArray", "byteArrayVirtual");
+
+    /**
+     * The route filters run before the application, at a priority lower than the CORS and security filters.
+     */
+    private static final int FILTER_PRIORITY = 100;
+
+    private static final String PATH_PREFIX = "/download/";
+
+    private static final String LIMITER = ConcurrencyLimitFilter.class.getName() + ".limiter";
+
+    private static final String ADMITTED_AT = ConcurrencyLimitFilter.class.getName() + ".admittedAt";
+
+    private static final String SHED = ConcurrencyLimitFilter.class.getName() + ".shed";
+
+    private final boolean enabled;
+
+    private final long retryAfterSeconds;
+
+    private final Map<String, ConcurrencyLimiter> limiters;
+
+    @Inject
+    public ConcurrencyLimitFilter(@ConfigProperty(name = "app.download.limiter.enabled", defaultValue = "true") boolean enabled,
+                                  @ConfigProperty(name = "app.download.limiter.initial-limit", defaultValue = "20") int initialLimit,
+                                  @ConfigProperty(name = "app.download.limiter.min-limit", defaultValue = "4") int minimumLimit,
+                                  @ConfigProperty(name = "app.download.limiter.max-limit", defaultValue = "200") int maximumLimit,
+                                  @ConfigProperty(name = "app.download.limiter.tolerance", defaultValue = "2.0") double tolerance,
+                                  @ConfigProperty(name = "app.download.limiter.queue-target", defaultValue = "20ms") Duration queueTarget,
+                                  @ConfigProperty(name = "app.download.limiter.queue-interval", defaultValue = "100ms") Duration queueInterval,
+                                  @ConfigProperty(name = "app.download.limiter.retry-after", defaultValue = "1s") Duration retryAfter) {
+        this.enabled = enabled;
+        this.retryAfterSeconds = Math.max(1, retryAfter.toSeconds());
+        this.limiters = STRATEGIES.stream().collect(Collectors.toUnmodifiableMap(Function.identity(), strategy ->
+            new ConcurrencyLimiter(initialLimit, minimumLimit, maximumLimit, tolerance, queueTarget, queueInterval)));
+        limiters.forEach((strategy, limiter) -> MBeans.register("ConcurrencyLimiter", strategy, limiter));
+    }
+
+    /**
+     * Returns the limiter of the given download strategy.
+     *
+     * @param strategy the download strategy, for example {@code stream}
+     * @return the limiter, or {@code null} if the strategy is not limited
+     */
+    ConcurrencyLimiter limiter(String strategy) {
+        return limiters.get(strategy);
+    }
+
+    void registerFilter(@Observes Filters filters) {
+        if (enabled) {
+            filters.register(this::admit, FILTER_PRIORITY);
+        }
+    }
+
+    /**
+     * Admits or rejects a download request of a limited strategy, on the event loop.
+     *
+     * @param context the request
+     */
+    void admit(RoutingContext context) {
+        var limiter = context.request().method() == HttpMethod.GET ? limiters.get(strategy(context.normalizedPath())) : null;
+        if (limiter == null) {
+            context.next();
+            return;
+        }
+        if (!limiter.tryAcquire()) {
+            context.response()
+                .setStatusCode(Response.Status.SERVICE_UNAVAILABLE.getStatusCode())
+                .putHeader(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds))
+                .end();
+            return;
+        }
+        var admittedAt = System.nanoTime();
+        context.put(LIMITER, limiter);
+        context.put(ADMITTED_AT, admittedAt);
+        context.addEndHandler(result -> {
+            if (Boolean.TRUE.equals(context.get(SHED))) {
+                limiter.shed();
+            } else {
+                // the time spent pacing the response is not a symptom of overload
+                limiter.release(System.nanoTime() - admittedAt - BandwidthShaper.delayed(context));
+            }
+        });
+        context.next();
+    }
+
+    /**
+     * Sheds an admitted request that has waited for a thread longer than its limiter allows.
+     * <p>
+     * The request filters of a blocking endpoint run on the thread of the endpoint, so the delay since the admission
+     * is the time the request has waited for it.
+     *
+     * @param context the request
+     * @return the {@code 503} response of a shed request, or {@code null} to let the endpoint respond
+     */
+    @ServerRequestFilter
+    public Response shedQueued(RoutingContext context) {
+        ConcurrencyLimiter limiter = context.get(LIMITER);
+        if (limiter == null) {
+            return null;
+        }
+        long admittedAt = context.get(ADMITTED_AT);
+        var now = System.nanoTime();
+        if (!limiter.shouldShed(now - admittedAt, now)) {
+            return null;
+        }
+        context.put(SHED, Boolean.TRUE);
+        return Response.status(Response.Status.SERVICE_UNAVAILABLE)
+            .header(HttpHeaders.RETRY_AFTER, retryAfterSeconds)
+            .build();
+    }
+
+    /**
+     * Returns the download strategy of a request path, that is the segment following {@code /download/}.
+     */
+    private static String strategy(String path) {
+        if (path == null || !path.startsWith(PATH_PREFIX)) {
+            return null;
+        }
+        var end = path.indexOf('/', PATH_PREFIX.length());
+        return end < 0 ? null : path.substring(PATH_PREFIX.length(), end);
+    }
+}
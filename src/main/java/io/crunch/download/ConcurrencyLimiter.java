@@ -0,0 +1,197 @@
+package io.crunch.download;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@code ConcurrencyLimiter} bounds the number of requests of a download strategy that are processed concurrently,
+ * with a limit that adapts to the latency of the requests, and sheds the admitted requests that wait too long for a
+ * thread.
+ * <p>
+ * The limit follows the gradient of the latency, as TCP Vegas follows the round-trip time: the latency of every
+ * completed request is compared with the long-term average latency, and the limit is multiplied by their ratio
+ * (times a tolerance, and between {@code 0.5} and {@code 1}) before a margin of {@code sqrt(limit)} is added. While the
+ * latency stays within the tolerance, the limit grows by the margin; once requests start queueing and the latency
+ * rises, the limit shrinks until it drains the queue. The new limit is smoothed with the previous one, and kept
+ * between the minimum and the maximum limits. The limit only grows while at least half of it is in use, so an idle
+ * strategy does not accumulate a limit it has never been tested at. The long-term average forgets the latency of a
+ * past overload when the latency falls far below it.
+ * <p>
+ * The requests above the limit are rejected at once. The admitted requests of a blocking strategy may still wait for
+ * a worker thread, which is bounded like CoDel bounds the delay of a queue: while the requests wait less than the
+ * target queue delay, they are all processed; once they have waited more than the target for a whole interval, the
+ * requests waiting more than the target are shed, until one waits less again. A shed request counts as an overload,
+ * and shrinks the limit by a tenth.
+ * <p>
+ * The methods are synchronized: they are called twice per request, and do a handful of arithmetic operations.
+ */
+public class ConcurrencyLimiter implements ConcurrencyLimiterMXBean {
+
+    /**
+     * The number of latency samples the long-term average latency is averaged over.
+     */
+    private static final int LONG_WINDOW = 600;
+
+    /**
+     * The weight of a new limit in the smoothed limit.
+     */
+    private static final double SMOOTHING = 0.2;
+
+    private final int minimumLimit;
+
+    private final int maximumLimit;
+
+    private final double tolerance;
+
+    private final long queueTarget;
+
+    private final long queueInterval;
+
+    private final LongAdder accepted = new LongAdder();
+
+    private final LongAdder rejected = new LongAdder();
+
+    private final LongAdder shed = new LongAdder();
+
+    private double limit;
+
+    private int inFlight;
+
+    private double longLatency;
+
+    private long samples;
+
+    private long lastLatency;
+
+    /**
+     * The time at which the queue delay will have stayed above the target for a whole interval, or {@code 0} while it
+     * is below the target.
+     */
+    private long aboveTargetUntil;
+
+    /**
+     * Creates a limiter.
+     *
+     * @param initialLimit  the limit before any request has completed
+     * @param minimumLimit  the lowest limit
+     * @param maximumLimit  the highest limit
+     * @param tolerance     the ratio of the long-term average latency the latency may reach without shrinking the limit
+     * @param queueTarget   the delay the admitted requests may wait for a thread
+     * @param queueInterval the time the delay may stay above the target before the requests are shed
+     */
+    public ConcurrencyLimiter(int initialLimit, int minimumLimit, int maximumLimit, double tolerance,
+                              Duration queueTarget, Duration queueInterval) {
+        if (minimumLimit < 1 || maximumLimit < minimumLimit || tolerance < 1) {
+            throw new IllegalArgumentException("Invalid limits: " + minimumLimit + ", " + maximumLimit + ", " + tolerance);
+        }
+        this.minimumLimit = minimumLimit;
+        this.maximumLimit = maximumLimit;
+        this.tolerance = tolerance;
+        this.queueTarget = queueTarget.toNanos();
+        this.queueInterval = queueInterval.toNanos();
+        this.limit = Math.clamp(initialLimit, minimumLimit, maximumLimit);
+    }
+
+    /**
+     * Admits a request if the limit is not reached.
+     *
+     * @return {@code true} if the request is admitted, and {@link #release(long)} or {@link #shed()} must be called
+     * once it is completed, {@code false} if it must be rejected
+     */
+    public synchronized boolean tryAcquire() {
+        if (inFlight >= (int) limit) {
+            rejected.increment();
+            return false;
+        }
+        inFlight++;
+        accepted.increment();
+        return true;
+    }
+
+    /**
+     * Decides whether an admitted request that has waited for a thread must be shed.
+     *
+     * @param queueDelay the time the request has waited, in nanoseconds
+     * @param now        the current {@link System#nanoTime()}
+     * @return {@code true} if the request must be shed, and {@link #shed()} called instead of {@link #release(long)}
+     */
+    public synchronized boolean shouldShed(long queueDelay, long now) {
+        if (queueDelay <= queueTarget) {
+            aboveTargetUntil = 0;
+            return false;
+        }
+        if (aboveTargetUntil == 0) {
+            aboveTargetUntil = now + queueInterval;
+            return false;
+        }
+        return now - aboveTargetUntil >= 0;
+    }
+
+    /**
+     * Completes an admitted request, and adapts the limit to its latency.
+     *
+     * @param latency the time from the admission to the completion of the request, in nanoseconds
+     */
+    public synchronized void release(long latency) {
+        var utilized = inFlight >= limit / 2;
+        inFlight--;
+        latency = Math.max(1, latency);
+        lastLatency = latency;
+        samples++;
+        longLatency = samples == 1 ? latency : longLatency + (latency - longLatency) / Math.min(samples, LONG_WINDOW);
+        if (longLatency / latency > 2) {
+            // the overload is over, its latency must not be the reference anymore
+            longLatency *= 0.95;
+        }
+        var gradient = Math.clamp(tolerance * longLatency / latency, 0.5, 1.0);
+        var newLimit = limit * gradient + Math.sqrt(limit);
+        if (newLimit > limit && !utilized) {
+            return;
+        }
+        limit = Math.clamp(limit * (1 - SMOOTHING) + newLimit * SMOOTHING, minimumLimit, maximumLimit);
+    }
+
+    /**
+     * Completes an admitted request that has been shed, and shrinks the limit.
+     */
+    public synchronized void shed() {
+        inFlight--;
+        shed.increment();
+        limit = Math.max(minimumLimit, limit * 0.9);
+    }
+
+    @Override
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    @Override
+    public synchronized int getInFlightCount() {
+        return inFlight;
+    }
+
+    @Override
+    public long getAcceptedCount() {
+        return accepted.sum();
+    }
+
+    @Override
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    @Override
+    public long getShedCount() {
+        return shed.sum();
+    }
+
+    @Override
+    public synchronized double getLongLatencyMillis() {
+        return longLatency / 1_000_000;
+    }
+
+    @Override
+    public synchronized double getLastLatencyMillis() {
+        return lastLatency / 1_000_000.0;
+    }
+}
@@ -0,0 +1,42 @@
+package io.crunch.download;
+
+/**
+ * The management interface of a {@link ConcurrencyLimiter}, exposing its statistics through JMX.
+ */
+public interface ConcurrencyLimiterMXBean {
+
+    /**
+     * @return the number of requests admitted concurrently at the moment
+     */
+    int getLimit();
+
+    /**
+     * @return the number of admitted requests in progress
+     */
+    int getInFlightCount();
+
+    /**
+     * @return the number of requests that have been admitted
+     */
+    long getAcceptedCount();
+
+    /**
+     * @return the number of requests that have been rejected because the limit was reached
+     */
+    long getRejectedCount();
+
+    /**
+     * @return the number of admitted requests that have been shed because they waited too long for a thread
+     */
+    long getShedCount();
+
+    /**
+     * @return the long-term average latency of the requests, in milliseconds
+     */
+    double getLongLatencyMillis();
+
+    /**
+     * @return the latency of the last completed request, in milliseconds
+     */
+    double getLastLatencyMillis();
+}
@@ -0,0 +1,225 @@
+package io.crunch.download;
+
+import com.aayushatharva.brotli4j.Brotli4jLoader;
+import com.aayushatharva.brotli4j.encoder.BrotliOutputStream;
+import com.aayushatharva.brotli4j.encoder.Encoder;
+import com.github.luben.zstd.ZstdOutputStream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * {@code ContentEncoding} lists the content codings the files are compressed with, in the order of preference of the
+ * precompressed variants when the client accepts several of them with the same quality.
+ * <p>
+ * Every coding compresses with a level chosen by an {@link Effort}: the precompressed variants are compressed once in
+ * the background and sent many times, so they trade the compression time for the bytes sent with the
+ * {@link Effort#MAXIMUM} levels, while the responses compressed on the fly use the cheaper ones.
+ */
+public enum ContentEncoding {
+
+    BROTLI("br", ".br", 1, 4, 11) {
+        @Override
+        public OutputStream compress(OutputStream output, Effort effort) throws IOException {
+            return new BrotliOutputStream(output, new Encoder.Parameters().setQuality(level(effort)));
+        }
+
+        @Override
+        public boolean isAvailable() {
+            return Brotli4jLoader.isAvailable();
+        }
+    },
+
+    ZSTD("zstd", ".zst", 1, 3, 19) {
+        @Override
+        public OutputStream compress(OutputStream output, Effort effort) throws IOException {
+            return new ZstdOutputStream(output, level(effort));
+        }
+    },
+
+    GZIP("gzip", ".gz", Deflater.BEST_SPEED, Deflater.DEFAULT_COMPRESSION, Deflater.BEST_COMPRESSION) {
+        @Override
+        public OutputStream compress(OutputStream output, Effort effort) throws IOException {
+            var level = level(effort);
+            return new GZIPOutputStream(output, 64 * 1024) {
+                {
+                    def.setLevel(level);
+                }
+            };
+        }
+    };
+
+    /**
+     * How much CPU time a compression may spend for a smaller output.
+     */
+    public enum Effort {
+
+        /**
+         * The fastest level of the coding, for the responses compressed on the fly while the server is busy.
+         */
+        FAST,
+
+        /**
+         * The default level of the coding, for the responses compressed on the fly while the server is idle.
+         */
+        BALANCED,
+
+        /**
+         * The highest level of the coding, for the content compressed once and sent many times.
+         */
+        MAXIMUM
+    }
+
+    /**
+     * The name of the coding in the {@code Accept-Encoding} and {@code Content-Encoding} headers.
+     */
+    private final String token;
+
+    /**
+     * The suffix appended to the name of a file to name its variant.
+     */
+    private final String suffix;
+
+    /**
+     * The levels of the coding, by {@link Effort} ordinal.
+     */
+    private final int[] levels;
+
+    ContentEncoding(String token, String suffix, int fast, int balanced, int maximum) {
+        this.token = token;
+        this.suffix = suffix;
+        this.levels = new int[]{fast, balanced, maximum};
+    }
+
+    /**
+     * @return the name of the coding in the {@code Accept-Encoding} and {@code Content-Encoding} headers
+     */
+    public String token() {
+        return token;
+    }
+
+    /**
+     * @return the suffix appended to the name of a file to name its variant
+     */
+    public String suffix() {
+        return suffix;
+    }
+
+    /**
+     * Wraps the given stream into a stream compressing the bytes written to it with the highest level of the coding.
+     *
+     * @param output the stream receiving the compressed bytes, that is closed with the returned stream
+     * @return the compressing stream
+     * @throws IOException if the compressor cannot be created
+     */
+    public OutputStream compress(OutputStream output) throws IOException {
+        return compress(output, Effort.MAXIMUM);
+    }
+
+    /**
+     * Wraps the given stream into a stream compressing the bytes written to it.
+     * <p>
+     * The compressor holds a bounded window and output buffer whatever the length of the content, and passes the
+     * compressed bytes on as they are produced.
+     *
+     * @param output the stream receiving the compressed bytes, that is closed with the returned stream
+     * @param effort the effort that selects the level of the coding
+     * @return the compressing stream
+     * @throws IOException if the compressor cannot be created
+     */
+    public abstract OutputStream compress(OutputStream output, Effort effort) throws IOException;
+
+    /**
+     * @param effort the effort of a compression
+     * @return the level of the coding for the given effort
+     */
+    public int level(Effort effort) {
+        return levels[effort.ordinal()];
+    }
+
+    /**
+     * @return {@code true} if the compressor can be used on this platform
+     */
+    public boolean isAvailable() {
+        return true;
+    }
+
+    /**
+     * Returns whether the given name is the name of a variant of any coding.
+     *
+     * @param fileName the name of a file
+     * @return {@code true} if the name ends with the suffix of a coding
+     */
+    public static boolean isVariant(String fileName) {
+        for (var encoding : values()) {
+            if (fileName.endsWith(encoding.suffix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Selects the coding of the variant to send, from the codings accepted by the client and the available variants.
+     * <p>
+     * The coding with the highest quality value of the {@code Accept-Encoding} header wins, and the iteration order of
+     * the available codings breaks the ties (the order of the constants for an {@link java.util.EnumSet}). A coding accepted with {@code q=0} is never selected, and {@code *} stands for the
+     * codings that are not listed in the header. The identity coding is always acceptable, so it does not need to
+     * be weighed: a client that refuses it with {@code identity;q=0} still gets it when no variant is acceptable.
+     *
+     * @param acceptEncoding the value of the {@code Accept-Encoding} header, or {@code null} if it is absent
+     * @param available      the codings of the variants that can be sent
+     * @return the selected coding, or {@code null} to send the content as it is
+     */
+    public static ContentEncoding negotiate(String acceptEncoding, Collection<ContentEncoding> available) {
+        if (acceptEncoding == null || acceptEncoding.isBlank() || available.isEmpty()) {
+            return null;
+        }
+        var qualities = new HashMap<String, Double>();
+        for (var element : acceptEncoding.split(",")) {
+            var parameters = element.split(";");
+            var coding = parameters[0].trim().toLowerCase(Locale.ROOT);
+            if (!coding.isEmpty()) {
+                qualities.put(coding, quality(parameters));
+            }
+        }
+        ContentEncoding selected = null;
+        var selectedQuality = 0.0;
+        for (var encoding : available) {
+            var quality = quality(qualities, encoding.token);
+            if (quality > selectedQuality) {
+                selected = encoding;
+                selectedQuality = quality;
+            }
+        }
+        return selected;
+    }
+
+    private static double quality(Map<String, Double> qualities, String token) {
+        var quality = qualities.get(token);
+        if (quality == null) {
+            quality = qualities.get("*");
+        }
+        return quality == null ? 0 : quality;
+    }
+
+    private static double quality(String[] parameters) {
+        for (int i = 1; i < parameters.length; i++) {
+            var parameter = parameters[i].trim();
+            if (parameter.startsWith("q=") || parameter.startsWith("Q=")) {
+                try {
+                    return Math.clamp(Double.parseDouble(parameter.substring(2).trim()), 0.0, 1.0);
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+}
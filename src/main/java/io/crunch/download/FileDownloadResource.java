@@ -1,23 +1,47 @@
 package io.crunch.download;
 
+import io.quarkus.runtime.configuration.MemorySize;
 import io.smallrye.common.annotation.RunOnVirtualThread;
 import io.smallrye.mutiny.Multi;
 import io.smallrye.mutiny.Uni;
 import io.vertx.mutiny.core.buffer.Buffer;
+import io.vertx.core.http.HttpVersion;
+import io.vertx.ext.web.RoutingContext;
 import io.vertx.mutiny.core.file.AsyncFile;
+import jakarta.ws.rs.BadRequestException;
+import jakarta.ws.rs.Consumes;
 import jakarta.ws.rs.GET;
 import jakarta.ws.rs.NotFoundException;
+import jakarta.ws.rs.POST;
 import jakarta.ws.rs.Path;
 import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.ServiceUnavailableException;
+import jakarta.ws.rs.WebApplicationException;
+import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.EntityTag;
 import jakarta.ws.rs.core.HttpHeaders;
 import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Request;
+import jakarta.ws.rs.core.Response;
 import jakarta.ws.rs.core.StreamingOutput;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.resteasy.reactive.PathPart;
 import org.jboss.resteasy.reactive.RestPath;
 import org.jboss.resteasy.reactive.RestResponse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.lang.invoke.MethodHandles;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * {@code FileDownloadResource} provides RESTful endpoints for downloading files in various ways.
@@ -28,112 +52,502 @@ import java.lang.invoke.MethodHandles;
  *   <li>RESTEasy Reactive for building non-blocking RESTful APIs.</li>
  *   <li>Vert.x Mutiny APIs for asynchronous file handling.</li>
  * </ul>
+ * Every endpoint supports single range requests: the {@code Range} header is honored with a
+ * {@code 206 Partial Content} response unless the {@code If-Range} validator does not match the file.
+ * The streaming endpoints ({@code asyncMultiBuffer} and {@code stream}) answer requests for multiple ranges
+ * with a {@code multipart/byteranges} body.
+ * <p>
+ * Every response carries the {@code ETag} and {@code Last-Modified} validators of the file, and conditional requests
+ * are answered with {@code 304 Not Modified} before the file is opened.
+ * <p>
+ * The whole content of a file is sent compressed to the clients accepting a content coding: from its precompressed
+ * variant by the {@link PrecompressedVariantFilter} whatever the endpoint, or compressed on the fly by the
+ * {@link StreamingCompressor} by the streaming endpoints ({@code asyncMultiBuffer} and {@code stream}), while the
+ * server is not too busy. A response compressed on the fly carries the weak form of the entity tag of the file.
+ * <p>
+ * Several files are downloaded with one request, as a ZIP archive streamed by the {@link ZipBundleWriter}, or as a
+ * {@code multipart/mixed} body whose parts carry the headers of the files.
+ * <p>
+ * The endpoints loading the whole content into memory ({@code asyncBuffer}, {@code byteArray} and
+ * {@code byteArrayVirtual}) reserve its size from the {@link InFlightBytesBudget} first, and stream the content, wait
+ * or answer {@code 503 Service Unavailable} when it does not fit.
+ * <p>
+ * The streamed content ({@code asyncFile}, {@code asyncMultiBuffer}, {@code sendFile}, {@code stream}, the bundles and
+ * the batches) is sent at the pace the {@link BandwidthShaper} allows the client and its tenant.
+ * <p>
+ * The {@code auto} endpoint chooses one of the {@code asyncBuffer}, {@code sendFile} and {@code asyncFile} strategies
+ * for every request with the {@link StrategySelector}.
  */
 @Path("/download")
 public class FileDownloadResource {
 
+    /**
+     * The maximum number of ranges served in a single {@code multipart/byteranges} response.
+     */
+    private static final int MAX_RANGES = 32;
+
+    private static final String RANGE = "Range";
+
+    private static final String IF_RANGE = "If-Range";
+
+    private static final String ACCEPT_RANGES = "Accept-Ranges";
+
+    private static final String CONTENT_RANGE = "Content-Range";
+
+    private static final String VARY = "Vary";
+
+    private static final String CONTENT_DISPOSITION = "Content-Disposition";
+
     private final Logger logger = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
 
     private final FileStore fileStore;
 
-    public FileDownloadResource(FileStore fileStore) {
+    private final WriteCoalescer writeCoalescer;
+
+    private final StreamingCompressor compressor;
+
+    private final ZipBundleWriter bundleWriter;
+
+    private final InFlightBytesBudget memoryBudget;
+
+    private final BandwidthShaper shaper;
+
+    private final StrategySelector strategySelector;
+
+    /**
+     * Whether the asynchronous endpoints read the content into pooled direct buffers instead of heap buffers.
+     */
+    private final boolean pooledBuffers;
+
+    /**
+     * Whether the responses depend on the {@code Accept-Encoding} header, which the caches are told with {@code Vary}.
+     */
+    private final boolean varyOnEncoding;
+
+    /**
+     * The maximum number of files of a bundle.
+     */
+    private final int maxBundleFiles;
+
+    /**
+     * The maximum number of files of a batch.
+     */
+    private final int maxBatchFiles;
+
+    /**
+     * The number of parts of a batch read ahead of the part being sent.
+     */
+    private final int batchPrefetch;
+
+    /**
+     * The size up to which the parts of a batch are read ahead, the larger parts are streamed when they are sent.
+     */
+    private final long batchPrefetchMaxSize;
+
+    public FileDownloadResource(FileStore fileStore,
+                                WriteCoalescer writeCoalescer,
+                                StreamingCompressor compressor,
+                                PrecompressedVariants variants,
+                                ZipBundleWriter bundleWriter,
+                                InFlightBytesBudget memoryBudget,
+                                BandwidthShaper shaper,
+                                StrategySelector strategySelector,
+                                @ConfigProperty(name = "app.download.async.pooled-buffers", defaultValue = "false") boolean pooledBuffers,
+                                @ConfigProperty(name = "app.download.bundle.max-files", defaultValue = "1000") int maxBundleFiles,
+                                @ConfigProperty(name = "app.download.batch.max-files", defaultValue = "1000") int maxBatchFiles,
+                                @ConfigProperty(name = "app.download.batch.prefetch", defaultValue = "8") int batchPrefetch,
+                                @ConfigProperty(name = "app.download.batch.prefetch-max-size", defaultValue = "256K") MemorySize batchPrefetchMaxSize) {
         this.fileStore = fileStore;
+        this.writeCoalescer = writeCoalescer;
+        this.compressor = compressor;
+        this.bundleWriter = bundleWriter;
+        this.memoryBudget = memoryBudget;
+        this.shaper = shaper;
+        this.strategySelector = strategySelector;
+        this.pooledBuffers = pooledBuffers;
+        this.maxBundleFiles = maxBundleFiles;
+        this.maxBatchFiles = maxBatchFiles;
+        this.batchPrefetch = Math.max(0, batchPrefetch);
+        this.batchPrefetchMaxSize = batchPrefetchMaxSize.asLongValue();
+        this.varyOnEncoding = compressor.isEnabled() || variants.isEnabled();
     }
 
     /**
      * Endpoint to download a file as an {@link AsyncFile}.
      *
      * @param fileName the name of the file to download
+     * @param headers  the request headers used for range selection
+     * @param request  the request used to evaluate the conditional headers
      * @return a {@link Uni} emitting a {@link RestResponse} containing the {@link AsyncFile}
      * @apiNote The call is executed on the event loop thread.
      */
     @Path("/asyncFile/{name}")
     @GET
     @Produces(MediaType.APPLICATION_OCTET_STREAM)
-    public Uni<RestResponse<AsyncFile>> downloadAsyncFile(@RestPath("name") String fileName) {
+    public Uni<RestResponse<AsyncFile>> downloadAsyncFile(@RestPath("name") String fileName, @Context HttpHeaders headers, @Context Request request) {
         logger.info("asyncFile [{}]", fileName);
-        return fileStore.getAsyncFile(fileName)
+        var throttle = shaper.throttle();
+        return getMetadata(fileName)
             .onItem()
-            .transform(asyncFile -> RestResponse.ResponseBuilder.ok(asyncFile, "application/pdf").build());
+            .transformToUni(metadata -> {
+                evaluatePreconditions(request, metadata);
+                var range = selectRange(headers, metadata);
+                return (range == null ? fileStore.getAsyncFile(fileName) : fileStore.getAsyncFile(fileName, range))
+                    .onItem()
+                    .transform(asyncFile -> respond(throttle.shape(asyncFile), metadata, range).type("application/pdf").build());
+            });
     }
 
     /**
-     * Endpoint to download a file as a Vert.x {@link Buffer} asynchronously.
+     * Endpoint to download a file loaded into memory asynchronously.
+     * <p>
+     * The whole file is held in a {@link PooledBuffer} of pooled direct memory, that is written to the response
+     * without being copied into the Java heap. A range is read into pooled direct memory too when
+     * {@code app.download.async.pooled-buffers} is enabled, and into a heap buffer otherwise.
+     * <p>
+     * The content is loaded once its size has been reserved from the {@link InFlightBytesBudget}. When it does not fit,
+     * it is sent as an {@link AsyncFile} instead, as the {@code asyncFile} endpoint does, or rejected, as the overflow
+     * policy says.
      *
      * @param fileName the name of the file to download
-     * @return a {@link Uni} emitting a {@link RestResponse} containing the file's content as a {@link Buffer}
+     * @param headers  the request headers used for range selection
+     * @param request  the request used to evaluate the conditional headers
+     * @param context  the routing context, whose end releases the reservation
+     * @return a {@link Uni} emitting a {@link RestResponse} containing the file's content as a {@link PooledBuffer},
+     * or as an {@link AsyncFile} if it overflows the budget
      * @apiNote The call is executed on the event loop thread.
      */
     @Path("/asyncBuffer/{name}")
     @GET
     @Produces(MediaType.APPLICATION_OCTET_STREAM)
-    public Uni<RestResponse<Buffer>> downloadAsyncBuffer(@RestPath("name") String fileName) {
+    public Uni<RestResponse<Object>> downloadAsyncBuffer(@RestPath("name") String fileName, @Context HttpHeaders headers,
+                                                         @Context Request request, @Context RoutingContext context) {
         logger.info("asyncBuffer [{}]", fileName);
-        return fileStore.getBuffer(fileName)
+        var throttle = shaper.throttle();
+        return getMetadata(fileName)
+            .onItem()
+            .transformToUni(metadata -> {
+                evaluatePreconditions(request, metadata);
+                var range = selectRange(headers, metadata);
+                return memoryBudget.reserve(range == null ? metadata.size() : range.length())
+                    .onItem()
+                    .transformToUni(reservation -> {
+                        if (reservation == null) {
+                            return overflowAsyncFile(fileName, metadata, range, throttle);
+                        }
+                        reservation.releaseOnEnd(context);
+                        return getPooledBuffer(fileName, range)
+                            .onItem()
+                            .transform(b -> respond((Object) b, metadata, range).type("application/pdf").build());
+                    });
+            });
+    }
+
+    /**
+     * Answers a download that overflows the {@link InFlightBytesBudget} with an {@link AsyncFile} paced by the given
+     * throttle, or rejects it.
+     */
+    private Uni<RestResponse<Object>> overflowAsyncFile(String fileName, FileMetadata metadata, ByteRange range, BandwidthShaper.Throttle throttle) {
+        if (memoryBudget.overflow() != InFlightBytesBudget.Overflow.STREAM) {
+            return Uni.createFrom().failure(overloaded());
+        }
+        return (range == null ? fileStore.getAsyncFile(fileName) : fileStore.getAsyncFile(fileName, range))
             .onItem()
-            .transform(b -> RestResponse.ResponseBuilder.ok(b).build());
+            .transform(asyncFile -> respond((Object) throttle.shape(asyncFile), metadata, range).type("application/pdf").build());
     }
 
     /**
      * Endpoint to download a file as a {@link Multi} of {@link Buffer} instances asynchronously.
+     * <p>
+     * The status and the headers are resolved from the file's metadata before the first {@link Buffer} is emitted,
+     * and the buffers are coalesced into larger writes by the {@link WriteCoalescer}. The whole content is compressed
+     * by the {@link StreamingCompressor} before it is coalesced, if the client accepts it. When
+     * {@code app.download.async.pooled-buffers} is enabled, the content is read into {@link PooledBuffer}s of pooled
+     * direct memory instead, that are released as soon as they have been written, and sent as it is.
+     * <p>
+     * The stream is returned as a {@link PooledBufferStream}, that the {@link PooledBufferStreamMessageBodyWriter}
+     * writes to the response buffer by buffer: Quarkus REST would serialize every item of a streamed {@link Multi}
+     * into a new byte array. The response carries the {@code Content-Length} of the content, unless it is compressed.
      *
      * @param fileName the name of the file to download
-     * @return a {@link Multi} emitting the file's content as a stream of {@link Buffer} instances
+     * @param headers  the request headers used for range selection
+     * @param request  the request used to evaluate the conditional headers
+     * @return a {@link Uni} emitting a {@link RestResponse} containing the file's content as a {@link PooledBufferStream}
      * @apiNote The call is executed on the event loop thread.
      */
     @Path("/asyncMultiBuffer/{name}")
     @GET
     @Produces(MediaType.APPLICATION_OCTET_STREAM)
-    public Multi<Buffer> downloadAsyncMultiBuffer(@RestPath("name") String fileName) {
+    public Uni<RestResponse<PooledBufferStream>> downloadAsyncMultiBuffer(@RestPath("name") String fileName, @Context HttpHeaders headers, @Context Request request) {
         logger.info("asyncMultiBuffer [{}]", fileName);
-        return fileStore.getMultiBuffer(fileName);
+        var throttle = shaper.throttle();
+        return pooledBuffers ? pooledMultiBufferResponse(fileName, headers, request, throttle) : multiBufferResponse(fileName, headers, request, throttle);
+    }
+
+    private Uni<RestResponse<PooledBufferStream>> multiBufferResponse(String fileName, HttpHeaders headers, Request request, BandwidthShaper.Throttle throttle) {
+        return getMetadata(fileName)
+            .onItem()
+            .transform(metadata -> {
+                evaluatePreconditions(request, metadata);
+                var ranges = selectRanges(headers, metadata);
+                if (ranges.size() > 1) {
+                    var multipart = new MultipartByteRanges("application/pdf", metadata.size(), ranges);
+                    var content = Multi.createBy().concatenating().streams(
+                        fileStore.getMultiBuffer(fileName, multipart.ranges(), multipart::delimiter),
+                        Multi.createFrom().item(() -> Buffer.buffer(multipart.closeDelimiter())));
+                    return respondMultipart(stream(throttle.shape(writeCoalescer.coalesce(content))), metadata, multipart)
+                        .header(HttpHeaders.CONTENT_LENGTH, multipart.contentLength())
+                        .build();
+                }
+                var range = ranges.isEmpty() ? null : ranges.getFirst();
+                var content = range == null ? fileStore.getMultiBuffer(fileName) : fileStore.getMultiBuffer(fileName, range);
+                var compression = range == null ? selectCompression(fileName, headers, metadata) : null;
+                if (compression != null) {
+                    evaluateIfNoneMatch(headers, metadata);
+                    return respondCompressed(stream(throttle.shape(writeCoalescer.coalesce(compressor.compress(content, compression)))), metadata, compression).build();
+                }
+                return respond(stream(throttle.shape(writeCoalescer.coalesce(content))), metadata, range)
+                    .header(HttpHeaders.CONTENT_LENGTH, range == null ? metadata.size() : range.length())
+                    .build();
+            });
+    }
+
+    private Uni<RestResponse<PooledBufferStream>> pooledMultiBufferResponse(String fileName, HttpHeaders headers, Request request, BandwidthShaper.Throttle throttle) {
+        return getMetadata(fileName)
+            .onItem()
+            .transform(metadata -> {
+                evaluatePreconditions(request, metadata);
+                var ranges = selectRanges(headers, metadata);
+                if (ranges.size() > 1) {
+                    var multipart = new MultipartByteRanges("application/pdf", metadata.size(), ranges);
+                    var content = Multi.createBy().concatenating().streams(
+                        fileStore.getPooledMultiBuffer(fileName, multipart.ranges(), multipart::delimiter),
+                        Multi.createFrom().item(() -> PooledBuffer.wrap(multipart.closeDelimiter())));
+                    return respondMultipart(new PooledBufferStream(throttle.shapePooled(writeCoalescer.coalescePooled(content))), metadata, multipart)
+                        .header(HttpHeaders.CONTENT_LENGTH, multipart.contentLength())
+                        .build();
+                }
+                var range = ranges.isEmpty() ? null : ranges.getFirst();
+                var content = range == null ? fileStore.getPooledMultiBuffer(fileName) : fileStore.getPooledMultiBuffer(fileName, range);
+                return respond(new PooledBufferStream(throttle.shapePooled(writeCoalescer.coalescePooled(content))), metadata, range)
+                    .header(HttpHeaders.CONTENT_LENGTH, range == null ? metadata.size() : range.length())
+                    .build();
+            });
+    }
+
+    /**
+     * Wraps a stream of Vert.x buffers into the entity written by the {@link PooledBufferStreamMessageBodyWriter},
+     * without copying their content.
+     */
+    private static PooledBufferStream stream(Multi<Buffer> content) {
+        return new PooledBufferStream(content.map(PooledBuffer::of));
+    }
+
+    /**
+     * Endpoint to download a file with zero-copy transfer.
+     * <p>
+     * The file is resolved to a {@link FileRegion} that is handed over to Vert.x {@code HttpServerResponse.sendFile},
+     * so the content is transferred by the kernel ({@code sendfile}) and never copied through the JVM heap.
+     * <p>
+     * A file region is written at once, so the downloads shaped by the {@link BandwidthShaper} are sent as an
+     * {@link AsyncFile} paced by the shaper instead.
+     *
+     * @param fileName the name of the file to download
+     * @param headers  the request headers used for range selection
+     * @param request  the request used to evaluate the conditional headers
+     * @return a {@link Uni} emitting a {@link RestResponse} containing the {@link PathPart} of the file, or an
+     * {@link AsyncFile} if the download is shaped
+     * @apiNote The call is executed on the event loop thread.
+     */
+    @Path("/sendFile/{name}")
+    @GET
+    @Produces(MediaType.APPLICATION_OCTET_STREAM)
+    public Uni<RestResponse<Object>> downloadSendFile(@RestPath("name") String fileName, @Context HttpHeaders headers, @Context Request request) {
+        logger.info("sendFile [{}]", fileName);
+        var throttle = shaper.throttle();
+        return getMetadata(fileName)
+            .onItem()
+            .transformToUni(metadata -> {
+                evaluatePreconditions(request, metadata);
+                var range = selectRange(headers, metadata);
+                if (throttle.isShaping()) {
+                    return (range == null ? fileStore.getAsyncFile(fileName) : fileStore.getAsyncFile(fileName, range))
+                        .onItem()
+                        .transform(asyncFile -> respond((Object) throttle.shape(asyncFile), metadata, range).type("application/pdf").build());
+                }
+                return fileRegionResponse(fileName, metadata, range);
+            });
+    }
+
+    /**
+     * Answers a download with the {@link PathPart} of the requested file, or of the given range of it.
+     */
+    private Uni<RestResponse<Object>> fileRegionResponse(String fileName, FileMetadata metadata, ByteRange range) {
+        return fileStore.getFileRegion(fileName)
+            .onFailure(FileStore::isNoSuchFile)
+            .transform(e -> new NotFoundException("File not found"))
+            .onItem()
+            .transform(region -> {
+                var part = range == null ? region : region.slice(range);
+                var pathPart = new PathPart(part.path(), part.offset(), part.length());
+                return respond((Object) pathPart, metadata, range).type("application/pdf").build();
+            });
+    }
+
+    /**
+     * Endpoint to download a file with the strategy that suits the file and the current load of the server.
+     * <p>
+     * The {@link StrategySelector} chooses between the strategies of the {@code asyncBuffer}, {@code sendFile} and
+     * {@code asyncFile} endpoints from the size of the content, whether the file is cached, the reservations of the
+     * {@link InFlightBytesBudget} and the lag of the event loop: the small and the cached files are sent from memory,
+     * the others with the kernel {@code sendfile}, or streamed when the connection cannot transfer them without a
+     * copy, when the download is paced by the {@link BandwidthShaper}, or under memory pressure. The chosen strategies
+     * are counted by the {@code io.crunch.download:type=StrategySelector} MBean.
+     *
+     * @param fileName the name of the file to download
+     * @param headers  the request headers used for range selection
+     * @param request  the request used to evaluate the conditional headers
+     * @param context  the routing context, whose end releases the reservation of an in-memory download
+     * @return a {@link Uni} emitting a {@link RestResponse} containing the file's content as a {@link PooledBuffer},
+     * a {@link PathPart} or an {@link AsyncFile}
+     * @apiNote The call is executed on the event loop thread.
+     */
+    @Path("/auto/{name}")
+    @GET
+    @Produces(MediaType.APPLICATION_OCTET_STREAM)
+    public Uni<RestResponse<Object>> downloadAuto(@RestPath("name") String fileName, @Context HttpHeaders headers,
+                                                  @Context Request request, @Context RoutingContext context) {
+        logger.info("auto [{}]", fileName);
+        var throttle = shaper.throttle();
+        return getMetadata(fileName)
+            .onItem()
+            .transformToUni(metadata -> {
+                evaluatePreconditions(request, metadata);
+                var range = selectRange(headers, metadata);
+                var cached = range == null && fileStore.isCached(fileName, metadata);
+                var zeroCopy = !context.request().isSSL() && context.request().version() != HttpVersion.HTTP_2;
+                var choice = strategySelector.select(range == null ? metadata.size() : range.length(), cached, zeroCopy, throttle.isShaping());
+                return switch (choice.strategy()) {
+                    case ASYNC_BUFFER -> {
+                        choice.reservation().releaseOnEnd(context);
+                        yield getPooledBuffer(fileName, range)
+                            .onItem()
+                            .transform(b -> respond((Object) b, metadata, range).type("application/pdf").build());
+                    }
+                    case SEND_FILE -> fileRegionResponse(fileName, metadata, range);
+                    case ASYNC_FILE -> (range == null ? fileStore.getAsyncFile(fileName) : fileStore.getAsyncFile(fileName, range))
+                        .onItem()
+                        .transform(asyncFile -> respond((Object) throttle.shape(asyncFile), metadata, range).type("application/pdf").build());
+                };
+            });
     }
 
     /**
      * Endpoint to download a file as a streaming output.
      * <p>
-     * This method uses blocking I/O to stream the file content directly to the HTTP response.
+     * This method uses blocking I/O to stream the file content directly to the HTTP response, that is flushed
+     * only at the end or on the latency deadline of the {@link WriteCoalescer}. The whole content is compressed by
+     * the {@link StreamingCompressor} as it is written, if the client accepts it.
      *
      * @param fileName the name of the file to download
+     * @param headers  the request headers used for range selection
+     * @param request  the request used to evaluate the conditional headers
      * @return a {@link RestResponse} containing a {@link StreamingOutput} for the file's content
      * @apiNote The call is executed on worker thread pool to avoid blocking the event loop (limit concurrency).
      */
     @Path("/stream/{name}")
     @GET
     @Produces(MediaType.APPLICATION_OCTET_STREAM)
-    public RestResponse<StreamingOutput> downloadStream(@RestPath("name") String fileName) {
+    public RestResponse<StreamingOutput> downloadStream(@RestPath("name") String fileName, @Context HttpHeaders headers, @Context Request request) {
         logger.info("stream [{}]", fileName);
-        try {
-            StreamingOutput streamingOutput = output -> fileStore.writeContent(fileName, output);
-            return RestResponse.ResponseBuilder.ok(streamingOutput, "application/pdf")
-                    .header(HttpHeaders.CONTENT_LENGTH, fileStore.getFileSize(fileName))
+        var throttle = shaper.throttle();
+        var metadata = getMetadata(fileName).await().indefinitely();
+        evaluatePreconditions(request, metadata);
+        var ranges = selectRanges(headers, metadata);
+        if (ranges.size() > 1) {
+            var multipart = new MultipartByteRanges("application/pdf", metadata.size(), ranges);
+            StreamingOutput streamingOutput = output -> {
+                try (var coalesced = writeCoalescer.wrap(throttle.wrap(output))) {
+                    fileStore.writeContent(fileName, multipart.ranges(), multipart::delimiter, coalesced);
+                    coalesced.write(multipart.closeDelimiter());
+                }
+            };
+            return respondMultipart(streamingOutput, metadata, multipart)
+                    .header(HttpHeaders.CONTENT_LENGTH, multipart.contentLength())
+                    .build();
+        }
+        var range = ranges.isEmpty() ? null : ranges.getFirst();
+        var compression = range == null ? selectCompression(fileName, headers, metadata) : null;
+        if (compression != null) {
+            evaluateIfNoneMatch(headers, metadata);
+            StreamingOutput streamingOutput = output -> {
+                try (var coalesced = writeCoalescer.wrap(throttle.wrap(output)); var compressed = compressor.wrap(coalesced, compression)) {
+                    fileStore.writeContent(fileName, compressed);
+                }
+            };
+            return respondCompressed(streamingOutput, metadata, compression)
+                    .type("application/pdf")
                     .build();
-        } catch (Exception e) {
-            throw new NotFoundException("File not found");
         }
+        return streamResponse(fileName, metadata, range, throttle);
+    }
+
+    /**
+     * Streams the requested file, or the given range of it, as it is, at the rate of the given throttle.
+     */
+    private <T> RestResponse<T> streamResponse(String fileName, FileMetadata metadata, ByteRange range, BandwidthShaper.Throttle throttle) {
+        StreamingOutput streamingOutput = output -> {
+            try (var coalesced = writeCoalescer.wrap(throttle.wrap(output))) {
+                if (range == null) {
+                    fileStore.writeContent(fileName, coalesced);
+                } else {
+                    fileStore.writeContent(fileName, range, coalesced);
+                }
+            }
+        };
+        @SuppressWarnings("unchecked")
+        var response = (RestResponse<T>) respond(streamingOutput, metadata, range)
+                .type("application/pdf")
+                .header(HttpHeaders.CONTENT_LENGTH, range == null ? metadata.size() : range.length())
+                .build();
+        return response;
     }
 
     /**
      * Endpoint to download a file as a byte array using blocking I/O.
+     * <p>
+     * The content is loaded once its size has been reserved from the {@link InFlightBytesBudget}. When it does not fit,
+     * it is streamed instead, as the {@code stream} endpoint does, or rejected, as the overflow policy says.
      *
      * @param fileName the name of the file to download
-     * @return a {@link RestResponse} containing the file's byte array
+     * @param headers  the request headers used for range selection
+     * @param request  the request used to evaluate the conditional headers
+     * @param context  the routing context, whose end releases the reservation
+     * @return a {@link RestResponse} containing the file's byte array, or a {@link StreamingOutput} if it overflows the
+     * budget
      * @apiNote The call is executed on worker thread pool to avoid blocking the event loop (limit concurrency).
      */
     @Path("/byteArray/{name}")
     @GET
     @Produces(MediaType.APPLICATION_OCTET_STREAM)
-    public RestResponse<byte[]> downloadByteArray(@RestPath("name") String fileName) {
+    public RestResponse<Object> downloadByteArray(@RestPath("name") String fileName, @Context HttpHeaders headers,
+                                                  @Context Request request, @Context RoutingContext context) {
         logger.info("byteArray [{}]", fileName);
-        return RestResponse.ResponseBuilder.ok(fileStore.getByteArray(fileName))
-                .header(HttpHeaders.CONTENT_LENGTH, fileStore.getFileSize(fileName)).build();
+        return byteArrayResponse(fileName, headers, request, context);
     }
 
     /**
      * Endpoint to download a file as a byte array using virtual threads.
+     * <p>
+     * The content is loaded once its size has been reserved from the {@link InFlightBytesBudget}, as with the
+     * {@code byteArray} endpoint.
      *
      * @param fileName the name of the file to download
-     * @return a {@link RestResponse} containing the file's byte array
+     * @param headers  the request headers used for range selection
+     * @param request  the request used to evaluate the conditional headers
+     * @param context  the routing context, whose end releases the reservation
+     * @return a {@link RestResponse} containing the file's byte array, or a {@link StreamingOutput} if it overflows the
+     * budget
      * @apiNote This method runs on a virtual thread to handle blocking I/O efficiently, but risk of pinning, monopolization and under-efficient object pooling
      * @see RunOnVirtualThread
      */
@@ -141,9 +555,394 @@ public class FileDownloadResource {
     @GET
     @Produces(MediaType.APPLICATION_OCTET_STREAM)
     @RunOnVirtualThread
-    public RestResponse<byte[]> downloadByteArrayVirtual(@RestPath("name") String fileName) {
+    public RestResponse<Object> downloadByteArrayVirtual(@RestPath("name") String fileName, @Context HttpHeaders headers,
+                                                         @Context Request request, @Context RoutingContext context) {
         logger.info("byteArrayVirtual [{}]", fileName);
-        return RestResponse.ResponseBuilder.ok(fileStore.getByteArray(fileName))
-                .header(HttpHeaders.CONTENT_LENGTH, fileStore.getFileSize(fileName)).build();
+        return byteArrayResponse(fileName, headers, request, context);
+    }
+
+    /**
+     * Endpoint to download several files as a ZIP archive.
+     * <p>
+     * The files are stored in the archive as they are, in the requested order, and the archive is streamed by the
+     * {@link ZipBundleWriter} while it is built, through the {@link WriteCoalescer}. The metadata of every file is
+     * resolved before the response is started, so a missing file is answered with {@code 404 Not Found} rather than
+     * with a truncated archive. Names repeated in the request are stored once.
+     *
+     * @param fileNames the names of the files to download, as a JSON array
+     * @return a {@link RestResponse} containing a {@link StreamingOutput} for the archive
+     * @throws BadRequestException if no file, too many files, or an invalid file name is requested
+     * @apiNote The call is executed on worker thread pool to avoid blocking the event loop (limit concurrency).
+     */
+    @Path("/bundle")
+    @POST
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces("application/zip")
+    public RestResponse<StreamingOutput> downloadBundle(List<String> fileNames) {
+        logger.info("bundle [{} files]", fileNames == null ? 0 : fileNames.size());
+        var names = selectFiles(fileNames, maxBundleFiles);
+        var metadata = Uni.join()
+            .all(names.stream().map(this::getMetadata).toList())
+            .andFailFast()
+            .await()
+            .indefinitely();
+        var bundle = new ArrayList<ZipBundleWriter.Entry>(names.size());
+        for (int i = 0; i < names.size(); i++) {
+            bundle.add(new ZipBundleWriter.Entry(names.get(i), metadata.get(i)));
+        }
+        var throttle = shaper.throttle();
+        StreamingOutput streamingOutput = output -> {
+            try (var coalesced = writeCoalescer.wrap(throttle.wrap(output))) {
+                bundleWriter.write(bundle, coalesced);
+            }
+        };
+        return RestResponse.ResponseBuilder.ok(streamingOutput)
+                .header(CONTENT_DISPOSITION, "attachment; filename=\"bundle.zip\"")
+                .build();
+    }
+
+    /**
+     * Endpoint to download several files as a {@code multipart/mixed} body.
+     * <p>
+     * Every part carries the {@code Content-Type}, {@code Content-Length}, {@code ETag} and {@code Last-Modified}
+     * headers of its file, and the parts follow the requested order. The parts up to
+     * {@code app.download.batch.prefetch-max-size} are read whole, {@code app.download.batch.prefetch} parts ahead of
+     * the part being sent, so the many small files of a batch are not read one after the other; the larger parts are
+     * streamed from the {@link FileStore} when they are sent. The delimiters and the parts are coalesced into larger
+     * writes by the {@link WriteCoalescer}. The metadata of every file is resolved before the response is started, so
+     * a missing file is answered with {@code 404 Not Found}, and the length of the body is known before it starts.
+     * Names repeated in the request are sent once.
+     *
+     * @param fileNames the names of the files to download, as a JSON array
+     * @return a {@link Uni} emitting the response, whose body streams the parts with their {@code Content-Length}
+     * @throws BadRequestException if no file, too many files, or an invalid file name is requested
+     * @apiNote The call is executed on the event loop thread.
+     */
+    @Path("/batch")
+    @POST
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces("multipart/mixed")
+    public Uni<RestResponse<PooledBufferStream>> downloadBatch(List<String> fileNames) {
+        logger.info("batch [{} files]", fileNames == null ? 0 : fileNames.size());
+        var names = selectFiles(fileNames, maxBatchFiles);
+        var throttle = shaper.throttle();
+        return Uni.join()
+            .all(names.stream().map(this::getMetadata).toList())
+            .andFailFast()
+            .onItem()
+            .transform(metadata -> {
+                var parts = new ArrayList<MultipartBatch.Part>(names.size());
+                for (int i = 0; i < names.size(); i++) {
+                    parts.add(new MultipartBatch.Part(names.get(i), metadata.get(i)));
+                }
+                var batch = new MultipartBatch("application/pdf", parts);
+                return RestResponse.ResponseBuilder.ok(stream(throttle.shape(writeCoalescer.coalesce(batchContent(batch)))))
+                    .type(batch.mediaType())
+                    .header(HttpHeaders.CONTENT_LENGTH, batch.contentLength())
+                    .build();
+            });
+    }
+
+    /**
+     * Streams the body of a batch.
+     * <p>
+     * When a part is reached, the small parts among the next {@code app.download.batch.prefetch} ones start being
+     * read into memory, and are emitted in their turn. The parts are reached one after the other, so the state of the
+     * read-ahead is confined to the stream and bounds the memory of a response to the prefetched parts. A prefetched
+     * part reserves its size from the {@link InFlightBytesBudget} until it has been emitted, so the prefetches of all
+     * the batches are bounded together with the downloads held in memory; a part that does not fit is streamed
+     * instead, without waiting for the budget. The reservations left when the stream ends are released with it.
+     */
+    private Multi<Buffer> batchContent(MultipartBatch batch) {
+        var parts = batch.parts();
+        var prefetched = new ArrayList<Uni<Buffer>>(Collections.nCopies(parts.size(), null));
+        var reservations = new AtomicReferenceArray<InFlightBytesBudget.Reservation>(parts.size());
+        var next = new int[1];
+        var content = Multi.createFrom().range(0, parts.size())
+            .onItem()
+            .transformToMultiAndConcatenate(index -> {
+                for (; next[0] < parts.size() && next[0] <= index + batchPrefetch; next[0]++) {
+                    var part = parts.get(next[0]);
+                    if (part.metadata().size() <= batchPrefetchMaxSize) {
+                        var reservation = memoryBudget.tryReserve(part.metadata().size());
+                        if (reservation != null) {
+                            reservations.set(next[0], reservation);
+                            var buffer = fileStore.getBuffer(part.fileName()).memoize().indefinitely();
+                            buffer.subscribe().with(ignored -> { }, ignored -> { });
+                            prefetched.set(next[0], buffer);
+                        }
+                    }
+                }
+                var part = parts.get(index);
+                var buffer = prefetched.set(index, null);
+                return Multi.createBy().concatenating().streams(
+                    Multi.createFrom().item(() -> Buffer.buffer(batch.delimiter(part))),
+                    buffer == null
+                        ? fileStore.getMultiBuffer(part.fileName())
+                        : buffer.toMulti().onTermination().invoke(() -> release(reservations, index)));
+            });
+        return Multi.createBy().concatenating().streams(
+                content,
+                Multi.createFrom().item(() -> Buffer.buffer(batch.closeDelimiter())))
+            .onTermination().invoke(() -> {
+                for (var index = 0; index < reservations.length(); index++) {
+                    release(reservations, index);
+                }
+            });
+    }
+
+    private static void release(AtomicReferenceArray<InFlightBytesBudget.Reservation> reservations, int index) {
+        var reservation = reservations.getAndSet(index, null);
+        if (reservation != null) {
+            reservation.close();
+        }
+    }
+
+    private RestResponse<Object> byteArrayResponse(String fileName, HttpHeaders headers, Request request, RoutingContext context) {
+        var metadata = getMetadata(fileName).await().indefinitely();
+        evaluatePreconditions(request, metadata);
+        var range = selectRange(headers, metadata);
+        // a queued reservation parks the thread until it is granted or expires
+        var reservation = memoryBudget.reserve(range == null ? metadata.size() : range.length()).await().indefinitely();
+        if (reservation == null) {
+            if (memoryBudget.overflow() != InFlightBytesBudget.Overflow.STREAM) {
+                throw overloaded();
+            }
+            return streamResponse(fileName, metadata, range, shaper.throttle());
+        }
+        reservation.releaseOnEnd(context);
+        var content = range == null ? fileStore.getByteArray(fileName) : fileStore.getByteArray(fileName, range);
+        return respond((Object) content, metadata, range)
+                .header(HttpHeaders.CONTENT_LENGTH, content.length)
+                .build();
+    }
+
+    /**
+     * Returns the rejection of a download that overflows the {@link InFlightBytesBudget}.
+     */
+    private static ServiceUnavailableException overloaded() {
+        return new ServiceUnavailableException(1L);
+    }
+
+    /**
+     * Reads the requested file, or the given range of it, into a {@link PooledBuffer}.
+     *
+     * @param fileName the name of the requested file
+     * @param range    the range to read, or {@code null} to read the whole file
+     * @return a {@link Uni} emitting the content
+     */
+    private Uni<PooledBuffer> getPooledBuffer(String fileName, ByteRange range) {
+        if (range == null) {
+            return fileStore.getPooledBuffer(fileName);
+        }
+        return pooledBuffers ? fileStore.getPooledBuffer(fileName, range) : fileStore.getBuffer(fileName, range).map(PooledBuffer::of);
+    }
+
+    /**
+     * Selects the compression of the whole content of the requested file, from the {@code Accept-Encoding} header.
+     *
+     * @param fileName the name of the requested file
+     * @param headers  the request headers
+     * @param metadata the metadata of the requested file
+     * @return the compression of the response, or {@code null} if the content should be sent as it is
+     */
+    private StreamingCompressor.Compression selectCompression(String fileName, HttpHeaders headers, FileMetadata metadata) {
+        return compressor.select(fileName, metadata, headers.getHeaderString(HttpHeaders.ACCEPT_ENCODING));
+    }
+
+    /**
+     * Validates the names of the files requested in a bundle or a batch.
+     * <p>
+     * A name is the name of a file of the root folder, as in the paths of the other endpoints, so names with a path
+     * separator or naming the folder itself are rejected, and so are the names with control characters, that would
+     * break the headers of the parts of a batch.
+     *
+     * @param fileNames the requested names
+     * @param maxFiles  the maximum number of requested names
+     * @return the distinct names, in the requested order
+     * @throws BadRequestException if no file, more than {@code maxFiles} files, or an invalid file name is requested
+     */
+    private static List<String> selectFiles(List<String> fileNames, int maxFiles) {
+        if (fileNames == null || fileNames.isEmpty()) {
+            throw new BadRequestException("No file requested");
+        }
+        if (fileNames.size() > maxFiles) {
+            throw new BadRequestException("Too many files requested");
+        }
+        var names = new LinkedHashSet<String>();
+        for (var fileName : fileNames) {
+            if (fileName == null || fileName.isBlank() || fileName.equals(".") || fileName.equals("..")
+                || fileName.indexOf('/') >= 0 || fileName.indexOf('\\') >= 0 || fileName.chars().anyMatch(Character::isISOControl)) {
+                throw new BadRequestException("Invalid file name");
+            }
+            names.add(fileName);
+        }
+        return List.copyOf(names);
+    }
+
+    /**
+     * Retrieves the metadata of the requested file, failing with a {@link NotFoundException} if it does not exist.
+     *
+     * @param fileName the name of the requested file
+     * @return a {@link Uni} emitting the metadata of the file
+     */
+    private Uni<FileMetadata> getMetadata(String fileName) {
+        return fileStore.getMetadata(fileName)
+            .onFailure(FileStore::isNoSuchFile)
+            .transform(e -> new NotFoundException("File not found"));
+    }
+
+    /**
+     * Evaluates the conditional request headers ({@code If-None-Match}, {@code If-Modified-Since}, {@code If-Match}
+     * and {@code If-Unmodified-Since}) against the validators of the file.
+     * <p>
+     * The validators are derived from the file's metadata, so a {@code 304 Not Modified} or a
+     * {@code 412 Precondition Failed} response is sent without opening or reading the file.
+     *
+     * @param request  the request carrying the conditional headers
+     * @param metadata the metadata of the requested file
+     * @throws WebApplicationException with the {@code 304} or {@code 412} response if a precondition applies
+     */
+    private void evaluatePreconditions(Request request, FileMetadata metadata) {
+        var builder = request.evaluatePreconditions(lastModified(metadata), entityTag(metadata));
+        if (builder != null) {
+            if (varyOnEncoding) {
+                builder.header(VARY, HttpHeaders.ACCEPT_ENCODING);
+            }
+            throw new WebApplicationException(builder
+                .tag(entityTag(metadata))
+                .lastModified(lastModified(metadata))
+                .build());
+        }
+    }
+
+    /**
+     * Evaluates the {@code If-None-Match} header of a response compressed on the fly against the weak entity tag of
+     * the file, with the weak comparison of RFC 9110, that the {@link Request} does not apply.
+     *
+     * @param headers  the request headers
+     * @param metadata the metadata of the requested file
+     * @throws WebApplicationException with the {@code 304} response if the client has the content already
+     */
+    private void evaluateIfNoneMatch(HttpHeaders headers, FileMetadata metadata) {
+        var ifNoneMatch = headers.getHeaderString(HttpHeaders.IF_NONE_MATCH);
+        if (ifNoneMatch == null) {
+            return;
+        }
+        for (var tag : ifNoneMatch.split(",")) {
+            var opaque = tag.trim();
+            if (opaque.startsWith("W/")) {
+                opaque = opaque.substring(2);
+            }
+            if (opaque.equals("*") || opaque.equals("\"" + metadata.etag() + "\"")) {
+                var builder = Response.notModified(new EntityTag(metadata.etag(), true))
+                    .lastModified(lastModified(metadata));
+                if (varyOnEncoding) {
+                    builder.header(VARY, HttpHeaders.ACCEPT_ENCODING);
+                }
+                throw new WebApplicationException(builder.build());
+            }
+        }
+    }
+
+    /**
+     * Selects the range of the file that should be sent to the client by the endpoints that serve a single range.
+     * <p>
+     * Requests for multiple ranges are answered with the whole file as allowed by RFC 9110.
+     *
+     * @param headers  the request headers
+     * @param metadata the metadata of the requested file
+     * @return the range to send, or {@code null} if the whole file should be sent
+     * @throws RangeNotSatisfiableException if none of the requested ranges can be satisfied
+     */
+    private static ByteRange selectRange(HttpHeaders headers, FileMetadata metadata) {
+        var ranges = selectRanges(headers, metadata);
+        return ranges.size() == 1 ? ranges.getFirst() : null;
+    }
+
+    /**
+     * Selects the ranges of the file that should be sent to the client.
+     * <p>
+     * Requests for more than {@value #MAX_RANGES} ranges are answered with the whole file.
+     *
+     * @param headers  the request headers
+     * @param metadata the metadata of the requested file
+     * @return the ranges to send, or an empty list if the whole file should be sent
+     * @throws RangeNotSatisfiableException if none of the requested ranges can be satisfied
+     */
+    private static List<ByteRange> selectRanges(HttpHeaders headers, FileMetadata metadata) {
+        if (!isIfRangeFresh(headers.getHeaderString(IF_RANGE), metadata)) {
+            return List.of();
+        }
+        var ranges = ByteRange.parse(headers.getHeaderString(RANGE), metadata.size());
+        return ranges.size() > MAX_RANGES ? List.of() : ranges;
+    }
+
+    /**
+     * Evaluates the {@code If-Range} precondition against the file's entity tag or last modification time.
+     * <p>
+     * Entity tags are compared with the strong comparison, so a weak entity tag never matches.
+     */
+    private static boolean isIfRangeFresh(String ifRange, FileMetadata metadata) {
+        if (ifRange == null) {
+            return true;
+        }
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            return ifRange.equals("\"" + metadata.etag() + "\"");
+        }
+        try {
+            var date = ZonedDateTime.parse(ifRange, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant();
+            return date.equals(metadata.lastModified().truncatedTo(ChronoUnit.SECONDS));
+        } catch (DateTimeParseException e) {
+            return false;
+        }
+    }
+
+    private <T> RestResponse.ResponseBuilder<T> respond(T entity, FileMetadata metadata, ByteRange range) {
+        var builder = range == null
+            ? RestResponse.ResponseBuilder.ok(entity)
+            : RestResponse.ResponseBuilder.create(RestResponse.Status.PARTIAL_CONTENT, entity)
+                .header(CONTENT_RANGE, range.toContentRange(metadata.size()));
+        return withValidators(builder, metadata);
+    }
+
+    private <T> RestResponse.ResponseBuilder<T> respondMultipart(T entity, FileMetadata metadata, MultipartByteRanges multipart) {
+        var builder = RestResponse.ResponseBuilder.create(RestResponse.Status.PARTIAL_CONTENT, entity)
+            .type(multipart.mediaType());
+        return withValidators(builder, metadata);
+    }
+
+    /**
+     * The compressed bytes depend on the effort chosen for the response, so the entity tag of the file is weakened:
+     * it still validates the cached response for {@code If-None-Match}, but never matches a strong comparison. The
+     * ranges are always sent as they are, so the compressed response does not advertise {@code Accept-Ranges}.
+     */
+    private <T> RestResponse.ResponseBuilder<T> respondCompressed(T entity, FileMetadata metadata, StreamingCompressor.Compression compression) {
+        return withValidators(RestResponse.ResponseBuilder.ok(entity), metadata)
+            .header(ACCEPT_RANGES, null)
+            .header(HttpHeaders.CONTENT_ENCODING, compression.encoding().token())
+            .tag(new EntityTag(metadata.etag(), true));
+    }
+
+    private <T> RestResponse.ResponseBuilder<T> withValidators(RestResponse.ResponseBuilder<T> builder, FileMetadata metadata) {
+        if (varyOnEncoding) {
+            builder.header(VARY, HttpHeaders.ACCEPT_ENCODING);
+        }
+        return builder
+            .header(ACCEPT_RANGES, ByteRange.UNIT)
+            .tag(entityTag(metadata))
+            .lastModified(lastModified(metadata));
+    }
+
+    private static EntityTag entityTag(FileMetadata metadata) {
+        return new EntityTag(metadata.etag());
+    }
+
+    /**
+     * HTTP dates have a resolution of one second, so the modification time is truncated to be comparable
+     * with the {@code If-Modified-Since} and {@code If-Unmodified-Since} headers.
+     */
+    private static Date lastModified(FileMetadata metadata) {
+        return Date.from(metadata.lastModified().truncatedTo(ChronoUnit.SECONDS));
     }
 }
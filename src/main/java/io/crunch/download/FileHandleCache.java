@@ -0,0 +1,293 @@
+package io.crunch.download;
+
+import io.netty.util.AbstractReferenceCounted;
+import io.netty.util.ReferenceCounted;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * {@code FileHandleCache} keeps the most recently used files open, so a file that is read again is read through the
+ * open {@link FileChannel}, without opening and closing it again. On NFS every open and close is a round trip to
+ * the server, as the client revalidates its cache on open and flushes on close (close-to-open consistency).
+ * <p>
+ * The handles are reference-counted and shared by the concurrent readers of a file. The cache owns one reference
+ * of every open handle, and hands out a reference of its own to every caller of {@link #acquire(Path)}, that must
+ * {@link Handle#release() release} it when it no longer reads the file. The readers share no read position: they
+ * must read with positional reads ({@link FileChannel#read(java.nio.ByteBuffer, long)}) only. A file is closed as
+ * soon as its last reference is released, so the number of open files is bounded by the number of handles the
+ * cache keeps plus the ones still being read.
+ * <p>
+ * The cache drops its reference of a handle when the handle is evicted to keep the cache within its maximum number
+ * of handles (least recently used first), when it has not been used for the idle timeout ({@link #evictIdle()}),
+ * and when the file is found to have changed: every lookup compares the size, the modification time and the file
+ * key of the file with the ones it was opened with, so a file replaced by a rename is opened again. The attributes
+ * are usually answered by the NFS client's attribute cache, without a round trip.
+ * <p>
+ * An interrupted positional read closes the channel for all its readers, so a closed handle is treated like a
+ * stale one, and opened again by the next lookup. The cache is thread-safe; the lock is held only for the
+ * bookkeeping, never while a file is opened or closed.
+ */
+public class FileHandleCache implements FileHandleCacheMXBean {
+
+    /**
+     * A reference-counted, read-only open file.
+     */
+    public final class Handle extends AbstractReferenceCounted {
+
+        private final FileChannel channel;
+
+        private final long size;
+
+        private final FileTime lastModified;
+
+        private final Object fileKey;
+
+        private volatile long lastUsed = System.nanoTime();
+
+        private Handle(FileChannel channel, BasicFileAttributes attributes) {
+            this.channel = channel;
+            this.size = attributes.size();
+            this.lastModified = attributes.lastModifiedTime();
+            this.fileKey = attributes.fileKey();
+        }
+
+        /**
+         * Returns the open file, that must be read with positional reads only, and must not be closed by the caller.
+         *
+         * @return the channel of the open file
+         */
+        public FileChannel channel() {
+            return channel;
+        }
+
+        /**
+         * Returns the size of the file when it was looked up.
+         *
+         * @return the size of the file in bytes
+         */
+        public long size() {
+            return size;
+        }
+
+        private boolean isHandleOf(BasicFileAttributes attributes) {
+            return isVersion(attributes.size(), attributes.lastModifiedTime(), attributes.fileKey()) && channel.isOpen();
+        }
+
+        private boolean isSameVersionAs(Handle other) {
+            return isVersion(other.size, other.lastModified, other.fileKey);
+        }
+
+        private boolean isVersion(long size, FileTime lastModified, Object fileKey) {
+            return this.size == size && this.lastModified.equals(lastModified) && Objects.equals(this.fileKey, fileKey);
+        }
+
+        private boolean isIdleSince(long deadline) {
+            return lastUsed - deadline < 0;
+        }
+
+        @Override
+        protected void deallocate() {
+            closes.increment();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public ReferenceCounted touch(Object hint) {
+            return this;
+        }
+    }
+
+    private final int maximumHandles;
+
+    private final Duration idleTimeout;
+
+    private final LinkedHashMap<Path, Handle> handles = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final AtomicInteger handleCount = new AtomicInteger();
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder opens = new LongAdder();
+
+    private final LongAdder closes = new LongAdder();
+
+    private final LongAdder idleEvictions = new LongAdder();
+
+    /**
+     * Creates a cache that keeps at most the given number of open files.
+     *
+     * @param maximumHandles the maximum number of open files kept by the cache, {@code 0} keeps none, so every
+     *                       file is closed as soon as its caller releases it
+     * @param idleTimeout    how long an open file is kept without being used
+     */
+    public FileHandleCache(int maximumHandles, Duration idleTimeout) {
+        this.maximumHandles = maximumHandles;
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * Returns an open handle of the current version of the given file, opening the file if it is not open yet
+     * or has changed since it was opened.
+     *
+     * @param path the path of the file
+     * @return the handle, whose reference is owned by the caller
+     * @throws IOException if the file cannot be opened
+     */
+    public Handle acquire(Path path) throws IOException {
+        var attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        var handle = lookup(path, attributes);
+        if (handle != null) {
+            hits.increment();
+            return handle;
+        }
+        handle = new Handle(FileChannel.open(path, StandardOpenOption.READ), attributes);
+        opens.increment();
+        return insert(path, handle);
+    }
+
+    /**
+     * Closes the files that have not been used for the idle timeout and are not being read, the others are closed
+     * when their last reader releases them.
+     */
+    public void evictIdle() {
+        var deadline = System.nanoTime() - idleTimeout.toNanos();
+        var released = new ArrayList<Handle>();
+        lock.lock();
+        try {
+            // the least recently used handles come first
+            var eldest = handles.values().iterator();
+            while (eldest.hasNext()) {
+                var handle = eldest.next();
+                if (!handle.isIdleSince(deadline)) {
+                    break;
+                }
+                released.add(handle);
+                eldest.remove();
+                handleCount.decrementAndGet();
+            }
+        } finally {
+            lock.unlock();
+        }
+        idleEvictions.add(released.size());
+        released.forEach(Handle::release);
+    }
+
+    /**
+     * Closes every file that is not being read, the others are closed when their last reader releases them.
+     */
+    public void clear() {
+        var released = new ArrayList<Handle>();
+        lock.lock();
+        try {
+            released.addAll(handles.values());
+            handles.clear();
+            handleCount.set(0);
+        } finally {
+            lock.unlock();
+        }
+        released.forEach(Handle::release);
+    }
+
+    private Handle lookup(Path path, BasicFileAttributes attributes) {
+        Handle stale;
+        lock.lock();
+        try {
+            var handle = handles.get(path);
+            if (handle == null) {
+                return null;
+            }
+            if (handle.isHandleOf(attributes)) {
+                handle.lastUsed = System.nanoTime();
+                return (Handle) handle.retain();
+            }
+            stale = handles.remove(path);
+            handleCount.decrementAndGet();
+        } finally {
+            lock.unlock();
+        }
+        stale.release();
+        return null;
+    }
+
+    private Handle insert(Path path, Handle handle) {
+        var released = new ArrayList<Handle>();
+        lock.lock();
+        try {
+            var current = handles.get(path);
+            if (current != null && current.isSameVersionAs(handle) && current.channel.isOpen()) {
+                // another caller has opened the same file in the meantime
+                released.add(handle);
+                current.lastUsed = System.nanoTime();
+                return (Handle) current.retain();
+            }
+            if (maximumHandles > 0) {
+                var replaced = handles.put(path, (Handle) handle.retain());
+                if (replaced != null) {
+                    released.add(replaced);
+                } else {
+                    handleCount.incrementAndGet();
+                }
+                var eldest = handles.values().iterator();
+                while (handles.size() > maximumHandles) {
+                    released.add(eldest.next());
+                    eldest.remove();
+                    handleCount.decrementAndGet();
+                }
+            }
+            return handle;
+        } finally {
+            lock.unlock();
+            released.forEach(Handle::release);
+        }
+    }
+
+    @Override
+    public int getHandleCount() {
+        return handleCount.get();
+    }
+
+    @Override
+    public int getMaximumHandles() {
+        return maximumHandles;
+    }
+
+    @Override
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    @Override
+    public long getOpenCount() {
+        return opens.sum();
+    }
+
+    @Override
+    public long getCloseCount() {
+        return closes.sum();
+    }
+
+    @Override
+    public long getIdleEvictionCount() {
+        return idleEvictions.sum();
+    }
+}
@@ -0,0 +1,37 @@
+package io.crunch.download;
+
+/**
+ * The management interface of the {@link FileHandleCache}, exposing its statistics through JMX.
+ */
+public interface FileHandleCacheMXBean {
+
+    /**
+     * @return the number of open files that are currently kept by the cache
+     */
+    int getHandleCount();
+
+    /**
+     * @return the maximum number of open files kept by the cache
+     */
+    int getMaximumHandles();
+
+    /**
+     * @return the number of lookups that were served by an open file kept by the cache
+     */
+    long getHitCount();
+
+    /**
+     * @return the number of files that were opened
+     */
+    long getOpenCount();
+
+    /**
+     * @return the number of files that were closed
+     */
+    long getCloseCount();
+
+    /**
+     * @return the number of open files that were closed because they had not been used for the idle timeout
+     */
+    long getIdleEvictionCount();
+}
@@ -0,0 +1,250 @@
+package io.crunch.download;
+
+import io.netty.util.AbstractReferenceCounted;
+import io.netty.util.ReferenceCounted;
+import io.netty.util.internal.PlatformDependent;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * {@code FileMappingCache} keeps the memory mappings of the most recently used files, so a file that is read again
+ * is served from the page cache through the existing mapping, without opening, mapping or reading it again.
+ * <p>
+ * The mappings are reference-counted. The cache owns one reference of every live mapping, and hands out a reference
+ * of its own to every caller of {@link #acquire(Path)}, that must {@link Mapping#release() release} it when it no
+ * longer reads the mapping. A mapping is unmapped as soon as its last reference is released, rather than whenever
+ * the garbage collector finds the {@link MappedByteBuffer} unreachable, so the address space and the file handles
+ * held by the mappings are bounded by the number of mappings the cache keeps plus the ones still being read.
+ * <p>
+ * The cache drops its reference of a mapping when the mapping is evicted to keep the cache within its maximum
+ * number of mappings (least recently used first), and when the file is found to have changed: every lookup compares
+ * the size, the modification time and the file key of the file with the ones it was mapped with.
+ * <p>
+ * A mapping covers a whole file, and a {@link MappedByteBuffer} cannot map more than 2 GB, so larger files are
+ * rejected. The files are expected to be replaced atomically (written aside and renamed), since reading a mapping
+ * past the end of a file truncated in place fails with an {@link InternalError}. The cache is thread-safe; the lock is held only for the bookkeeping, never while a file is mapped.
+ */
+public class FileMappingCache implements FileMappingCacheMXBean {
+
+    /**
+     * A reference-counted, read-only mapping of a whole file.
+     */
+    public final class Mapping extends AbstractReferenceCounted {
+
+        private final MappedByteBuffer buffer;
+
+        private final long size;
+
+        private final FileTime lastModified;
+
+        private final Object fileKey;
+
+        private Mapping(MappedByteBuffer buffer, BasicFileAttributes attributes) {
+            this.buffer = buffer;
+            this.size = attributes.size();
+            this.lastModified = attributes.lastModifiedTime();
+            this.fileKey = attributes.fileKey();
+        }
+
+        /**
+         * Returns the size of the mapped file.
+         *
+         * @return the number of mapped bytes
+         */
+        public long size() {
+            return size;
+        }
+
+        /**
+         * Returns a read-only view of the given part of the mapping, with its own position and limit.
+         * The view must not be read after the reference of the caller has been released.
+         *
+         * @param offset the offset of the first byte of the view
+         * @param length the number of bytes of the view
+         * @return the view of the mapped bytes
+         */
+        public ByteBuffer slice(long offset, long length) {
+            return buffer.slice(Math.toIntExact(offset), Math.toIntExact(length));
+        }
+
+        private boolean isMappingOf(BasicFileAttributes attributes) {
+            return isVersion(attributes.size(), attributes.lastModifiedTime(), attributes.fileKey());
+        }
+
+        private boolean isSameVersionAs(Mapping other) {
+            return isVersion(other.size, other.lastModified, other.fileKey);
+        }
+
+        private boolean isVersion(long size, FileTime lastModified, Object fileKey) {
+            return this.size == size && this.lastModified.equals(lastModified) && Objects.equals(this.fileKey, fileKey);
+        }
+
+        @Override
+        protected void deallocate() {
+            mappedBytes.addAndGet(-size);
+            unmaps.increment();
+            PlatformDependent.freeDirectBuffer(buffer);
+        }
+
+        @Override
+        public ReferenceCounted touch(Object hint) {
+            return this;
+        }
+    }
+
+    private final int maximumMappings;
+
+    private final LinkedHashMap<Path, Mapping> mappings = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final AtomicInteger mappingCount = new AtomicInteger();
+
+    private final AtomicLong mappedBytes = new AtomicLong();
+
+    private final LongAdder maps = new LongAdder();
+
+    private final LongAdder unmaps = new LongAdder();
+
+    /**
+     * Creates a cache that keeps at most the given number of mappings.
+     *
+     * @param maximumMappings the maximum number of mappings kept by the cache, {@code 0} keeps none, so every
+     *                        mapping is unmapped as soon as its caller releases it
+     */
+    public FileMappingCache(int maximumMappings) {
+        this.maximumMappings = maximumMappings;
+    }
+
+    /**
+     * Returns a mapping of the current content of the given file, mapping the file if it is not mapped yet
+     * or has changed since it was mapped.
+     *
+     * @param path the path of the file
+     * @return the mapping, whose reference is owned by the caller
+     * @throws IOException if the file cannot be read or is larger than 2 GB
+     */
+    public Mapping acquire(Path path) throws IOException {
+        var attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        var mapping = lookup(path, attributes);
+        if (mapping != null) {
+            return mapping;
+        }
+        if (attributes.size() > Integer.MAX_VALUE) {
+            throw new IOException("File is too large to be mapped: " + path);
+        }
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            mapping = new Mapping(channel.map(FileChannel.MapMode.READ_ONLY, 0, attributes.size()), attributes);
+        }
+        mappedBytes.addAndGet(mapping.size());
+        maps.increment();
+        return insert(path, mapping);
+    }
+
+    /**
+     * Unmaps every mapping that is not being read, the others are unmapped when their last reader releases them.
+     */
+    public void clear() {
+        var released = new ArrayList<Mapping>();
+        lock.lock();
+        try {
+            released.addAll(mappings.values());
+            mappings.clear();
+            mappingCount.set(0);
+        } finally {
+            lock.unlock();
+        }
+        released.forEach(Mapping::release);
+    }
+
+    private Mapping lookup(Path path, BasicFileAttributes attributes) {
+        Mapping stale;
+        lock.lock();
+        try {
+            var mapping = mappings.get(path);
+            if (mapping == null) {
+                return null;
+            }
+            if (mapping.isMappingOf(attributes)) {
+                return (Mapping) mapping.retain();
+            }
+            stale = mappings.remove(path);
+            mappingCount.decrementAndGet();
+        } finally {
+            lock.unlock();
+        }
+        stale.release();
+        return null;
+    }
+
+    private Mapping insert(Path path, Mapping mapping) {
+        var released = new ArrayList<Mapping>();
+        lock.lock();
+        try {
+            var current = mappings.get(path);
+            if (current != null && current.isSameVersionAs(mapping)) {
+                // another caller has mapped the same content in the meantime
+                released.add(mapping);
+                return (Mapping) current.retain();
+            }
+            if (maximumMappings > 0) {
+                var replaced = mappings.put(path, (Mapping) mapping.retain());
+                if (replaced != null) {
+                    released.add(replaced);
+                } else {
+                    mappingCount.incrementAndGet();
+                }
+                var eldest = mappings.entrySet().iterator();
+                while (mappings.size() > maximumMappings) {
+                    released.add(eldest.next().getValue());
+                    eldest.remove();
+                    mappingCount.decrementAndGet();
+                }
+            }
+            return mapping;
+        } finally {
+            lock.unlock();
+            released.forEach(Mapping::release);
+        }
+    }
+
+    @Override
+    public int getMappingCount() {
+        return mappingCount.get();
+    }
+
+    @Override
+    public long getMappedBytes() {
+        return mappedBytes.get();
+    }
+
+    @Override
+    public int getMaximumMappings() {
+        return maximumMappings;
+    }
+
+    @Override
+    public long getMapCount() {
+        return maps.sum();
+    }
+
+    @Override
+    public long getUnmapCount() {
+        return unmaps.sum();
+    }
+}
@@ -0,0 +1,32 @@
+package io.crunch.download;
+
+/**
+ * The management interface of the {@link FileMappingCache}, exposing its statistics through JMX.
+ */
+public interface FileMappingCacheMXBean {
+
+    /**
+     * @return the number of files that are currently mapped by the cache
+     */
+    int getMappingCount();
+
+    /**
+     * @return the number of bytes of the files that are currently mapped by the cache
+     */
+    long getMappedBytes();
+
+    /**
+     * @return the maximum number of files mapped by the cache
+     */
+    int getMaximumMappings();
+
+    /**
+     * @return the number of files that were mapped
+     */
+    long getMapCount();
+
+    /**
+     * @return the number of mappings that were released from memory
+     */
+    long getUnmapCount();
+}
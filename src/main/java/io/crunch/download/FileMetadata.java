@@ -0,0 +1,26 @@
+package io.crunch.download;
+
+import java.time.Instant;
+
+/**
+ * {@code FileMetadata} holds the properties of a file that are needed to describe the representation
+ * sent to the client, without reading the file's content.
+ *
+ * @param size         the size of the file in bytes
+ * @param lastModified the last modification time of the file
+ * @see FileStore#getMetadata(String)
+ */
+public record FileMetadata(long size, Instant lastModified) {
+
+    /**
+     * Returns the opaque value of the strong entity tag of the file.
+     * <p>
+     * The tag is derived from the size and the last modification time, so it changes whenever the content of the
+     * file is replaced, and it can be computed without reading the file.
+     *
+     * @return the entity tag value without the surrounding quotes
+     */
+    public String etag() {
+        return Long.toHexString(size) + "-" + Long.toHexString(lastModified.toEpochMilli());
+    }
+}
@@ -0,0 +1,191 @@
+package io.crunch.download;
+
+import io.smallrye.mutiny.Uni;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * {@code FileMetadataCache} keeps the metadata of the recently requested files, including the fact that a file does
+ * not exist, so the requests of a file are answered without a metadata round trip to the (network) file system.
+ * <p>
+ * An entry is trusted for a short time to live ({@code app.filestore.metadata-cache.ttl}). Within that time, the
+ * entries of the files changed through this host are dropped as soon as the {@link FileStoreWatcher} reports the
+ * change. The watcher cannot see the changes made by other NFS clients, they become visible when the entry expires,
+ * which bounds how long a stale size or validator can be served.
+ * <p>
+ * Lookups never block: a hit is served from memory, and a miss subscribes to the given loader, whose result is cached
+ * when it arrives. The cache holds at most {@code app.filestore.metadata-cache.max-entries} entries, the expired
+ * entries are dropped first when it is full. The statistics are registered as the
+ * {@code io.crunch.download:type=FileMetadataCache} MBean.
+ */
+@ApplicationScoped
+public class FileMetadataCache implements FileMetadataCacheMXBean {
+
+    /**
+     * A cached lookup result, either the metadata of the file or the failure telling that the file does not exist.
+     */
+    private record Entry(FileMetadata metadata, Throwable absence, long expiresAt) {
+
+        Uni<FileMetadata> toUni() {
+            return absence == null ? Uni.createFrom().item(metadata) : Uni.createFrom().failure(absence);
+        }
+    }
+
+    private final long ttlNanos;
+
+    private final int maxEntries;
+
+    private final FileStoreWatcher watcher;
+
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder invalidations = new LongAdder();
+
+    /**
+     * Counts the invalidations, so a lookup that was in flight during an invalidation does not cache its result,
+     * that may have been read before the change.
+     */
+    private final AtomicLong generation = new AtomicLong();
+
+    @Inject
+    public FileMetadataCache(@ConfigProperty(name = "app.filestore.metadata-cache.ttl", defaultValue = "5s") Duration ttl,
+                             @ConfigProperty(name = "app.filestore.metadata-cache.max-entries", defaultValue = "10000") int maxEntries,
+                             FileStoreWatcher watcher) {
+        this.ttlNanos = ttl.toNanos();
+        this.maxEntries = maxEntries;
+        this.watcher = watcher;
+    }
+
+    /**
+     * Registers the MBean, and subscribes to the changes of the file store.
+     */
+    @PostConstruct
+    void start() {
+        MBeans.register("FileMetadataCache", this);
+        if (!isEnabled()) {
+            return;
+        }
+        watcher.addListener(new FileStoreWatcher.Listener() {
+            @Override
+            public void onChange(String fileName, WatchEvent.Kind<Path> kind) {
+                invalidate(fileName);
+                // the files of a removed or renamed directory do not report their own events
+                if (entries.keySet().removeIf(name -> name.startsWith(fileName + "/"))) {
+                    generation.incrementAndGet();
+                }
+            }
+
+            @Override
+            public void onOverflow() {
+                invalidateAll();
+            }
+        });
+    }
+
+    /**
+     * Returns whether the cache keeps entries, that is its time to live and its maximum size are positive.
+     *
+     * @return {@code true} if the cache is enabled
+     */
+    public boolean isEnabled() {
+        return ttlNanos > 0 && maxEntries > 0;
+    }
+
+    /**
+     * Returns the cached metadata of the given file, or loads it on a miss.
+     * <p>
+     * A loader failure caused by a {@link NoSuchFileException} is cached as the absence of the file, and replayed
+     * to the next lookups until the entry expires or the file is created.
+     *
+     * @param fileName the name of the file, relative to the root directory
+     * @param loader   reads the metadata of the file from the file system
+     * @return a {@link Uni} emitting the metadata, or the failure of the loader
+     */
+    public Uni<FileMetadata> get(String fileName, Function<String, Uni<FileMetadata>> loader) {
+        if (!isEnabled()) {
+            return loader.apply(fileName);
+        }
+        var entry = entries.get(fileName);
+        if (entry != null && entry.expiresAt() - System.nanoTime() > 0) {
+            hits.increment();
+            return entry.toUni();
+        }
+        misses.increment();
+        var loadGeneration = generation.get();
+        return loader.apply(fileName)
+            .onItem()
+            .invoke(metadata -> put(fileName, loadGeneration, new Entry(metadata, null, System.nanoTime() + ttlNanos)))
+            .onFailure(FileStore::isNoSuchFile)
+            .invoke(failure -> put(fileName, loadGeneration, new Entry(null, failure, System.nanoTime() + ttlNanos)));
+    }
+
+    /**
+     * Drops the cached entry of the given file.
+     *
+     * @param fileName the name of the file, relative to the root directory
+     */
+    public void invalidate(String fileName) {
+        generation.incrementAndGet();
+        if (entries.remove(fileName) != null) {
+            invalidations.increment();
+        }
+    }
+
+    @Override
+    public void invalidateAll() {
+        generation.incrementAndGet();
+        invalidations.add(entries.size());
+        entries.clear();
+    }
+
+    @Override
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    @Override
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    @Override
+    public long getInvalidationCount() {
+        return invalidations.sum();
+    }
+
+    @Override
+    public int getEntryCount() {
+        return entries.size();
+    }
+
+    private void put(String fileName, long loadGeneration, Entry entry) {
+        if (generation.get() != loadGeneration) {
+            return;
+        }
+        if (entries.size() >= maxEntries && !entries.containsKey(fileName)) {
+            var now = System.nanoTime();
+            entries.values().removeIf(cached -> cached.expiresAt() - now <= 0);
+            var iterator = entries.keySet().iterator();
+            while (entries.size() >= maxEntries && iterator.hasNext()) {
+                iterator.next();
+                iterator.remove();
+            }
+        }
+        entries.put(fileName, entry);
+    }
+}
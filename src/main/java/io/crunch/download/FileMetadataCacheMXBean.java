@@ -0,0 +1,32 @@
+package io.crunch.download;
+
+/**
+ * The management interface of the {@link FileMetadataCache}, exposing its statistics through JMX.
+ */
+public interface FileMetadataCacheMXBean {
+
+    /**
+     * @return the number of lookups that were served from the cache, including the cached absence of a file
+     */
+    long getHitCount();
+
+    /**
+     * @return the number of lookups that had to read the metadata from the file system
+     */
+    long getMissCount();
+
+    /**
+     * @return the number of entries that were dropped because the file system reported a change
+     */
+    long getInvalidationCount();
+
+    /**
+     * @return the number of cached entries
+     */
+    int getEntryCount();
+
+    /**
+     * Drops every cached entry, for example after the files have been changed in a way the watcher cannot see.
+     */
+    void invalidateAll();
+}
@@ -0,0 +1,241 @@
+package io.crunch.download;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@code FileNamespaceIndex} keeps the names of the files of the file store in a {@link BloomFilter}, so a lookup of
+ * a name that is certainly not in the store is answered in memory, without a lookup on the (network) file system.
+ * <p>
+ * The filter is built by scanning the root directory at startup, in the background, without its subdirectories,
+ * whose files are never served, and rebuilt by a new scan every
+ * {@code app.filestore.namespace.rescan-interval}, which drops the names of the deleted files and picks up the files
+ * created by other NFS clients. The files created through this host are added as soon as the
+ * {@link FileStoreWatcher} reports them, also to a filter whose scan is in progress. Until the first scan has
+ * completed every name is reported as possibly present.
+ * <p>
+ * The filter has no false negatives, but it does have false positives (about
+ * {@code app.filestore.namespace.false-positive-probability}), and the names of deleted files stay in it until the
+ * next scan: those lookups fall through to the file system, where the short-lived negative entries of the
+ * {@link FileMetadataCache} absorb the repeated ones. The statistics are registered as the
+ * {@code io.crunch.download:type=FileNamespaceIndex} MBean.
+ *
+ * @apiNote A file created by another NFS client is reported as missing until the next scan, for up to the rescan
+ * interval, and its downloads are answered with {@code 404 Not Found} meanwhile. The index is therefore disabled by
+ * default, and is enabled with {@code app.filestore.namespace.enabled=true} only where the files are created through
+ * this host, or where a new file may appear with that delay.
+ */
+@ApplicationScoped
+public class FileNamespaceIndex implements FileNamespaceIndexMXBean {
+
+    private final Logger logger = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+    /**
+     * The number of names the filter is sized for on top of the scanned ones, for the files created until the next scan.
+     */
+    private static final long HEADROOM = 1024;
+
+    private final Path root;
+
+    private final boolean enabled;
+
+    private final Duration rescanInterval;
+
+    private final double falsePositiveProbability;
+
+    private final FileStoreWatcher watcher;
+
+    private final LongAdder rejections = new LongAdder();
+
+    private final AtomicLong names = new AtomicLong();
+
+    private final AtomicLong scans = new AtomicLong();
+
+    private final AtomicLong lastScanMillis = new AtomicLong();
+
+    /**
+     * The filter answering the lookups, {@code null} until the first scan has completed.
+     */
+    private volatile BloomFilter filter;
+
+    /**
+     * The names created while a scan is in progress, that are added to the filter built by the scan.
+     */
+    private volatile Queue<String> createdDuringScan;
+
+    private ScheduledExecutorService scanner;
+
+    @Inject
+    public FileNamespaceIndex(@ConfigProperty(name = "app.filestore.root") String fileStoreRootDirectory,
+                              @ConfigProperty(name = "app.filestore.namespace.enabled", defaultValue = "false") boolean enabled,
+                              @ConfigProperty(name = "app.filestore.namespace.rescan-interval", defaultValue = "1m") Duration rescanInterval,
+                              @ConfigProperty(name = "app.filestore.namespace.false-positive-probability", defaultValue = "0.01") double falsePositiveProbability,
+                              FileStoreWatcher watcher) {
+        this.root = Paths.get(fileStoreRootDirectory).toAbsolutePath().normalize();
+        this.enabled = enabled;
+        this.rescanInterval = rescanInterval;
+        this.falsePositiveProbability = falsePositiveProbability;
+        this.watcher = watcher;
+    }
+
+    /**
+     * Registers the MBean, subscribes to the changes of the file store, and schedules the scans of the root directory.
+     */
+    @PostConstruct
+    void start() {
+        MBeans.register("FileNamespaceIndex", this);
+        if (!enabled) {
+            return;
+        }
+        watcher.addListener(new FileStoreWatcher.Listener() {
+            @Override
+            public void onChange(String fileName, WatchEvent.Kind<Path> kind) {
+                if (kind == StandardWatchEventKinds.ENTRY_CREATE || kind == StandardWatchEventKinds.ENTRY_MODIFY) {
+                    add(fileName);
+                }
+            }
+
+            @Override
+            public void onOverflow() {
+                rescan();
+            }
+        });
+        scanner = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().daemon().name("file-namespace-scanner").factory());
+        scanner.scheduleWithFixedDelay(this::scan, 0, rescanInterval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops scanning the root directory.
+     */
+    @PreDestroy
+    void stop() {
+        if (scanner != null) {
+            scanner.shutdownNow();
+        }
+    }
+
+    /**
+     * Returns whether the given file may exist in the file store.
+     *
+     * @param fileName the name of the file, relative to the root directory
+     * @return {@code false} if the file certainly does not exist, {@code true} if it may exist or the index is not ready
+     */
+    public boolean mightContain(String fileName) {
+        var current = filter;
+        if (current == null || current.mightContain(fileName)) {
+            return true;
+        }
+        rejections.increment();
+        return false;
+    }
+
+    /**
+     * Adds the name of a file that has been created.
+     *
+     * @param fileName the name of the file, relative to the root directory
+     */
+    public void add(String fileName) {
+        var created = createdDuringScan;
+        if (created != null) {
+            created.add(fileName);
+        }
+        var current = filter;
+        if (current != null) {
+            current.put(fileName);
+            names.incrementAndGet();
+        }
+    }
+
+    @Override
+    public void rescan() {
+        if (scanner != null) {
+            scanner.execute(this::scan);
+        }
+    }
+
+    @Override
+    public boolean isReady() {
+        return filter != null;
+    }
+
+    @Override
+    public long getNameCount() {
+        return names.get();
+    }
+
+    @Override
+    public long getBitCount() {
+        var current = filter;
+        return current == null ? 0 : current.bitCount();
+    }
+
+    @Override
+    public long getRejectionCount() {
+        return rejections.sum();
+    }
+
+    @Override
+    public long getScanCount() {
+        return scans.get();
+    }
+
+    @Override
+    public long getLastScanMillis() {
+        return lastScanMillis.get();
+    }
+
+    private void scan() {
+        var start = System.nanoTime();
+        try {
+            var created = new ConcurrentLinkedQueue<String>();
+            createdDuringScan = created;
+            var scanned = new ArrayList<String>();
+            // the files are served from the root directory only, the subdirectories are not scanned
+            try (var paths = Files.list(root)) {
+                paths.filter(Files::isRegularFile).forEach(path -> scanned.add(toFileName(path)));
+            }
+            var next = new BloomFilter(scanned.size() + Math.max(HEADROOM, scanned.size() / 4), falsePositiveProbability);
+            scanned.forEach(next::put);
+            filter = next;
+            createdDuringScan = null;
+            // the names added after the swap are in the new filter already, the ones added before it are in the queue
+            created.forEach(next::put);
+            names.set(scanned.size() + created.size());
+            scans.incrementAndGet();
+            lastScanMillis.set(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        } catch (IOException | UncheckedIOException e) {
+            // a partial scan would report existing files as missing, the lookups are not filtered until the next scan
+            filter = null;
+            createdDuringScan = null;
+            logger.warn("Cannot scan [{}], the lookups of the file names are not filtered", root, e);
+        }
+    }
+
+    private String toFileName(Path path) {
+        return root.relativize(path).toString().replace(File.separatorChar, '/');
+    }
+}
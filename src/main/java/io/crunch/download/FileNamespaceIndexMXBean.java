@@ -0,0 +1,42 @@
+package io.crunch.download;
+
+/**
+ * The management interface of the {@link FileNamespaceIndex}, exposing its statistics through JMX.
+ */
+public interface FileNamespaceIndexMXBean {
+
+    /**
+     * @return {@code true} once the first scan of the root directory has completed and lookups are filtered
+     */
+    boolean isReady();
+
+    /**
+     * @return the number of file names added to the current filter, by its scan and by the watcher since
+     */
+    long getNameCount();
+
+    /**
+     * @return the size of the current filter in bits
+     */
+    long getBitCount();
+
+    /**
+     * @return the number of lookups that were answered as missing without asking the file system
+     */
+    long getRejectionCount();
+
+    /**
+     * @return the number of completed scans of the root directory
+     */
+    long getScanCount();
+
+    /**
+     * @return the duration of the last scan of the root directory in milliseconds
+     */
+    long getLastScanMillis();
+
+    /**
+     * Scans the root directory now, for example after files have been added by another NFS client.
+     */
+    void rescan();
+}
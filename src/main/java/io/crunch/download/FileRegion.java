@@ -0,0 +1,38 @@
+package io.crunch.download;
+
+import java.nio.file.Path;
+
+/**
+ * {@code FileRegion} describes a contiguous region of a file that can be transferred to the client
+ * without copying its content through the JVM heap.
+ * <p>
+ * A region is resolved and validated by the {@link FileStore}, so the path is guaranteed to point to a regular file
+ * that exists at the time of the resolution, and the region lies within the bounds of the file.
+ *
+ * @param path   the absolute path of the file
+ * @param offset the position of the first byte of the region
+ * @param length the number of bytes in the region
+ * @see FileStore#getFileRegion(String)
+ */
+public record FileRegion(Path path, long offset, long length) {
+
+    public FileRegion {
+        if (offset < 0 || length < 0) {
+            throw new IllegalArgumentException("Offset and length must not be negative");
+        }
+    }
+
+    /**
+     * Returns the part of this region that is covered by the given range.
+     *
+     * @param range the range relative to the start of this region
+     * @return a new {@link FileRegion} covering the range
+     * @throws IllegalArgumentException if the range exceeds this region
+     */
+    public FileRegion slice(ByteRange range) {
+        if (range.last() >= length) {
+            throw new IllegalArgumentException("Range exceeds the region");
+        }
+        return new FileRegion(path, offset + range.offset(), range.length());
+    }
+}
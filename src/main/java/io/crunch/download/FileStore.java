@@ -8,6 +8,9 @@ import io.vertx.mutiny.core.streams.ReadStream;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.file.NoSuchFileException;
+import java.util.List;
+import java.util.function.Function;
 
 /**
  * The {@code FileStore} interface defines a contract for handling file storage operations,
@@ -39,6 +42,16 @@ public interface FileStore {
      */
     Uni<AsyncFile> getAsyncFile(String fileName);
 
+    /**
+     * Retrieves the specified file as an {@link AsyncFile} that reads only the given range.
+     *
+     * @param fileName the name of the file to retrieve
+     * @param range    the range of the file to read
+     * @return a {@link Uni} emitting the {@link AsyncFile} positioned at the start of the range,
+     *         or a failure if the file does not exist or cannot be opened
+     */
+    Uni<AsyncFile> getAsyncFile(String fileName, ByteRange range);
+
     /**
      * Reads the content of the specified file into a {@link Buffer}.
      * <p>
@@ -53,6 +66,79 @@ public interface FileStore {
      */
     Uni<Buffer> getBuffer(String fileName);
 
+    /**
+     * Reads the given range of the specified file into a {@link Buffer}.
+     * <p>
+     * The bytes before the start of the range are never read.
+     *
+     * @param fileName the name of the file to read
+     * @param range    the range of the file to read
+     * @return a {@link Uni} emitting the {@link Buffer} containing the range's content,
+     *         or a failure if the file cannot be read
+     * @apiNote Do not use this method to read very large ranges, or you risk running out of available RAM.
+     */
+    Uni<Buffer> getBuffer(String fileName, ByteRange range);
+
+    /**
+     * Reads the content of the specified file into a {@link PooledBuffer} held in pooled direct memory.
+     * <p>
+     * The content can be written to the HTTP response without being copied into the Java heap.
+     *
+     * @param fileName the name of the file to read
+     * @return a {@link Uni} emitting the {@link PooledBuffer} containing the file's content, that must be released
+     *         by the receiver, or a failure if the file cannot be read
+     * @apiNote Do not use this method to read very large files, or you risk running out of available direct memory.
+     */
+    Uni<PooledBuffer> getPooledBuffer(String fileName);
+
+    /**
+     * Reads the given range of the specified file into a {@link PooledBuffer} held in pooled direct memory.
+     *
+     * @param fileName the name of the file to read
+     * @param range    the range of the file to read
+     * @return a {@link Uni} emitting the {@link PooledBuffer} containing the range's content, that must be released
+     *         by the receiver, or a failure if the file cannot be read
+     * @apiNote Do not use this method to read very large ranges, or you risk running out of available direct memory.
+     */
+    Uni<PooledBuffer> getPooledBuffer(String fileName, ByteRange range);
+
+    /**
+     * Reads the content of the specified file into a {@link Multi} of {@link PooledBuffer} instances held in pooled
+     * direct memory.
+     * <p>
+     * Every chunk is read into a buffer of its own, that is released by the subscriber once it has been written.
+     * The chunks that are read after the subscription has been cancelled are released by the stream itself.
+     *
+     * @param fileName the name of the file to read
+     * @return a {@link Multi} emitting {@link PooledBuffer} instances containing the file's content, that must be
+     *         released by the subscriber.
+     */
+    Multi<PooledBuffer> getPooledMultiBuffer(String fileName);
+
+    /**
+     * Reads the given range of the specified file into a {@link Multi} of {@link PooledBuffer} instances held in
+     * pooled direct memory.
+     *
+     * @param fileName the name of the file to read
+     * @param range    the range of the file to read
+     * @return a {@link Multi} emitting {@link PooledBuffer} instances containing the range's content, that must be
+     *         released by the subscriber.
+     */
+    Multi<PooledBuffer> getPooledMultiBuffer(String fileName, ByteRange range);
+
+    /**
+     * Reads several ranges of the specified file into a single {@link Multi} of {@link PooledBuffer} instances held
+     * in pooled direct memory.
+     *
+     * @param fileName  the name of the file to read
+     * @param ranges    the ranges of the file to read
+     * @param delimiter provides the bytes emitted before the content of a range
+     * @return a {@link Multi} emitting the delimiters and the content of the ranges, that must be released by the
+     *         subscriber.
+     * @see MultipartByteRanges
+     */
+    Multi<PooledBuffer> getPooledMultiBuffer(String fileName, List<ByteRange> ranges, Function<ByteRange, byte[]> delimiter);
+
     /**
      * Reads the content of the specified file into a {@link Multi} of {@link Buffer} instances.
      * <p>
@@ -65,6 +151,42 @@ public interface FileStore {
      */
     Multi<Buffer> getMultiBuffer(String fileName);
 
+    /**
+     * Reads the given range of the specified file into a {@link Multi} of {@link Buffer} instances.
+     *
+     * @param fileName the name of the file to read
+     * @param range    the range of the file to read
+     * @return a {@link Multi} emitting {@link Buffer} instances containing the range's content.
+     */
+    Multi<Buffer> getMultiBuffer(String fileName, ByteRange range);
+
+    /**
+     * Reads several ranges of the specified file into a single {@link Multi} of {@link Buffer} instances.
+     * <p>
+     * The ranges are read in the given order from one open file, and the delimiter of every range is emitted
+     * before its content, so the result can be used as a multipart body without buffering the parts.
+     *
+     * @param fileName  the name of the file to read
+     * @param ranges    the ranges of the file to read
+     * @param delimiter provides the bytes emitted before the content of a range
+     * @return a {@link Multi} emitting the delimiters and the content of the ranges.
+     * @see MultipartByteRanges
+     */
+    Multi<Buffer> getMultiBuffer(String fileName, List<ByteRange> ranges, Function<ByteRange, byte[]> delimiter);
+
+    /**
+     * Resolves the specified file to a {@link FileRegion} that covers the whole file.
+     * <p>
+     * The region can be handed over to the HTTP layer that transfers it with the kernel {@code sendfile} call,
+     * so the file's content is never copied through the JVM heap.
+     *
+     * @param fileName the name of the file to resolve
+     * @return a {@link Uni} emitting the validated {@link FileRegion},
+     *         or a failure if the file does not exist or is not a regular file
+     * @see <a href="https://vertx.io/docs/vertx-core/java/#_serving_files_directly_from_disk_or_the_classpath">Vert.x sendFile Documentation</a>
+     */
+    Uni<FileRegion> getFileRegion(String fileName);
+
     /**
      * Retrieves the content of the specified file as a byte array.
      * <p>
@@ -76,6 +198,17 @@ public interface FileStore {
      */
     byte[] getByteArray(String fileName);
 
+    /**
+     * Retrieves the given range of the specified file as a byte array.
+     * <p>
+     * This method blocks the calling thread while reading the range.
+     *
+     * @param fileName the name of the file to retrieve
+     * @param range    the range of the file to read
+     * @return a byte array containing the range's content
+     */
+    byte[] getByteArray(String fileName, ByteRange range);
+
     /**
      * Retrieves the size of the specified file in bytes.
      * <p>
@@ -87,6 +220,28 @@ public interface FileStore {
      */
     long getFileSize(String fileName);
 
+    /**
+     * Retrieves the metadata of the specified file without reading its content.
+     *
+     * @param fileName the name of the file to retrieve the metadata for
+     * @return a {@link Uni} emitting the {@link FileMetadata} of the file,
+     *         or a failure if the file does not exist
+     */
+    Uni<FileMetadata> getMetadata(String fileName);
+
+    /**
+     * Returns whether the whole content of the specified file is held in memory by the store, so reading it does not
+     * touch the file system.
+     * <p>
+     * This method does not block and does not read the file: the caller passes the metadata it has retrieved, whose
+     * entity tag tells whether the content held is the current one.
+     *
+     * @param fileName the name of the file
+     * @param metadata the current metadata of the file
+     * @return {@code true} if the content of the file is read from memory
+     */
+    boolean isCached(String fileName, FileMetadata metadata);
+
     /**
      * Writes the content of the specified file to the given {@link OutputStream}.
      * <p>
@@ -99,4 +254,49 @@ public interface FileStore {
      * @see java.io.OutputStream
      */
     void writeContent(String fileName, OutputStream output) throws IOException;
+
+    /**
+     * Writes the given range of the specified file to the given {@link OutputStream}.
+     * <p>
+     * This method blocks the calling thread while writing data to the stream.
+     *
+     * @param fileName the name of the file whose content is to be written
+     * @param range    the range of the file to write
+     * @param output   the {@link OutputStream} to write the range's content to
+     * @throws IOException if an I/O error occurs during the write operation
+     */
+    void writeContent(String fileName, ByteRange range, OutputStream output) throws IOException;
+
+    /**
+     * Writes several ranges of the specified file to the given {@link OutputStream}.
+     * <p>
+     * The ranges are read in the given order from one open file, and the delimiter of every range is written
+     * before its content. This method blocks the calling thread while writing data to the stream.
+     *
+     * @param fileName  the name of the file whose content is to be written
+     * @param ranges    the ranges of the file to write
+     * @param delimiter provides the bytes written before the content of a range
+     * @param output    the {@link OutputStream} to write the ranges' content to
+     * @throws IOException if an I/O error occurs during the write operation
+     * @see MultipartByteRanges
+     */
+    void writeContent(String fileName, List<ByteRange> ranges, Function<ByteRange, byte[]> delimiter, OutputStream output) throws IOException;
+
+    /**
+     * Returns whether a failure of a file store operation means that the file does not exist.
+     * <p>
+     * The implementations report a missing file with a {@link NoSuchFileException}, that may be wrapped,
+     * for example by Vert.x or by the blocking operations that do not throw checked exceptions.
+     *
+     * @param failure the failure of an operation
+     * @return {@code true} if the failure is caused by a {@link NoSuchFileException}
+     */
+    static boolean isNoSuchFile(Throwable failure) {
+        for (var cause = failure; cause != null; cause = cause.getCause()) {
+            if (cause instanceof NoSuchFileException) {
+                return true;
+            }
+        }
+        return false;
+    }
 }
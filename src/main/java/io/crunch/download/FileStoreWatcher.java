@@ -0,0 +1,139 @@
+package io.crunch.download;
+
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * {@code FileStoreWatcher} watches the root directory of the file store with a {@link WatchService}, and notifies its
+ * {@link Listener}s of the created, modified and deleted files, so the in-memory views of the file store (the metadata
+ * cache and the namespace index) are kept up to date. The subdirectories are not watched, since only the files of the
+ * root directory are served.
+ * <p>
+ * The watcher is started by the first listener, on a daemon thread. It sees only the changes made through this host:
+ * the changes made by other NFS clients are not reported by the operating system, so every listener must also
+ * expire or rebuild its view on its own. The watcher is disabled with {@code app.filestore.watch=false}.
+ */
+@ApplicationScoped
+public class FileStoreWatcher {
+
+    private final Logger logger = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+    /**
+     * Receives the changes of the file store.
+     */
+    public interface Listener {
+
+        /**
+         * Called when a file or directory of the root directory has been created, modified or deleted.
+         *
+         * @param fileName the name of the changed file or directory, relative to the root directory
+         * @param kind     the kind of the change
+         */
+        void onChange(String fileName, WatchEvent.Kind<Path> kind);
+
+        /**
+         * Called when changes have been lost, so the listener must not trust its view any more.
+         */
+        void onOverflow();
+    }
+
+    private final Path root;
+
+    private final boolean enabled;
+
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    private WatchService watchService;
+
+    @Inject
+    public FileStoreWatcher(@ConfigProperty(name = "app.filestore.root") String fileStoreRootDirectory,
+                            @ConfigProperty(name = "app.filestore.watch", defaultValue = "true") boolean enabled) {
+        this.root = Paths.get(fileStoreRootDirectory).toAbsolutePath().normalize();
+        this.enabled = enabled;
+    }
+
+    /**
+     * Adds a listener, and starts watching the root directory if it is not watched yet.
+     *
+     * @param listener the listener to notify of the changes
+     */
+    public synchronized void addListener(Listener listener) {
+        listeners.add(listener);
+        if (!enabled || watchService != null) {
+            return;
+        }
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+            root.register(watchService,
+                StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_DELETE,
+                StandardWatchEventKinds.ENTRY_MODIFY);
+            Thread.ofPlatform().daemon().name("file-store-watcher").start(this::watchChanges);
+        } catch (IOException e) {
+            logger.warn("Cannot watch [{}], the changes are seen when the cached views expire", root, e);
+        }
+    }
+
+    /**
+     * Stops watching the root directory.
+     */
+    @PreDestroy
+    public synchronized void close() {
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                logger.warn("Cannot close the watcher of [{}]", root, e);
+            }
+        }
+    }
+
+    private void watchChanges() {
+        try {
+            while (true) {
+                var key = watchService.take();
+                handle(key);
+                key.reset();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException e) {
+            // the application is shutting down
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void handle(WatchKey key) {
+        var directory = (Path) key.watchable();
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                listeners.forEach(Listener::onOverflow);
+                continue;
+            }
+            notify(directory.resolve((Path) event.context()), (WatchEvent.Kind<Path>) event.kind());
+        }
+    }
+
+    private void notify(Path path, WatchEvent.Kind<Path> kind) {
+        var fileName = root.relativize(path).toString().replace(File.separatorChar, '/');
+        listeners.forEach(listener -> listener.onChange(fileName, kind));
+    }
+}
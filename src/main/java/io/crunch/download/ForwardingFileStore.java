@@ -0,0 +1,136 @@
+package io.crunch.download;
+
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.Uni;
+import io.vertx.mutiny.core.buffer.Buffer;
+import io.vertx.mutiny.core.file.AsyncFile;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * {@code ForwardingFileStore} is a {@link FileStore} that forwards every call to a delegate {@link FileStore}.
+ * <p>
+ * It is the base class of the CDI decorators of the file store, that override only the operations they enhance,
+ * for example with caching, and leave the rest of the operations to the decorated store.
+ *
+ * @see jakarta.decorator.Decorator
+ */
+public abstract class ForwardingFileStore implements FileStore {
+
+    /**
+     * The decorated file store.
+     */
+    protected final FileStore delegate;
+
+    protected ForwardingFileStore(FileStore delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public Uni<AsyncFile> getAsyncFile(String fileName) {
+        return delegate.getAsyncFile(fileName);
+    }
+
+    @Override
+    public Uni<AsyncFile> getAsyncFile(String fileName, ByteRange range) {
+        return delegate.getAsyncFile(fileName, range);
+    }
+
+    @Override
+    public Uni<Buffer> getBuffer(String fileName) {
+        return delegate.getBuffer(fileName);
+    }
+
+    @Override
+    public Uni<Buffer> getBuffer(String fileName, ByteRange range) {
+        return delegate.getBuffer(fileName, range);
+    }
+
+    @Override
+    public Uni<PooledBuffer> getPooledBuffer(String fileName) {
+        return delegate.getPooledBuffer(fileName);
+    }
+
+    @Override
+    public Uni<PooledBuffer> getPooledBuffer(String fileName, ByteRange range) {
+        return delegate.getPooledBuffer(fileName, range);
+    }
+
+    @Override
+    public Multi<PooledBuffer> getPooledMultiBuffer(String fileName) {
+        return delegate.getPooledMultiBuffer(fileName);
+    }
+
+    @Override
+    public Multi<PooledBuffer> getPooledMultiBuffer(String fileName, ByteRange range) {
+        return delegate.getPooledMultiBuffer(fileName, range);
+    }
+
+    @Override
+    public Multi<PooledBuffer> getPooledMultiBuffer(String fileName, List<ByteRange> ranges, Function<ByteRange, byte[]> delimiter) {
+        return delegate.getPooledMultiBuffer(fileName, ranges, delimiter);
+    }
+
+    @Override
+    public Multi<Buffer> getMultiBuffer(String fileName) {
+        return delegate.getMultiBuffer(fileName);
+    }
+
+    @Override
+    public Multi<Buffer> getMultiBuffer(String fileName, ByteRange range) {
+        return delegate.getMultiBuffer(fileName, range);
+    }
+
+    @Override
+    public Multi<Buffer> getMultiBuffer(String fileName, List<ByteRange> ranges, Function<ByteRange, byte[]> delimiter) {
+        return delegate.getMultiBuffer(fileName, ranges, delimiter);
+    }
+
+    @Override
+    public Uni<FileRegion> getFileRegion(String fileName) {
+        return delegate.getFileRegion(fileName);
+    }
+
+    @Override
+    public byte[] getByteArray(String fileName) {
+        return delegate.getByteArray(fileName);
+    }
+
+    @Override
+    public byte[] getByteArray(String fileName, ByteRange range) {
+        return delegate.getByteArray(fileName, range);
+    }
+
+    @Override
+    public long getFileSize(String fileName) {
+        return delegate.getFileSize(fileName);
+    }
+
+    @Override
+    public Uni<FileMetadata> getMetadata(String fileName) {
+        return delegate.getMetadata(fileName);
+    }
+
+    @Override
+    public boolean isCached(String fileName, FileMetadata metadata) {
+        return delegate.isCached(fileName, metadata);
+    }
+
+    @Override
+    public void writeContent(String fileName, OutputStream output) throws IOException {
+        delegate.writeContent(fileName, output);
+    }
+
+    @Override
+    public void writeContent(String fileName, ByteRange range, OutputStream output) throws IOException {
+        delegate.writeContent(fileName, range, output);
+    }
+
+    @Override
+    public void writeContent(String fileName, List<ByteRange> ranges, Function<ByteRange, byte[]> delimiter, OutputStream output) throws IOException {
+        delegate.writeContent(fileName, ranges, delimiter, output);
+    }
+}
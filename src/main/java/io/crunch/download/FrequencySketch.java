@@ -0,0 +1,93 @@
+package io.crunch.download;
+
+/**
+ * {@code FrequencySketch} is a Count-Min sketch with 4-bit counters that estimates the popularity of the keys
+ * within a time window, as used by the TinyLFU admission policy.
+ * <p>
+ * The counters are halved periodically (after ten increments per counter on average), so the sketch forgets the
+ * popularity of keys that are no longer accessed. The sketch is not thread-safe.
+ *
+ * @see <a href="https://arxiv.org/abs/1512.00727">TinyLFU: A Highly Efficient Cache Admission Policy</a>
+ */
+public class FrequencySketch {
+
+    private static final int DEPTH = 4;
+
+    private static final int MAX_COUNT = 15;
+
+    private static final int[] SEEDS = {0x97cb3127, 0xb1f7c3a1, 0x8f5a2c6d, 0xe3c1d2b5};
+
+    private final byte[][] table;
+
+    private final int mask;
+
+    private final int sampleSize;
+
+    private int additions;
+
+    /**
+     * Creates a sketch sized for the given number of keys.
+     *
+     * @param expectedKeys the number of distinct keys expected to be tracked
+     */
+    public FrequencySketch(int expectedKeys) {
+        var width = Integer.highestOneBit(Math.max(16, expectedKeys - 1) << 1);
+        this.table = new byte[DEPTH][width];
+        this.mask = width - 1;
+        this.sampleSize = 10 * width;
+    }
+
+    /**
+     * Increments the popularity of the given key, unless it has already reached the maximum.
+     *
+     * @param key the accessed key
+     */
+    public void increment(Object key) {
+        var hash = spread(key.hashCode());
+        var added = false;
+        for (int i = 0; i < DEPTH; i++) {
+            var index = index(hash, i);
+            if (table[i][index] < MAX_COUNT) {
+                table[i][index]++;
+                added = true;
+            }
+        }
+        if (added && ++additions == sampleSize) {
+            reset();
+        }
+    }
+
+    /**
+     * Returns the estimated number of accesses of the given key within the current time window.
+     *
+     * @param key the key to estimate
+     * @return the estimated frequency between {@code 0} and {@code 15}
+     */
+    public int frequency(Object key) {
+        var hash = spread(key.hashCode());
+        var frequency = MAX_COUNT;
+        for (int i = 0; i < DEPTH; i++) {
+            frequency = Math.min(frequency, table[i][index(hash, i)]);
+        }
+        return frequency;
+    }
+
+    private int index(int hash, int row) {
+        var h = (hash ^ SEEDS[row]) * SEEDS[row];
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    private void reset() {
+        for (var row : table) {
+            for (int i = 0; i < row.length; i++) {
+                row[i] >>= 1;
+            }
+        }
+        additions /= 2;
+    }
+
+    private static int spread(int hash) {
+        var h = hash * 0x9e3779b9;
+        return h ^ (h >>> 15);
+    }
+}
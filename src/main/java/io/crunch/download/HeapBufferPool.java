@@ -0,0 +1,132 @@
+package io.crunch.download;
+
+import io.quarkus.runtime.configuration.MemorySize;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@code HeapBufferPool} hands out the heap buffers the blocking operations of the file stores copy the content
+ * through, from the file to the response stream, so a download does not allocate a new buffer per request.
+ * <p>
+ * The pool is split in stripes, and a thread takes and returns its buffers to the stripe of its thread id, so the
+ * worker threads, that are long-lived, mostly reuse the buffers of their own stripe without contention, and the
+ * virtual threads, that are not, spread over the stripes. A stripe is a fixed number of slots taken and filled with
+ * compare-and-set, so a thread never blocks on the pool and a virtual thread never pins its carrier. A thread that
+ * finds no buffer in its stripe allocates one, and a buffer returned to a full stripe is left to the garbage
+ * collector, so the pool never holds more than {@code stripes * buffers-per-stripe} buffers.
+ * <p>
+ * The pool is configured with {@code app.filestore.buffer-pool.buffer-size} and
+ * {@code app.filestore.buffer-pool.buffers-per-stripe}, and its statistics are registered as the
+ * {@code io.crunch.download:type=HeapBufferPool} MBean.
+ */
+@ApplicationScoped
+public class HeapBufferPool implements HeapBufferPoolMXBean {
+
+    private final int bufferSize;
+
+    private final int buffersPerStripe;
+
+    private final int stripeMask;
+
+    private final AtomicReferenceArray<ByteBuffer> slots;
+
+    private final AtomicInteger pooledBuffers = new AtomicInteger();
+
+    private final LongAdder acquires = new LongAdder();
+
+    private final LongAdder allocations = new LongAdder();
+
+    @Inject
+    public HeapBufferPool(@ConfigProperty(name = "app.filestore.buffer-pool.buffer-size", defaultValue = "64K") MemorySize bufferSize,
+                          @ConfigProperty(name = "app.filestore.buffer-pool.buffers-per-stripe", defaultValue = "4") int buffersPerStripe) {
+        this(Math.toIntExact(bufferSize.asLongValue()), buffersPerStripe);
+    }
+
+    /**
+     * Creates a pool of buffers of the given size, with a stripe per available processor.
+     *
+     * @param bufferSize       the size of the pooled buffers in bytes
+     * @param buffersPerStripe the maximum number of buffers kept per stripe, {@code 0} keeps none
+     */
+    public HeapBufferPool(int bufferSize, int buffersPerStripe) {
+        var stripes = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1);
+        this.bufferSize = bufferSize;
+        this.buffersPerStripe = buffersPerStripe;
+        this.stripeMask = stripes - 1;
+        this.slots = new AtomicReferenceArray<>(stripes * buffersPerStripe);
+    }
+
+    /**
+     * Registers the MBean.
+     */
+    @PostConstruct
+    void start() {
+        MBeans.register("HeapBufferPool", this);
+    }
+
+    /**
+     * Takes a buffer from the stripe of the calling thread, or allocates one if the stripe is empty.
+     *
+     * @return a cleared heap buffer of the pool's buffer size, that must be {@link #release(ByteBuffer) released}
+     *         once it is no longer used
+     */
+    public ByteBuffer acquire() {
+        acquires.increment();
+        var first = firstSlot();
+        for (int i = first; i < first + buffersPerStripe; i++) {
+            var buffer = slots.get(i);
+            if (buffer != null && slots.compareAndSet(i, buffer, null)) {
+                pooledBuffers.decrementAndGet();
+                return buffer.clear();
+            }
+        }
+        allocations.increment();
+        return ByteBuffer.allocate(bufferSize);
+    }
+
+    /**
+     * Returns a buffer to the stripe of the calling thread, or leaves it to the garbage collector if the stripe is full.
+     *
+     * @param buffer a buffer acquired from this pool, that must no longer be used by the caller
+     */
+    public void release(ByteBuffer buffer) {
+        var first = firstSlot();
+        for (int i = first; i < first + buffersPerStripe; i++) {
+            if (slots.get(i) == null && slots.compareAndSet(i, null, buffer)) {
+                pooledBuffers.incrementAndGet();
+                return;
+            }
+        }
+    }
+
+    private int firstSlot() {
+        return (int) (Thread.currentThread().threadId() & stripeMask) * buffersPerStripe;
+    }
+
+    @Override
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    @Override
+    public int getPooledBufferCount() {
+        return pooledBuffers.get();
+    }
+
+    @Override
+    public long getAcquireCount() {
+        return acquires.sum();
+    }
+
+    @Override
+    public long getAllocationCount() {
+        return allocations.sum();
+    }
+}
@@ -0,0 +1,27 @@
+package io.crunch.download;
+
+/**
+ * The management interface of the {@link HeapBufferPool}, exposing its statistics through JMX.
+ */
+public interface HeapBufferPoolMXBean {
+
+    /**
+     * @return the size of the pooled buffers in bytes
+     */
+    int getBufferSize();
+
+    /**
+     * @return the number of buffers that are currently kept by the pool
+     */
+    int getPooledBufferCount();
+
+    /**
+     * @return the number of buffers that were handed out
+     */
+    long getAcquireCount();
+
+    /**
+     * @return the number of buffers that were allocated because the pool had none to hand out
+     */
+    long getAllocationCount();
+}
@@ -0,0 +1,304 @@
+package io.crunch.download;
+
+import io.netty.buffer.ByteBuf;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
+import java.util.function.UnaryOperator;
+
+/**
+ * {@code HotFileCache} keeps the content of popular files in memory within a byte budget.
+ * <p>
+ * The content can be held on the heap as byte arrays ({@link #heap(long)}), or off-heap in pooled direct memory
+ * as reference-counted {@link ByteBuf}s ({@link #offHeap(long)}). The cache owns one reference of every entry, and
+ * hands out a reference of its own to every caller, so an entry evicted while a response is still being written is
+ * freed only when the response releases it.
+ * <p>
+ * The eviction policy follows W-TinyLFU: new entries are placed in a small LRU admission window (1% of the budget),
+ * and the entries leaving the window are admitted to the main LRU area only if they are estimated to be accessed
+ * more often than the entries they would evict. The admission is size-aware: a candidate has to be more popular
+ * than all the victims together, so a single large file cannot push out many smaller hot files.
+ * <p>
+ * Every entry carries the version of the file it was read from, a lookup with another version is a miss,
+ * and the stale entry is removed. The cache is thread-safe; the lock is held only for the bookkeeping,
+ * never during I/O, so it does not pin virtual threads.
+ *
+ * @see FrequencySketch
+ * @see <a href="https://arxiv.org/abs/1512.00727">TinyLFU: A Highly Efficient Cache Admission Policy</a>
+ */
+public class HotFileCache<V> implements HotFileCacheMXBean {
+
+    /**
+     * The assumed average size of the cached files, used to size the frequency sketch.
+     */
+    private static final long AVERAGE_ENTRY_SIZE = 256 * 1024;
+
+    private record Entry<V>(String version, V content, long weight) {
+    }
+
+    private final long maximumWeight;
+
+    private final long windowMaximum;
+
+    private final long mainMaximum;
+
+    private final LinkedHashMap<String, Entry<V>> window = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final LinkedHashMap<String, Entry<V>> main = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * The entries of the window and of the main area, that can be read without changing their access order.
+     */
+    private final HashMap<String, Entry<V>> entries = new HashMap<>();
+
+    private final ToLongFunction<V> weigher;
+
+    private final UnaryOperator<V> acquire;
+
+    private final Consumer<V> release;
+
+    private final FrequencySketch sketch;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder evictions = new LongAdder();
+
+    private long windowWeight;
+
+    private long mainWeight;
+
+    /**
+     * Creates a cache with the given byte budget.
+     *
+     * @param maximumWeight the maximum number of bytes held by the cache, {@code 0} disables the cache
+     * @param weigher       returns the number of bytes held by a content
+     * @param acquire       returns the reference to a cached content that is handed out to a caller,
+     *                      called while the entry cannot be evicted
+     * @param release       releases the cache's reference of a content that is evicted, replaced or rejected
+     */
+    public HotFileCache(long maximumWeight, ToLongFunction<V> weigher, UnaryOperator<V> acquire, Consumer<V> release) {
+        this.maximumWeight = maximumWeight;
+        this.weigher = weigher;
+        this.acquire = acquire;
+        this.release = release;
+        this.windowMaximum = maximumWeight / 100;
+        this.mainMaximum = maximumWeight - windowMaximum;
+        this.sketch = new FrequencySketch((int) Math.min(1 << 20, Math.max(64, maximumWeight / AVERAGE_ENTRY_SIZE)));
+    }
+
+    /**
+     * Creates a cache holding the content on the heap as byte arrays, that are shared by the callers.
+     *
+     * @param maximumWeight the maximum number of bytes held by the cache, {@code 0} disables the cache
+     * @return the new cache
+     */
+    public static HotFileCache<byte[]> heap(long maximumWeight) {
+        return new HotFileCache<>(maximumWeight, content -> content.length, UnaryOperator.identity(), content -> { });
+    }
+
+    /**
+     * Creates a cache holding the content off-heap as {@link ByteBuf}s.
+     * <p>
+     * A lookup hands out a retained slice of the cached buffer, that the caller must release.
+     *
+     * @param maximumWeight the maximum number of bytes held by the cache, {@code 0} disables the cache
+     * @return the new cache
+     */
+    public static HotFileCache<ByteBuf> offHeap(long maximumWeight) {
+        return new HotFileCache<>(maximumWeight, ByteBuf::readableBytes, ByteBuf::retainedSlice, ByteBuf::release);
+    }
+
+    /**
+     * Returns whether the cache has a budget to hold any content.
+     *
+     * @return {@code true} if the cache is enabled
+     */
+    public boolean isEnabled() {
+        return maximumWeight > 0;
+    }
+
+    /**
+     * Returns whether content of the given size can be held by the cache at all.
+     *
+     * @param size the size of the content in bytes
+     * @return {@code true} if the content fits into the budget
+     */
+    public boolean fits(long size) {
+        return size <= mainMaximum;
+    }
+
+    /**
+     * Returns whether the given file is cached with the given version, without counting a hit or a miss, recording
+     * the access in the frequency sketch, nor moving the entry in the LRU order.
+     *
+     * @param key     the name of the file
+     * @param version the current version of the file
+     * @return {@code true} if the content of the file would be returned by {@link #get(String, String)}
+     */
+    public boolean contains(String key, String version) {
+        lock.lock();
+        try {
+            var entry = entries.get(key);
+            return entry != null && entry.version().equals(version);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the cached content of the given file, and records the access in the frequency sketch.
+     *
+     * @param key     the name of the file
+     * @param version the current version of the file
+     * @return the cached content, or {@code null} if the file is not cached with the given version
+     * @apiNote The content returned by a heap cache is shared, and must not be modified.
+     */
+    public V get(String key, String version) {
+        lock.lock();
+        try {
+            sketch.increment(key);
+            var entry = window.get(key);
+            if (entry == null) {
+                entry = main.get(key);
+            }
+            if (entry != null && entry.version().equals(version)) {
+                hits.increment();
+                return acquire.apply(entry.content());
+            }
+            if (entry != null) {
+                remove(key);
+            }
+            misses.increment();
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Offers the content of the given file to the cache.
+     * <p>
+     * The content is placed in the admission window, that may cause the least recently used entries of the window
+     * to be moved to the main area or to be rejected by the admission policy.
+     *
+     * @param key     the name of the file
+     * @param version the version of the file the content was read from
+     * @param content the content of the file, that must not be modified afterward; its reference is owned by the cache
+     */
+    public void put(String key, String version, V content) {
+        var entry = new Entry<>(version, content, weigher.applyAsLong(content));
+        if (!isEnabled() || !fits(entry.weight())) {
+            release.accept(content);
+            return;
+        }
+        lock.lock();
+        try {
+            remove(key);
+            window.put(key, entry);
+            entries.put(key, entry);
+            windowWeight += entry.weight();
+            while (windowWeight > windowMaximum && !window.isEmpty()) {
+                var eldest = window.entrySet().iterator().next();
+                window.remove(eldest.getKey());
+                windowWeight -= eldest.getValue().weight();
+                admit(eldest.getKey(), eldest.getValue());
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Moves the candidate leaving the admission window to the main area, if it is more popular than the
+     * least recently used entries that have to be evicted to make room for it.
+     */
+    private void admit(String key, Entry<V> candidate) {
+        var victims = new ArrayList<String>();
+        var free = mainMaximum - mainWeight;
+        var victimFrequency = 0;
+        for (var iterator = main.entrySet().iterator(); free < candidate.weight() && iterator.hasNext(); ) {
+            var victim = iterator.next();
+            victims.add(victim.getKey());
+            free += victim.getValue().weight();
+            victimFrequency += sketch.frequency(victim.getKey());
+        }
+        if (!victims.isEmpty() && sketch.frequency(key) <= victimFrequency) {
+            entries.remove(key);
+            release.accept(candidate.content());
+            evictions.increment();
+            return;
+        }
+        for (var victim : victims) {
+            var evicted = main.remove(victim);
+            entries.remove(victim);
+            mainWeight -= evicted.weight();
+            release.accept(evicted.content());
+            evictions.increment();
+        }
+        main.put(key, candidate);
+        mainWeight += candidate.weight();
+    }
+
+    private void remove(String key) {
+        entries.remove(key);
+        var entry = window.remove(key);
+        if (entry != null) {
+            windowWeight -= entry.weight();
+            release.accept(entry.content());
+        }
+        entry = main.remove(key);
+        if (entry != null) {
+            mainWeight -= entry.weight();
+            release.accept(entry.content());
+        }
+    }
+
+    @Override
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    @Override
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    @Override
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    @Override
+    public int getEntryCount() {
+        lock.lock();
+        try {
+            return window.size() + main.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long getWeightedSize() {
+        lock.lock();
+        try {
+            return windowWeight + mainWeight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long getMaximumWeight() {
+        return maximumWeight;
+    }
+}
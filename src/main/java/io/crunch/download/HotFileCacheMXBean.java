@@ -0,0 +1,37 @@
+package io.crunch.download;
+
+/**
+ * The management interface of the {@link HotFileCache}, exposing its statistics through JMX.
+ */
+public interface HotFileCacheMXBean {
+
+    /**
+     * @return the number of lookups that were served from the cache
+     */
+    long getHitCount();
+
+    /**
+     * @return the number of lookups that were not found in the cache, or found with a stale version
+     */
+    long getMissCount();
+
+    /**
+     * @return the number of entries that were removed or rejected to keep the cache within its budget
+     */
+    long getEvictionCount();
+
+    /**
+     * @return the number of cached files
+     */
+    int getEntryCount();
+
+    /**
+     * @return the number of bytes held by the cache
+     */
+    long getWeightedSize();
+
+    /**
+     * @return the byte budget of the cache
+     */
+    long getMaximumWeight();
+}
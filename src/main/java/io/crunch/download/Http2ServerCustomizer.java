@@ -0,0 +1,57 @@
+package io.crunch.download;
+
+import io.quarkus.runtime.configuration.MemorySize;
+import io.quarkus.vertx.http.HttpServerOptionsCustomizer;
+import io.vertx.core.http.HttpServerOptions;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+/**
+ * {@code Http2ServerCustomizer} applies the HTTP/2 flow-control windows of the HTTP and HTTPS servers, that
+ * Quarkus does not expose entirely through its own configuration.
+ * <p>
+ * Both servers speak HTTP/2 when {@code quarkus.http.http2} is enabled: the HTTP server over clear text ({@code h2c},
+ * with prior knowledge or with the {@code Upgrade} header), and the HTTPS server through ALPN. A stream window is
+ * advertised to the peer with {@code SETTINGS_INITIAL_WINDOW_SIZE}, and the connection window with a
+ * {@code WINDOW_UPDATE} of the connection once it is open; both bound the bytes the peer may send before it is
+ * acknowledged. They are large enough for a batch of bodies to be received without waiting for a round trip, the
+ * content of the downloads being paced by the windows of the clients.
+ */
+@ApplicationScoped
+public class Http2ServerCustomizer implements HttpServerOptionsCustomizer {
+
+    private final int initialWindowSize;
+
+    private final int connectionWindowSize;
+
+    @Inject
+    public Http2ServerCustomizer(@ConfigProperty(name = "app.http2.initial-window-size", defaultValue = "1M") MemorySize initialWindowSize,
+                                 @ConfigProperty(name = "app.http2.connection-window-size", defaultValue = "16M") MemorySize connectionWindowSize) {
+        this.initialWindowSize = windowSize(initialWindowSize);
+        this.connectionWindowSize = windowSize(connectionWindowSize);
+    }
+
+    @Override
+    public void customizeHttpServer(HttpServerOptions options) {
+        customize(options);
+    }
+
+    @Override
+    public void customizeHttpsServer(HttpServerOptions options) {
+        customize(options);
+    }
+
+    private void customize(HttpServerOptions options) {
+        options.setHttp2ClearTextEnabled(true);
+        options.getInitialSettings().setInitialWindowSize(initialWindowSize);
+        options.setHttp2ConnectionWindowSize(connectionWindowSize);
+    }
+
+    /**
+     * HTTP/2 windows range from {@code 65535}, the default of the protocol, to {@code 2^31-1} bytes.
+     */
+    private static int windowSize(MemorySize size) {
+        return (int) Math.clamp(size.asLongValue(), 65_535L, Integer.MAX_VALUE);
+    }
+}
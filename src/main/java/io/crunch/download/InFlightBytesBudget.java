@@ -0,0 +1,359 @@
+package io.crunch.download;
+
+import io.quarkus.runtime.configuration.MemorySize;
+import io.smallrye.mutiny.Uni;
+import io.smallrye.mutiny.subscription.UniEmitter;
+import io.vertx.ext.web.RoutingContext;
+import io.vertx.mutiny.core.Vertx;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@code InFlightBytesBudget} bounds the memory held by the downloads that load the whole requested content into memory
+ * ({@code asyncBuffer}, {@code byteArray} and {@code byteArrayVirtual}) and by the parts prefetched by the batches,
+ * across all of them.
+ * <p>
+ * A download reserves the size of its content before it reads it, and the reservation is released when its response
+ * has been sent, has failed, or has been abandoned by the client. The reservations are granted while they fit in
+ * {@code app.download.memory-budget.max-size}; when they do not, the download follows the overflow policy:
+ * <ul>
+ *   <li>{@code stream} sends the content with a streaming strategy instead, whose memory does not depend on the file
+ *   size;</li>
+ *   <li>{@code queue} waits for the budget in arrival order, up to {@code app.download.memory-budget.max-queue-time},
+ *   and is rejected when it has waited that long;</li>
+ *   <li>{@code reject} is answered at once with {@code 503 Service Unavailable}.</li>
+ * </ul>
+ * A content larger than the whole budget never fits, and overflows at once. The waiting downloads are served first,
+ * so a large file is not starved by a stream of small ones. A queued download of the asynchronous endpoint waits
+ * without holding a thread, as it chains on the {@link Uni} of the reservation, whereas the blocking endpoints park
+ * their worker or virtual thread on it, for up to the maximum queue time. The waiting reservations are completed
+ * once the lock of the budget has been released, so their subscribers run without it.
+ * <p>
+ * The batches reserve the parts they prefetch with {@link #tryReserve(long)}, and stream the parts that do not fit.
+ * The streaming strategies are bounded by the chunk budget of the {@link ChunkSizePolicy} instead. The statistics are
+ * exposed as the {@code io.crunch.download:type=InFlightBytesBudget} MBean.
+ */
+@ApplicationScoped
+public class InFlightBytesBudget implements InFlightBytesBudgetMXBean {
+
+    /**
+     * What a download does when its content does not fit in the budget.
+     */
+    public enum Overflow {
+        /**
+         * The content is streamed instead of being loaded into memory.
+         */
+        STREAM,
+        /**
+         * The download waits for the budget up to the maximum queue time, and is rejected afterwards.
+         */
+        QUEUE,
+        /**
+         * The download is rejected.
+         */
+        REJECT
+    }
+
+    /**
+     * A granted reservation, released once by {@link #close()}.
+     */
+    public final class Reservation implements AutoCloseable {
+
+        private final long bytes;
+
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Reservation(long bytes) {
+            this.bytes = bytes;
+        }
+
+        /**
+         * @return the number of bytes reserved
+         */
+        public long bytes() {
+            return bytes;
+        }
+
+        /**
+         * Releases the reservation when the response of the request ends, whether it has been sent, has failed or
+         * has been abandoned by the client.
+         *
+         * @param context the request
+         * @return this reservation
+         */
+        public Reservation releaseOnEnd(RoutingContext context) {
+            context.addEndHandler(result -> close());
+            if (context.response().ended() || context.response().closed()) {
+                // the end handlers have run already
+                close();
+            }
+            return this;
+        }
+
+        /**
+         * Releases the reservation, and grants the waiting reservations that fit in the freed bytes. Repeated calls
+         * have no effect.
+         */
+        @Override
+        public void close() {
+            if (released.compareAndSet(false, true)) {
+                release(bytes);
+            }
+        }
+    }
+
+    /**
+     * A reservation waiting for the budget, guarded by the budget.
+     */
+    private static final class Waiter {
+
+        private final long bytes;
+
+        private UniEmitter<? super Reservation> emitter;
+
+        private long timer;
+
+        /**
+         * The reservation granted to the waiter, that is released if its subscriber has gone meanwhile.
+         */
+        private Reservation reservation;
+
+        private Waiter(long bytes) {
+            this.bytes = bytes;
+        }
+    }
+
+    private final Vertx vertx;
+
+    private final long maxSize;
+
+    private final Overflow overflow;
+
+    private final Duration maxQueueTime;
+
+    private final ArrayDeque<Waiter> waiters = new ArrayDeque<>();
+
+    private final LongAdder granted = new LongAdder();
+
+    private final LongAdder queued = new LongAdder();
+
+    private final LongAdder overflowed = new LongAdder();
+
+    private long reserved;
+
+    private long peakReserved;
+
+    @Inject
+    public InFlightBytesBudget(Vertx vertx,
+                               @ConfigProperty(name = "app.download.memory-budget.max-size", defaultValue = "512M") MemorySize maxSize,
+                               @ConfigProperty(name = "app.download.memory-budget.overflow", defaultValue = "stream") String overflow,
+                               @ConfigProperty(name = "app.download.memory-budget.max-queue-time", defaultValue = "2s") Duration maxQueueTime) {
+        this(vertx, maxSize.asLongValue(), Overflow.valueOf(overflow.trim().toUpperCase(Locale.ROOT)), maxQueueTime);
+    }
+
+    InFlightBytesBudget(Vertx vertx, long maxSize, Overflow overflow, Duration maxQueueTime) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("Invalid budget: " + maxSize);
+        }
+        this.vertx = vertx;
+        this.maxSize = maxSize;
+        this.overflow = overflow;
+        this.maxQueueTime = maxQueueTime;
+    }
+
+    /**
+     * Registers the MBean.
+     */
+    @PostConstruct
+    void start() {
+        MBeans.register("InFlightBytesBudget", this);
+    }
+
+    /**
+     * @return what a download does when its content does not fit in the budget
+     */
+    public Overflow overflow() {
+        return overflow;
+    }
+
+    /**
+     * Reserves the given number of bytes if they fit in the budget at once.
+     *
+     * @param bytes the size of the content to load
+     * @return the reservation, or {@code null} if the bytes do not fit or other reservations are waiting
+     */
+    public synchronized Reservation tryReserve(long bytes) {
+        if (!waiters.isEmpty() || !fits(bytes)) {
+            return null;
+        }
+        return grant(bytes);
+    }
+
+    /**
+     * Reserves the given number of bytes, following the overflow policy.
+     * <p>
+     * With the {@code queue} policy, the {@link Uni} completes once the reservation is granted, or with {@code null}
+     * after the maximum queue time. Cancelling it withdraws the reservation. With the other policies, it completes at
+     * once.
+     *
+     * @param bytes the size of the content to load
+     * @return a {@link Uni} emitting the reservation, or {@code null} if the download overflows the budget
+     */
+    public Uni<Reservation> reserve(long bytes) {
+        var reservation = tryReserve(bytes);
+        if (reservation != null || overflow != Overflow.QUEUE || bytes > maxSize) {
+            if (reservation == null) {
+                overflowed.increment();
+            }
+            return Uni.createFrom().item(reservation);
+        }
+        var waiter = new Waiter(bytes);
+        return Uni.createFrom().<Reservation>emitter(emitter -> enqueue(waiter, emitter))
+            .onCancellation()
+            .invoke(() -> withdraw(waiter));
+    }
+
+    private void enqueue(Waiter waiter, UniEmitter<? super Reservation> emitter) {
+        synchronized (this) {
+            waiter.emitter = emitter;
+            if (!waiters.isEmpty() || !fits(waiter.bytes)) {
+                queued.increment();
+                waiter.timer = vertx.setTimer(Math.max(1, maxQueueTime.toMillis()), id -> expire(waiter));
+                waiters.addLast(waiter);
+                return;
+            }
+            // released since the first attempt
+            waiter.reservation = grant(waiter.bytes);
+        }
+        complete(List.of(waiter));
+    }
+
+    /**
+     * Completes a reservation that has waited for the maximum queue time with {@code null}.
+     */
+    private void expire(Waiter waiter) {
+        List<Waiter> ready;
+        synchronized (this) {
+            if (!waiters.remove(waiter)) {
+                return;
+            }
+            overflowed.increment();
+            // the expired reservation may have blocked smaller ones behind it
+            ready = grantWaiters();
+        }
+        waiter.emitter.complete(null);
+        complete(ready);
+    }
+
+    /**
+     * Removes a reservation from the queue when its subscriber has gone, or releases it if it has been granted
+     * without being delivered.
+     */
+    private void withdraw(Waiter waiter) {
+        List<Waiter> ready;
+        synchronized (this) {
+            if (waiters.remove(waiter)) {
+                vertx.cancelTimer(waiter.timer);
+                ready = grantWaiters();
+            } else {
+                ready = List.of();
+            }
+        }
+        complete(ready);
+        if (waiter.reservation != null) {
+            waiter.reservation.close();
+        }
+    }
+
+    private void release(long bytes) {
+        List<Waiter> ready;
+        synchronized (this) {
+            reserved -= bytes;
+            ready = grantWaiters();
+        }
+        complete(ready);
+    }
+
+    /**
+     * Grants the reservations at the head of the queue while they fit, and returns them to be completed once the lock
+     * has been released.
+     */
+    private List<Waiter> grantWaiters() {
+        var ready = new ArrayList<Waiter>();
+        while (!waiters.isEmpty() && fits(waiters.peekFirst().bytes)) {
+            var waiter = waiters.removeFirst();
+            vertx.cancelTimer(waiter.timer);
+            waiter.reservation = grant(waiter.bytes);
+            ready.add(waiter);
+        }
+        return ready;
+    }
+
+    /**
+     * Delivers granted reservations, without holding the lock of the budget.
+     */
+    private static void complete(List<Waiter> ready) {
+        ready.forEach(waiter -> waiter.emitter.complete(waiter.reservation));
+    }
+
+    private boolean fits(long bytes) {
+        return bytes <= maxSize - reserved;
+    }
+
+    private Reservation grant(long bytes) {
+        reserved += bytes;
+        peakReserved = Math.max(peakReserved, reserved);
+        granted.increment();
+        return new Reservation(bytes);
+    }
+
+    @Override
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    @Override
+    public String getOverflowPolicy() {
+        return overflow.name().toLowerCase(Locale.ROOT);
+    }
+
+    @Override
+    public synchronized long getReservedBytes() {
+        return reserved;
+    }
+
+    @Override
+    public synchronized long getPeakReservedBytes() {
+        return peakReserved;
+    }
+
+    @Override
+    public synchronized int getWaitingCount() {
+        return waiters.size();
+    }
+
+    @Override
+    public long getGrantedCount() {
+        return granted.sum();
+    }
+
+    @Override
+    public long getQueuedCount() {
+        return queued.sum();
+    }
+
+    @Override
+    public long getOverflowCount() {
+        return overflowed.sum();
+    }
+}
@@ -0,0 +1,48 @@
+package io.crunch.download;
+
+/**
+ * The management interface of the {@link InFlightBytesBudget}, exposing its statistics through JMX.
+ */
+public interface InFlightBytesBudgetMXBean {
+
+    /**
+     * @return the number of bytes the in-memory downloads may hold together
+     */
+    long getMaxSize();
+
+    /**
+     * @return what a download does when its content does not fit in the budget: {@code stream}, {@code queue} or
+     * {@code reject}
+     */
+    String getOverflowPolicy();
+
+    /**
+     * @return the number of bytes reserved by the downloads in progress
+     */
+    long getReservedBytes();
+
+    /**
+     * @return the highest number of bytes reserved at once
+     */
+    long getPeakReservedBytes();
+
+    /**
+     * @return the number of downloads waiting for the budget
+     */
+    int getWaitingCount();
+
+    /**
+     * @return the number of reservations that have been granted
+     */
+    long getGrantedCount();
+
+    /**
+     * @return the number of reservations that have waited for the budget
+     */
+    long getQueuedCount();
+
+    /**
+     * @return the number of downloads that have overflowed the budget, and were streamed or rejected
+     */
+    long getOverflowCount();
+}
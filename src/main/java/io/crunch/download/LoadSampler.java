@@ -0,0 +1,109 @@
+package io.crunch.download;
+
+import com.sun.management.OperatingSystemMXBean;
+import io.vertx.mutiny.core.Vertx;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.DoubleSupplier;
+
+/**
+ * {@code LoadSampler} samples the load of the server every {@value #SAMPLE_INTERVAL_MILLIS} ms, for the components
+ * that back off when the server is busy: the {@link StreamingCompressor} and the {@link StrategySelector}.
+ * <p>
+ * The lag of the event loop is how late a periodic timer fires, so it grows when the event loop is kept busy by the
+ * tasks queued before the timer. The CPU load is the recent load of the whole machine. Both signals are smoothed
+ * over the last samples, so a single late timer or a short burst does not change the decisions taken from them.
+ */
+@ApplicationScoped
+public class LoadSampler {
+
+    /**
+     * How often the CPU load and the event loop lag are sampled.
+     */
+    static final long SAMPLE_INTERVAL_MILLIS = 100;
+
+    private final Vertx vertx;
+
+    private final DoubleSupplier cpuLoadSampler;
+
+    private volatile long timer = -1;
+
+    private volatile double cpuLoad;
+
+    private volatile long eventLoopLagNanos;
+
+    private long lastSample;
+
+    @Inject
+    public LoadSampler(Vertx vertx) {
+        this(vertx, LoadSampler::systemCpuLoad);
+    }
+
+    /**
+     * Creates a sampler, that samples nothing until it is started.
+     *
+     * @param vertx          the Vert.x instance whose event loop lag is measured
+     * @param cpuLoadSampler the sampler of the CPU load, between {@code 0} and {@code 1}, negative if unknown
+     */
+    LoadSampler(Vertx vertx, DoubleSupplier cpuLoadSampler) {
+        this.vertx = vertx;
+        this.cpuLoadSampler = cpuLoadSampler;
+    }
+
+    /**
+     * Starts sampling the load.
+     */
+    @PostConstruct
+    void start() {
+        lastSample = System.nanoTime();
+        timer = vertx.setPeriodic(SAMPLE_INTERVAL_MILLIS, id -> {
+            var now = System.nanoTime();
+            sample(now - lastSample - TimeUnit.MILLISECONDS.toNanos(SAMPLE_INTERVAL_MILLIS), cpuLoadSampler.getAsDouble());
+            lastSample = now;
+        });
+    }
+
+    /**
+     * Stops sampling the load.
+     */
+    @PreDestroy
+    void close() {
+        if (timer >= 0) {
+            vertx.cancelTimer(timer);
+        }
+    }
+
+    /**
+     * @return the recent CPU load of the machine, between {@code 0} and {@code 1}
+     */
+    public double cpuLoad() {
+        return cpuLoad;
+    }
+
+    /**
+     * @return the recent lag of the event loop timers, in nanoseconds
+     */
+    public long eventLoopLagNanos() {
+        return eventLoopLagNanos;
+    }
+
+    /**
+     * Folds a sample into the smoothed signals.
+     *
+     * @param lagNanos how late the sampling timer has fired, in nanoseconds
+     * @param load     the CPU load of the machine, negative if unknown
+     */
+    void sample(long lagNanos, double load) {
+        eventLoopLagNanos = (eventLoopLagNanos + Math.max(0, lagNanos)) / 2;
+        cpuLoad = (cpuLoad + Math.max(0, load)) / 2;
+    }
+
+    private static double systemCpuLoad() {
+        return ManagementFactory.getOperatingSystemMXBean() instanceof OperatingSystemMXBean os ? os.getCpuLoad() : -1;
+    }
+}
@@ -1,21 +1,34 @@
 package io.crunch.download;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.quarkus.arc.DefaultBean;
 import io.smallrye.mutiny.Multi;
 import io.smallrye.mutiny.Uni;
+import io.vertx.core.buffer.impl.BufferImpl;
 import io.vertx.core.file.OpenOptions;
 import io.vertx.mutiny.core.Vertx;
 import io.vertx.mutiny.core.buffer.Buffer;
 import io.vertx.mutiny.core.file.AsyncFile;
 import io.vertx.mutiny.core.streams.ReadStream;
+import jakarta.annotation.PreDestroy;
 import jakarta.enterprise.context.ApplicationScoped;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 
-import java.io.ByteArrayOutputStream;
-import java.io.FileInputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
 
 /**
  * {@code LocalFileStore} is an implementation of the {@link FileStore} interface
@@ -23,8 +36,18 @@ import java.nio.file.Paths;
  * <p>
  * This class integrates with Vert.x and Mutiny to perform asynchronous file operations
  * and supports synchronous file access methods for scenarios where blocking operations are acceptable.
+ * <p>
+ * The files are read through a {@link FileHandleCache} of open {@link FileChannel}s shared by the concurrent
+ * requests with positional reads, so a popular file is not opened and closed (an NFS round trip each) per request.
+ * The open files that have not been used for {@code app.filestore.handles.idle-timeout} are closed in the
+ * background, and the cache is registered in JMX as {@code FileHandleCache}. The {@link AsyncFile}s handed out by
+ * {@link #getAsyncFile(String)} carry a read position of their own, so they are opened per request.
+ * <p>
+ * This is the default file store, that is replaced by {@link MappedFileStore} when
+ * {@code app.filestore.type} is set to {@code mapped} at build time.
  */
 @ApplicationScoped
+@DefaultBean
 public class LocalFileStore implements FileStore {
 
     /**
@@ -37,16 +60,70 @@ public class LocalFileStore implements FileStore {
      */
     private final Vertx vertx;
 
-    public LocalFileStore(@ConfigProperty(name = "app.filestore.root") String fileStoreRootDirectory, Vertx vertx) {
+    /**
+     * The open files shared by the requests.
+     */
+    private final FileHandleCache handles;
+
+    /**
+     * The timer closing the idle open files, or {@code -1} if no file is kept open.
+     */
+    private final long idleTimer;
+
+    /**
+     * Chooses the size of the chunks the streams are read in.
+     */
+    private final ChunkSizePolicy chunkSizes;
+
+    /**
+     * Provides the buffers the blocking streams are copied through.
+     */
+    private final HeapBufferPool buffers;
+
+    /**
+     * Reads an open file, while the caller holds a reference of it.
+     */
+    @FunctionalInterface
+    private interface HandleReader<T> {
+        T read(FileHandleCache.Handle handle) throws IOException;
+    }
+
+    public LocalFileStore(@ConfigProperty(name = "app.filestore.root") String fileStoreRootDirectory,
+                          @ConfigProperty(name = "app.filestore.handles.max-open", defaultValue = "256") int maximumHandles,
+                          @ConfigProperty(name = "app.filestore.handles.idle-timeout", defaultValue = "30s") Duration idleTimeout,
+                          ChunkSizePolicy chunkSizes,
+                          HeapBufferPool buffers,
+                          Vertx vertx) {
         this.fileStoreRootDirectory = fileStoreRootDirectory;
         this.vertx = vertx;
+        this.chunkSizes = chunkSizes;
+        this.buffers = buffers;
+        this.handles = new FileHandleCache(maximumHandles, idleTimeout);
+        this.idleTimer = maximumHandles > 0 && idleTimeout.isPositive()
+            ? vertx.setPeriodic(idleTimeout.toMillis(), id -> vertx.getDelegate().executeBlocking(() -> {
+                handles.evictIdle();
+                return null;
+            }, false))
+            : -1;
+        MBeans.register("FileHandleCache", handles);
+    }
+
+    /**
+     * Closes the open files that are not being read, the others are closed when their last reader releases them.
+     */
+    @PreDestroy
+    void close() {
+        if (idleTimer >= 0) {
+            vertx.cancelTimer(idleTimer);
+        }
+        handles.clear();
     }
 
     /**
      * Opens the specified file as an {@link AsyncFile} for asynchronous read operations.
      * <p>
      * This method uses Vert.x's file system API with {@link OpenOptions} to open the file in read-only mode.
-     * The default read buffer size is set to 8KB.
+     * The read buffer size is chosen by the {@link ChunkSizePolicy} from the size of the file.
      *
      * @param fileName the name of the file to open
      * @return a {@link Uni} emitting the {@link AsyncFile} instance representing the file,
@@ -54,17 +131,40 @@ public class LocalFileStore implements FileStore {
      */
     @Override
     public Uni<AsyncFile> getAsyncFile(String fileName) {
-        var openOptions = new OpenOptions()
-                .setRead(true)
-                .setCreate(false)
-                .setWrite(false);
-        return vertx.fileSystem().open(getPathAsString(fileName), openOptions);
+        return open(fileName)
+            .onItem()
+            .transformToUni(asyncFile -> asyncFile.size()
+                .onItem()
+                .transform(size -> asyncFile.setReadBufferSize(chunkSizes.chunkSize(size)))
+                .onFailure()
+                .call(asyncFile::close));
+    }
+
+    /**
+     * Opens the specified file as an {@link AsyncFile} that reads only the given range.
+     * <p>
+     * The read position and read length of the {@link AsyncFile} are set to the range, so the file is read
+     * with positional reads starting at the range's offset, in chunks sized for the range's length.
+     *
+     * @param fileName the name of the file to open
+     * @param range    the range of the file to read
+     * @return a {@link Uni} emitting the {@link AsyncFile} positioned at the start of the range,
+     *         or a failure if the file cannot be opened
+     */
+    @Override
+    public Uni<AsyncFile> getAsyncFile(String fileName, ByteRange range) {
+        return open(fileName)
+            .onItem()
+            .transform(asyncFile -> asyncFile
+                .setReadPos(range.offset())
+                .setReadLength(range.length())
+                .setReadBufferSize(chunkSizes.chunkSize(range.length())));
     }
 
     /**
      * Reads the content of the specified file into a {@link Buffer}.
      * <p>
-     * This method uses the Vert.x file system API to asynchronously read the file's content into memory.
+     * The file is read on a worker thread with positional reads of its shared open {@link FileChannel}.
      *
      * @param fileName the name of the file to read
      * @return a {@link Uni} emitting the {@link Buffer} containing the file's content,
@@ -73,20 +173,175 @@ public class LocalFileStore implements FileStore {
      */
     @Override
     public Uni<Buffer> getBuffer(String fileName) {
-        return vertx.fileSystem().readFile(getPathAsString(fileName));
+        return vertx.executeBlocking(() -> read(fileName, handle -> toBuffer(
+            readFully(handle.channel(), 0, Unpooled.buffer(Math.toIntExact(handle.size())), fileName))), false);
+    }
+
+    /**
+     * Reads the given range of the specified file into a {@link Buffer}.
+     * <p>
+     * The range is read on a worker thread with positional reads of the file's shared open {@link FileChannel}.
+     *
+     * @param fileName the name of the file to read
+     * @param range    the range of the file to read
+     * @return a {@link Uni} emitting the {@link Buffer} containing the range's content,
+     *         or a failure if the file cannot be read
+     */
+    @Override
+    public Uni<Buffer> getBuffer(String fileName, ByteRange range) {
+        return vertx.executeBlocking(() -> read(fileName, handle -> toBuffer(
+            readFully(handle.channel(), range.offset(), Unpooled.buffer(Math.toIntExact(range.length())), fileName))), false);
+    }
+
+    /**
+     * Reads the content of the specified file into a {@link PooledBuffer}.
+     * <p>
+     * The file is read on a worker thread from its shared open {@link FileChannel} straight into a direct buffer
+     * allocated from the Netty pooled allocator, so the content never passes through the Java heap.
+     *
+     * @param fileName the name of the file to read
+     * @return a {@link Uni} emitting the {@link PooledBuffer} containing the file's content,
+     *         or a failure if the file cannot be read
+     */
+    @Override
+    public Uni<PooledBuffer> getPooledBuffer(String fileName) {
+        return vertx.executeBlocking(() -> read(fileName, handle ->
+            readPooled(handle, 0, Math.toIntExact(handle.size()), fileName)), false);
+    }
+
+    /**
+     * Reads the given range of the specified file into a {@link PooledBuffer}.
+     * <p>
+     * The range is read on a worker thread from the file's shared open {@link FileChannel} straight into a direct
+     * buffer allocated from the Netty pooled allocator.
+     *
+     * @param fileName the name of the file to read
+     * @param range    the range of the file to read
+     * @return a {@link Uni} emitting the {@link PooledBuffer} containing the range's content,
+     *         or a failure if the file cannot be read
+     */
+    @Override
+    public Uni<PooledBuffer> getPooledBuffer(String fileName, ByteRange range) {
+        return vertx.executeBlocking(() -> read(fileName, handle ->
+            readPooled(handle, range.offset(), Math.toIntExact(range.length()), fileName)), false);
     }
 
     /**
      * Reads the content of the specified file into a {@link Multi} of {@link Buffer} instances.
      * <p>
-     * Internally it uses the Vert.x {@link AsyncFile} that is a {@link ReadStream}, and reads the file's content in chunks.
+     * Internally it uses the Vert.x {@link AsyncFile} that is a {@link ReadStream}, and reads the file's content in chunks
+     * sized by the {@link ChunkSizePolicy}.
      *
      * @param fileName the name of the file to read
      * @return a {@link Multi} emitting {@link Buffer} instances containing the file's content.
      */
     @Override
     public Multi<Buffer> getMultiBuffer(String fileName) {
-        return getAsyncFile(fileName).onItem().transformToMulti(AsyncFile::toMulti);
+        return chunkSizes.track(getAsyncFile(fileName).onItem().transformToMulti(AsyncFile::toMulti));
+    }
+
+    /**
+     * Reads the given range of the specified file into a {@link Multi} of {@link Buffer} instances.
+     *
+     * @param fileName the name of the file to read
+     * @param range    the range of the file to read
+     * @return a {@link Multi} emitting {@link Buffer} instances containing the range's content.
+     */
+    @Override
+    public Multi<Buffer> getMultiBuffer(String fileName, ByteRange range) {
+        return chunkSizes.track(getAsyncFile(fileName, range).onItem().transformToMulti(AsyncFile::toMulti));
+    }
+
+    /**
+     * Reads several ranges of the specified file into a single {@link Multi} of {@link Buffer} instances.
+     * <p>
+     * The shared open file is acquired once, and every range is read in chunks with positional reads on worker
+     * threads, so no read position is shared between the ranges. The file is released when the stream terminates.
+     *
+     * @param fileName  the name of the file to read
+     * @param ranges    the ranges of the file to read
+     * @param delimiter provides the bytes emitted before the content of a range
+     * @return a {@link Multi} emitting the delimiters and the content of the ranges.
+     */
+    @Override
+    public Multi<Buffer> getMultiBuffer(String fileName, List<ByteRange> ranges, Function<ByteRange, byte[]> delimiter) {
+        var chunkSize = chunkSizes.chunkSize(ranges.stream().mapToLong(ByteRange::length).sum());
+        return stream(fileName, handle -> Multi.createFrom().iterable(ranges)
+            .onItem()
+            .transformToMultiAndConcatenate(range -> Multi.createBy().concatenating().streams(
+                Multi.createFrom().item(() -> Buffer.buffer(delimiter.apply(range))),
+                readRange(handle, range, chunkSize, fileName))));
+    }
+
+    /**
+     * Reads the content of the specified file into a {@link Multi} of {@link PooledBuffer} instances.
+     * <p>
+     * The shared open file is acquired once, and every chunk is read on a worker thread with a positional read
+     * straight into a direct buffer allocated from the Netty pooled allocator, when it is requested by the
+     * subscriber. The chunks are sized by the {@link ChunkSizePolicy}.
+     *
+     * @param fileName the name of the file to read
+     * @return a {@link Multi} emitting {@link PooledBuffer} instances containing the file's content.
+     */
+    @Override
+    public Multi<PooledBuffer> getPooledMultiBuffer(String fileName) {
+        return stream(fileName, handle -> readPooledRange(handle, new ByteRange(0, handle.size()),
+            chunkSizes.chunkSize(handle.size()), fileName));
+    }
+
+    /**
+     * Reads the given range of the specified file into a {@link Multi} of {@link PooledBuffer} instances.
+     *
+     * @param fileName the name of the file to read
+     * @param range    the range of the file to read
+     * @return a {@link Multi} emitting {@link PooledBuffer} instances containing the range's content.
+     */
+    @Override
+    public Multi<PooledBuffer> getPooledMultiBuffer(String fileName, ByteRange range) {
+        return stream(fileName, handle -> readPooledRange(handle, range, chunkSizes.chunkSize(range.length()), fileName));
+    }
+
+    /**
+     * Reads several ranges of the specified file into a single {@link Multi} of {@link PooledBuffer} instances.
+     * <p>
+     * The shared open file is acquired once, and the delimiters are emitted as heap buffers that need no release.
+     *
+     * @param fileName  the name of the file to read
+     * @param ranges    the ranges of the file to read
+     * @param delimiter provides the bytes emitted before the content of a range
+     * @return a {@link Multi} emitting the delimiters and the content of the ranges.
+     */
+    @Override
+    public Multi<PooledBuffer> getPooledMultiBuffer(String fileName, List<ByteRange> ranges, Function<ByteRange, byte[]> delimiter) {
+        var chunkSize = chunkSizes.chunkSize(ranges.stream().mapToLong(ByteRange::length).sum());
+        return stream(fileName, handle -> Multi.createFrom().iterable(ranges)
+            .onItem()
+            .transformToMultiAndConcatenate(range -> Multi.createBy().concatenating().streams(
+                Multi.createFrom().item(() -> PooledBuffer.wrap(delimiter.apply(range))),
+                readPooledRange(handle, range, chunkSize, fileName))));
+    }
+
+    /**
+     * Resolves the specified file to a {@link FileRegion} that covers the whole file.
+     * <p>
+     * This method uses the Vert.x file system API to asynchronously read the file's properties, and
+     * rejects names that point outside the root directory or to anything but a regular file.
+     *
+     * @param fileName the name of the file to resolve
+     * @return a {@link Uni} emitting the validated {@link FileRegion},
+     *         or a failure if the file does not exist or is not a regular file
+     */
+    @Override
+    public Uni<FileRegion> getFileRegion(String fileName) {
+        var path = getPath(fileName).toAbsolutePath().normalize();
+        if (!path.startsWith(Paths.get(fileStoreRootDirectory).toAbsolutePath().normalize())) {
+            return Uni.createFrom().failure(new NoSuchFileException(fileName));
+        }
+        return vertx.fileSystem().props(path.toString())
+            .onItem()
+            .transformToUni(props -> props.isRegularFile()
+                ? Uni.createFrom().item(new FileRegion(path, 0, props.size()))
+                : Uni.createFrom().failure(new NoSuchFileException(fileName)));
     }
 
     /**
@@ -102,10 +357,38 @@ public class LocalFileStore implements FileStore {
         return vertx.fileSystem().propsAndAwait(getPathAsString(fileName)).size();
     }
 
+    /**
+     * Retrieves the metadata of the specified file.
+     * <p>
+     * This method uses the Vert.x file system API to asynchronously read the file's properties.
+     *
+     * @param fileName the name of the file to retrieve the metadata for
+     * @return a {@link Uni} emitting the {@link FileMetadata} of the file,
+     *         or a failure if the file does not exist
+     */
+    @Override
+    public Uni<FileMetadata> getMetadata(String fileName) {
+        return vertx.fileSystem().props(getPathAsString(fileName))
+            .onItem()
+            .transform(props -> new FileMetadata(props.size(), Instant.ofEpochMilli(props.lastModifiedTime())));
+    }
+
+    /**
+     * Returns {@code false}: the content of every file is read from the file system.
+     *
+     * @param fileName the name of the file
+     * @param metadata the current metadata of the file
+     * @return {@code false}
+     */
+    @Override
+    public boolean isCached(String fileName, FileMetadata metadata) {
+        return false;
+    }
+
     /**
      * Reads the content of the specified file into a byte array synchronously.
      * <p>
-     * This method uses Java's {@link FileInputStream} to read the file into a {@link ByteArrayOutputStream}.
+     * The file is read with positional reads of its shared open {@link FileChannel} into an array of the file's size.
      *
      * @param fileName the name of the file to read
      * @return a byte array containing the file's content
@@ -113,10 +396,29 @@ public class LocalFileStore implements FileStore {
      */
     @Override
     public byte[] getByteArray(String fileName) {
-        try (var fis = new FileInputStream(getPath(fileName).toFile());
-             var baos = new ByteArrayOutputStream()) {
-            fis.transferTo(baos);
-            return baos.toByteArray();
+        try {
+            return read(fileName, handle ->
+                readFully(handle.channel(), 0, ByteBuffer.allocate(Math.toIntExact(handle.size())), fileName).array());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Reads the given range of the specified file into a byte array synchronously.
+     * <p>
+     * This method uses the shared open {@link FileChannel} with positional reads, so the bytes before the range are never read.
+     *
+     * @param fileName the name of the file to read
+     * @param range    the range of the file to read
+     * @return a byte array containing the range's content
+     * @throws RuntimeException if an I/O error occurs while reading the file
+     */
+    @Override
+    public byte[] getByteArray(String fileName, ByteRange range) {
+        try {
+            return read(fileName, handle ->
+                readFully(handle.channel(), range.offset(), ByteBuffer.allocate(Math.toIntExact(range.length())), fileName).array());
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
@@ -125,8 +427,8 @@ public class LocalFileStore implements FileStore {
     /**
      * Writes the content of the specified file to the given {@link OutputStream}.
      * <p>
-     * This method uses Java's {@link FileInputStream} to read the file in chunks and write it
-     * to the provided {@link OutputStream}.
+     * This method reads the file in chunks with positional reads of its shared open {@link FileChannel} into a
+     * buffer of the {@link HeapBufferPool}, and writes them to the provided {@link OutputStream}.
      *
      * @param fileName the name of the file whose content is to be written
      * @param output   the {@link OutputStream} to write the file's content to
@@ -134,16 +436,202 @@ public class LocalFileStore implements FileStore {
      */
     @Override
     public void writeContent(String fileName, OutputStream output) throws IOException {
-        try (var is = new FileInputStream(getPath(fileName).toFile())) {
-            int c;
-            var buf = new byte[4096];
-            while ((c = is.read(buf, 0, buf.length)) > 0) {
-                output.write(buf, 0, c);
-                output.flush();
+        read(fileName, handle -> {
+            var channel = handle.channel();
+            var buf = buffers.acquire();
+            try {
+                long position = 0;
+                int c;
+                while ((c = channel.read(buf.clear(), position)) > 0) {
+                    output.write(buf.array(), 0, c);
+                    position += c;
+                }
+            } finally {
+                buffers.release(buf);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Writes the given range of the specified file to the given {@link OutputStream}.
+     * <p>
+     * This method uses the shared open {@link FileChannel} with positional reads to read the range in chunks into a
+     * buffer of the {@link HeapBufferPool}, and write it to the provided {@link OutputStream}.
+     *
+     * @param fileName the name of the file whose content is to be written
+     * @param range    the range of the file to write
+     * @param output   the {@link OutputStream} to write the range's content to
+     * @throws IOException if an I/O error occurs during the operation
+     */
+    @Override
+    public void writeContent(String fileName, ByteRange range, OutputStream output) throws IOException {
+        read(fileName, handle -> {
+            var buf = buffers.acquire();
+            try {
+                transfer(handle.channel(), range, buf, output, fileName);
+            } finally {
+                buffers.release(buf);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Writes several ranges of the specified file to the given {@link OutputStream}.
+     * <p>
+     * The shared open {@link FileChannel} is acquired once, and every range is read in chunks with positional reads
+     * into a single buffer of the {@link HeapBufferPool}.
+     *
+     * @param fileName  the name of the file whose content is to be written
+     * @param ranges    the ranges of the file to write
+     * @param delimiter provides the bytes written before the content of a range
+     * @param output    the {@link OutputStream} to write the ranges' content to
+     * @throws IOException if an I/O error occurs during the operation
+     */
+    @Override
+    public void writeContent(String fileName, List<ByteRange> ranges, Function<ByteRange, byte[]> delimiter, OutputStream output) throws IOException {
+        read(fileName, handle -> {
+            var buf = buffers.acquire();
+            try {
+                for (var range : ranges) {
+                    output.write(delimiter.apply(range));
+                    transfer(handle.channel(), range, buf, output, fileName);
+                }
+            } finally {
+                buffers.release(buf);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Reads the given range of an open file in chunks, issuing the next positional read on a worker thread only
+     * when the previous chunk has been requested by the subscriber.
+     */
+    private Multi<Buffer> readRange(FileHandleCache.Handle handle, ByteRange range, int chunkSize, String fileName) {
+        if (range.length() == 0) {
+            return Multi.createFrom().empty();
+        }
+        var position = new AtomicLong(range.offset());
+        var end = range.offset() + range.length();
+        return Multi.createBy().repeating()
+            .uni(() -> vertx.executeBlocking(() -> {
+                var offset = position.get();
+                var length = (int) Math.min(chunkSize, end - offset);
+                var buffer = toBuffer(readFully(handle.channel(), offset, Unpooled.buffer(length, length), fileName));
+                position.addAndGet(length);
+                return buffer;
+            }, false))
+            .whilst(buffer -> position.get() < end);
+    }
+
+    /**
+     * Reads the given range of an open file in chunks of pooled direct memory, issuing the next positional read on a
+     * worker thread only when the previous chunk has been requested by the subscriber.
+     */
+    private Multi<PooledBuffer> readPooledRange(FileHandleCache.Handle handle, ByteRange range, int chunkSize, String fileName) {
+        var position = new AtomicLong(range.offset());
+        var end = range.offset() + range.length();
+        return PooledBufferPublisher.generateBlocking(vertx, () -> {
+            var offset = position.get();
+            if (offset >= end) {
+                return null;
+            }
+            var length = (int) Math.min(chunkSize, end - offset);
+            var chunk = readPooled(handle, offset, length, fileName);
+            position.addAndGet(length);
+            return chunk;
+        });
+    }
+
+    /**
+     * Reads the given part of an open file into a direct buffer allocated from the Netty pooled allocator, that is
+     * released if the read fails.
+     */
+    private static PooledBuffer readPooled(FileHandleCache.Handle handle, long offset, int length, String fileName) throws IOException {
+        var byteBuf = PooledByteBufAllocator.DEFAULT.directBuffer(length, length);
+        try {
+            return new PooledBuffer(readFully(handle.channel(), offset, byteBuf, fileName));
+        } catch (IOException | RuntimeException e) {
+            byteBuf.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Acquires the shared open file on a worker thread, and releases it when the stream built from it terminates.
+     */
+    private <T> Multi<T> stream(String fileName, Function<FileHandleCache.Handle, Multi<T>> content) {
+        return chunkSizes.track(vertx.executeBlocking(() -> handles.acquire(getPath(fileName)), false)
+            .onItem()
+            .transformToMulti(handle -> content.apply(handle)
+                .onTermination()
+                .invoke(handle::release)));
+    }
+
+    private Uni<AsyncFile> open(String fileName) {
+        var openOptions = new OpenOptions()
+                .setRead(true)
+                .setCreate(false)
+                .setWrite(false);
+        return vertx.fileSystem().open(getPathAsString(fileName), openOptions);
+    }
+
+    private <T> T read(String fileName, HandleReader<T> reader) throws IOException {
+        var handle = handles.acquire(getPath(fileName));
+        try {
+            return reader.read(handle);
+        } finally {
+            handle.release();
+        }
+    }
+
+    /**
+     * Copies the given range of an open file to the given stream in chunks of the size of the given buffer.
+     */
+    private static void transfer(FileChannel channel, ByteRange range, ByteBuffer buf, OutputStream output, String fileName) throws IOException {
+        var position = range.offset();
+        var end = range.offset() + range.length();
+        while (position < end) {
+            buf.clear().limit((int) Math.min(buf.capacity(), end - position));
+            int c = channel.read(buf, position);
+            if (c < 0) {
+                throw new EOFException(fileName);
             }
+            output.write(buf.array(), 0, c);
+            position += c;
         }
     }
 
+    /**
+     * Fills the given buffer with positional reads starting at the given offset, failing if the file ends first.
+     */
+    private static ByteBuffer readFully(FileChannel channel, long offset, ByteBuffer buf, String fileName) throws IOException {
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, offset + buf.position()) < 0) {
+                throw new EOFException(fileName);
+            }
+        }
+        return buf;
+    }
+
+    /**
+     * Fills the given buffer with positional reads starting at the given offset, failing if the file ends first.
+     */
+    private static ByteBuf readFully(FileChannel channel, long offset, ByteBuf byteBuf, String fileName) throws IOException {
+        while (byteBuf.isWritable()) {
+            if (byteBuf.writeBytes(channel, offset + byteBuf.writerIndex(), byteBuf.writableBytes()) < 0) {
+                throw new EOFException(fileName);
+            }
+        }
+        return byteBuf;
+    }
+
+    private static Buffer toBuffer(ByteBuf byteBuf) {
+        return Buffer.newInstance(BufferImpl.buffer(byteBuf));
+    }
+
     private Path getPath(String fileName) {
         return Paths.get(fileStoreRootDirectory, fileName);
     }
@@ -0,0 +1,54 @@
+package io.crunch.download;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+/**
+ * {@code MBeans} registers the runtime statistics of the file store components in the platform MBean server,
+ * so they can be monitored with JMX tools such as JConsole, next to the JVM's own memory and thread statistics.
+ */
+public final class MBeans {
+
+    /**
+     * The JMX domain of the application's MBeans.
+     */
+    public static final String DOMAIN = "io.crunch.download";
+
+    private MBeans() {
+    }
+
+    /**
+     * Registers the given MBean with the given type, replacing the MBean that was registered by a previous
+     * instance of the application in the same JVM (for example in dev mode or in tests).
+     *
+     * @param type  the value of the {@code type} key of the object name
+     * @param mbean the MBean to register
+     */
+    public static void register(String type, Object mbean) {
+        register(type, null, mbean);
+    }
+
+    /**
+     * Registers the given MBean with the given type and name, to tell apart the MBeans of the same type, replacing the
+     * MBean that was registered by a previous instance of the application in the same JVM.
+     *
+     * @param type  the value of the {@code type} key of the object name
+     * @param name  the value of the {@code name} key of the object name, or {@code null} for a type with a single MBean
+     * @param mbean the MBean to register
+     */
+    public static void register(String type, String name, Object mbean) {
+        try {
+            var server = ManagementFactory.getPlatformMBeanServer();
+            var objectName = name == null
+                ? new ObjectName(DOMAIN, "type", type)
+                : new ObjectName(DOMAIN + ":type=" + type + ",name=" + name);
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(mbean, objectName);
+        } catch (JMException e) {
+            throw new IllegalStateException("Cannot register MBean " + type, e);
+        }
+    }
+}
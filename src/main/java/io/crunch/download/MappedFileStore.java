@@ -0,0 +1,471 @@
+package io.crunch.download;
+
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.quarkus.arc.properties.IfBuildProperty;
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.Uni;
+import io.vertx.core.buffer.impl.BufferImpl;
+import io.vertx.mutiny.core.Vertx;
+import io.vertx.mutiny.core.buffer.Buffer;
+import io.vertx.mutiny.core.file.AsyncFile;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * {@code MappedFileStore} is an implementation of the {@link FileStore} interface that reads the content of the
+ * files through memory mappings, so the content is copied straight from the page cache to its destination,
+ * without read system calls and without an intermediate read buffer.
+ * <p>
+ * The mappings are kept by a {@link FileMappingCache}, so the popular files are mapped once and then served from
+ * the existing mapping; a mapping is unmapped deterministically when it is evicted from the cache or the file has
+ * changed, and the last reader has released it. The cache is registered in JMX as {@code FileMappingCache}.
+ * <p>
+ * Touching a mapping can block on a page fault, so every access to a mapping runs on a worker thread, never on the
+ * event loop. No view of a mapping is therefore handed out: even the pooled operations copy the content into pooled
+ * direct memory on a worker thread, as Netty would otherwise read the mapping on the event loop when it writes the
+ * response. The operations that hand out a file handle ({@link #getAsyncFile(String)}, {@link #getFileRegion(String)})
+ * and the metadata lookups are served by a {@link LocalFileStore} on the same root directory.
+ * <p>
+ * The store replaces {@link LocalFileStore} when {@code app.filestore.type} is set to {@code mapped} at build time.
+ *
+ * @apiNote A mapping covers a whole file and cannot be larger than 2 GB.
+ */
+@ApplicationScoped
+@IfBuildProperty(name = "app.filestore.type", stringValue = "mapped")
+public class MappedFileStore implements FileStore {
+
+    /**
+     * The root directory of the file store.
+     */
+    private final String fileStoreRootDirectory;
+
+    /**
+     * Serves the operations that do not read the content of the files.
+     */
+    private final LocalFileStore files;
+
+    private final FileMappingCache mappings;
+
+    /**
+     * Chooses the size of the chunks emitted by the {@link Multi} based reads.
+     */
+    private final ChunkSizePolicy chunkSizes;
+
+    /**
+     * Provides the buffers the content is copied through to an {@link OutputStream}.
+     */
+    private final HeapBufferPool buffers;
+
+    private final Vertx vertx;
+
+    /**
+     * Reads the content of a mapping, while the caller holds a reference of it.
+     */
+    @FunctionalInterface
+    private interface MappingReader<T> {
+        T read(FileMappingCache.Mapping mapping) throws IOException;
+    }
+
+    public MappedFileStore(@ConfigProperty(name = "app.filestore.root") String fileStoreRootDirectory,
+                           @ConfigProperty(name = "app.filestore.mapped.max-mappings", defaultValue = "64") int maximumMappings,
+                           ChunkSizePolicy chunkSizes,
+                           HeapBufferPool buffers,
+                           Vertx vertx) {
+        this.fileStoreRootDirectory = fileStoreRootDirectory;
+        this.files = new LocalFileStore(fileStoreRootDirectory, 0, Duration.ZERO, chunkSizes, buffers, vertx);
+        this.chunkSizes = chunkSizes;
+        this.buffers = buffers;
+        this.mappings = new FileMappingCache(maximumMappings);
+        this.vertx = vertx;
+        MBeans.register("FileMappingCache", mappings);
+    }
+
+    @PreDestroy
+    void close() {
+        mappings.clear();
+        files.close();
+    }
+
+    @Override
+    public Uni<AsyncFile> getAsyncFile(String fileName) {
+        return files.getAsyncFile(fileName);
+    }
+
+    @Override
+    public Uni<AsyncFile> getAsyncFile(String fileName, ByteRange range) {
+        return files.getAsyncFile(fileName, range);
+    }
+
+    @Override
+    public Uni<FileRegion> getFileRegion(String fileName) {
+        return files.getFileRegion(fileName);
+    }
+
+    @Override
+    public long getFileSize(String fileName) {
+        return files.getFileSize(fileName);
+    }
+
+    @Override
+    public Uni<FileMetadata> getMetadata(String fileName) {
+        return files.getMetadata(fileName);
+    }
+
+    @Override
+    public boolean isCached(String fileName, FileMetadata metadata) {
+        return files.isCached(fileName, metadata);
+    }
+
+    /**
+     * Copies the content of the specified file from its mapping into a {@link Buffer}.
+     *
+     * @param fileName the name of the file to read
+     * @return a {@link Uni} emitting the {@link Buffer} containing the file's content,
+     *         or a failure if the file cannot be read
+     * @apiNote Do not use this method to read very large files, or you risk running out of available RAM.
+     */
+    @Override
+    public Uni<Buffer> getBuffer(String fileName) {
+        return vertx.executeBlocking(() -> read(fileName, mapping -> copy(mapping, 0, mapping.size())), false);
+    }
+
+    /**
+     * Copies the given range of the specified file from its mapping into a {@link Buffer}.
+     *
+     * @param fileName the name of the file to read
+     * @param range    the range of the file to read
+     * @return a {@link Uni} emitting the {@link Buffer} containing the range's content,
+     *         or a failure if the file cannot be read
+     */
+    @Override
+    public Uni<Buffer> getBuffer(String fileName, ByteRange range) {
+        return vertx.executeBlocking(() -> read(fileName, mapping -> copy(mapping, range.offset(), range.length())), false);
+    }
+
+    /**
+     * Copies the content of the specified file from its mapping into a {@link PooledBuffer}.
+     * <p>
+     * The content is copied on a worker thread into a direct buffer allocated from the Netty pooled allocator, so the
+     * response is written without touching the mapping on the event loop.
+     *
+     * @param fileName the name of the file to read
+     * @return a {@link Uni} emitting the {@link PooledBuffer} containing the file's content,
+     *         or a failure if the file cannot be read
+     */
+    @Override
+    public Uni<PooledBuffer> getPooledBuffer(String fileName) {
+        return vertx.executeBlocking(() -> read(fileName, mapping -> copyPooled(mapping, 0, mapping.size())), false);
+    }
+
+    /**
+     * Copies the given range of the specified file from its mapping into a {@link PooledBuffer}.
+     *
+     * @param fileName the name of the file to read
+     * @param range    the range of the file to read
+     * @return a {@link Uni} emitting the {@link PooledBuffer} containing the range's content,
+     *         or a failure if the file cannot be read
+     */
+    @Override
+    public Uni<PooledBuffer> getPooledBuffer(String fileName, ByteRange range) {
+        return vertx.executeBlocking(() -> read(fileName, mapping -> copyPooled(mapping, range.offset(), range.length())), false);
+    }
+
+    /**
+     * Copies the content of the specified file from its mapping into a {@link Multi} of {@link Buffer} instances.
+     * <p>
+     * Every chunk is copied on a worker thread when it is requested by the subscriber, and the mapping is released
+     * when the stream terminates.
+     *
+     * @param fileName the name of the file to read
+     * @return a {@link Multi} emitting {@link Buffer} instances containing the file's content.
+     */
+    @Override
+    public Multi<Buffer> getMultiBuffer(String fileName) {
+        return stream(fileName, mapping ->
+            copyChunks(mapping, new ByteRange(0, mapping.size()), chunkSizes.chunkSize(mapping.size())));
+    }
+
+    /**
+     * Copies the given range of the specified file from its mapping into a {@link Multi} of {@link Buffer} instances.
+     *
+     * @param fileName the name of the file to read
+     * @param range    the range of the file to read
+     * @return a {@link Multi} emitting {@link Buffer} instances containing the range's content.
+     */
+    @Override
+    public Multi<Buffer> getMultiBuffer(String fileName, ByteRange range) {
+        return stream(fileName, mapping -> copyChunks(mapping, range, chunkSizes.chunkSize(range.length())));
+    }
+
+    /**
+     * Copies several ranges of the specified file from its mapping into a single {@link Multi} of {@link Buffer} instances.
+     * <p>
+     * The file is mapped once for all the ranges.
+     *
+     * @param fileName  the name of the file to read
+     * @param ranges    the ranges of the file to read
+     * @param delimiter provides the bytes emitted before the content of a range
+     * @return a {@link Multi} emitting the delimiters and the content of the ranges.
+     */
+    @Override
+    public Multi<Buffer> getMultiBuffer(String fileName, List<ByteRange> ranges, Function<ByteRange, byte[]> delimiter) {
+        var chunkSize = chunkSizes.chunkSize(ranges.stream().mapToLong(ByteRange::length).sum());
+        return stream(fileName, mapping -> Multi.createFrom().iterable(ranges)
+            .onItem()
+            .transformToMultiAndConcatenate(range -> Multi.createBy().concatenating().streams(
+                Multi.createFrom().item(() -> Buffer.buffer(delimiter.apply(range))),
+                copyChunks(mapping, range, chunkSize))));
+    }
+
+    /**
+     * Copies the content of the specified file from its mapping into a {@link Multi} of {@link PooledBuffer} instances.
+     * <p>
+     * Every chunk is copied into pooled direct memory on a worker thread when it is requested by the subscriber, and
+     * the mapping is released when the stream terminates.
+     *
+     * @param fileName the name of the file to read
+     * @return a {@link Multi} emitting {@link PooledBuffer} instances containing the file's content.
+     */
+    @Override
+    public Multi<PooledBuffer> getPooledMultiBuffer(String fileName) {
+        return stream(fileName, mapping ->
+            copyPooledChunks(mapping, new ByteRange(0, mapping.size()), chunkSizes.chunkSize(mapping.size())));
+    }
+
+    /**
+     * Copies the given range of the specified file from its mapping into a {@link Multi} of {@link PooledBuffer}
+     * instances.
+     *
+     * @param fileName the name of the file to read
+     * @param range    the range of the file to read
+     * @return a {@link Multi} emitting {@link PooledBuffer} instances containing the range's content.
+     */
+    @Override
+    public Multi<PooledBuffer> getPooledMultiBuffer(String fileName, ByteRange range) {
+        return stream(fileName, mapping -> copyPooledChunks(mapping, range, chunkSizes.chunkSize(range.length())));
+    }
+
+    /**
+     * Copies several ranges of the specified file from its mapping into a single {@link Multi} of {@link PooledBuffer}
+     * instances.
+     *
+     * @param fileName  the name of the file to read
+     * @param ranges    the ranges of the file to read
+     * @param delimiter provides the bytes emitted before the content of a range
+     * @return a {@link Multi} emitting the delimiters and the content of the ranges.
+     */
+    @Override
+    public Multi<PooledBuffer> getPooledMultiBuffer(String fileName, List<ByteRange> ranges, Function<ByteRange, byte[]> delimiter) {
+        var chunkSize = chunkSizes.chunkSize(ranges.stream().mapToLong(ByteRange::length).sum());
+        return stream(fileName, mapping -> Multi.createFrom().iterable(ranges)
+            .onItem()
+            .transformToMultiAndConcatenate(range -> Multi.createBy().concatenating().streams(
+                Multi.createFrom().item(() -> PooledBuffer.wrap(delimiter.apply(range))),
+                copyPooledChunks(mapping, range, chunkSize))));
+    }
+
+    /**
+     * Copies the content of the specified file from its mapping into a byte array synchronously.
+     *
+     * @param fileName the name of the file to read
+     * @return a byte array containing the file's content
+     * @throws RuntimeException if an I/O error occurs while reading the file
+     */
+    @Override
+    public byte[] getByteArray(String fileName) {
+        try {
+            return read(fileName, mapping -> toByteArray(mapping, 0, mapping.size()));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Copies the given range of the specified file from its mapping into a byte array synchronously.
+     *
+     * @param fileName the name of the file to read
+     * @param range    the range of the file to read
+     * @return a byte array containing the range's content
+     * @throws RuntimeException if an I/O error occurs while reading the file
+     */
+    @Override
+    public byte[] getByteArray(String fileName, ByteRange range) {
+        try {
+            return read(fileName, mapping -> toByteArray(mapping, range.offset(), range.length()));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Writes the content of the specified file from its mapping to the given {@link OutputStream}.
+     * <p>
+     * The content is handed to the stream in chunks of the size of a {@link HeapBufferPool} buffer, without flushing
+     * in between, so the stream decides when its buffer is written to the client.
+     *
+     * @param fileName the name of the file whose content is to be written
+     * @param output   the {@link OutputStream} to write the file's content to
+     * @throws IOException if an I/O error occurs during the operation
+     */
+    @Override
+    public void writeContent(String fileName, OutputStream output) throws IOException {
+        read(fileName, mapping -> write(mapping, new ByteRange(0, mapping.size()), output));
+    }
+
+    /**
+     * Writes the given range of the specified file from its mapping to the given {@link OutputStream}.
+     *
+     * @param fileName the name of the file whose content is to be written
+     * @param range    the range of the file to write
+     * @param output   the {@link OutputStream} to write the range's content to
+     * @throws IOException if an I/O error occurs during the operation
+     */
+    @Override
+    public void writeContent(String fileName, ByteRange range, OutputStream output) throws IOException {
+        read(fileName, mapping -> write(mapping, range, output));
+    }
+
+    /**
+     * Writes several ranges of the specified file from its mapping to the given {@link OutputStream}.
+     * <p>
+     * The file is mapped once for all the ranges.
+     *
+     * @param fileName  the name of the file whose content is to be written
+     * @param ranges    the ranges of the file to write
+     * @param delimiter provides the bytes written before the content of a range
+     * @param output    the {@link OutputStream} to write the ranges' content to
+     * @throws IOException if an I/O error occurs during the operation
+     */
+    @Override
+    public void writeContent(String fileName, List<ByteRange> ranges, Function<ByteRange, byte[]> delimiter, OutputStream output) throws IOException {
+        read(fileName, mapping -> {
+            for (var range : ranges) {
+                output.write(delimiter.apply(range));
+                write(mapping, range, output);
+            }
+            return null;
+        });
+    }
+
+    private Path getPath(String fileName) {
+        return Paths.get(fileStoreRootDirectory, fileName);
+    }
+
+    private <T> T read(String fileName, MappingReader<T> reader) throws IOException {
+        var mapping = mappings.acquire(getPath(fileName));
+        try {
+            return reader.read(mapping);
+        } finally {
+            mapping.release();
+        }
+    }
+
+    /**
+     * Maps the specified file on a worker thread, and releases the mapping when the stream built from it terminates.
+     */
+    private <T> Multi<T> stream(String fileName, Function<FileMappingCache.Mapping, Multi<T>> content) {
+        return chunkSizes.track(vertx.executeBlocking(() -> mappings.acquire(getPath(fileName)), false)
+            .onItem()
+            .transformToMulti(mapping -> content.apply(mapping)
+                .onTermination()
+                .invoke(mapping::release)));
+    }
+
+    /**
+     * Copies the given range of a mapping in chunks, copying the next chunk on a worker thread only when the
+     * previous chunk has been requested by the subscriber.
+     */
+    private Multi<Buffer> copyChunks(FileMappingCache.Mapping mapping, ByteRange range, int chunkSize) {
+        if (range.length() == 0) {
+            return Multi.createFrom().empty();
+        }
+        var position = new AtomicLong(range.offset());
+        var end = range.offset() + range.length();
+        return Multi.createBy().repeating()
+            .uni(() -> vertx.executeBlocking(() -> {
+                var offset = position.get();
+                var buffer = copy(mapping, offset, Math.min(chunkSize, end - offset));
+                position.addAndGet(buffer.length());
+                return buffer;
+            }, false))
+            .whilst(buffer -> position.get() < end);
+    }
+
+    /**
+     * Copies the given range of a mapping in chunks of pooled direct memory, copying the next chunk on a worker thread
+     * only when the previous chunk has been requested by the subscriber.
+     */
+    private Multi<PooledBuffer> copyPooledChunks(FileMappingCache.Mapping mapping, ByteRange range, int chunkSize) {
+        var position = new AtomicLong(range.offset());
+        var end = range.offset() + range.length();
+        return PooledBufferPublisher.generateBlocking(vertx, () -> {
+            var offset = position.get();
+            if (offset >= end) {
+                return null;
+            }
+            var length = Math.min(chunkSize, end - offset);
+            var chunk = copyPooled(mapping, offset, length);
+            position.addAndGet(length);
+            return chunk;
+        });
+    }
+
+    private static PooledBuffer copyPooled(FileMappingCache.Mapping mapping, long offset, long length) throws EOFException {
+        var view = view(mapping, offset, length);
+        var byteBuf = PooledByteBufAllocator.DEFAULT.directBuffer(view.remaining(), view.remaining());
+        try {
+            return new PooledBuffer(byteBuf.writeBytes(view));
+        } catch (RuntimeException e) {
+            byteBuf.release();
+            throw e;
+        }
+    }
+
+    private static Buffer copy(FileMappingCache.Mapping mapping, long offset, long length) throws EOFException {
+        return Buffer.newInstance(BufferImpl.buffer(Unpooled.copiedBuffer(view(mapping, offset, length))));
+    }
+
+    private static byte[] toByteArray(FileMappingCache.Mapping mapping, long offset, long length) throws EOFException {
+        var bytes = new byte[Math.toIntExact(length)];
+        view(mapping, offset, length).get(bytes);
+        return bytes;
+    }
+
+    private Void write(FileMappingCache.Mapping mapping, ByteRange range, OutputStream output) throws IOException {
+        var view = view(mapping, range.offset(), range.length());
+        var chunk = buffers.acquire();
+        try {
+            while (view.hasRemaining()) {
+                var length = Math.min(chunk.capacity(), view.remaining());
+                view.get(chunk.array(), 0, length);
+                output.write(chunk.array(), 0, length);
+            }
+        } finally {
+            buffers.release(chunk);
+        }
+        return null;
+    }
+
+    /**
+     * Returns a view of the given part of a mapping, failing if the file has been truncated below the part.
+     */
+    private static ByteBuffer view(FileMappingCache.Mapping mapping, long offset, long length) throws EOFException {
+        if (offset + length > mapping.size()) {
+            throw new EOFException();
+        }
+        return mapping.slice(offset, length);
+    }
+}
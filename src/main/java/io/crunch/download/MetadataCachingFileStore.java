@@ -0,0 +1,55 @@
+package io.crunch.download;
+
+import io.smallrye.mutiny.Uni;
+import jakarta.annotation.Priority;
+import jakarta.decorator.Decorator;
+import jakarta.decorator.Delegate;
+import jakarta.inject.Inject;
+
+/**
+ * {@code MetadataCachingFileStore} is a CDI decorator of the {@link FileStore} that serves the metadata of the files
+ * from the {@link FileMetadataCache}, so the conditional request evaluation, the range selection and the version
+ * lookups of the content caches do not make a metadata round trip to the file system for every request.
+ * <p>
+ * The decorator is called after {@link CachingFileStore}, so the content caches look up the cached metadata too.
+ */
+@Decorator
+@Priority(MetadataCachingFileStore.PRIORITY)
+public class MetadataCachingFileStore extends ForwardingFileStore {
+
+    /**
+     * The priority of the decorator, decorators with lower priority are called first.
+     */
+    public static final int PRIORITY = 200;
+
+    private final FileMetadataCache metadataCache;
+
+    @Inject
+    public MetadataCachingFileStore(@Delegate FileStore delegate, FileMetadataCache metadataCache) {
+        super(delegate);
+        this.metadataCache = metadataCache;
+    }
+
+    /**
+     * Retrieves the metadata of the specified file from the cache, or from the decorated store on a miss.
+     *
+     * @param fileName the name of the file to retrieve the metadata for
+     * @return a {@link Uni} emitting the {@link FileMetadata} of the file,
+     *         or a failure if the file does not exist
+     */
+    @Override
+    public Uni<FileMetadata> getMetadata(String fileName) {
+        return metadataCache.get(fileName, delegate::getMetadata);
+    }
+
+    /**
+     * Retrieves the size of the specified file in bytes synchronously, from the cached metadata when available.
+     *
+     * @param fileName the name of the file to retrieve the size for
+     * @return the size of the file in bytes
+     */
+    @Override
+    public long getFileSize(String fileName) {
+        return getMetadata(fileName).await().indefinitely().size();
+    }
+}
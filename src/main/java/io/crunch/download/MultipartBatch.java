@@ -0,0 +1,109 @@
+package io.crunch.download;
+
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * {@code MultipartBatch} describes the framing of a {@code multipart/mixed} response body, that is used to send
+ * several files in one response.
+ * <p>
+ * Every part carries the headers of the file as if it had been downloaded on its own: its {@code Content-Type},
+ * {@code Content-Length}, {@code ETag} and {@code Last-Modified}, and its name in {@code Content-Disposition}. Only
+ * the delimiters are produced here, the content of the parts is streamed by the {@link FileStore}.
+ *
+ * @see <a href="https://www.rfc-editor.org/rfc/rfc2046#section-5.1">RFC 2046 multipart media type</a>
+ */
+public final class MultipartBatch {
+
+    /**
+     * A file of a batch.
+     *
+     * @param fileName the name of the file
+     * @param metadata the metadata of the file, that gives the headers of its part
+     */
+    public record Part(String fileName, FileMetadata metadata) {
+    }
+
+    private static final String CRLF = "\r\n";
+
+    private final String boundary;
+
+    private final String partContentType;
+
+    private final List<Part> parts;
+
+    /**
+     * Creates the framing with a random boundary.
+     *
+     * @param partContentType the content type of the files, sent in the header of every part
+     * @param parts           the files to send, in the order they were requested
+     */
+    public MultipartBatch(String partContentType, List<Part> parts) {
+        var random = new byte[12];
+        ThreadLocalRandom.current().nextBytes(random);
+        this.boundary = HexFormat.of().formatHex(random);
+        this.partContentType = partContentType;
+        this.parts = List.copyOf(parts);
+    }
+
+    /**
+     * Returns the files to send.
+     *
+     * @return the files in the order they were requested
+     */
+    public List<Part> parts() {
+        return parts;
+    }
+
+    /**
+     * Returns the value of the {@code Content-Type} header of the response.
+     *
+     * @return the media type with the boundary parameter
+     */
+    public String mediaType() {
+        return "multipart/mixed; boundary=" + boundary;
+    }
+
+    /**
+     * Returns the delimiter and the header of the part that precedes the content of the given file.
+     * <p>
+     * The header is encoded in UTF-8, so the file names are sent as they are.
+     *
+     * @param part the file of the part
+     * @return the bytes to write before the content of the file
+     */
+    public byte[] delimiter(Part part) {
+        var metadata = part.metadata();
+        return (CRLF + "--" + boundary + CRLF
+            + "Content-Type: " + partContentType + CRLF
+            + "Content-Disposition: attachment; filename=\"" + part.fileName().replace("\\", "\\\\").replace("\"", "\\\"") + "\"" + CRLF
+            + "Content-Length: " + metadata.size() + CRLF
+            + "ETag: \"" + metadata.etag() + "\"" + CRLF
+            + "Last-Modified: " + DateTimeFormatter.RFC_1123_DATE_TIME.format(
+                metadata.lastModified().truncatedTo(ChronoUnit.SECONDS).atOffset(ZoneOffset.UTC)) + CRLF
+            + CRLF).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the close delimiter that terminates the body.
+     *
+     * @return the bytes to write after the content of the last file
+     */
+    public byte[] closeDelimiter() {
+        return (CRLF + "--" + boundary + "--" + CRLF).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Returns the exact length of the body, that is known before any content is read.
+     *
+     * @return the length of the body in bytes
+     */
+    public long contentLength() {
+        return parts.stream().mapToLong(part -> delimiter(part).length + part.metadata().size()).sum() + closeDelimiter().length;
+    }
+}
@@ -0,0 +1,93 @@
+package io.crunch.download;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * {@code MultipartByteRanges} describes the framing of a {@code multipart/byteranges} response body,
+ * that is used to answer a request for several ranges of a file.
+ * <p>
+ * Only the delimiters are produced here, the content of the parts is streamed by the {@link FileStore},
+ * so the parts are never buffered in memory.
+ *
+ * @see <a href="https://www.rfc-editor.org/rfc/rfc9110#name-media-type-multipart-byteran">RFC 9110 multipart/byteranges</a>
+ */
+public final class MultipartByteRanges {
+
+    private static final String CRLF = "\r\n";
+
+    private final String boundary;
+
+    private final String partContentType;
+
+    private final long size;
+
+    private final List<ByteRange> ranges;
+
+    /**
+     * Creates the framing with a random boundary.
+     *
+     * @param partContentType the content type of the file, sent in the header of every part
+     * @param size            the size of the file in bytes
+     * @param ranges          the ranges to send, in the order they were requested
+     */
+    public MultipartByteRanges(String partContentType, long size, List<ByteRange> ranges) {
+        var random = new byte[12];
+        ThreadLocalRandom.current().nextBytes(random);
+        this.boundary = HexFormat.of().formatHex(random);
+        this.partContentType = partContentType;
+        this.size = size;
+        this.ranges = List.copyOf(ranges);
+    }
+
+    /**
+     * Returns the ranges to send.
+     *
+     * @return the ranges in the order they were requested
+     */
+    public List<ByteRange> ranges() {
+        return ranges;
+    }
+
+    /**
+     * Returns the value of the {@code Content-Type} header of the response.
+     *
+     * @return the media type with the boundary parameter
+     */
+    public String mediaType() {
+        return "multipart/byteranges; boundary=" + boundary;
+    }
+
+    /**
+     * Returns the delimiter and the header of the part that precedes the content of the given range.
+     *
+     * @param range the range of the part
+     * @return the bytes to write before the content of the range
+     */
+    public byte[] delimiter(ByteRange range) {
+        return (CRLF + "--" + boundary + CRLF
+            + "Content-Type: " + partContentType + CRLF
+            + "Content-Range: " + range.toContentRange(size) + CRLF
+            + CRLF).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Returns the close delimiter that terminates the body.
+     *
+     * @return the bytes to write after the content of the last range
+     */
+    public byte[] closeDelimiter() {
+        return (CRLF + "--" + boundary + "--" + CRLF).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Returns the exact length of the body, that is known before any content is read.
+     *
+     * @return the length of the body in bytes
+     */
+    public long contentLength() {
+        return ranges.stream().mapToLong(range -> delimiter(range).length + range.length()).sum() + closeDelimiter().length;
+    }
+}
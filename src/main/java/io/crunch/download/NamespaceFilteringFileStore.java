@@ -0,0 +1,80 @@
+package io.crunch.download;
+
+import io.smallrye.mutiny.Uni;
+import jakarta.annotation.Priority;
+import jakarta.decorator.Decorator;
+import jakarta.decorator.Delegate;
+import jakarta.inject.Inject;
+
+import java.io.UncheckedIOException;
+import java.nio.file.NoSuchFileException;
+
+/**
+ * {@code NamespaceFilteringFileStore} is a CDI decorator of the {@link FileStore} that answers the lookups of
+ * unknown file names in memory, with the {@link FileNamespaceIndex}, instead of failing on the file system.
+ * <p>
+ * Every download starts by resolving the file with {@link #getMetadata(String)} or {@link #getFileRegion(String)},
+ * so filtering these lookups turns the requests of unknown names (crawlers, broken links) into {@code 404} responses
+ * without a round trip to the NFS server. The names that pass the filter but do not exist are cached as missing by
+ * the {@link MetadataCachingFileStore}, that is called after this decorator.
+ */
+@Decorator
+@Priority(NamespaceFilteringFileStore.PRIORITY)
+public class NamespaceFilteringFileStore extends ForwardingFileStore {
+
+    /**
+     * The priority of the decorator, decorators with lower priority are called first.
+     */
+    public static final int PRIORITY = 150;
+
+    private final FileNamespaceIndex namespaceIndex;
+
+    @Inject
+    public NamespaceFilteringFileStore(@Delegate FileStore delegate, FileNamespaceIndex namespaceIndex) {
+        super(delegate);
+        this.namespaceIndex = namespaceIndex;
+    }
+
+    /**
+     * Retrieves the metadata of the specified file from the decorated store, unless the file certainly does not exist.
+     *
+     * @param fileName the name of the file to retrieve the metadata for
+     * @return a {@link Uni} emitting the {@link FileMetadata} of the file,
+     *         or a {@link NoSuchFileException} failure if the file does not exist
+     */
+    @Override
+    public Uni<FileMetadata> getMetadata(String fileName) {
+        return namespaceIndex.mightContain(fileName)
+            ? delegate.getMetadata(fileName)
+            : Uni.createFrom().failure(new NoSuchFileException(fileName));
+    }
+
+    /**
+     * Resolves the specified file with the decorated store, unless the file certainly does not exist.
+     *
+     * @param fileName the name of the file to resolve
+     * @return a {@link Uni} emitting the validated {@link FileRegion},
+     *         or a {@link NoSuchFileException} failure if the file does not exist
+     */
+    @Override
+    public Uni<FileRegion> getFileRegion(String fileName) {
+        return namespaceIndex.mightContain(fileName)
+            ? delegate.getFileRegion(fileName)
+            : Uni.createFrom().failure(new NoSuchFileException(fileName));
+    }
+
+    /**
+     * Retrieves the size of the specified file from the decorated store, unless the file certainly does not exist.
+     *
+     * @param fileName the name of the file to retrieve the size for
+     * @return the size of the file in bytes
+     * @throws UncheckedIOException wrapping a {@link NoSuchFileException} if the file does not exist
+     */
+    @Override
+    public long getFileSize(String fileName) {
+        if (!namespaceIndex.mightContain(fileName)) {
+            throw new UncheckedIOException(new NoSuchFileException(fileName));
+        }
+        return delegate.getFileSize(fileName);
+    }
+}
@@ -0,0 +1,81 @@
+package io.crunch.download;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.vertx.core.buffer.impl.BufferImpl;
+import io.vertx.mutiny.core.buffer.Buffer;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * {@code PooledBuffer} holds file content in a reference-counted {@link ByteBuf}, typically a slice of pooled
+ * direct memory, that is written to the HTTP response without being copied into the Java heap.
+ * <p>
+ * The holder owns one reference of the buffer, that is released by {@link PooledBufferMessageBodyWriter} or
+ * {@link PooledBufferStreamMessageBodyWriter} once it has been written to the response. Whoever receives a {@code PooledBuffer} and does not hand it over to the
+ * response must {@link #release()} it. Releasing a holder more than once releases its reference only once, so a
+ * stage that cannot tell whether the holder has already been written can release it again safely.
+ */
+public final class PooledBuffer {
+
+    private final ByteBuf byteBuf;
+
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    /**
+     * Creates a holder that takes over one reference of the given buffer.
+     *
+     * @param byteBuf the buffer holding the content between its reader and writer index
+     */
+    public PooledBuffer(ByteBuf byteBuf) {
+        this.byteBuf = byteBuf;
+    }
+
+    /**
+     * Creates a holder of the content of a Vert.x {@link Buffer}, that is neither copied nor reference-counted: the
+     * buffer stays owned by Vert.x.
+     *
+     * @param buffer the buffer holding the content, that must not be modified afterward
+     * @return the new holder, whose release is a no-op
+     */
+    public static PooledBuffer of(Buffer buffer) {
+        return new PooledBuffer(Unpooled.unreleasableBuffer(((BufferImpl) buffer.getDelegate()).byteBuf().slice()));
+    }
+
+    /**
+     * Creates a holder of the given bytes, that are not copied and not reference-counted.
+     *
+     * @param bytes the content
+     * @return the new holder, whose release is a no-op
+     */
+    public static PooledBuffer wrap(byte[] bytes) {
+        return new PooledBuffer(Unpooled.wrappedBuffer(bytes));
+    }
+
+    /**
+     * Returns the buffer holding the content.
+     *
+     * @return the buffer, that must not be released by the caller
+     */
+    public ByteBuf byteBuf() {
+        return byteBuf;
+    }
+
+    /**
+     * Returns the number of bytes held.
+     *
+     * @return the length of the content
+     */
+    public int length() {
+        return byteBuf.readableBytes();
+    }
+
+    /**
+     * Releases the reference owned by this holder, if it has not been released yet.
+     */
+    public void release() {
+        if (released.compareAndSet(false, true)) {
+            byteBuf.release();
+        }
+    }
+}
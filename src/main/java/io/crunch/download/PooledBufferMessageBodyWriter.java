@@ -0,0 +1,61 @@
+package io.crunch.download;
+
+import io.vertx.core.buffer.impl.BufferImpl;
+import io.vertx.core.http.HttpServerResponse;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.MultivaluedMap;
+import jakarta.ws.rs.ext.Provider;
+import org.jboss.resteasy.reactive.server.core.ResteasyReactiveRequestContext;
+import org.jboss.resteasy.reactive.server.spi.ResteasyReactiveResourceInfo;
+import org.jboss.resteasy.reactive.server.spi.ServerMessageBodyWriter;
+import org.jboss.resteasy.reactive.server.spi.ServerRequestContext;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+
+/**
+ * {@code PooledBufferMessageBodyWriter} writes a {@link PooledBuffer} entity directly to the Vert.x
+ * {@link HttpServerResponse}.
+ * <p>
+ * The {@link io.netty.buffer.ByteBuf} is handed over to Netty as it is, so direct memory is written to the socket
+ * without a copy into the Java heap, and the reference of the {@link PooledBuffer} is released when the write
+ * completes or fails. The default {@code Buffer} writer of Quarkus REST copies the content into a byte array instead.
+ */
+@Provider
+@Produces(MediaType.WILDCARD)
+public class PooledBufferMessageBodyWriter implements ServerMessageBodyWriter<PooledBuffer> {
+
+    @Override
+    public boolean isWriteable(Class<?> type, Type genericType, ResteasyReactiveResourceInfo target, MediaType mediaType) {
+        return PooledBuffer.class.isAssignableFrom(type);
+    }
+
+    @Override
+    public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return PooledBuffer.class.isAssignableFrom(type);
+    }
+
+    @Override
+    public void writeResponse(PooledBuffer content, Type genericType, ServerRequestContext context) {
+        var response = ((ResteasyReactiveRequestContext) context).serverRequest().unwrap(HttpServerResponse.class);
+        response.end(BufferImpl.buffer(content.byteBuf())).onComplete(result -> content.release());
+    }
+
+    /**
+     * Writes the content to the stream when writer interceptors are registered, that need the content as bytes.
+     * The application registers none, so the content is written by {@link #writeResponse} otherwise. The streamed
+     * contents are not written item by item by Quarkus REST, but as a {@link PooledBufferStream}.
+     */
+    @Override
+    public void writeTo(PooledBuffer content, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType,
+                        MultivaluedMap<String, Object> httpHeaders, OutputStream entityStream) throws IOException {
+        try {
+            content.byteBuf().getBytes(content.byteBuf().readerIndex(), entityStream, content.length());
+        } finally {
+            content.release();
+        }
+    }
+}
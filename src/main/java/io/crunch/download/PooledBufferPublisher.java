@@ -0,0 +1,124 @@
+package io.crunch.download;
+
+import io.smallrye.mutiny.Multi;
+import io.vertx.mutiny.core.Vertx;
+
+import java.util.concurrent.Flow;
+
+/**
+ * {@code PooledBufferPublisher} emits the chunks of a content read into {@link PooledBuffer}s one at a time, reading
+ * the next chunk only when the subscriber has requested it.
+ * <p>
+ * A {@link Multi} built from a {@link io.smallrye.mutiny.Uni} per chunk silently drops the chunk that is read while
+ * the subscription is being cancelled, so its buffer would never be released. The publisher owns every chunk until
+ * it is handed to the subscriber: the signals of the reads and of the subscriber are serialized by the monitor of
+ * the subscription, and a chunk read after the cancellation is released right away.
+ */
+final class PooledBufferPublisher implements Flow.Publisher<PooledBuffer> {
+
+    /**
+     * Reads the next chunk of a content.
+     */
+    @FunctionalInterface
+    interface ChunkReader {
+
+        /**
+         * @return the next chunk, that is owned by the caller, or {@code null} if the content has been read
+         * @throws Exception if the chunk cannot be read
+         */
+        PooledBuffer next() throws Exception;
+    }
+
+    private final Vertx vertx;
+
+    private final ChunkReader reader;
+
+    private PooledBufferPublisher(Vertx vertx, ChunkReader reader) {
+        this.vertx = vertx;
+        this.reader = reader;
+    }
+
+    /**
+     * Creates a stream whose chunks are read on worker threads, one at a time.
+     *
+     * @param vertx  the Vert.x instance whose worker threads read the chunks
+     * @param reader reads the chunks
+     * @return the stream of the chunks
+     */
+    static Multi<PooledBuffer> generateBlocking(Vertx vertx, ChunkReader reader) {
+        return Multi.createFrom().publisher(new PooledBufferPublisher(vertx, reader));
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super PooledBuffer> subscriber) {
+        var subscription = new ChunkSubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+    }
+
+    private final class ChunkSubscription implements Flow.Subscription {
+
+        private final Flow.Subscriber<? super PooledBuffer> downstream;
+
+        private long demand;
+
+        /**
+         * Whether a chunk is being read or handed to the subscriber, so the requests made meanwhile only add demand.
+         */
+        private boolean reading;
+
+        private boolean done;
+
+        private ChunkSubscription(Flow.Subscriber<? super PooledBuffer> downstream) {
+            this.downstream = downstream;
+        }
+
+        @Override
+        public synchronized void request(long n) {
+            if (done) {
+                return;
+            }
+            if (n <= 0) {
+                done = true;
+                downstream.onError(new IllegalArgumentException("Invalid request: " + n));
+                return;
+            }
+            demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+            readNext();
+        }
+
+        @Override
+        public synchronized void cancel() {
+            done = true;
+        }
+
+        private void readNext() {
+            while (!reading && demand > 0 && !done) {
+                reading = true;
+                vertx.getDelegate().executeBlocking(reader::next, false)
+                    .onComplete(result -> onRead(result.result(), result.cause()));
+            }
+        }
+
+        private synchronized void onRead(PooledBuffer chunk, Throwable failure) {
+            try {
+                if (done) {
+                    if (chunk != null) {
+                        chunk.release();
+                    }
+                } else if (failure != null) {
+                    done = true;
+                    downstream.onError(failure);
+                } else if (chunk == null) {
+                    done = true;
+                    downstream.onComplete();
+                } else {
+                    demand--;
+                    downstream.onNext(chunk);
+                }
+            } finally {
+                reading = false;
+            }
+            readNext();
+        }
+    }
+}
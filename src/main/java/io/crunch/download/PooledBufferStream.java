@@ -0,0 +1,17 @@
+package io.crunch.download;
+
+import io.smallrye.mutiny.Multi;
+
+/**
+ * {@code PooledBufferStream} is the entity of a response that streams a content read into {@link PooledBuffer}s.
+ * <p>
+ * Quarkus REST serializes every item of a streamed {@link Multi} into a byte array before writing it, whatever its
+ * type, so the chunks of pooled direct memory of a {@code Multi<PooledBuffer>} would be copied into the heap, one or
+ * more times. The stream is therefore returned as a single entity instead, that the
+ * {@link PooledBufferStreamMessageBodyWriter} writes to the Vert.x response chunk by chunk, handing every
+ * {@link io.netty.buffer.ByteBuf} over to Netty as it is.
+ *
+ * @param content the chunks of the content, every one of them owned by the stream until it has been written
+ */
+public record PooledBufferStream(Multi<PooledBuffer> content) {
+}
@@ -0,0 +1,146 @@
+package io.crunch.download;
+
+import io.smallrye.mutiny.subscription.MultiSubscriber;
+import io.vertx.core.buffer.impl.BufferImpl;
+import io.vertx.core.http.HttpServerResponse;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.core.HttpHeaders;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.MultivaluedMap;
+import jakarta.ws.rs.ext.Provider;
+import org.jboss.resteasy.reactive.server.core.ResteasyReactiveRequestContext;
+import org.jboss.resteasy.reactive.server.core.ServerSerialisers;
+import org.jboss.resteasy.reactive.server.spi.ResteasyReactiveResourceInfo;
+import org.jboss.resteasy.reactive.server.spi.ServerMessageBodyWriter;
+import org.jboss.resteasy.reactive.server.spi.ServerRequestContext;
+
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+import java.util.concurrent.Flow;
+
+/**
+ * {@code PooledBufferStreamMessageBodyWriter} writes the chunks of a {@link PooledBufferStream} directly to the Vert.x
+ * {@link HttpServerResponse}, one at a time.
+ * <p>
+ * Every {@link io.netty.buffer.ByteBuf} is handed over to Netty as it is, and its {@link PooledBuffer} is released when
+ * its write completes or fails, so a chunk of direct memory is never copied into the Java heap. The next chunk is
+ * requested once the chunk has been queued, or once the write queue of the connection has drained, so a slow client
+ * holds one chunk in flight rather than the whole content. The stream is cancelled when the connection is closed,
+ * and a failure of the stream resets the response, whose body can no longer be completed.
+ * <p>
+ * The response is sent with the {@code Content-Length} set by the endpoint, or chunked if the length is not known.
+ */
+@Provider
+@Produces(MediaType.WILDCARD)
+public class PooledBufferStreamMessageBodyWriter implements ServerMessageBodyWriter<PooledBufferStream> {
+
+    @Override
+    public boolean isWriteable(Class<?> type, Type genericType, ResteasyReactiveResourceInfo target, MediaType mediaType) {
+        return PooledBufferStream.class.isAssignableFrom(type);
+    }
+
+    @Override
+    public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return PooledBufferStream.class.isAssignableFrom(type);
+    }
+
+    @Override
+    public void writeResponse(PooledBufferStream stream, Type genericType, ServerRequestContext context) {
+        var requestContext = (ResteasyReactiveRequestContext) context;
+        var response = requestContext.serverRequest().unwrap(HttpServerResponse.class);
+        // the headers of the endpoint would be copied to the Vert.x response only when it is committed, and Vert.x
+        // rejects a write that is neither chunked nor preceded by its Content-Length
+        ServerSerialisers.encodeResponseHeaders(requestContext);
+        if (!response.headers().contains(HttpHeaders.CONTENT_LENGTH)) {
+            response.setChunked(true);
+        }
+        var subscriber = new ResponseSubscriber(response);
+        requestContext.serverResponse().addCloseHandler(subscriber::cancel);
+        stream.content().subscribe().withSubscriber(subscriber);
+    }
+
+    /**
+     * Rejects the stream: this method is only called when writer interceptors are registered, that would need the
+     * whole content as bytes, which is what the stream avoids. The application registers none.
+     */
+    @Override
+    public void writeTo(PooledBufferStream stream, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType,
+                        MultivaluedMap<String, Object> httpHeaders, OutputStream entityStream) {
+        stream.content().subscribe().with(PooledBuffer::release, failure -> { });
+        throw new IllegalStateException("A stream of pooled buffers is written to the response directly");
+    }
+
+    /**
+     * Writes the chunks of a stream to a response, requesting the next chunk when the connection can take it.
+     */
+    private static final class ResponseSubscriber implements MultiSubscriber<PooledBuffer> {
+
+        private final HttpServerResponse response;
+
+        private volatile Flow.Subscription subscription;
+
+        private volatile boolean cancelled;
+
+        private ResponseSubscriber(HttpServerResponse response) {
+            this.response = response;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            if (cancelled) {
+                subscription.cancel();
+            } else {
+                subscription.request(1);
+            }
+        }
+
+        @Override
+        public void onItem(PooledBuffer chunk) {
+            if (cancelled) {
+                chunk.release();
+                return;
+            }
+            response.write(BufferImpl.buffer(chunk.byteBuf())).onComplete(result -> {
+                chunk.release();
+                if (result.failed()) {
+                    cancel();
+                }
+            });
+            if (response.writeQueueFull()) {
+                response.drainHandler(ignored -> requestNext());
+            } else {
+                requestNext();
+            }
+        }
+
+        @Override
+        public void onFailure(Throwable failure) {
+            if (!response.ended() && !response.closed()) {
+                response.reset();
+            }
+        }
+
+        @Override
+        public void onCompletion() {
+            if (!response.ended() && !response.closed()) {
+                response.end();
+            }
+        }
+
+        private void requestNext() {
+            if (!cancelled) {
+                subscription.request(1);
+            }
+        }
+
+        private void cancel() {
+            cancelled = true;
+            var current = subscription;
+            if (current != null) {
+                current.cancel();
+            }
+        }
+    }
+}
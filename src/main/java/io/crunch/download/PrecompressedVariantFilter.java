@@ -0,0 +1,119 @@
+package io.crunch.download;
+
+import io.smallrye.mutiny.Uni;
+import io.vertx.core.file.OpenOptions;
+import io.vertx.mutiny.core.Vertx;
+import jakarta.ws.rs.HttpMethod;
+import jakarta.ws.rs.container.ContainerRequestContext;
+import jakarta.ws.rs.core.EntityTag;
+import jakarta.ws.rs.core.HttpHeaders;
+import jakarta.ws.rs.core.Request;
+import jakarta.ws.rs.core.Response;
+import org.jboss.resteasy.reactive.PathPart;
+import org.jboss.resteasy.reactive.server.ServerRequestFilter;
+import org.jboss.resteasy.reactive.server.SimpleResourceInfo;
+
+import java.time.temporal.ChronoUnit;
+import java.util.Date;
+
+/**
+ * {@code PrecompressedVariantFilter} negotiates the content coding of the responses of the
+ * {@link FileDownloadResource} endpoints, and answers the requests accepting the coding of one of the
+ * {@link PrecompressedVariants} of the file before the endpoint is invoked.
+ * <p>
+ * The variant is sent as a {@link PathPart}, so its content is transferred by the kernel ({@code sendfile}) whatever
+ * the endpoint, with the {@code Content-Encoding} of the variant and validators of its own. A file region is written
+ * at once, so the downloads paced by the {@link BandwidthShaper} are sent as a shaped
+ * {@link io.vertx.mutiny.core.file.AsyncFile} of the variant instead. The conditional headers
+ * are evaluated against the validators of the variant. The requests with a {@code Range} header are answered by the
+ * endpoint with the identity content, as the ranges of a compressed content are of little use to a client, so the
+ * responses of a variant do not advertise {@code Accept-Ranges}.
+ */
+public class PrecompressedVariantFilter {
+
+    private static final String RANGE = "Range";
+
+    private static final String VARY = "Vary";
+
+    private final FileStore fileStore;
+
+    private final PrecompressedVariants variants;
+
+    private final BandwidthShaper shaper;
+
+    private final Vertx vertx;
+
+    public PrecompressedVariantFilter(FileStore fileStore, PrecompressedVariants variants, BandwidthShaper shaper, Vertx vertx) {
+        this.fileStore = fileStore;
+        this.variants = variants;
+        this.shaper = shaper;
+        this.vertx = vertx;
+    }
+
+    /**
+     * Answers the request with the variant of the requested file that is the best match of its
+     * {@code Accept-Encoding} header, if any.
+     *
+     * @param resourceInfo the endpoint the request has been matched to
+     * @param context      the request
+     * @param request      the request used to evaluate the conditional headers
+     * @return a {@link Uni} emitting the response of the variant, or {@code null} to let the endpoint respond
+     */
+    @ServerRequestFilter
+    public Uni<Response> serveVariant(SimpleResourceInfo resourceInfo, ContainerRequestContext context, Request request) {
+        var fileName = context.getUriInfo().getPathParameters().getFirst("name");
+        if (!isDownload(resourceInfo)
+            || !HttpMethod.GET.equals(context.getMethod())
+            || context.getHeaderString(RANGE) != null
+            || context.getHeaderString(HttpHeaders.ACCEPT_ENCODING) == null
+            || fileName == null
+            || !variants.hasVariants(fileName)) {
+            return Uni.createFrom().nullItem();
+        }
+        var throttle = shaper.throttle();
+        return fileStore.getMetadata(fileName)
+            .onItem()
+            .transformToUni(metadata -> {
+                var variant = variants.select(fileName, metadata, context.getHeaderString(HttpHeaders.ACCEPT_ENCODING));
+                return variant == null ? Uni.createFrom().<Response>nullItem() : respond(variant, request, throttle);
+            })
+            // the endpoint answers the requests of the files that are missing or cannot be read
+            .onFailure()
+            .recoverWithNull();
+    }
+
+    private Uni<Response> respond(PrecompressedVariants.Variant variant, Request request, BandwidthShaper.Throttle throttle) {
+        var tag = new EntityTag(variant.etag());
+        var lastModified = Date.from(variant.source().lastModified().truncatedTo(ChronoUnit.SECONDS));
+        var notModified = request.evaluatePreconditions(lastModified, tag);
+        if (notModified != null) {
+            return Uni.createFrom().item(notModified.tag(tag).lastModified(lastModified).header(VARY, HttpHeaders.ACCEPT_ENCODING).build());
+        }
+        return content(variant, throttle)
+            .onItem()
+            .transform(content -> Response.ok(content)
+                .type("application/pdf")
+                .header(HttpHeaders.CONTENT_ENCODING, variant.encoding().token())
+                .header(VARY, HttpHeaders.ACCEPT_ENCODING)
+                .tag(tag)
+                .lastModified(lastModified)
+                .build());
+    }
+
+    private Uni<Object> content(PrecompressedVariants.Variant variant, BandwidthShaper.Throttle throttle) {
+        if (!throttle.isShaping()) {
+            return Uni.createFrom().item(new PathPart(variant.path(), 0, variant.size()));
+        }
+        var openOptions = new OpenOptions()
+            .setRead(true)
+            .setCreate(false)
+            .setWrite(false);
+        return vertx.fileSystem().open(variant.path().toString(), openOptions)
+            .onItem()
+            .transform(throttle::shape);
+    }
+
+    private static boolean isDownload(SimpleResourceInfo resourceInfo) {
+        return resourceInfo != null && resourceInfo.getResourceClass() == FileDownloadResource.class;
+    }
+}
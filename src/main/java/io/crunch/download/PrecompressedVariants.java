@@ -0,0 +1,395 @@
+package io.crunch.download;
+
+import io.quarkus.runtime.configuration.MemorySize;
+import io.quarkus.scheduler.Scheduled;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * {@code PrecompressedVariants} keeps compressed copies of the files of the file store next to them, one per
+ * {@link ContentEncoding} (the sidecar {@code a.pdf.br}, {@code a.pdf.zst} and {@code a.pdf.gz} files of
+ * {@code a.pdf}), so a client accepting one of these codings is sent fewer bytes, without compressing on the request
+ * path and still with a zero-copy transfer of the sidecar file.
+ * <p>
+ * The files of the root directory, without its subdirectories that hold no downloadable file, are scanned in the
+ * background every {@code app.filestore.precompress.interval} by the Quarkus
+ * scheduler. A sidecar is up to date when its modification time is the one of its file, as it is set when the
+ * sidecar is written: the sidecars of the files changed since the previous scan are compressed again, into a hidden
+ * temporary file that is then moved over the sidecar, so a response never sends a partial sidecar. The files smaller
+ * than {@code app.filestore.precompress.min-size}, and the variants that do not save at least
+ * {@code app.filestore.precompress.min-saving} of the file size (most PDFs are compressed internally already), are
+ * not kept. The sidecars of deleted files are left in place, as they may be shared with other hosts of an NFS export.
+ * <p>
+ * A variant is served only while the metadata of the file are the ones it was compressed from, so a file changed
+ * since the last scan is sent as it is until its variants are compressed again. The statistics are registered as the
+ * {@code io.crunch.download:type=PrecompressedVariants} MBean.
+ *
+ * @apiNote The application needs write access to the root directory, and the variants are enabled with
+ * {@code app.filestore.precompress.enabled=true}: they are off by default, as the default root directory is
+ * {@code /tmp}, that is shared with every other process of the host.
+ * @see PrecompressedVariantFilter
+ */
+@ApplicationScoped
+public class PrecompressedVariants implements PrecompressedVariantsMXBean {
+
+    private final Logger logger = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+    /**
+     * A compressed copy of a file.
+     *
+     * @param encoding the coding of the content
+     * @param path     the path of the sidecar file
+     * @param size     the size of the sidecar file in bytes
+     * @param source   the metadata of the file the sidecar has been compressed from
+     */
+    public record Variant(ContentEncoding encoding, Path path, long size, FileMetadata source) {
+
+        /**
+         * Returns the opaque value of the strong entity tag of the variant, that differs from the tag of the file
+         * and from the tags of its other variants, as their content differ.
+         *
+         * @return the entity tag value without the surrounding quotes
+         */
+        public String etag() {
+            return source.etag() + "-" + encoding.token();
+        }
+    }
+
+    private final Path root;
+
+    private final boolean enabled;
+
+    private final long minimumSize;
+
+    private final double minimumSaving;
+
+    private final List<ContentEncoding> encodings;
+
+    /**
+     * The up-to-date variants of every file, by file name.
+     */
+    private final Map<String, Map<ContentEncoding, Variant>> variants = new ConcurrentHashMap<>();
+
+    /**
+     * The modification times of the files whose variant of a coding was discarded, by file name and suffix,
+     * so the file is not compressed again until it changes.
+     */
+    private final Map<String, Long> rejected = new ConcurrentHashMap<>();
+
+    /**
+     * Held by the running scan, so a scan requested through the MBean waits for the scheduled one.
+     */
+    private final ReentrantLock scanning = new ReentrantLock();
+
+    private final LongAdder compressions = new LongAdder();
+
+    private final LongAdder rejections = new LongAdder();
+
+    private final LongAdder served = new LongAdder();
+
+    private final LongAdder savedBytes = new LongAdder();
+
+    private final AtomicLong scans = new AtomicLong();
+
+    private final AtomicLong lastScanMillis = new AtomicLong();
+
+    @Inject
+    public PrecompressedVariants(@ConfigProperty(name = "app.filestore.root") String fileStoreRootDirectory,
+                                 @ConfigProperty(name = "app.filestore.precompress.enabled", defaultValue = "false") boolean enabled,
+                                 @ConfigProperty(name = "app.filestore.precompress.min-size", defaultValue = "1K") MemorySize minimumSize,
+                                 @ConfigProperty(name = "app.filestore.precompress.min-saving", defaultValue = "0.05") double minimumSaving) {
+        this.root = Paths.get(fileStoreRootDirectory).toAbsolutePath().normalize();
+        this.enabled = enabled;
+        this.minimumSize = minimumSize.asLongValue();
+        this.minimumSaving = minimumSaving;
+        this.encodings = new ArrayList<>();
+        for (var encoding : ContentEncoding.values()) {
+            if (encoding.isAvailable()) {
+                encodings.add(encoding);
+            } else {
+                logger.warn("The {} compressor is not available on this platform, no {} variant is generated", encoding.token(), encoding.suffix());
+            }
+        }
+    }
+
+    /**
+     * Registers the MBean.
+     */
+    @PostConstruct
+    void start() {
+        MBeans.register("PrecompressedVariants", this);
+    }
+
+    /**
+     * @return {@code true} if the variants are generated and served
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Returns whether the given file may have a variant, without asking the file system.
+     *
+     * @param fileName the name of the file, relative to the root directory
+     * @return {@code false} if no variant of the file has been generated
+     */
+    public boolean hasVariants(String fileName) {
+        return enabled && variants.containsKey(fileName);
+    }
+
+    /**
+     * Returns whether the current content of the file is known to compress poorly, as one of its variants has been
+     * discarded for saving too few bytes, so compressing it on the fly would only cost CPU time.
+     *
+     * @param fileName the name of the file, relative to the root directory
+     * @param metadata the current metadata of the file
+     * @return {@code true} if a variant of the current content of the file has been discarded
+     */
+    public boolean isIncompressible(String fileName, FileMetadata metadata) {
+        if (!enabled) {
+            return false;
+        }
+        var lastModified = metadata.lastModified().toEpochMilli();
+        for (var encoding : encodings) {
+            if (Objects.equals(rejected.get(fileName + encoding.suffix()), lastModified)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Selects the variant of the file to send to a client.
+     *
+     * @param fileName       the name of the file, relative to the root directory
+     * @param metadata       the current metadata of the file
+     * @param acceptEncoding the value of the {@code Accept-Encoding} header of the request, or {@code null}
+     * @return the variant to send, or {@code null} if the file should be sent as it is
+     * @see ContentEncoding#negotiate(String, java.util.Collection)
+     */
+    public Variant select(String fileName, FileMetadata metadata, String acceptEncoding) {
+        var available = variants.get(fileName);
+        if (!enabled || available == null) {
+            return null;
+        }
+        var current = new EnumMap<ContentEncoding, Variant>(ContentEncoding.class);
+        available.forEach((encoding, variant) -> {
+            if (variant.source().equals(metadata)) {
+                current.put(encoding, variant);
+            }
+        });
+        var encoding = ContentEncoding.negotiate(acceptEncoding, current.keySet());
+        if (encoding == null) {
+            return null;
+        }
+        var variant = current.get(encoding);
+        served.increment();
+        savedBytes.add(metadata.size() - variant.size());
+        return variant;
+    }
+
+    /**
+     * Brings the variants of every file of the root directory up to date, once the running scan, if any, has completed.
+     */
+    @Scheduled(every = "${app.filestore.precompress.interval:10m}", concurrentExecution = Scheduled.ConcurrentExecution.SKIP)
+    void scan() {
+        if (!enabled) {
+            return;
+        }
+        scanning.lock();
+        var start = System.nanoTime();
+        try {
+            var scanned = new HashSet<String>();
+            var sources = new ArrayList<Path>();
+            // a download names a file of the root directory, so the subdirectories are not entered
+            try (var paths = Files.list(root)) {
+                paths.filter(this::isSource).forEach(sources::add);
+            }
+            for (var source : sources) {
+                var fileName = toFileName(source);
+                scanned.add(fileName);
+                try {
+                    update(fileName, source);
+                } catch (IOException | UncheckedIOException e) {
+                    variants.remove(fileName);
+                    logger.warn("Cannot compress the variants of [{}], it is sent uncompressed", fileName, e);
+                }
+            }
+            variants.keySet().retainAll(scanned);
+            rejected.keySet().removeIf(key -> !scanned.contains(key.substring(0, key.lastIndexOf('.'))));
+            scans.incrementAndGet();
+            lastScanMillis.set(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        } catch (IOException | UncheckedIOException e) {
+            logger.warn("Cannot scan [{}] for the files to compress", root, e);
+        } finally {
+            scanning.unlock();
+        }
+    }
+
+    /**
+     * Brings the variants of a file up to date, compressing the missing and stale ones.
+     */
+    private void update(String fileName, Path source) throws IOException {
+        var metadata = metadata(source);
+        var current = new EnumMap<ContentEncoding, Variant>(ContentEncoding.class);
+        var lastModified = metadata.lastModified().toEpochMilli();
+        for (var encoding : encodings) {
+            var key = fileName + encoding.suffix();
+            if (Objects.equals(rejected.get(key), lastModified)) {
+                continue;
+            }
+            var sidecar = source.resolveSibling(source.getFileName() + encoding.suffix());
+            var variant = existing(encoding, sidecar, metadata);
+            if (variant == null) {
+                variant = compress(encoding, source, sidecar, metadata);
+            }
+            if (variant == null) {
+                rejected.put(key, lastModified);
+            } else {
+                current.put(encoding, variant);
+                // published right away, the previous variant describes a sidecar that has just been replaced
+                variants.put(fileName, Map.copyOf(current));
+            }
+        }
+        if (current.isEmpty()) {
+            variants.remove(fileName);
+        }
+    }
+
+    /**
+     * Returns the variant of the given sidecar if it has been compressed from the current content of the file.
+     */
+    private static Variant existing(ContentEncoding encoding, Path sidecar, FileMetadata source) throws IOException {
+        if (!Files.isRegularFile(sidecar)) {
+            return null;
+        }
+        var attributes = Files.readAttributes(sidecar, BasicFileAttributes.class);
+        if (attributes.lastModifiedTime().toMillis() != source.lastModified().toEpochMilli()) {
+            return null;
+        }
+        return new Variant(encoding, sidecar, attributes.size(), source);
+    }
+
+    /**
+     * Compresses the file into its sidecar, and returns the new variant, or {@code null} if it does not save enough
+     * bytes or the file has changed while it was compressed.
+     */
+    private Variant compress(ContentEncoding encoding, Path source, Path sidecar, FileMetadata metadata) throws IOException {
+        var temporary = sidecar.resolveSibling("." + sidecar.getFileName() + ".tmp");
+        try {
+            try (var output = encoding.compress(Files.newOutputStream(temporary))) {
+                Files.copy(source, output);
+            }
+            var size = Files.size(temporary);
+            if (size > metadata.size() * (1 - minimumSaving)) {
+                rejections.increment();
+                logger.debug("The {} variant of [{}] saves less than {}", encoding.token(), source, minimumSaving);
+                return null;
+            }
+            if (!metadata(source).equals(metadata)) {
+                return null;
+            }
+            Files.setLastModifiedTime(temporary, FileTime.fromMillis(metadata.lastModified().toEpochMilli()));
+            Files.move(temporary, sidecar, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            compressions.increment();
+            return new Variant(encoding, sidecar, size, metadata);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    private boolean isSource(Path path) {
+        var name = path.getFileName().toString();
+        try {
+            return !name.startsWith(".") && !ContentEncoding.isVariant(name) && Files.isRegularFile(path) && Files.size(path) >= minimumSize;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static FileMetadata metadata(Path path) throws IOException {
+        var attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        return new FileMetadata(attributes.size(), attributes.lastModifiedTime().toInstant().truncatedTo(ChronoUnit.MILLIS));
+    }
+
+    private String toFileName(Path path) {
+        return root.relativize(path).toString().replace(File.separatorChar, '/');
+    }
+
+    @Override
+    public long getFileCount() {
+        return variants.size();
+    }
+
+    @Override
+    public long getVariantCount() {
+        return variants.values().stream().mapToLong(Map::size).sum();
+    }
+
+    @Override
+    public long getVariantBytes() {
+        return variants.values().stream().flatMap(v -> v.values().stream()).mapToLong(Variant::size).sum();
+    }
+
+    @Override
+    public long getCompressionCount() {
+        return compressions.sum();
+    }
+
+    @Override
+    public long getRejectionCount() {
+        return rejections.sum();
+    }
+
+    @Override
+    public long getServedCount() {
+        return served.sum();
+    }
+
+    @Override
+    public long getSavedBytes() {
+        return savedBytes.sum();
+    }
+
+    @Override
+    public long getScanCount() {
+        return scans.get();
+    }
+
+    @Override
+    public long getLastScanMillis() {
+        return lastScanMillis.get();
+    }
+
+    @Override
+    public void regenerate() {
+        Thread.ofPlatform().daemon().name("precompressed-variants").start(this::scan);
+    }
+}
@@ -0,0 +1,57 @@
+package io.crunch.download;
+
+/**
+ * The management interface of the {@link PrecompressedVariants}, exposing its statistics through JMX.
+ */
+public interface PrecompressedVariantsMXBean {
+
+    /**
+     * @return the number of files that have at least one up-to-date variant
+     */
+    long getFileCount();
+
+    /**
+     * @return the number of up-to-date variants, of every coding
+     */
+    long getVariantCount();
+
+    /**
+     * @return the total size of the up-to-date variants in bytes
+     */
+    long getVariantBytes();
+
+    /**
+     * @return the number of variants compressed since startup
+     */
+    long getCompressionCount();
+
+    /**
+     * @return the number of variants discarded since startup because they did not save enough bytes
+     */
+    long getRejectionCount();
+
+    /**
+     * @return the number of responses that have been served from a variant
+     */
+    long getServedCount();
+
+    /**
+     * @return the number of bytes the responses served from a variant have saved over the identity content
+     */
+    long getSavedBytes();
+
+    /**
+     * @return the number of completed scans of the root directory
+     */
+    long getScanCount();
+
+    /**
+     * @return the duration of the last scan of the root directory in milliseconds, compressions included
+     */
+    long getLastScanMillis();
+
+    /**
+     * Scans the root directory now in the background, for example after files have been published.
+     */
+    void regenerate();
+}
@@ -0,0 +1,27 @@
+package io.crunch.download;
+
+import jakarta.ws.rs.ClientErrorException;
+import jakarta.ws.rs.core.Response;
+
+import java.io.Serial;
+
+/**
+ * A runtime exception indicating that none of the ranges requested by the client overlap the file,
+ * that results in a {@code 416 Range Not Satisfiable} response.
+ */
+public class RangeNotSatisfiableException extends ClientErrorException {
+
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Constructs a new exception for a file of the given size.
+     *
+     * @param size the size of the file in bytes, sent back in the {@code Content-Range} header
+     */
+    public RangeNotSatisfiableException(long size) {
+        super(Response.status(Response.Status.REQUESTED_RANGE_NOT_SATISFIABLE)
+            .header("Content-Range", ByteRange.UNIT + " */" + size)
+            .build());
+    }
+}
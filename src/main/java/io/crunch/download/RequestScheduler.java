@@ -0,0 +1,186 @@
+package io.crunch.download;
+
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@code RequestScheduler} bounds the number of requests of a thread pool that run concurrently, and starts the
+ * waiting requests by their deadline rather than by their arrival.
+ * <p>
+ * The deadline of a request is its arrival time plus its cost: the time the caller allows it to be overtaken for,
+ * from its expected size and its priority class. A small interactive request therefore starts before the large bulk
+ * requests that arrived shortly before it, while a request that has waited longer than the cost of a newer one starts
+ * first, whatever their sizes: the deadline ages the waiting requests, and no request waits beyond the cost of the
+ * most expensive request after its own deadline, so none starves. The requests with the same deadline start in
+ * arrival order.
+ * <p>
+ * The requests start at once while fewer than the maximum concurrency are running, so the order only matters once
+ * the requests queue. The methods are synchronized: they are called twice per request, and the queue operations are
+ * logarithmic, but for the withdrawal of a request whose client has gone while it was waiting.
+ */
+public class RequestScheduler implements RequestSchedulerMXBean {
+
+    /**
+     * A request, created before it is scheduled so its completion can be registered first.
+     */
+    public static final class Ticket implements Comparable<Ticket> {
+
+        private final Runnable start;
+
+        private long deadline;
+
+        private long sequence;
+
+        private long queuedAt;
+
+        private State state = State.NEW;
+
+        /**
+         * Creates a ticket.
+         *
+         * @param start starts the request, outside the lock of the scheduler
+         */
+        public Ticket(Runnable start) {
+            this.start = start;
+        }
+
+        @Override
+        public int compareTo(Ticket other) {
+            var byDeadline = Long.compare(deadline - other.deadline, 0);
+            return byDeadline != 0 ? byDeadline : Long.compare(sequence, other.sequence);
+        }
+    }
+
+    private enum State {
+        NEW, QUEUED, RUNNING, DONE
+    }
+
+    private final int maxConcurrency;
+
+    private final PriorityQueue<Ticket> queue = new PriorityQueue<>();
+
+    private final LongAdder scheduled = new LongAdder();
+
+    private final LongAdder queued = new LongAdder();
+
+    private final LongAdder dequeued = new LongAdder();
+
+    private final LongAdder waitNanos = new LongAdder();
+
+    private long sequence;
+
+    private int running;
+
+    /**
+     * Creates a scheduler.
+     *
+     * @param maxConcurrency the number of requests that run concurrently
+     */
+    public RequestScheduler(int maxConcurrency) {
+        if (maxConcurrency < 1) {
+            throw new IllegalArgumentException("Invalid concurrency: " + maxConcurrency);
+        }
+        this.maxConcurrency = maxConcurrency;
+    }
+
+    /**
+     * Tells whether a request would start at once, so its cost need not be computed.
+     *
+     * @return {@code true} if no request is waiting and fewer than the maximum concurrency are running
+     */
+    public synchronized boolean isIdle() {
+        return queue.isEmpty() && running < maxConcurrency;
+    }
+
+    /**
+     * Schedules a request, that is started at once if a slot is free, or once it is the earliest deadline waiting
+     * when a slot is freed.
+     *
+     * @param ticket the request, whose start is called once, and which must be completed by {@link #complete(Ticket)}
+     * @param cost   the time the request may be overtaken for, in nanoseconds
+     */
+    public void schedule(Ticket ticket, long cost) {
+        synchronized (this) {
+            if (ticket.state != State.NEW) {
+                // completed before it was scheduled
+                return;
+            }
+            scheduled.increment();
+            var now = System.nanoTime();
+            ticket.deadline = now + Math.max(0, cost);
+            ticket.sequence = sequence++;
+            if (!queue.isEmpty() || running >= maxConcurrency) {
+                ticket.state = State.QUEUED;
+                ticket.queuedAt = now;
+                queued.increment();
+                queue.add(ticket);
+                return;
+            }
+            running++;
+            ticket.state = State.RUNNING;
+        }
+        ticket.start.run();
+    }
+
+    /**
+     * Completes a request: a running request frees its slot for the earliest deadline waiting, a waiting request is
+     * withdrawn. Repeated calls have no effect.
+     *
+     * @param ticket the request
+     */
+    public void complete(Ticket ticket) {
+        Ticket next;
+        synchronized (this) {
+            var state = ticket.state;
+            ticket.state = State.DONE;
+            if (state == State.QUEUED) {
+                queue.remove(ticket);
+                return;
+            }
+            if (state != State.RUNNING) {
+                return;
+            }
+            running--;
+            next = queue.poll();
+            if (next == null) {
+                return;
+            }
+            running++;
+            next.state = State.RUNNING;
+            dequeued.increment();
+            waitNanos.add(System.nanoTime() - next.queuedAt);
+        }
+        next.start.run();
+    }
+
+    @Override
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    @Override
+    public synchronized int getRunningCount() {
+        return running;
+    }
+
+    @Override
+    public synchronized int getWaitingCount() {
+        return queue.size();
+    }
+
+    @Override
+    public long getScheduledCount() {
+        return scheduled.sum();
+    }
+
+    @Override
+    public long getQueuedCount() {
+        return queued.sum();
+    }
+
+    @Override
+    public double getAverageWaitMillis() {
+        var count = dequeued.sum();
+        return count == 0 ? 0 : waitNanos.sum() / 1_000_000.0 / count;
+    }
+}
@@ -0,0 +1,37 @@
+package io.crunch.download;
+
+/**
+ * The management interface of a {@link RequestScheduler}, exposing its statistics through JMX.
+ */
+public interface RequestSchedulerMXBean {
+
+    /**
+     * @return the number of requests that run concurrently
+     */
+    int getMaxConcurrency();
+
+    /**
+     * @return the number of requests running
+     */
+    int getRunningCount();
+
+    /**
+     * @return the number of requests waiting for a slot
+     */
+    int getWaitingCount();
+
+    /**
+     * @return the number of requests that have been scheduled
+     */
+    long getScheduledCount();
+
+    /**
+     * @return the number of requests that have waited for a slot
+     */
+    long getQueuedCount();
+
+    /**
+     * @return the average time the requests started from the queue have waited, in milliseconds
+     */
+    double getAverageWaitMillis();
+}
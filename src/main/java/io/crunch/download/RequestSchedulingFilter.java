@@ -0,0 +1,182 @@
+package io.crunch.download;
+
+import io.quarkus.vertx.http.runtime.filters.Filters;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.ext.web.RoutingContext;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * {@code RequestSchedulingFilter} orders the blocking downloads of the {@link FileDownloadResource} waiting for a
+ * thread by their expected cost, so a burst of large transfers does not hold the small interactive downloads back.
+ * <p>
+ * The worker pool of Quarkus starts its tasks in arrival order. The requests of the worker thread strategies
+ * ({@code stream} and {@code byteArray}) and of the virtual thread strategy ({@code byteArrayVirtual}) are therefore
+ * held on the event loop by a {@link RequestScheduler} per pool, before they are dispatched, once the pool runs
+ * {@code app.download.scheduler.worker.max-concurrency} (default {@code 32}) or
+ * {@code app.download.scheduler.virtual.max-concurrency} (default {@code 64}) downloads. A waiting request starts by
+ * its deadline: its arrival plus a cost of {@code app.download.scheduler.cost-per-mb} (default {@code 10ms}) per MB of
+ * the file, up to {@code app.download.scheduler.max-size-cost} (default {@code 2s}), plus the cost of the priority
+ * class named by the {@code app.download.scheduler.priority-header} request header ({@code X-Priority}):
+ * {@code interactive}, {@code normal} (the default) or {@code bulk}. The deadlines age the waiting requests, so a
+ * large bulk download is overtaken for its cost at most, and never starves.
+ * <p>
+ * The size of the file is read from the metadata of the {@link FileStore}, only when the request has to wait. The
+ * filter runs after the {@link ConcurrencyLimitFilter}, whose queue delay includes the time waited here. The
+ * statistics are registered as the {@code io.crunch.download:type=RequestScheduler,name=<pool>} MBeans.
+ */
+@ApplicationScoped
+public class RequestSchedulingFilter {
+
+    /**
+     * The priority classes of the requests, from the most urgent.
+     */
+    public enum Priority {
+        INTERACTIVE, NORMAL, BULK
+    }
+
+    /**
+     * The route filter runs after the admission of the {@link ConcurrencyLimitFilter}.
+     */
+    private static final int FILTER_PRIORITY = 90;
+
+    private static final String PATH_PREFIX = "/download/";
+
+    private static final long ONE_MB = 1024 * 1024;
+
+    private final FileStore fileStore;
+
+    private final boolean enabled;
+
+    private final long costPerMegabyte;
+
+    private final long maxSizeCost;
+
+    private final String priorityHeader;
+
+    private final Map<Priority, Long> priorityCosts;
+
+    private final RequestScheduler worker;
+
+    private final RequestScheduler virtual;
+
+    /**
+     * The schedulers of the strategies, by strategy.
+     */
+    private final Map<String, RequestScheduler> schedulers;
+
+    @Inject
+    public RequestSchedulingFilter(FileStore fileStore,
+                                   @ConfigProperty(name = "app.download.scheduler.enabled", defaultValue = "true") boolean enabled,
+                                   @ConfigProperty(name = "app.download.scheduler.worker.max-concurrency", defaultValue = "32") int workerConcurrency,
+                                   @ConfigProperty(name = "app.download.scheduler.virtual.max-concurrency", defaultValue = "64") int virtualConcurrency,
+                                   @ConfigProperty(name = "app.download.scheduler.cost-per-mb", defaultValue = "10ms") Duration costPerMegabyte,
+                                   @ConfigProperty(name = "app.download.scheduler.max-size-cost", defaultValue = "2s") Duration maxSizeCost,
+                                   @ConfigProperty(name = "app.download.scheduler.priority-header", defaultValue = "X-Priority") String priorityHeader,
+                                   @ConfigProperty(name = "app.download.scheduler.priority.interactive", defaultValue = "0s") Duration interactiveCost,
+                                   @ConfigProperty(name = "app.download.scheduler.priority.normal", defaultValue = "100ms") Duration normalCost,
+                                   @ConfigProperty(name = "app.download.scheduler.priority.bulk", defaultValue = "1s") Duration bulkCost) {
+        this.fileStore = fileStore;
+        this.enabled = enabled;
+        this.costPerMegabyte = costPerMegabyte.toNanos();
+        this.maxSizeCost = maxSizeCost.toNanos();
+        this.priorityHeader = priorityHeader;
+        this.priorityCosts = Map.of(
+            Priority.INTERACTIVE, interactiveCost.toNanos(),
+            Priority.NORMAL, normalCost.toNanos(),
+            Priority.BULK, bulkCost.toNanos());
+        this.worker = new RequestScheduler(workerConcurrency);
+        this.virtual = new RequestScheduler(virtualConcurrency);
+        this.schedulers = Map.of("stream", worker, "byteArray", worker, "byteArrayVirtual", virtual);
+        MBeans.register("RequestScheduler", "worker", worker);
+        MBeans.register("RequestScheduler", "virtual", virtual);
+    }
+
+    /**
+     * Returns the scheduler of a download strategy.
+     *
+     * @param strategy the download strategy, for example {@code stream}
+     * @return the scheduler, or {@code null} if the strategy is not scheduled
+     */
+    RequestScheduler scheduler(String strategy) {
+        return schedulers.get(strategy);
+    }
+
+    void registerFilter(@Observes Filters filters) {
+        if (enabled) {
+            filters.register(this::schedule, FILTER_PRIORITY);
+        }
+    }
+
+    /**
+     * Dispatches a download request of a scheduled strategy when the scheduler starts it, on the event loop.
+     *
+     * @param context the request
+     */
+    void schedule(RoutingContext context) {
+        var path = context.normalizedPath();
+        var separator = path != null && path.startsWith(PATH_PREFIX) ? path.indexOf('/', PATH_PREFIX.length()) : -1;
+        var scheduler = separator < 0 || context.request().method() != HttpMethod.GET
+            ? null
+            : schedulers.get(path.substring(PATH_PREFIX.length(), separator));
+        if (scheduler == null) {
+            context.next();
+            return;
+        }
+        var eventLoop = Vertx.currentContext();
+        var ticket = new RequestScheduler.Ticket(() -> {
+            if (Vertx.currentContext() == eventLoop) {
+                context.next();
+            } else {
+                eventLoop.runOnContext(ignored -> context.next());
+            }
+        });
+        // withdraws the request if its client goes away while it waits
+        context.addEndHandler(result -> scheduler.complete(ticket));
+        var priorityCost = priorityCosts.get(priority(context.request().getHeader(priorityHeader)));
+        if (scheduler.isIdle()) {
+            scheduler.schedule(ticket, priorityCost);
+            return;
+        }
+        var fileName = URLDecoder.decode(path.substring(separator + 1).replace("+", "%2B"), StandardCharsets.UTF_8);
+        fileStore.getMetadata(fileName)
+            .subscribe()
+            .with(
+                metadata -> scheduler.schedule(ticket, priorityCost + sizeCost(metadata.size())),
+                // the endpoint answers the requests of the files that are missing or cannot be read
+                failure -> scheduler.schedule(ticket, priorityCost));
+    }
+
+    /**
+     * Returns the cost of a file of the given size.
+     *
+     * @param size the size of the file in bytes
+     * @return the time the download of the file may be overtaken for, in nanoseconds
+     */
+    long sizeCost(long size) {
+        return Math.min(maxSizeCost, (long) ((double) size / ONE_MB * costPerMegabyte));
+    }
+
+    /**
+     * Returns the priority class named by a request header, {@link Priority#NORMAL} if it is missing or unknown.
+     */
+    static Priority priority(String header) {
+        if (header == null) {
+            return Priority.NORMAL;
+        }
+        try {
+            return Priority.valueOf(header.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            return Priority.NORMAL;
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package io.crunch.download;
+
+import io.smallrye.mutiny.Uni;
+import io.smallrye.mutiny.subscription.UniEmitter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+
+/**
+ * {@code SingleFlight} makes the concurrent callers that load the same key share one load: the first caller starts
+ * the load, the callers arriving while it is in flight receive its result, and the next caller after its completion
+ * starts a new load.
+ * <p>
+ * The asynchronous loads ({@link #load(Object, Supplier)}) emit the item or the failure of the load to every
+ * subscriber that joined it while it was in flight. The blocking loads ({@link #loadBlocking(Object, Supplier)})
+ * are run by the first caller on its own thread, while the others wait for a shared {@link CompletableFuture};
+ * waiting parks a virtual thread without pinning its carrier.
+ * <p>
+ * The result is shared, not copied, so it must not be modified by the callers, unless it is reference-counted and
+ * every caller receives a reference of its own ({@link #load(Object, Supplier, UnaryOperator, Consumer)}).
+ * Nothing is kept after a load has completed, so the keys need to carry the version of the loaded content only to
+ * avoid sharing a load that started before the content changed.
+ *
+ * @param <K> the type of the keys
+ */
+public class SingleFlight<K> implements SingleFlightMXBean {
+
+    private final ConcurrentHashMap<K, Flight<?>> inFlight = new ConcurrentHashMap<>();
+
+    private final ConcurrentHashMap<K, CompletableFuture<?>> inFlightBlocking = new ConcurrentHashMap<>();
+
+    private final LongAdder loads = new LongAdder();
+
+    private final LongAdder coalesced = new LongAdder();
+
+    /**
+     * A caller waiting for a load in flight, that may have cancelled its subscription in the meantime.
+     */
+    private record Waiter<V>(UniEmitter<? super V> emitter, AtomicBoolean terminated) {
+    }
+
+    /**
+     * The callers waiting for a load in flight.
+     */
+    private static final class Flight<V> {
+
+        private final List<Waiter<V>> waiters = new ArrayList<>();
+    }
+
+    /**
+     * Returns the result of the load of the given key in flight, or of a new load started with the given loader.
+     *
+     * @param key    the key of the loaded content
+     * @param loader starts the load, called at most once per group of concurrent callers
+     * @param <V>    the type of the loaded content
+     * @return a {@link Uni} emitting the shared result of the load
+     */
+    public <V> Uni<V> load(K key, Supplier<Uni<V>> loader) {
+        return load(key, loader, UnaryOperator.identity(), content -> {
+        });
+    }
+
+    /**
+     * Returns the result of the load of the given key in flight, or of a new load started with the given loader,
+     * handing a reference of its own to every caller.
+     * <p>
+     * This is used to share reference-counted content: every caller receives the result of {@code share}, and the
+     * reference of the loaded content is released once it has been shared with all the callers.
+     *
+     * @param key     the key of the loaded content
+     * @param loader  starts the load, called at most once per group of concurrent callers
+     * @param share   returns the reference of the loaded content handed to a caller
+     * @param release releases the reference of the loaded content
+     * @param <V>     the type of the loaded content
+     * @return a {@link Uni} emitting the shared result of the load
+     */
+    @SuppressWarnings("unchecked")
+    public <V> Uni<V> load(K key, Supplier<Uni<V>> loader, UnaryOperator<V> share, Consumer<V> release) {
+        return Uni.createFrom().emitter(emitter -> {
+            var started = new boolean[1];
+            var flight = (Flight<V>) inFlight.compute(key, (k, current) -> {
+                var joined = current == null ? new Flight<V>() : (Flight<V>) current;
+                started[0] = current == null;
+                var terminated = new AtomicBoolean();
+                emitter.onTermination(() -> terminated.set(true));
+                joined.waiters.add(new Waiter<>(emitter, terminated));
+                return joined;
+            });
+            if (!started[0]) {
+                coalesced.increment();
+                return;
+            }
+            loads.increment();
+            Uni.createFrom().deferred(loader::get).subscribe().with(
+                content -> {
+                    for (var waiter : complete(key, flight)) {
+                        if (!waiter.terminated().get()) {
+                            waiter.emitter().complete(share.apply(content));
+                        }
+                    }
+                    release.accept(content);
+                },
+                failure -> complete(key, flight).forEach(waiter -> waiter.emitter().fail(failure)));
+        });
+    }
+
+    /**
+     * Removes the flight, so no caller can join it any more, and returns its waiters.
+     */
+    private <V> List<Waiter<V>> complete(K key, Flight<V> flight) {
+        inFlight.remove(key, flight);
+        return flight.waiters;
+    }
+
+    /**
+     * Returns the result of the blocking load of the given key in flight, or runs a new load with the given loader
+     * on the calling thread.
+     *
+     * @param key    the key of the loaded content
+     * @param loader runs the load, called at most once per group of concurrent callers
+     * @param <V>    the type of the loaded content
+     * @return the shared result of the load
+     * @throws RuntimeException the failure of the load
+     */
+    @SuppressWarnings("unchecked")
+    public <V> V loadBlocking(K key, Supplier<V> loader) {
+        var future = new CompletableFuture<V>();
+        var existing = (CompletableFuture<V>) inFlightBlocking.putIfAbsent(key, future);
+        if (existing != null) {
+            coalesced.increment();
+            try {
+                return existing.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException cause ? cause : e;
+            }
+        }
+        loads.increment();
+        try {
+            var result = loader.get();
+            future.complete(result);
+            return result;
+        } catch (RuntimeException | Error e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlightBlocking.remove(key, future);
+        }
+    }
+
+    @Override
+    public long getLoadCount() {
+        return loads.sum();
+    }
+
+    @Override
+    public long getCoalescedCount() {
+        return coalesced.sum();
+    }
+
+    @Override
+    public int getInFlightCount() {
+        return inFlight.size() + inFlightBlocking.size();
+    }
+}
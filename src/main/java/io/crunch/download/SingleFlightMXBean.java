@@ -0,0 +1,22 @@
+package io.crunch.download;
+
+/**
+ * The management interface of the {@link SingleFlight}, exposing its statistics through JMX.
+ */
+public interface SingleFlightMXBean {
+
+    /**
+     * @return the number of loads that were started, one per group of concurrent callers
+     */
+    long getLoadCount();
+
+    /**
+     * @return the number of callers that shared the result of a load started by another caller
+     */
+    long getCoalescedCount();
+
+    /**
+     * @return the number of loads in flight
+     */
+    int getInFlightCount();
+}
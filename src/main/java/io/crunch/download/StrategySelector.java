@@ -0,0 +1,177 @@
+package io.crunch.download;
+
+import io.quarkus.runtime.configuration.MemorySize;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@code StrategySelector} chooses the delivery strategy of the {@code auto} endpoint of the {@link FileDownloadResource}
+ * for every request, so the clients do not have to know the trade-offs of the other endpoints.
+ * <p>
+ * The choice is made from the size of the requested content, whether the file is held by the caches of the
+ * {@link FileStore}, the bytes reserved from the {@link InFlightBytesBudget}, and the recent lag of the timers of the
+ * event loop, sampled by the {@link LoadSampler}:
+ * <ul>
+ *   <li>{@link Strategy#ASYNC_BUFFER} sends the content from a pooled buffer in memory, for the cached files, and for
+ *   the cold files up to {@code app.download.auto.small-file-max-size} (default {@code 1M}) while the event loop lags
+ *   less than {@code app.download.auto.max-event-loop-lag} (default {@code 20ms}): they are cheap to load, and the
+ *   load offers them to the cache. The content is reserved from the budget first, and only while the reservations
+ *   stay below {@code app.download.auto.memory-pressure} (default {@code 0.75}) of the budget, so the in-memory
+ *   downloads of the other endpoints are not crowded out;</li>
+ *   <li>{@link Strategy#SEND_FILE} transfers the other files with the kernel {@code sendfile}, that neither holds
+ *   their content in memory nor runs on the event loop while the bytes are copied;</li>
+ *   <li>{@link Strategy#ASYNC_FILE} streams them through an {@link io.vertx.mutiny.core.file.AsyncFile} instead when
+ *   the connection cannot transfer a file region without copying it (over TLS or HTTP/2), or when the download is
+ *   paced by the {@link BandwidthShaper}.</li>
+ * </ul>
+ * Under memory pressure, the small and the hot files are therefore streamed like the large ones. The number of
+ * downloads sent with every strategy is exposed as the {@code io.crunch.download:type=StrategySelector} MBean.
+ */
+@ApplicationScoped
+public class StrategySelector implements StrategySelectorMXBean {
+
+    /**
+     * The delivery strategies, named after the endpoints that implement them.
+     */
+    public enum Strategy {
+        /**
+         * The content is loaded into a pooled buffer, as the {@code asyncBuffer} endpoint does.
+         */
+        ASYNC_BUFFER,
+        /**
+         * The file is transferred by the kernel, as the {@code sendFile} endpoint does.
+         */
+        SEND_FILE,
+        /**
+         * The file is streamed in chunks, as the {@code asyncFile} endpoint does.
+         */
+        ASYNC_FILE
+    }
+
+    /**
+     * The strategy chosen for a download.
+     *
+     * @param strategy    the delivery strategy
+     * @param reservation the bytes reserved for the content of an {@link Strategy#ASYNC_BUFFER} download, that must be
+     *                    released by the caller, {@code null} for the other strategies
+     */
+    public record Choice(Strategy strategy, InFlightBytesBudget.Reservation reservation) {
+    }
+
+    private final InFlightBytesBudget memoryBudget;
+
+    private final long smallFileMaxSize;
+
+    private final double memoryPressure;
+
+    private final long maxEventLoopLagNanos;
+
+    private final LoadSampler loadSampler;
+
+    private final Map<Strategy, LongAdder> selected = new EnumMap<>(Strategy.class);
+
+    private final LongAdder pressured = new LongAdder();
+
+    @Inject
+    public StrategySelector(InFlightBytesBudget memoryBudget, LoadSampler loadSampler,
+                            @ConfigProperty(name = "app.download.auto.small-file-max-size", defaultValue = "1M") MemorySize smallFileMaxSize,
+                            @ConfigProperty(name = "app.download.auto.memory-pressure", defaultValue = "0.75") double memoryPressure,
+                            @ConfigProperty(name = "app.download.auto.max-event-loop-lag", defaultValue = "20ms") Duration maxEventLoopLag) {
+        this(memoryBudget, smallFileMaxSize.asLongValue(), memoryPressure, maxEventLoopLag, loadSampler);
+    }
+
+    /**
+     * Creates a selector.
+     *
+     * @param memoryBudget     the budget the content of the in-memory downloads is reserved from
+     * @param smallFileMaxSize the size up to which a file that is not cached is loaded into memory
+     * @param memoryPressure   the share of the budget above which no content is loaded into memory
+     * @param maxEventLoopLag  the event loop lag above which a file that is not cached is not loaded into memory
+     * @param loadSampler      the sampler of the event loop lag
+     */
+    StrategySelector(InFlightBytesBudget memoryBudget, long smallFileMaxSize, double memoryPressure, Duration maxEventLoopLag, LoadSampler loadSampler) {
+        if (memoryPressure < 0 || memoryPressure > 1) {
+            throw new IllegalArgumentException("Invalid memory pressure: " + memoryPressure);
+        }
+        this.memoryBudget = memoryBudget;
+        this.smallFileMaxSize = smallFileMaxSize;
+        this.memoryPressure = memoryPressure;
+        this.maxEventLoopLagNanos = maxEventLoopLag.toNanos();
+        this.loadSampler = loadSampler;
+        for (var strategy : Strategy.values()) {
+            selected.put(strategy, new LongAdder());
+        }
+    }
+
+    /**
+     * Registers the MBean.
+     */
+    @PostConstruct
+    void start() {
+        MBeans.register("StrategySelector", this);
+    }
+
+    /**
+     * Chooses the delivery strategy of a download, and reserves its content from the budget if it is sent from memory.
+     *
+     * @param length   the number of bytes to send
+     * @param cached   whether the whole content of the file is held by the caches of the file store
+     * @param zeroCopy whether the connection transfers a file region without copying it
+     * @param shaped   whether the download is paced by the {@link BandwidthShaper}
+     * @return the chosen strategy
+     */
+    public Choice select(long length, boolean cached, boolean zeroCopy, boolean shaped) {
+        var strategy = zeroCopy && !shaped ? Strategy.SEND_FILE : Strategy.ASYNC_FILE;
+        InFlightBytesBudget.Reservation reservation = null;
+        if (!shaped && (cached || length <= smallFileMaxSize && loadSampler.eventLoopLagNanos() < maxEventLoopLagNanos)) {
+            reservation = memoryBudget.getReservedBytes() + length <= memoryBudget.getMaxSize() * memoryPressure
+                ? memoryBudget.tryReserve(length)
+                : null;
+            if (reservation != null) {
+                strategy = Strategy.ASYNC_BUFFER;
+            } else {
+                pressured.increment();
+            }
+        }
+        selected.get(strategy).increment();
+        return new Choice(strategy, reservation);
+    }
+
+    @Override
+    public long getSmallFileMaxSize() {
+        return smallFileMaxSize;
+    }
+
+    @Override
+    public long getEventLoopLagMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(loadSampler.eventLoopLagNanos());
+    }
+
+    @Override
+    public long getAsyncBufferCount() {
+        return selected.get(Strategy.ASYNC_BUFFER).sum();
+    }
+
+    @Override
+    public long getSendFileCount() {
+        return selected.get(Strategy.SEND_FILE).sum();
+    }
+
+    @Override
+    public long getAsyncFileCount() {
+        return selected.get(Strategy.ASYNC_FILE).sum();
+    }
+
+    @Override
+    public long getMemoryPressureCount() {
+        return pressured.sum();
+    }
+}
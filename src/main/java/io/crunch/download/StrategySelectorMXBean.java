@@ -0,0 +1,38 @@
+package io.crunch.download;
+
+/**
+ * The management interface of the {@link StrategySelector}, exposing its statistics through JMX.
+ */
+public interface StrategySelectorMXBean {
+
+    /**
+     * @return the size in bytes up to which a file that is not cached is sent from memory
+     */
+    long getSmallFileMaxSize();
+
+    /**
+     * @return the recent lag of the event loop timers, in milliseconds
+     */
+    long getEventLoopLagMillis();
+
+    /**
+     * @return the number of downloads sent from a pooled buffer in memory
+     */
+    long getAsyncBufferCount();
+
+    /**
+     * @return the number of downloads transferred with the kernel {@code sendfile}
+     */
+    long getSendFileCount();
+
+    /**
+     * @return the number of downloads streamed through an {@code AsyncFile}
+     */
+    long getAsyncFileCount();
+
+    /**
+     * @return the number of downloads that would have been sent from memory, but were streamed because of the
+     * memory budget
+     */
+    long getMemoryPressureCount();
+}
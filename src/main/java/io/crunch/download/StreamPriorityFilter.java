@@ -0,0 +1,109 @@
+package io.crunch.download;
+
+import io.netty.handler.codec.http2.Http2CodecUtil;
+import io.netty.handler.codec.http2.Http2ConnectionHandler;
+import io.quarkus.runtime.configuration.MemorySize;
+import io.smallrye.mutiny.Uni;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.http.HttpVersion;
+import io.vertx.core.net.impl.ConnectionBase;
+import jakarta.ws.rs.HttpMethod;
+import jakarta.ws.rs.Priorities;
+import jakarta.ws.rs.container.ContainerRequestContext;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.resteasy.reactive.server.ServerRequestFilter;
+import org.jboss.resteasy.reactive.server.SimpleResourceInfo;
+
+/**
+ * {@code StreamPriorityFilter} weighs the HTTP/2 streams of the {@link FileDownloadResource} downloads by the size
+ * of the requested file, so the small files overtake the large ones sharing a connection.
+ * <p>
+ * The connection sends the data of its streams in proportion to their weights (Netty's weighted fair queue), so a
+ * file up to {@code app.http2.priority.reference-size} gets the highest weight ({@code 256}), and a larger file a
+ * weight inversely proportional to its size, down to {@code 1}: a 64 KB file and a 20 MB file downloaded together
+ * share the connection evenly per byte remaining instead of per stream, and the small file completes first. The
+ * weight is applied before the endpoint is invoked, from the metadata of the file, and HTTP/1.1 requests, that have a
+ * connection of their own, are left alone.
+ * <p>
+ * Vert.x's {@code setStreamPriority} only sends a {@code PRIORITY} frame to the client, that tells the client how to
+ * weigh what it sends, so the weight is set on the remote flow controller of the Netty connection instead, whose byte
+ * distributor decides which stream the server sends its data on.
+ */
+public class StreamPriorityFilter {
+
+    /**
+     * The highest weight of a stream, the lowest being {@code 1}.
+     */
+    static final int MAX_WEIGHT = 256;
+
+    private final FileStore fileStore;
+
+    private final long referenceSize;
+
+    public StreamPriorityFilter(FileStore fileStore,
+                                @ConfigProperty(name = "app.http2.priority.reference-size", defaultValue = "1M") MemorySize referenceSize) {
+        this.fileStore = fileStore;
+        this.referenceSize = Math.max(1, referenceSize.asLongValue());
+    }
+
+    /**
+     * Sets the weight of the stream of an HTTP/2 download from the size of the requested file.
+     * <p>
+     * The filter runs before the {@link PrecompressedVariantFilter}, that may answer the request itself.
+     *
+     * @param resourceInfo the endpoint the request has been matched to
+     * @param context      the request
+     * @param request      the underlying HTTP request, whose stream is weighed
+     * @return a {@link Uni} completing once the weight is set, to let the endpoint respond
+     */
+    @ServerRequestFilter(priority = Priorities.HEADER_DECORATOR)
+    public Uni<Void> prioritize(SimpleResourceInfo resourceInfo, ContainerRequestContext context, HttpServerRequest request) {
+        var fileName = context.getUriInfo().getPathParameters().getFirst("name");
+        if (request.version() != HttpVersion.HTTP_2
+            || resourceInfo == null
+            || resourceInfo.getResourceClass() != FileDownloadResource.class
+            || !HttpMethod.GET.equals(context.getMethod())
+            || fileName == null) {
+            return Uni.createFrom().voidItem();
+        }
+        return fileStore.getMetadata(fileName)
+            .onItem()
+            .transformToUni(metadata -> setWeight(request, weight(metadata.size(), referenceSize)))
+            // the endpoint answers the requests of the files that are missing or cannot be read
+            .onFailure()
+            .recoverWithNull();
+    }
+
+    /**
+     * Sets the weight of the stream of a request in the byte distributor of its connection, on the event loop of the
+     * connection, so the weight is in place before the endpoint writes the response.
+     */
+    private static Uni<Void> setWeight(HttpServerRequest request, int weight) {
+        var channel = ((ConnectionBase) request.connection()).channelHandlerContext();
+        var handler = (Http2ConnectionHandler) channel.handler();
+        var streamId = request.streamId();
+        return Uni.createFrom().emitter(emitter -> channel.executor().execute(() -> {
+            try {
+                handler.encoder().flowController()
+                    .updateDependencyTree(streamId, Http2CodecUtil.CONNECTION_STREAM_ID, (short) weight, false);
+                emitter.complete(null);
+            } catch (RuntimeException e) {
+                emitter.fail(e);
+            }
+        }));
+    }
+
+    /**
+     * Returns the weight of the stream of a file.
+     *
+     * @param size          the size of the file in bytes
+     * @param referenceSize the size up to which the files get the highest weight
+     * @return the weight, from {@code 1} to {@value #MAX_WEIGHT}
+     */
+    static int weight(long size, long referenceSize) {
+        if (size <= referenceSize) {
+            return MAX_WEIGHT;
+        }
+        return (int) Math.max(1, MAX_WEIGHT * referenceSize / size);
+    }
+}
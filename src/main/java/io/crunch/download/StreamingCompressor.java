@@ -0,0 +1,344 @@
+package io.crunch.download;
+
+import io.quarkus.runtime.configuration.MemorySize;
+import io.smallrye.mutiny.Multi;
+import io.vertx.core.buffer.impl.BufferImpl;
+import io.vertx.mutiny.core.Vertx;
+import io.vertx.mutiny.core.buffer.Buffer;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@code StreamingCompressor} compresses the streamed responses of the files that have no precompressed variant on
+ * the fly, for the clients that accept a content coding, as long as the server has CPU time to spare.
+ * <p>
+ * The effort of a response is chosen when it starts, from the recent CPU load of the machine and the recent delay of
+ * the timers of the event loop, sampled by the {@link LoadSampler}: the balanced level of the coding
+ * while the load is below {@code app.download.compression.cpu-low} and the lag below half of
+ * {@code app.download.compression.max-event-loop-lag}, the fastest level up to {@code app.download.compression.cpu-high}
+ * and the maximum lag, and no compression at all above, so a busy server is not made busier. The fastest codings are
+ * preferred (zstd, then brotli, then gzip) when the client accepts several of them with the same quality, and the
+ * files whose precompressed variants have been discarded as incompressible are not compressed.
+ * <p>
+ * The compressor of a response holds a bounded window whatever the size of the file:
+ * {@link #compress(Multi, Compression)} compresses every buffer of the content as it is emitted, one at a time, and
+ * emits the compressed bytes produced so far, so it holds at most the output of one buffer on top of the output buffer
+ * of the compressor; {@link #wrap(OutputStream, Compression)} writes the compressed bytes to the response stream as they are
+ * produced. The statistics are registered as the {@code io.crunch.download:type=StreamingCompressor} MBean.
+ *
+ * @apiNote The compression of a {@link Multi} runs on the worker threads, and the compressed buffers are emitted back
+ * on the context emitting the content, so the event loop only hands the buffers over. The event loop lag is still one
+ * of the signals that turn the compression off, since a late event loop means a busy server.
+ */
+@ApplicationScoped
+public class StreamingCompressor implements StreamingCompressorMXBean {
+
+    /**
+     * The codings of the responses compressed on the fly, the fastest first.
+     */
+    private static final List<ContentEncoding> ENCODINGS = List.of(ContentEncoding.ZSTD, ContentEncoding.BROTLI, ContentEncoding.GZIP);
+
+    /**
+     * The coding and the effort of a response compressed on the fly.
+     *
+     * @param encoding the coding of the response
+     * @param effort   the effort that selects the level of the coding
+     */
+    public record Compression(ContentEncoding encoding, ContentEncoding.Effort effort) {
+    }
+
+    private final boolean enabled;
+
+    private final long minimumSize;
+
+    private final double cpuLow;
+
+    private final double cpuHigh;
+
+    private final long maxEventLoopLagNanos;
+
+    private final PrecompressedVariants variants;
+
+    private final LoadSampler loadSampler;
+
+    private final Vertx vertx;
+
+    private final List<ContentEncoding> encodings;
+
+    private final LongAdder compressed = new LongAdder();
+
+    private final LongAdder fallbacks = new LongAdder();
+
+    private final LongAdder bytesIn = new LongAdder();
+
+    private final LongAdder bytesOut = new LongAdder();
+
+    @Inject
+    public StreamingCompressor(@ConfigProperty(name = "app.download.compression.enabled", defaultValue = "true") boolean enabled,
+                               @ConfigProperty(name = "app.download.compression.min-size", defaultValue = "1K") MemorySize minimumSize,
+                               @ConfigProperty(name = "app.download.compression.cpu-low", defaultValue = "0.5") double cpuLow,
+                               @ConfigProperty(name = "app.download.compression.cpu-high", defaultValue = "0.85") double cpuHigh,
+                               @ConfigProperty(name = "app.download.compression.max-event-loop-lag", defaultValue = "50ms") Duration maxEventLoopLag,
+                               PrecompressedVariants variants,
+                               LoadSampler loadSampler,
+                               Vertx vertx) {
+        this(enabled, minimumSize.asLongValue(), cpuLow, cpuHigh, maxEventLoopLag, variants, loadSampler, vertx);
+    }
+
+    /**
+     * Creates a compressor whose effort follows the load sampled by the given sampler.
+     *
+     * @param enabled         whether the responses are compressed at all
+     * @param minimumSize     the size of the smallest file that is compressed
+     * @param cpuLow          the CPU load above which the fastest level is used
+     * @param cpuHigh         the CPU load above which the responses are not compressed
+     * @param maxEventLoopLag the event loop lag above which the responses are not compressed
+     * @param variants        the precompressed variants, that know the incompressible files
+     * @param loadSampler     the sampler of the CPU load and of the event loop lag
+     * @param vertx           the Vert.x instance whose worker threads compress the streamed content
+     */
+    public StreamingCompressor(boolean enabled, long minimumSize, double cpuLow, double cpuHigh, Duration maxEventLoopLag,
+                               PrecompressedVariants variants, LoadSampler loadSampler, Vertx vertx) {
+        this.enabled = enabled;
+        this.minimumSize = minimumSize;
+        this.cpuLow = cpuLow;
+        this.cpuHigh = cpuHigh;
+        this.maxEventLoopLagNanos = maxEventLoopLag.toNanos();
+        this.variants = variants;
+        this.loadSampler = loadSampler;
+        this.vertx = vertx;
+        this.encodings = ENCODINGS.stream().filter(ContentEncoding::isAvailable).toList();
+    }
+
+    /**
+     * Registers the MBean.
+     */
+    @PostConstruct
+    void start() {
+        MBeans.register("StreamingCompressor", this);
+    }
+
+    /**
+     * @return {@code true} if the responses may be compressed on the fly
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Selects the coding and the effort of the response of a file.
+     *
+     * @param fileName       the name of the requested file
+     * @param metadata       the metadata of the requested file
+     * @param acceptEncoding the value of the {@code Accept-Encoding} header of the request, or {@code null}
+     * @return the compression of the response, or {@code null} if it should be sent as it is
+     */
+    public Compression select(String fileName, FileMetadata metadata, String acceptEncoding) {
+        if (!enabled || acceptEncoding == null || metadata.size() < minimumSize || variants.isIncompressible(fileName, metadata)) {
+            return null;
+        }
+        var encoding = ContentEncoding.negotiate(acceptEncoding, encodings);
+        if (encoding == null) {
+            return null;
+        }
+        var effort = effort();
+        if (effort == null) {
+            fallbacks.increment();
+            return null;
+        }
+        compressed.increment();
+        return new Compression(encoding, effort);
+    }
+
+    /**
+     * Compresses the given content as it is emitted.
+     * <p>
+     * Every buffer of the content is emitted compressed, the compressor holding back the bytes it needs for the
+     * next ones, and the remaining compressed bytes are emitted when the content completes. The buffers are compressed
+     * on a worker thread, in order, the next buffer being requested once the previous one is compressed. The empty
+     * buffers are not emitted. The compressor is released when the stream completes, fails or is cancelled.
+     *
+     * @param content     the streamed content
+     * @param compression the compression of the response
+     * @return the compressed content
+     */
+    public Multi<Buffer> compress(Multi<Buffer> content, Compression compression) {
+        return Multi.createFrom().deferred(() -> {
+            var stream = new CompressingStream(compression);
+            return Multi.createBy().concatenating().streams(
+                    content.onItem().transformToUniAndConcatenate(buffer -> vertx.executeBlocking(() -> stream.compress(buffer), false)),
+                    Multi.createFrom().uni(vertx.executeBlocking(stream::finish, false)))
+                .select()
+                .where(buffer -> buffer.length() > 0)
+                .onTermination()
+                .invoke(stream::release);
+        });
+    }
+
+    /**
+     * Wraps the given response stream into a stream compressing the content written to it.
+     * <p>
+     * Closing the returned stream writes the end of the compressed content, and closes the response stream.
+     *
+     * @param output      the response stream
+     * @param compression the compression of the response
+     * @return the stream to write the content to
+     * @throws IOException if the compressor cannot be created
+     */
+    public OutputStream wrap(OutputStream output, Compression compression) throws IOException {
+        return new CountingOutputStream(compression.encoding().compress(new CountingOutputStream(output, bytesOut), compression.effort()), bytesIn);
+    }
+
+    @Override
+    public double getCpuLoad() {
+        return loadSampler.cpuLoad();
+    }
+
+    @Override
+    public long getEventLoopLagMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(loadSampler.eventLoopLagNanos());
+    }
+
+    @Override
+    public String getCurrentEffort() {
+        var effort = effort();
+        return effort == null ? "IDENTITY" : effort.name();
+    }
+
+    @Override
+    public long getCompressedCount() {
+        return compressed.sum();
+    }
+
+    @Override
+    public long getFallbackCount() {
+        return fallbacks.sum();
+    }
+
+    @Override
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    @Override
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    /**
+     * Chooses the effort of the responses from the recent load, or {@code null} if the server is too busy.
+     */
+    private ContentEncoding.Effort effort() {
+        var load = loadSampler.cpuLoad();
+        var lag = loadSampler.eventLoopLagNanos();
+        if (load >= cpuHigh || lag >= maxEventLoopLagNanos) {
+            return null;
+        }
+        if (load >= cpuLow || lag >= maxEventLoopLagNanos / 2) {
+            return ContentEncoding.Effort.FAST;
+        }
+        return ContentEncoding.Effort.BALANCED;
+    }
+
+    /**
+     * The compressor of a {@link Multi}, writing to a buffer that is drained after every buffer of the content.
+     * <p>
+     * Its methods are synchronized, since a cancellation may release it while a buffer is being compressed, and the
+     * native compressors must not be freed while they are used.
+     */
+    private final class CompressingStream {
+
+        private final ByteArrayOutputStream sink = new ByteArrayOutputStream();
+
+        private final OutputStream compressor;
+
+        private boolean closed;
+
+        CompressingStream(Compression compression) {
+            try {
+                this.compressor = compression.encoding().compress(sink, compression.effort());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        synchronized Buffer compress(Buffer buffer) {
+            if (closed) {
+                return Buffer.buffer();
+            }
+            var byteBuf = ((BufferImpl) buffer.getDelegate()).byteBuf();
+            try {
+                byteBuf.getBytes(byteBuf.readerIndex(), compressor, byteBuf.readableBytes());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            bytesIn.add(buffer.length());
+            return drain();
+        }
+
+        synchronized Buffer finish() {
+            closed = true;
+            try {
+                compressor.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return drain();
+        }
+
+        synchronized void release() {
+            if (!closed) {
+                closed = true;
+                try {
+                    compressor.close();
+                } catch (IOException e) {
+                    // the content is not sent any more
+                }
+            }
+        }
+
+        private Buffer drain() {
+            var bytes = sink.toByteArray();
+            sink.reset();
+            bytesOut.add(bytes.length);
+            return Buffer.buffer(bytes);
+        }
+    }
+
+    /**
+     * Counts the bytes written through it.
+     */
+    private static final class CountingOutputStream extends FilterOutputStream {
+
+        private final LongAdder count;
+
+        CountingOutputStream(OutputStream out, LongAdder count) {
+            super(out);
+            this.count = count;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count.increment();
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count.add(len);
+        }
+    }
+}
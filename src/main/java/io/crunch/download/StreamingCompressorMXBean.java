@@ -0,0 +1,42 @@
+package io.crunch.download;
+
+/**
+ * The management interface of the {@link StreamingCompressor}, exposing its statistics through JMX.
+ */
+public interface StreamingCompressorMXBean {
+
+    /**
+     * @return the recent CPU load of the machine, between {@code 0} and {@code 1}
+     */
+    double getCpuLoad();
+
+    /**
+     * @return the recent delay of the timers of the event loop in milliseconds
+     */
+    long getEventLoopLagMillis();
+
+    /**
+     * @return the effort of the responses compressed now, or {@code IDENTITY} if the server is too busy to compress
+     */
+    String getCurrentEffort();
+
+    /**
+     * @return the number of responses that have been compressed on the fly
+     */
+    long getCompressedCount();
+
+    /**
+     * @return the number of responses whose client accepted a coding, sent as they are because the server was busy
+     */
+    long getFallbackCount();
+
+    /**
+     * @return the number of bytes of content that have been compressed on the fly
+     */
+    long getBytesIn();
+
+    /**
+     * @return the number of compressed bytes produced on the fly
+     */
+    long getBytesOut();
+}
@@ -0,0 +1,71 @@
+package io.crunch.download;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@code TokenBucket} meters a flow of bytes to a rate, allowing bursts up to a size, without a lock.
+ * <p>
+ * The bucket is kept as the time at which it was, or will be, empty (the theoretical arrival time of the generic
+ * cell rate algorithm), that every acquisition pushes forward by the time the acquired bytes take at the rate, with a
+ * compare-and-set. The acquisitions never wait: they return the time the caller must wait before sending the bytes,
+ * which a stream spends on a timer, without reading further. The bytes of the concurrent streams sharing a bucket are
+ * thereby sent at the rate together, whatever their number.
+ */
+public final class TokenBucket {
+
+    private final double nanosPerByte;
+
+    private final long burstNanos;
+
+    /**
+     * The time at which the bucket was, or will be, empty, in {@link System#nanoTime()}: the bytes accumulated since
+     * then are available, up to the burst.
+     */
+    private final AtomicLong emptyAt;
+
+    /**
+     * Creates a full bucket.
+     *
+     * @param rate  the number of bytes per second
+     * @param burst the number of bytes that may be sent at once after an idle period
+     */
+    public TokenBucket(long rate, long burst) {
+        if (rate <= 0 || burst < 0) {
+            throw new IllegalArgumentException("Invalid rate: " + rate + ", " + burst);
+        }
+        this.nanosPerByte = 1_000_000_000.0 / rate;
+        this.burstNanos = (long) (burst * nanosPerByte);
+        this.emptyAt = new AtomicLong(System.nanoTime() - burstNanos);
+    }
+
+    /**
+     * Acquires the given number of bytes.
+     *
+     * @param bytes the number of bytes to send
+     * @param now   the current {@link System#nanoTime()}
+     * @return the time to wait before sending the bytes, in nanoseconds, {@code 0} if they can be sent at once
+     */
+    public long acquire(long bytes, long now) {
+        var cost = (long) (bytes * nanosPerByte);
+        var fullSince = now - burstNanos;
+        while (true) {
+            var current = emptyAt.get();
+            // an idle bucket holds no more than the burst
+            var start = current - fullSince < 0 ? fullSince : current;
+            var next = start + cost;
+            if (emptyAt.compareAndSet(current, next)) {
+                return Math.max(0, next - now);
+            }
+        }
+    }
+
+    /**
+     * Tells whether the bucket has been refilled to its burst, that is whether its bytes have been paid for.
+     *
+     * @param now the current {@link System#nanoTime()}
+     * @return {@code true} if the bucket is full
+     */
+    public boolean isFull(long now) {
+        return emptyAt.get() - (now - burstNanos) <= 0;
+    }
+}
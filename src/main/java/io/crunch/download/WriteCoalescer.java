@@ -0,0 +1,362 @@
+package io.crunch.download;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.quarkus.runtime.configuration.MemorySize;
+import io.smallrye.mutiny.Multi;
+import io.vertx.core.buffer.impl.BufferImpl;
+import io.vertx.mutiny.core.Vertx;
+import io.vertx.mutiny.core.buffer.Buffer;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+
+/**
+ * {@code WriteCoalescer} batches the chunks of the streamed responses into larger writes, so a download costs a
+ * write (and a system call) per high-water mark of content rather than per chunk read from the file.
+ * <p>
+ * For the {@link Multi} based responses, {@link #coalesce(Multi)} gathers the consecutive buffers of the content
+ * into one buffer (a composite view, the bytes are not copied) until they hold the high-water mark, the content
+ * completes, or the latency deadline has passed since the first buffer of the batch was received, so a slow read
+ * does not hold back the bytes already read. {@link #coalescePooled(Multi)} does the same for the
+ * {@link PooledBuffer}s of pooled direct memory: a batch is a composite buffer that owns the buffers gathered, and
+ * is handed over to the downstream, that releases it once it has been written. The buffers gathered when the stream
+ * is cancelled or fails are released by the coalescer.
+ * <p>
+ * For the {@link jakarta.ws.rs.core.StreamingOutput} responses, the response stream of Quarkus REST already
+ * gathers the writes in its output buffer ({@code quarkus.rest.output-buffer-size}), and writes it when it is full;
+ * every flush writes it right away instead. {@link #wrap(OutputStream)} passes a flush on only when the latency
+ * deadline has passed since the previous one, and when the stream is closed; a write after the deadline flushes
+ * too, so a slow read does not hold back the bytes already buffered.
+ * <p>
+ * The high-water mark and the deadline are configured with {@code app.download.write.high-water-mark} and
+ * {@code app.download.write.max-latency}, {@code 0} disables the deadline. The statistics are registered as the
+ * {@code io.crunch.download:type=WriteCoalescer} MBean.
+ */
+@ApplicationScoped
+public class WriteCoalescer implements WriteCoalescerMXBean {
+
+    private final int highWaterMark;
+
+    private final Duration maxLatency;
+
+    private final Vertx vertx;
+
+    private final LongAdder buffers = new LongAdder();
+
+    private final LongAdder writes = new LongAdder();
+
+    private final LongAdder flushRequests = new LongAdder();
+
+    private final LongAdder flushes = new LongAdder();
+
+    @Inject
+    public WriteCoalescer(@ConfigProperty(name = "app.download.write.high-water-mark", defaultValue = "64K") MemorySize highWaterMark,
+                          @ConfigProperty(name = "app.download.write.max-latency", defaultValue = "100ms") Duration maxLatency,
+                          Vertx vertx) {
+        this(Math.toIntExact(highWaterMark.asLongValue()), maxLatency, vertx);
+    }
+
+    /**
+     * Creates a coalescer batching writes up to the given high-water mark.
+     *
+     * @param highWaterMark the number of bytes a coalesced write holds at most before it is written
+     * @param maxLatency    how long the bytes already read may be held back, {@link Duration#ZERO} for no deadline
+     * @param vertx         the Vert.x instance whose timers enforce the deadline
+     */
+    public WriteCoalescer(int highWaterMark, Duration maxLatency, Vertx vertx) {
+        this.highWaterMark = highWaterMark;
+        this.maxLatency = maxLatency;
+        this.vertx = vertx;
+    }
+
+    /**
+     * Registers the MBean.
+     */
+    @PostConstruct
+    void start() {
+        MBeans.register("WriteCoalescer", this);
+    }
+
+    /**
+     * Gathers the buffers of the given content into writes of up to the high-water mark.
+     *
+     * @param content the streamed content
+     * @return the content, emitted in larger buffers
+     */
+    public Multi<Buffer> coalesce(Multi<Buffer> content) {
+        return Multi.createFrom().publisher(subscriber -> content.subscribe().withSubscriber(
+            new Batching<>(subscriber, Buffer::length, WriteCoalescer::compose, buffer -> { })));
+    }
+
+    /**
+     * Gathers the pooled buffers of the given content into writes of up to the high-water mark.
+     * <p>
+     * The coalescer owns the buffers of the content from their emission until it emits them in a write, and releases
+     * the buffers of a batch that is discarded by a cancellation. A write is owned by the downstream, that releases it
+     * once it has been written.
+     *
+     * @param content the streamed content, whose buffers are owned by the coalescer once they are emitted
+     * @return the content, emitted in larger buffers that must be released by the receiver
+     */
+    public Multi<PooledBuffer> coalescePooled(Multi<PooledBuffer> content) {
+        return Multi.createFrom().publisher(subscriber -> content.subscribe().withSubscriber(
+            new Batching<>(subscriber, PooledBuffer::length, WriteCoalescer::composePooled, PooledBuffer::release)));
+    }
+
+    /**
+     * Wraps the given response stream, so the flushes requested by its writer are passed on only when the latency
+     * deadline has passed since the previous one.
+     * <p>
+     * Closing the returned stream flushes the response stream, that is closed by Quarkus REST.
+     *
+     * @param output the response stream
+     * @return the stream to write the content to
+     */
+    public OutputStream wrap(OutputStream output) {
+        return new FlushCoalescingOutputStream(output);
+    }
+
+    @Override
+    public long getHighWaterMark() {
+        return highWaterMark;
+    }
+
+    @Override
+    public long getBufferCount() {
+        return buffers.sum();
+    }
+
+    @Override
+    public long getWriteCount() {
+        return writes.sum();
+    }
+
+    @Override
+    public long getFlushRequestCount() {
+        return flushRequests.sum();
+    }
+
+    @Override
+    public long getFlushCount() {
+        return flushes.sum();
+    }
+
+    /**
+     * Composes the buffers into one buffer without copying them, the buffers staying owned by Vert.x.
+     */
+    private static Buffer compose(List<Buffer> batch) {
+        var components = batch.stream()
+            .map(buffer -> Unpooled.unreleasableBuffer(((BufferImpl) buffer.getDelegate()).byteBuf().slice()))
+            .toArray(ByteBuf[]::new);
+        return Buffer.newInstance(BufferImpl.buffer(Unpooled.wrappedBuffer(components)));
+    }
+
+    /**
+     * Composes the pooled buffers into a buffer that takes over their references.
+     */
+    private static PooledBuffer composePooled(List<PooledBuffer> batch) {
+        return new PooledBuffer(Unpooled.wrappedBuffer(batch.stream().map(PooledBuffer::byteBuf).toArray(ByteBuf[]::new)));
+    }
+
+    /**
+     * Gathers the buffers of the content while the downstream waits for the next write.
+     * <p>
+     * One buffer is requested from the content at a time, and only while the downstream has requested a write, so
+     * the buffers gathered are always owed to the downstream and can be emitted as soon as the batch is full, the
+     * deadline has passed or the content completes. The signals of the content and of the deadline timer are
+     * serialized by the monitor of the batching.
+     *
+     * @param <T> the type of the buffers
+     */
+    private final class Batching<T> implements Flow.Subscriber<T>, Flow.Subscription {
+
+        private final Flow.Subscriber<? super T> downstream;
+
+        private final ToIntFunction<T> length;
+
+        /**
+         * Composes the buffers of a batch into one buffer, taking over their references.
+         */
+        private final Function<List<T>, T> compose;
+
+        /**
+         * Releases a buffer that is dropped, or a write once the downstream has received it.
+         */
+        private final Consumer<T> release;
+
+        private final List<T> batch = new ArrayList<>();
+
+        private Flow.Subscription upstream;
+
+        private long batchBytes;
+
+        private long demand;
+
+        private boolean requested;
+
+        private boolean done;
+
+        private long deadlineTimer = -1;
+
+        private Batching(Flow.Subscriber<? super T> downstream, ToIntFunction<T> length, Function<List<T>, T> compose,
+                         Consumer<T> release) {
+            this.downstream = downstream;
+            this.length = length;
+            this.compose = compose;
+            this.release = release;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            upstream = subscription;
+            downstream.onSubscribe(this);
+        }
+
+        @Override
+        public synchronized void request(long n) {
+            if (n <= 0) {
+                cancel();
+                downstream.onError(new IllegalArgumentException("Invalid request: " + n));
+                return;
+            }
+            demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+            requestNext();
+        }
+
+        @Override
+        public synchronized void cancel() {
+            done = true;
+            batch.forEach(release);
+            discard();
+            upstream.cancel();
+        }
+
+        @Override
+        public synchronized void onNext(T buffer) {
+            requested = false;
+            if (done) {
+                release.accept(buffer);
+                return;
+            }
+            buffers.increment();
+            batch.add(buffer);
+            batchBytes += length.applyAsInt(buffer);
+            if (batchBytes >= highWaterMark) {
+                emit();
+            } else if (batch.size() == 1 && maxLatency.isPositive()) {
+                deadlineTimer = vertx.setTimer(maxLatency.toMillis(), this::onDeadline);
+            }
+            requestNext();
+        }
+
+        @Override
+        public synchronized void onError(Throwable failure) {
+            if (!done) {
+                done = true;
+                batch.forEach(release);
+                discard();
+                downstream.onError(failure);
+            }
+        }
+
+        @Override
+        public synchronized void onComplete() {
+            if (!done) {
+                done = true;
+                if (!batch.isEmpty()) {
+                    emit();
+                }
+                downstream.onComplete();
+            }
+        }
+
+        private synchronized void onDeadline(long timer) {
+            if (!done && timer == deadlineTimer && !batch.isEmpty()) {
+                deadlineTimer = -1;
+                emit();
+            }
+        }
+
+        private void requestNext() {
+            if (!requested && demand > 0 && !done) {
+                requested = true;
+                upstream.request(1);
+            }
+        }
+
+        private void emit() {
+            var buffer = batch.size() == 1 ? batch.getFirst() : compose.apply(batch);
+            discard();
+            demand--;
+            writes.increment();
+            downstream.onNext(buffer);
+        }
+
+        private void discard() {
+            if (deadlineTimer >= 0) {
+                vertx.cancelTimer(deadlineTimer);
+                deadlineTimer = -1;
+            }
+            batch.clear();
+            batchBytes = 0;
+        }
+    }
+
+    /**
+     * Passes the writes on to the response stream, and the flushes only when the latency deadline has passed since
+     * the previous one.
+     */
+    private final class FlushCoalescingOutputStream extends FilterOutputStream {
+
+        private long lastFlush = System.nanoTime();
+
+        private FlushCoalescingOutputStream(OutputStream output) {
+            super(output);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            if (isDeadlinePassed()) {
+                forceFlush();
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            flushRequests.increment();
+            if (isDeadlinePassed()) {
+                forceFlush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            forceFlush();
+        }
+
+        private boolean isDeadlinePassed() {
+            return maxLatency.isPositive() && System.nanoTime() - lastFlush >= maxLatency.toNanos();
+        }
+
+        private void forceFlush() throws IOException {
+            flushes.increment();
+            lastFlush = System.nanoTime();
+            out.flush();
+        }
+    }
+}
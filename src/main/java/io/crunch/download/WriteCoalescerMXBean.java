@@ -0,0 +1,32 @@
+package io.crunch.download;
+
+/**
+ * The management interface of the {@link WriteCoalescer}, exposing its statistics through JMX.
+ */
+public interface WriteCoalescerMXBean {
+
+    /**
+     * @return the number of bytes a coalesced write holds at most before it is written
+     */
+    long getHighWaterMark();
+
+    /**
+     * @return the number of buffers emitted by the streamed contents
+     */
+    long getBufferCount();
+
+    /**
+     * @return the number of writes the buffers were coalesced into
+     */
+    long getWriteCount();
+
+    /**
+     * @return the number of flushes requested by the writers of the streaming outputs
+     */
+    long getFlushRequestCount();
+
+    /**
+     * @return the number of flushes that were passed on to the response, at the end or on the latency deadline
+     */
+    long getFlushCount();
+}
@@ -0,0 +1,249 @@
+package io.crunch.download;
+
+import io.vertx.mutiny.core.Vertx;
+import io.vertx.mutiny.core.WorkerExecutor;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.io.InterruptedIOException;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * {@code ZipBundleWriter} streams several files of the {@link FileStore} as one ZIP archive, so a folder is
+ * downloaded with one request instead of one request per file.
+ * <p>
+ * The files are stored without compression ({@link ZipEntry#STORED}), since PDFs are compressed internally, so the
+ * archive costs no CPU time beyond the checksums. A stored entry needs its size and CRC-32 in its local header,
+ * before its content: the writer computes the checksums of up to {@code app.download.bundle.read-ahead} files in
+ * parallel, ahead of the file being written, and writes the files in the requested order as their checksums complete.
+ * The checksums are computed by a worker pool of their own, of {@code app.download.bundle.checksum-threads} threads:
+ * the archive is written by a thread of the worker pool, that would otherwise wait for tasks queued behind the
+ * bundles holding every thread of the same pool. A checksum that has not completed within
+ * {@code app.download.bundle.checksum-timeout} aborts the archive. Every file is read twice, the second read being served from the page cache or the caches of
+ * the file store, and is streamed through the buffers of the file store both times: the archive is never buffered in
+ * memory or in a temporary file, whatever the size of the files. The entries and the archive switch to the ZIP64
+ * format by themselves when a file or the archive exceeds 4 GB, or the archive holds more than 65535 files.
+ * <p>
+ * A file changed between the two reads fails the checksum of its entry, and the response is aborted. The statistics
+ * are registered as the {@code io.crunch.download:type=ZipBundleWriter} MBean.
+ */
+@ApplicationScoped
+public class ZipBundleWriter implements ZipBundleWriterMXBean {
+
+    /**
+     * A file of a bundle.
+     *
+     * @param fileName the name of the file, that is the name of its entry
+     * @param metadata the metadata of the file, whose modification time is the one of its entry
+     */
+    public record Entry(String fileName, FileMetadata metadata) {
+    }
+
+    /**
+     * The size and the CRC-32 of the content of a file.
+     */
+    private record Checksum(long size, long crc) {
+    }
+
+    private final FileStore fileStore;
+
+    private final int readAhead;
+
+    private final Duration checksumTimeout;
+
+    private final WorkerExecutor checksumExecutor;
+
+    private final AtomicLong activeBundles = new AtomicLong();
+
+    private final LongAdder bundles = new LongAdder();
+
+    private final LongAdder entries = new LongAdder();
+
+    private final LongAdder entryBytes = new LongAdder();
+
+    @Inject
+    public ZipBundleWriter(FileStore fileStore,
+                           @ConfigProperty(name = "app.download.bundle.read-ahead", defaultValue = "4") int readAhead,
+                           @ConfigProperty(name = "app.download.bundle.checksum-threads", defaultValue = "8") int checksumThreads,
+                           @ConfigProperty(name = "app.download.bundle.checksum-timeout", defaultValue = "2m") Duration checksumTimeout,
+                           Vertx vertx) {
+        this.fileStore = fileStore;
+        this.readAhead = Math.max(1, readAhead);
+        this.checksumTimeout = checksumTimeout;
+        this.checksumExecutor = vertx.createSharedWorkerExecutor("bundle-checksum", Math.max(1, checksumThreads));
+    }
+
+    /**
+     * Registers the MBean.
+     */
+    @PostConstruct
+    void start() {
+        MBeans.register("ZipBundleWriter", this);
+    }
+
+    /**
+     * Stops the threads computing the checksums.
+     */
+    @PreDestroy
+    void close() {
+        checksumExecutor.closeAndForget();
+    }
+
+    /**
+     * Writes the given files to the given stream as a ZIP archive, in the given order.
+     * <p>
+     * This method blocks the calling thread while the archive is written, and waits for the checksums computed by
+     * the checksum threads.
+     *
+     * @param bundle the files of the archive, with distinct names
+     * @param output the stream to write the archive to, that is not closed
+     * @throws IOException if a file cannot be read, if its checksum times out, or if the archive cannot be written
+     */
+    public void write(List<Entry> bundle, OutputStream output) throws IOException {
+        var checksums = new ArrayDeque<CompletableFuture<Checksum>>(readAhead);
+        var next = 0;
+        activeBundles.incrementAndGet();
+        try (var zip = new ZipOutputStream(new NonClosingOutputStream(output))) {
+            zip.setMethod(ZipOutputStream.STORED);
+            for (var entry : bundle) {
+                while (next < bundle.size() && checksums.size() < readAhead) {
+                    checksums.add(checksum(bundle.get(next++).fileName()));
+                }
+                var checksum = await(checksums.poll());
+                var zipEntry = new ZipEntry(entry.fileName());
+                zipEntry.setMethod(ZipEntry.STORED);
+                zipEntry.setSize(checksum.size());
+                zipEntry.setCompressedSize(checksum.size());
+                zipEntry.setCrc(checksum.crc());
+                zipEntry.setLastModifiedTime(FileTime.from(entry.metadata().lastModified()));
+                zip.putNextEntry(zipEntry);
+                fileStore.writeContent(entry.fileName(), zip);
+                zip.closeEntry();
+                entries.increment();
+                entryBytes.add(checksum.size());
+            }
+            zip.finish();
+            bundles.increment();
+        } finally {
+            activeBundles.decrementAndGet();
+            checksums.forEach(checksum -> checksum.cancel(false));
+        }
+    }
+
+    @Override
+    public int getReadAhead() {
+        return readAhead;
+    }
+
+    @Override
+    public long getBundleCount() {
+        return bundles.sum();
+    }
+
+    @Override
+    public long getActiveBundleCount() {
+        return activeBundles.get();
+    }
+
+    @Override
+    public long getEntryCount() {
+        return entries.sum();
+    }
+
+    @Override
+    public long getEntryBytes() {
+        return entryBytes.sum();
+    }
+
+    /**
+     * Computes the checksum of the content of a file on the checksum threads.
+     */
+    private CompletableFuture<Checksum> checksum(String fileName) {
+        return checksumExecutor.executeBlocking(() -> {
+                var counter = new CountingOutputStream();
+                var checked = new CheckedOutputStream(counter, new CRC32());
+                fileStore.writeContent(fileName, checked);
+                return new Checksum(counter.count, checked.getChecksum().getValue());
+            }, false)
+            .subscribeAsCompletionStage();
+    }
+
+    private Checksum await(CompletableFuture<Checksum> checksum) throws IOException {
+        try {
+            return checksum.get(checksumTimeout.toNanos(), TimeUnit.NANOSECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException cause) {
+                throw cause;
+            }
+            if (e.getCause() instanceof UncheckedIOException cause) {
+                throw cause.getCause();
+            }
+            throw new IOException(e.getCause());
+        } catch (TimeoutException e) {
+            checksum.cancel(false);
+            throw new IOException("Checksum not computed within " + checksumTimeout, e);
+        } catch (InterruptedException e) {
+            checksum.cancel(false);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    /**
+     * Discards the bytes written to it, and counts them.
+     */
+    private static final class CountingOutputStream extends OutputStream {
+
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+
+    /**
+     * Keeps the response stream open when the archive is closed, its owner closes it.
+     */
+    private static final class NonClosingOutputStream extends FilterOutputStream {
+
+        NonClosingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.flush();
+        }
+    }
+}
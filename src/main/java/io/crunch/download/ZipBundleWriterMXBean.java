@@ -0,0 +1,32 @@
+package io.crunch.download;
+
+/**
+ * The management interface of the {@link ZipBundleWriter}, exposing its statistics through JMX.
+ */
+public interface ZipBundleWriterMXBean {
+
+    /**
+     * @return the number of files whose checksum is computed ahead of the file being written
+     */
+    int getReadAhead();
+
+    /**
+     * @return the number of bundles that have been written completely
+     */
+    long getBundleCount();
+
+    /**
+     * @return the number of bundles being written
+     */
+    long getActiveBundleCount();
+
+    /**
+     * @return the number of files that have been written to bundles
+     */
+    long getEntryCount();
+
+    /**
+     * @return the number of bytes of content that have been written to bundles
+     */
+    long getEntryBytes();
+}
@@ -0,0 +1,105 @@
+package io.crunch.download;
+
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.junit.QuarkusTestProfile;
+import io.quarkus.test.junit.TestProfile;
+import io.restassured.http.ContentType;
+import jakarta.inject.Inject;
+import org.jboss.resteasy.reactive.RestResponse;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import static io.restassured.RestAssured.given;
+import static org.assertj.core.api.Assertions.assertThat;
+
+@QuarkusTest
+@TestProfile(BandwidthShapingResourceTest.ShapingProfile.class)
+class BandwidthShapingResourceTest {
+
+    /**
+     * Limits the test client to 2 MB per second after a burst of 64 KB, and a tenant to 1 MB per second. The memory
+     * budget is smaller than the sample file, so the {@code asyncBuffer} downloads overflow to an {@code AsyncFile}.
+     */
+    public static class ShapingProfile implements QuarkusTestProfile {
+
+        @Override
+        public Map<String, String> getConfigOverrides() {
+            return Map.of(
+                "app.download.shaping.client-rate", "2M",
+                "app.download.shaping.client-burst", "64K",
+                "app.download.shaping.tenant-rate", "1M",
+                "app.download.shaping.tenant-burst", "64K",
+                "app.download.memory-budget.max-size", "1K",
+                "app.download.memory-budget.overflow", "stream");
+        }
+    }
+
+    @Inject
+    BandwidthShaper shaper;
+
+    @ParameterizedTest
+    @ValueSource(strings = {"asyncFile", "asyncBuffer", "asyncMultiBuffer", "sendFile", "stream"})
+    void whenClientIsShapedThenDownloadTakesAtLeastItsSizeOverTheRate(String endpoint) throws IOException, URISyntaxException {
+        var sample = getSampleContent();
+        var delays = shaper.getDelayCount();
+
+        var start = System.nanoTime();
+        var content = given().get("/download/" + endpoint + "/sample.pdf")
+            .then()
+            .statusCode(RestResponse.Status.OK.getStatusCode())
+            .extract()
+            .asByteArray();
+        var elapsed = Duration.ofNanos(System.nanoTime() - start);
+
+        assertThat(content).isEqualTo(sample);
+        // at most the burst is sent ahead of the rate
+        assertThat(elapsed).isGreaterThanOrEqualTo(Duration.ofMillis((sample.length - 64 * 1024) * 1000L / (2 * 1024 * 1024)));
+        assertThat(shaper.getDelayCount()).isGreaterThan(delays);
+        assertThat(shaper.getClientCount()).isEqualTo(1);
+    }
+
+    @Test
+    void whenTenantIsShapedThenItsLowerRateApplies() throws IOException, URISyntaxException {
+        var sample = getSampleContent();
+
+        var start = System.nanoTime();
+        var content = given().header("X-Tenant-Id", "bulk")
+            .get("/download/asyncMultiBuffer/sample.pdf")
+            .then()
+            .statusCode(RestResponse.Status.OK.getStatusCode())
+            .extract()
+            .asByteArray();
+        var elapsed = Duration.ofNanos(System.nanoTime() - start);
+
+        assertThat(content).isEqualTo(sample);
+        assertThat(elapsed).isGreaterThanOrEqualTo(Duration.ofMillis((sample.length - 64 * 1024) * 1000L / (1024 * 1024)));
+        assertThat(shaper.getTenantCount()).isEqualTo(1);
+    }
+
+    @Test
+    void whenBatchIsShapedThenEveryPartIsSent() throws IOException, URISyntaxException {
+        var body = given().contentType(ContentType.JSON)
+            .body(List.of("sample.pdf"))
+            .post("/download/batch")
+            .then()
+            .statusCode(RestResponse.Status.OK.getStatusCode())
+            .extract()
+            .asByteArray();
+
+        assertThat(body.length).isGreaterThan(getSampleContent().length);
+    }
+
+    private byte[] getSampleContent() throws IOException, URISyntaxException {
+        return Files.readAllBytes(Paths.get(Objects.requireNonNull(getClass().getClassLoader().getResource("sample/sample.pdf")).toURI()));
+    }
+}
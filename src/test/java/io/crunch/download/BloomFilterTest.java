@@ -0,0 +1,28 @@
+package io.crunch.download;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BloomFilterTest {
+
+    @Test
+    void whenKeysAddedThenAllReportedPresent() {
+        var filter = new BloomFilter(10_000, 0.01);
+        IntStream.range(0, 10_000).forEach(i -> filter.put("file_" + i + ".pdf"));
+
+        assertThat(IntStream.range(0, 10_000).allMatch(i -> filter.mightContain("file_" + i + ".pdf"))).isTrue();
+    }
+
+    @Test
+    void whenKeysNotAddedThenFalsePositiveRateIsBounded() {
+        var filter = new BloomFilter(10_000, 0.01);
+        IntStream.range(0, 10_000).forEach(i -> filter.put("file_" + i + ".pdf"));
+
+        var falsePositives = IntStream.range(0, 100_000).filter(i -> filter.mightContain("missing_" + i + ".pdf")).count();
+
+        assertThat(falsePositives).isLessThan(2_000);
+    }
+}
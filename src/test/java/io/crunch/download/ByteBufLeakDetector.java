@@ -0,0 +1,68 @@
+package io.crunch.download;
+
+import io.netty.buffer.AbstractByteBuf;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.util.ResourceLeakDetector;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Records the {@link ByteBuf}s that were garbage collected without being released, with the Netty leak detector
+ * in paranoid mode, so every buffer allocated after {@link #install()} is tracked.
+ * <p>
+ * The detector finds a leaked buffer when the garbage collector has reclaimed it, and reports it on the next
+ * allocation, so {@link #collectLeaks()} runs the garbage collector and allocates a buffer until the reports settle.
+ */
+final class ByteBufLeakDetector {
+
+    private static final List<String> LEAKS = new CopyOnWriteArrayList<>();
+
+    private ByteBufLeakDetector() {
+    }
+
+    /**
+     * Tracks every buffer allocated from now on, and records the leaks reported by the detector.
+     * <p>
+     * Vert.x disables the detector when its first instance is created, unless the level is set as a system property.
+     */
+    static void install() {
+        System.setProperty("io.netty.leakDetection.level", ResourceLeakDetector.Level.PARANOID.name());
+        ResourceLeakDetector.setLevel(ResourceLeakDetector.Level.PARANOID);
+        detector().setLeakListener((resourceType, records) -> LEAKS.add(resourceType + records));
+        collectLeaks();
+        LEAKS.clear();
+    }
+
+    /**
+     * Collects the garbage, and returns the leaks reported since the previous call.
+     *
+     * @return the descriptions of the buffers that were never released
+     */
+    static List<String> collectLeaks() {
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            PooledByteBufAllocator.DEFAULT.directBuffer(1).release();
+        }
+        var leaks = List.copyOf(LEAKS);
+        LEAKS.removeAll(leaks);
+        return leaks;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ResourceLeakDetector<ByteBuf> detector() {
+        try {
+            var field = AbstractByteBuf.class.getDeclaredField("leakDetector");
+            field.setAccessible(true);
+            return (ResourceLeakDetector<ByteBuf>) field.get(null);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("The leak detector of the Netty buffers is not available", e);
+        }
+    }
+}
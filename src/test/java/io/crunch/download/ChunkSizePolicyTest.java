@@ -0,0 +1,51 @@
+package io.crunch.download;
+
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.helpers.test.AssertSubscriber;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ChunkSizePolicyTest {
+
+    private static final int KB = 1024;
+
+    private final ChunkSizePolicy policy = new ChunkSizePolicy(8 * KB, 256 * KB, 64 * KB * KB);
+
+    @Test
+    void whenFileIsLargerThenChunksAreLarger() {
+        assertThat(policy.chunkSize(100 * KB)).isEqualTo(8 * KB);
+        assertThat(policy.chunkSize(KB * KB)).isEqualTo(32 * KB);
+        assertThat(policy.chunkSize(5 * KB * KB)).isEqualTo(128 * KB);
+        assertThat(policy.chunkSize(20 * KB * KB)).isEqualTo(256 * KB);
+        assertThat(policy.getLastChunkSize()).isEqualTo(256 * KB);
+        assertThat(policy.getStreamCount()).isEqualTo(4);
+    }
+
+    @Test
+    void whenManyStreamsAreActiveThenChunksAreSmaller() {
+        var subscribers = new ArrayList<AssertSubscriber<Integer>>();
+        for (int i = 0; i < 1000; i++) {
+            subscribers.add(policy.track(Multi.createFrom().<Integer>nothing()).subscribe().withSubscriber(AssertSubscriber.create()));
+        }
+
+        assertThat(policy.getActiveStreamCount()).isEqualTo(1000);
+        assertThat(policy.chunkSize(20 * KB * KB)).isEqualTo(64 * KB);
+
+        for (var subscriber : subscribers) {
+            subscriber.cancel();
+        }
+        assertThat(policy.getActiveStreamCount()).isZero();
+        assertThat(policy.chunkSize(20 * KB * KB)).isEqualTo(256 * KB);
+    }
+
+    @Test
+    void whenBoundsAreEqualThenChunkSizeIsFixed() {
+        var fixed = new ChunkSizePolicy(64 * KB, 64 * KB, 64 * KB * KB);
+
+        assertThat(fixed.chunkSize(KB)).isEqualTo(64 * KB);
+        assertThat(fixed.chunkSize(KB * KB * KB)).isEqualTo(64 * KB);
+    }
+}
@@ -0,0 +1,76 @@
+package io.crunch.download;
+
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.junit.QuarkusTestProfile;
+import io.quarkus.test.junit.TestProfile;
+import jakarta.inject.Inject;
+import org.jboss.resteasy.reactive.RestResponse;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.time.Duration;
+import java.util.Map;
+
+import static io.restassured.RestAssured.given;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+import static org.hamcrest.Matchers.equalTo;
+
+@QuarkusTest
+@TestProfile(ConcurrencyLimitResourceTest.LimiterProfile.class)
+class ConcurrencyLimitResourceTest {
+
+    public static class LimiterProfile implements QuarkusTestProfile {
+
+        @Override
+        public Map<String, String> getConfigOverrides() {
+            return Map.of(
+                "app.download.limiter.initial-limit", "2",
+                "app.download.limiter.min-limit", "2",
+                "app.download.limiter.max-limit", "2",
+                "app.download.limiter.retry-after", "3s");
+        }
+    }
+
+    @Inject
+    ConcurrencyLimitFilter filter;
+
+    @ParameterizedTest
+    @ValueSource(strings = {"stream", "byteArray", "byteArrayVirtual"})
+    void whenLimitIsReachedThenServiceUnavailableWithRetryAfter(String endpoint) {
+        var limiter = filter.limiter(endpoint);
+        assertThat(limiter.tryAcquire()).isTrue();
+        assertThat(limiter.tryAcquire()).isTrue();
+        try {
+            given().get("/download/" + endpoint + "/sample.pdf")
+                .then()
+                .statusCode(RestResponse.Status.SERVICE_UNAVAILABLE.getStatusCode())
+                .header("Retry-After", equalTo("3"));
+        } finally {
+            limiter.release(1_000_000);
+            limiter.release(1_000_000);
+        }
+
+        given().get("/download/" + endpoint + "/sample.pdf")
+            .then()
+            .statusCode(RestResponse.Status.OK.getStatusCode());
+        // the limiter is released when the response has been sent
+        await().atMost(Duration.ofSeconds(5)).until(() -> limiter.getInFlightCount() == 0);
+    }
+
+    @Test
+    void whenStrategyIsAsynchronousThenRequestsAreNotLimited() {
+        var limiter = filter.limiter("stream");
+        assertThat(limiter.tryAcquire()).isTrue();
+        assertThat(limiter.tryAcquire()).isTrue();
+        try {
+            given().get("/download/asyncMultiBuffer/sample.pdf")
+                .then()
+                .statusCode(RestResponse.Status.OK.getStatusCode());
+        } finally {
+            limiter.release(1_000_000);
+            limiter.release(1_000_000);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package io.crunch.download;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ConcurrencyLimiterTest {
+
+    private static final long MILLIS = 1_000_000;
+
+    @Test
+    void whenLimitIsReachedThenRequestsAreRejected() {
+        var limiter = new ConcurrencyLimiter(2, 1, 10, 2.0, Duration.ofMillis(20), Duration.ofMillis(100));
+
+        assertThat(limiter.tryAcquire()).isTrue();
+        assertThat(limiter.tryAcquire()).isTrue();
+        assertThat(limiter.tryAcquire()).isFalse();
+
+        limiter.release(10 * MILLIS);
+
+        assertThat(limiter.tryAcquire()).isTrue();
+        assertThat(limiter.getAcceptedCount()).isEqualTo(3);
+        assertThat(limiter.getRejectedCount()).isEqualTo(1);
+    }
+
+    @Test
+    void whenLatencyIsStableAndLimitIsUsedThenLimitGrows() {
+        var limiter = new ConcurrencyLimiter(10, 1, 100, 2.0, Duration.ofMillis(20), Duration.ofMillis(100));
+
+        for (int i = 0; i < 200; i++) {
+            fill(limiter);
+            limiter.release(10 * MILLIS);
+            drain(limiter);
+        }
+
+        assertThat(limiter.getLimit()).isEqualTo(100);
+    }
+
+    @Test
+    void whenLimitIsNotUsedThenLimitDoesNotGrow() {
+        var limiter = new ConcurrencyLimiter(10, 1, 100, 2.0, Duration.ofMillis(20), Duration.ofMillis(100));
+
+        for (int i = 0; i < 200; i++) {
+            limiter.tryAcquire();
+            limiter.release(10 * MILLIS);
+        }
+
+        assertThat(limiter.getLimit()).isEqualTo(10);
+    }
+
+    @Test
+    void whenLatencyRisesAboveToleranceThenLimitShrinks() {
+        var limiter = new ConcurrencyLimiter(50, 4, 100, 2.0, Duration.ofMillis(20), Duration.ofMillis(100));
+        for (int i = 0; i < 100; i++) {
+            limiter.tryAcquire();
+            limiter.release(10 * MILLIS);
+        }
+
+        for (int i = 0; i < 5; i++) {
+            limiter.tryAcquire();
+            limiter.release(15 * MILLIS);
+        }
+        assertThat(limiter.getLimit()).isEqualTo(50);
+
+        for (int i = 0; i < 30; i++) {
+            limiter.tryAcquire();
+            limiter.release(100 * MILLIS);
+        }
+        assertThat(limiter.getLimit()).isLessThan(20);
+    }
+
+    @Test
+    void whenQueueDelayStaysAboveTargetForAnIntervalThenRequestsAreShed() {
+        var limiter = new ConcurrencyLimiter(10, 1, 100, 2.0, Duration.ofMillis(20), Duration.ofMillis(100));
+
+        assertThat(limiter.shouldShed(50 * MILLIS, 0)).isFalse();
+        assertThat(limiter.shouldShed(50 * MILLIS, 50 * MILLIS)).isFalse();
+        assertThat(limiter.shouldShed(50 * MILLIS, 100 * MILLIS)).isTrue();
+        assertThat(limiter.shouldShed(5 * MILLIS, 110 * MILLIS)).isFalse();
+        assertThat(limiter.shouldShed(50 * MILLIS, 120 * MILLIS)).isFalse();
+
+        limiter.tryAcquire();
+        limiter.shed();
+
+        assertThat(limiter.getShedCount()).isEqualTo(1);
+        assertThat(limiter.getInFlightCount()).isZero();
+        assertThat(limiter.getLimit()).isEqualTo(9);
+    }
+
+    private static void fill(ConcurrencyLimiter limiter) {
+        while (limiter.tryAcquire()) {
+            // admitted
+        }
+    }
+
+    private static void drain(ConcurrencyLimiter limiter) {
+        while (limiter.getInFlightCount() > 0) {
+            limiter.release(10 * MILLIS);
+        }
+    }
+}
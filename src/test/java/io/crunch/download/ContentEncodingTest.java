@@ -0,0 +1,56 @@
+package io.crunch.download;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import java.util.EnumSet;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ContentEncodingTest {
+
+    private static final EnumSet<ContentEncoding> ALL = EnumSet.allOf(ContentEncoding.class);
+
+    @ParameterizedTest
+    @CsvSource(delimiter = '|', value = {
+        "gzip, deflate, br, zstd          | BROTLI",
+        "gzip, deflate                    | GZIP",
+        "gzip;q=1.0, br;q=0.5, zstd;q=0.8 | GZIP",
+        "br;q=0, *                        | ZSTD",
+        "*;q=0.5, gzip                    | GZIP",
+        "BR                               | BROTLI",
+        "zstd ; q=0.9 , gzip ; q=0.9      | ZSTD",
+    })
+    void whenCodingsAreAcceptedThenPreferredAvailableCodingIsSelected(String acceptEncoding, ContentEncoding expected) {
+        assertThat(ContentEncoding.negotiate(acceptEncoding, ALL)).isEqualTo(expected);
+    }
+
+    @ParameterizedTest
+    @CsvSource(delimiter = '|', value = {
+        "identity",
+        "deflate",
+        "gzip;q=0, br;q=0, zstd;q=0",
+        "*;q=0",
+        "gzip;q=invalid",
+    })
+    void whenNoCodingIsAcceptedThenIdentity(String acceptEncoding) {
+        assertThat(ContentEncoding.negotiate(acceptEncoding, ALL)).isNull();
+    }
+
+    @Test
+    void whenAcceptedCodingHasNoVariantThenNextAcceptedCodingIsSelected() {
+        assertThat(ContentEncoding.negotiate("br, gzip;q=0.5", List.of(ContentEncoding.GZIP))).isEqualTo(ContentEncoding.GZIP);
+        assertThat(ContentEncoding.negotiate("br", List.of(ContentEncoding.GZIP))).isNull();
+        assertThat(ContentEncoding.negotiate(null, ALL)).isNull();
+    }
+
+    @Test
+    void whenNameEndsWithSuffixThenItIsVariant() {
+        assertThat(ContentEncoding.isVariant("a.pdf.br")).isTrue();
+        assertThat(ContentEncoding.isVariant("docs/a.pdf.zst")).isTrue();
+        assertThat(ContentEncoding.isVariant("a.pdf.gz")).isTrue();
+        assertThat(ContentEncoding.isVariant("a.pdf")).isFalse();
+    }
+}
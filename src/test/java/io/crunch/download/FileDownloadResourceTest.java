@@ -3,16 +3,25 @@ package io.crunch.download;
 import io.quarkus.test.junit.QuarkusTest;
 import org.jboss.resteasy.reactive.RestResponse;
 import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.junit.jupiter.params.provider.MethodSource;
 import org.junit.jupiter.params.provider.ValueSource;
 
+import javax.management.ObjectName;
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.Objects;
+import java.util.stream.Stream;
 
 import static io.restassured.RestAssured.given;
 import static org.assertj.core.api.AssertionsForInterfaceTypes.assertThat;
+import static org.hamcrest.Matchers.startsWith;
 
 @QuarkusTest
 class FileDownloadResourceTest {
@@ -22,9 +31,11 @@ class FileDownloadResourceTest {
             "/download/asyncFile/sample.pdf",
             "/download/asyncBuffer/sample.pdf",
             "/download/asyncMultiBuffer/sample.pdf",
+            "/download/sendFile/sample.pdf",
             "/download/stream/sample.pdf",
             "/download/byteArray/sample.pdf",
-            "/download/byteArrayVirtual/sample.pdf"})
+            "/download/byteArrayVirtual/sample.pdf",
+            "/download/auto/sample.pdf"})
     void whenDownloadFileDownloadSuccessfully(String url) throws Exception {
         var response =
             given()
@@ -40,6 +51,197 @@ class FileDownloadResourceTest {
         assertThat(content).isEqualTo(Files.readAllBytes(getSampleFile()));
     }
 
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "/download/sendFile/missing.pdf",
+            "/download/sendFile/..%2Fapplication.properties"})
+    void whenSendFileUnknownThenNotFound(String url) {
+        given()
+            .when()
+            .urlEncodingEnabled(false)
+            .header("Accept", "application/octet-stream")
+            .get(url)
+            .then()
+            .statusCode(RestResponse.Status.NOT_FOUND.getStatusCode());
+    }
+
+    @ParameterizedTest
+    @MethodSource("endpoints")
+    void whenDownloadUnknownFileThenNotFound(String url) {
+        given()
+            .when()
+            .get(url.replace("sample.pdf", "missing.pdf"))
+            .then()
+            .statusCode(RestResponse.Status.NOT_FOUND.getStatusCode());
+    }
+
+    @ParameterizedTest
+    @MethodSource("endpoints")
+    void whenDownloadRangeThenPartialContent(String url) throws Exception {
+        var sample = Files.readAllBytes(getSampleFile());
+        var response =
+            given()
+                .when()
+                .header("Accept", "application/octet-stream")
+                .header("Range", "bytes=100-1099")
+                .get(url)
+                .then()
+                .statusCode(RestResponse.Status.PARTIAL_CONTENT.getStatusCode())
+                .header("Accept-Ranges", "bytes")
+                .header("Content-Range", "bytes 100-1099/" + sample.length)
+                .extract()
+                .response();
+
+        assertThat(response.getBody().asByteArray()).isEqualTo(Arrays.copyOfRange(sample, 100, 1100));
+    }
+
+    @ParameterizedTest
+    @MethodSource("endpoints")
+    void whenDownloadSuffixRangeThenPartialContent(String url) throws Exception {
+        var sample = Files.readAllBytes(getSampleFile());
+        var response =
+            given()
+                .when()
+                .header("Accept", "application/octet-stream")
+                .header("Range", "bytes=-500")
+                .get(url)
+                .then()
+                .statusCode(RestResponse.Status.PARTIAL_CONTENT.getStatusCode())
+                .header("Content-Range", "bytes " + (sample.length - 500) + "-" + (sample.length - 1) + "/" + sample.length)
+                .extract()
+                .response();
+
+        assertThat(response.getBody().asByteArray()).isEqualTo(Arrays.copyOfRange(sample, sample.length - 500, sample.length));
+    }
+
+    @ParameterizedTest
+    @MethodSource("endpoints")
+    void whenDownloadRangeBeyondEndThenNotSatisfiable(String url) throws Exception {
+        var size = Files.size(getSampleFile());
+        given()
+            .when()
+            .header("Accept", "application/octet-stream")
+            .header("Range", "bytes=" + size + "-")
+            .get(url)
+            .then()
+            .statusCode(RestResponse.Status.REQUESTED_RANGE_NOT_SATISFIABLE.getStatusCode())
+            .header("Content-Range", "bytes */" + size);
+    }
+
+    @ParameterizedTest
+    @MethodSource("endpoints")
+    void whenIfRangeDoesNotMatchThenWholeFile(String url) throws Exception {
+        var response =
+            given()
+                .when()
+                .header("Accept", "application/octet-stream")
+                .header("Range", "bytes=100-1099")
+                .header("If-Range", "Thu, 01 Jan 1970 00:00:00 GMT")
+                .get(url)
+                .then()
+                .statusCode(RestResponse.Status.OK.getStatusCode())
+                .extract()
+                .response();
+
+        assertThat(response.getBody().asByteArray()).isEqualTo(Files.readAllBytes(getSampleFile()));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "/download/asyncMultiBuffer/sample.pdf",
+            "/download/stream/sample.pdf"})
+    void whenDownloadMultipleRangesThenMultipartByteRanges(String url) throws Exception {
+        var sample = Files.readAllBytes(getSampleFile());
+        var response =
+            given()
+                .when()
+                .header("Range", "bytes=0-99,-50,1000-1999")
+                .get(url)
+                .then()
+                .statusCode(RestResponse.Status.PARTIAL_CONTENT.getStatusCode())
+                .contentType(startsWith("multipart/byteranges; boundary="))
+                .extract()
+                .response();
+
+        var boundary = response.getContentType().substring(response.getContentType().indexOf('=') + 1);
+        var expected = new ByteArrayOutputStream();
+        for (var range : new long[][] {{0, 99}, {sample.length - 50, sample.length - 1}, {1000, 1999}}) {
+            expected.write(("\r\n--" + boundary + "\r\nContent-Type: application/pdf\r\nContent-Range: bytes "
+                + range[0] + "-" + range[1] + "/" + sample.length + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            expected.write(sample, (int) range[0], (int) (range[1] - range[0] + 1));
+        }
+        expected.write(("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII));
+        assertThat(response.getBody().asByteArray()).isEqualTo(expected.toByteArray());
+    }
+
+    @ParameterizedTest
+    @MethodSource("endpoints")
+    void whenIfNoneMatchThenNotModified(String url) {
+        var etag = given().when().get(url).then().statusCode(RestResponse.Status.OK.getStatusCode()).extract().header("ETag");
+
+        given()
+            .when()
+            .header("If-None-Match", etag)
+            .get(url)
+            .then()
+            .statusCode(RestResponse.Status.NOT_MODIFIED.getStatusCode())
+            .header("ETag", etag);
+    }
+
+    @ParameterizedTest
+    @MethodSource("endpoints")
+    void whenIfModifiedSinceThenNotModified(String url) {
+        var lastModified = given().when().get(url).then().statusCode(RestResponse.Status.OK.getStatusCode()).extract().header("Last-Modified");
+
+        given()
+            .when()
+            .header("If-Modified-Since", lastModified)
+            .get(url)
+            .then()
+            .statusCode(RestResponse.Status.NOT_MODIFIED.getStatusCode());
+    }
+
+    @ParameterizedTest
+    @MethodSource("endpoints")
+    void whenIfRangeMatchesEntityTagThenPartialContent(String url) {
+        var etag = given().when().get(url).then().statusCode(RestResponse.Status.OK.getStatusCode()).extract().header("ETag");
+
+        given()
+            .when()
+            .header("Range", "bytes=0-9")
+            .header("If-Range", etag)
+            .get(url)
+            .then()
+            .statusCode(RestResponse.Status.PARTIAL_CONTENT.getStatusCode())
+            .header("ETag", etag);
+    }
+
+    @ParameterizedTest
+    @CsvSource({
+            "/download/asyncBuffer/sample.pdf, OffHeapFileCache",
+            "/download/asyncMultiBuffer/sample.pdf, HotFileCache",
+            "/download/byteArray/sample.pdf, HotFileCache",
+            "/download/stream/sample.pdf, FileMetadataCache",
+            "/download/asyncFile/sample.pdf, FileMetadataCache"})
+    void whenDownloadRepeatedlyThenServedFromCache(String url, String cache) throws Exception {
+        var sample = Files.readAllBytes(getSampleFile());
+        assertThat(given().when().get(url).then().statusCode(RestResponse.Status.OK.getStatusCode()).extract().asByteArray()).isEqualTo(sample);
+        var hits = getCacheHitCount(cache);
+
+        assertThat(given().when().get(url).then().statusCode(RestResponse.Status.OK.getStatusCode()).extract().asByteArray()).isEqualTo(sample);
+        assertThat(getCacheHitCount(cache)).isGreaterThan(hits);
+    }
+
+    private long getCacheHitCount(String cache) throws Exception {
+        return (long) ManagementFactory.getPlatformMBeanServer()
+            .getAttribute(new ObjectName(MBeans.DOMAIN, "type", cache), "HitCount");
+    }
+
+    static Stream<String> endpoints() {
+        return Stream.of("asyncFile", "asyncBuffer", "asyncMultiBuffer", "sendFile", "stream", "byteArray", "byteArrayVirtual", "auto")
+            .map(endpoint -> "/download/" + endpoint + "/sample.pdf");
+    }
+
     private Path getSampleFile() throws URISyntaxException {
         var url = FileDownloadResourceTest.class.getResource("/sample/sample.pdf");
         return Paths.get(Objects.requireNonNull(url).toURI());
@@ -0,0 +1,113 @@
+package io.crunch.download;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FileHandleCacheTest {
+
+    @TempDir
+    Path root;
+
+    private FileHandleCache cache;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        cache = new FileHandleCache(2, Duration.ofMillis(50));
+        for (var name : new String[]{"a.pdf", "b.pdf", "c.pdf"}) {
+            Files.write(root.resolve(name), name.getBytes());
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+        cache.clear();
+    }
+
+    @Test
+    void whenAcquiredAgainThenOpenFileIsShared() throws IOException {
+        var first = cache.acquire(root.resolve("a.pdf"));
+        var second = cache.acquire(root.resolve("a.pdf"));
+
+        assertThat(second.channel()).isSameAs(first.channel());
+        assertThat(read(second)).isEqualTo("a.pdf");
+        first.release();
+        second.release();
+        assertThat(first.channel().isOpen()).isTrue();
+        assertThat(cache.getOpenCount()).isEqualTo(1);
+        assertThat(cache.getHitCount()).isEqualTo(1);
+    }
+
+    @Test
+    void whenFileChangesThenStaleHandleIsClosed() throws IOException {
+        var stale = cache.acquire(root.resolve("a.pdf"));
+        stale.release();
+        Files.write(root.resolve("a.pdf"), "changed".getBytes());
+        Files.setLastModifiedTime(root.resolve("a.pdf"), FileTime.from(Instant.now().plusSeconds(10)));
+
+        var handle = cache.acquire(root.resolve("a.pdf"));
+
+        assertThat(read(handle)).isEqualTo("changed");
+        assertThat(stale.channel().isOpen()).isFalse();
+        assertThat(cache.getOpenCount()).isEqualTo(2);
+        handle.release();
+    }
+
+    @Test
+    void whenMoreFilesThanMaximumThenLeastRecentlyUsedIsClosedOnRelease() throws IOException {
+        var held = cache.acquire(root.resolve("a.pdf"));
+        cache.acquire(root.resolve("b.pdf")).release();
+        cache.acquire(root.resolve("c.pdf")).release();
+
+        assertThat(cache.getHandleCount()).isEqualTo(2);
+        assertThat(held.channel().isOpen()).isTrue();
+        assertThat(read(held)).isEqualTo("a.pdf");
+        held.release();
+        assertThat(held.channel().isOpen()).isFalse();
+        assertThat(cache.getCloseCount()).isEqualTo(1);
+    }
+
+    @Test
+    void whenIdleThenHandleIsClosed() throws Exception {
+        var idle = cache.acquire(root.resolve("a.pdf"));
+        idle.release();
+        Thread.sleep(100);
+        cache.acquire(root.resolve("b.pdf")).release();
+
+        cache.evictIdle();
+
+        assertThat(idle.channel().isOpen()).isFalse();
+        assertThat(cache.getHandleCount()).isEqualTo(1);
+        assertThat(cache.getIdleEvictionCount()).isEqualTo(1);
+    }
+
+    @Test
+    void whenChannelClosedByInterruptThenFileIsOpenedAgain() throws IOException {
+        var closed = cache.acquire(root.resolve("a.pdf"));
+        closed.channel().close();
+        closed.release();
+
+        var handle = cache.acquire(root.resolve("a.pdf"));
+
+        assertThat(read(handle)).isEqualTo("a.pdf");
+        assertThat(cache.getOpenCount()).isEqualTo(2);
+        handle.release();
+    }
+
+    private static String read(FileHandleCache.Handle handle) throws IOException {
+        var buf = ByteBuffer.allocate((int) handle.size());
+        handle.channel().read(buf, 0);
+        return new String(buf.array());
+    }
+}
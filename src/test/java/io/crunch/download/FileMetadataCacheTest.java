@@ -0,0 +1,116 @@
+package io.crunch.download;
+
+import io.smallrye.mutiny.Uni;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class FileMetadataCacheTest {
+
+    @TempDir
+    Path root;
+
+    private final AtomicInteger loads = new AtomicInteger();
+
+    private FileStoreWatcher watcher;
+
+    private FileMetadataCache cache;
+
+    @AfterEach
+    void tearDown() {
+        watcher.close();
+    }
+
+    @Test
+    void whenLookedUpAgainThenServedFromCache() throws IOException {
+        start(Duration.ofMinutes(1), 100, false);
+        Files.write(root.resolve("a.pdf"), new byte[10]);
+
+        assertThat(get("a.pdf").size()).isEqualTo(10);
+        assertThat(get("a.pdf").size()).isEqualTo(10);
+        assertThat(loads).hasValue(1);
+        assertThat(cache.getHitCount()).isEqualTo(1);
+        assertThat(cache.getMissCount()).isEqualTo(1);
+    }
+
+    @Test
+    void whenFileIsMissingThenAbsenceIsCached() {
+        start(Duration.ofMinutes(1), 100, false);
+
+        assertThatThrownBy(() -> get("missing.pdf")).hasCauseInstanceOf(NoSuchFileException.class);
+        assertThatThrownBy(() -> get("missing.pdf")).hasCauseInstanceOf(NoSuchFileException.class);
+        assertThat(loads).hasValue(1);
+    }
+
+    @Test
+    void whenEntryExpiresThenMetadataIsReloaded() throws Exception {
+        start(Duration.ofMillis(50), 100, false);
+        Files.write(root.resolve("a.pdf"), new byte[10]);
+
+        get("a.pdf");
+        Thread.sleep(100);
+        get("a.pdf");
+
+        assertThat(loads).hasValue(2);
+    }
+
+    @Test
+    void whenFileChangesThenWatcherInvalidatesEntry() throws Exception {
+        start(Duration.ofMinutes(1), 100, true);
+        Files.write(root.resolve("a.pdf"), new byte[10]);
+        assertThat(get("a.pdf").size()).isEqualTo(10);
+
+        Files.write(root.resolve("a.pdf"), new byte[20]);
+        var deadline = Instant.now().plusSeconds(10);
+        while (cache.getEntryCount() > 0 && Instant.now().isBefore(deadline)) {
+            Thread.sleep(10);
+        }
+
+        assertThat(get("a.pdf").size()).isEqualTo(20);
+        assertThat(cache.getInvalidationCount()).isPositive();
+    }
+
+    @Test
+    void whenFullThenEntryCountIsBounded() throws IOException {
+        start(Duration.ofMinutes(1), 2, false);
+        for (var name : new String[]{"a.pdf", "b.pdf", "c.pdf"}) {
+            Files.write(root.resolve(name), new byte[10]);
+            get(name);
+        }
+
+        assertThat(cache.getEntryCount()).isEqualTo(2);
+    }
+
+    private void start(Duration ttl, int maxEntries, boolean watch) {
+        watcher = new FileStoreWatcher(root.toString(), watch);
+        cache = new FileMetadataCache(ttl, maxEntries, watcher);
+        cache.start();
+    }
+
+    private FileMetadata get(String fileName) {
+        return cache.get(fileName, this::load).await().indefinitely();
+    }
+
+    private Uni<FileMetadata> load(String fileName) {
+        loads.incrementAndGet();
+        return Uni.createFrom().item(() -> {
+            try {
+                var path = root.resolve(fileName);
+                return new FileMetadata(Files.size(path), Files.getLastModifiedTime(path).toInstant());
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+    }
+}
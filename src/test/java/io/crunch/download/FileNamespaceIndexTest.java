@@ -0,0 +1,83 @@
+package io.crunch.download;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FileNamespaceIndexTest {
+
+    @TempDir
+    Path root;
+
+    private FileStoreWatcher watcher;
+
+    private FileNamespaceIndex index;
+
+    @AfterEach
+    void tearDown() {
+        index.stop();
+        watcher.close();
+    }
+
+    @Test
+    void whenScannedThenUnknownNamesAreRejected() throws Exception {
+        Files.write(root.resolve("a.pdf"), new byte[10]);
+        Files.createDirectories(root.resolve("sub"));
+        Files.write(root.resolve("sub/b.pdf"), new byte[10]);
+        start(false);
+
+        assertThat(index.mightContain("a.pdf")).isTrue();
+        assertThat(index.mightContain("missing.pdf")).isFalse();
+        // the files of the subdirectories are not served
+        assertThat(index.mightContain("sub/b.pdf")).isFalse();
+        assertThat(index.getRejectionCount()).isEqualTo(2);
+        assertThat(index.getNameCount()).isEqualTo(1);
+    }
+
+    @Test
+    void whenFileCreatedThenWatcherAddsName() throws Exception {
+        start(true);
+
+        Files.write(root.resolve("new.pdf"), new byte[10]);
+
+        await(() -> index.mightContain("new.pdf"));
+        assertThat(index.mightContain("new.pdf")).isTrue();
+    }
+
+    @Test
+    void whenRescannedThenDeletedNamesAreDropped() throws Exception {
+        Files.write(root.resolve("a.pdf"), new byte[10]);
+        start(false);
+        assertThat(index.mightContain("a.pdf")).isTrue();
+
+        Files.delete(root.resolve("a.pdf"));
+        var scans = index.getScanCount();
+        index.rescan();
+        await(() -> index.getScanCount() > scans);
+
+        assertThat(index.mightContain("a.pdf")).isFalse();
+    }
+
+    private void start(boolean watch) throws InterruptedException {
+        watcher = new FileStoreWatcher(root.toString(), watch);
+        index = new FileNamespaceIndex(root.toString(), true, Duration.ofHours(1), 0.01, watcher);
+        index.start();
+        await(index::isReady);
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        var deadline = Instant.now().plusSeconds(10);
+        while (!condition.getAsBoolean() && Instant.now().isBefore(deadline)) {
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package io.crunch.download;
+
+import io.vertx.mutiny.core.Vertx;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares the read paths of {@link LocalFileStore} and {@link MappedFileStore} on the 1-20 MB sample set.
+ * <p>
+ * The samples are read from the directory given as the first argument (for example the files created by
+ * {@link SamplePDFFactory}), or generated with random content into a temporary directory. Every operation is
+ * warmed up, then timed on the same warm page cache, and the average time per operation is printed, with the heap
+ * allocated per operation by the calling thread (that is, by the blocking operations only).
+ */
+public class FileStoreBenchmark {
+
+    private static final int ONE_MB = 1024 * 1024;
+
+    private static final List<String> SAMPLES =
+        List.of("sample_001mb.pdf", "sample_002mb.pdf", "sample_005mb.pdf", "sample_010mb.pdf", "sample_020mb.pdf");
+
+    private static final int WARMUP = 20;
+
+    private static final int ITERATIONS = 50;
+
+    @FunctionalInterface
+    private interface Operation {
+        void run(FileStore store, String fileName) throws IOException;
+    }
+
+    public static void main(String[] args) throws IOException {
+        var root = args.length > 0 ? Path.of(args[0]) : createSamples();
+        var vertx = Vertx.vertx();
+        var chunkSizes = new ChunkSizePolicy(8 * 1024, 256 * 1024, 64 * ONE_MB);
+        var buffers = new HeapBufferPool(64 * 1024, 4);
+        var local = new LocalFileStore(root.toString(), SAMPLES.size(), Duration.ofMinutes(1), chunkSizes, buffers, vertx);
+        var mapped = new MappedFileStore(root.toString(), SAMPLES.size(), chunkSizes, buffers, vertx);
+        try {
+            System.out.printf("%-18s %-14s %12s %12s %14s %14s%n",
+                "sample", "operation", "local ms/op", "mapped ms/op", "local KB/op", "mapped KB/op");
+            for (var sample : SAMPLES) {
+                run(local, mapped, sample, "getByteArray", (store, name) -> store.getByteArray(name));
+                run(local, mapped, sample, "writeContent", (store, name) -> store.writeContent(name, OutputStream.nullOutputStream()));
+                run(local, mapped, sample, "getBuffer", (store, name) -> store.getBuffer(name).await().indefinitely());
+                run(local, mapped, sample, "getMultiBuffer", (store, name) -> store.getMultiBuffer(name).collect().last().await().indefinitely());
+            }
+        } finally {
+            local.close();
+            mapped.close();
+            vertx.closeAndAwait();
+        }
+    }
+
+    private record Measurement(double millisPerOperation, double kilobytesPerOperation) {
+    }
+
+    private static void run(FileStore local, FileStore mapped, String sample, String operation, Operation op) throws IOException {
+        var localMeasurement = measure(local, sample, op);
+        var mappedMeasurement = measure(mapped, sample, op);
+        System.out.printf("%-18s %-14s %12.3f %12.3f %14.1f %14.1f%n", sample, operation,
+            localMeasurement.millisPerOperation(), mappedMeasurement.millisPerOperation(),
+            localMeasurement.kilobytesPerOperation(), mappedMeasurement.kilobytesPerOperation());
+    }
+
+    private static Measurement measure(FileStore store, String sample, Operation op) throws IOException {
+        for (int i = 0; i < WARMUP; i++) {
+            op.run(store, sample);
+        }
+        var threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        var allocated = threads.getCurrentThreadAllocatedBytes();
+        var start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            op.run(store, sample);
+        }
+        var millis = (System.nanoTime() - start) / 1e6 / ITERATIONS;
+        return new Measurement(millis, (threads.getCurrentThreadAllocatedBytes() - allocated) / 1024.0 / ITERATIONS);
+    }
+
+    private static Path createSamples() throws IOException {
+        var root = Files.createTempDirectory("samples");
+        var random = new Random();
+        for (var sample : SAMPLES) {
+            var content = new byte[Integer.parseInt(sample.replaceAll("\\D", "")) * ONE_MB];
+            random.nextBytes(content);
+            Files.write(root.resolve(sample), content);
+        }
+        return root;
+    }
+}
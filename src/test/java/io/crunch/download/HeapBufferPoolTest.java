@@ -0,0 +1,54 @@
+package io.crunch.download;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.concurrent.Executors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HeapBufferPoolTest {
+
+    @Test
+    void whenReleasedThenBufferIsReusedByTheSameThread() {
+        var pool = new HeapBufferPool(1024, 2);
+
+        var buffer = pool.acquire();
+        buffer.put((byte) 1);
+        pool.release(buffer);
+        var reused = pool.acquire();
+
+        assertThat(reused).isSameAs(buffer);
+        assertThat(reused.position()).isZero();
+        assertThat(reused.capacity()).isEqualTo(1024);
+        assertThat(pool.getAllocationCount()).isEqualTo(1);
+        assertThat(pool.getAcquireCount()).isEqualTo(2);
+    }
+
+    @Test
+    void whenStripeIsFullThenReleasedBufferIsDropped() {
+        var pool = new HeapBufferPool(1024, 2);
+        var buffers = new ArrayList<ByteBuffer>();
+        for (int i = 0; i < 3; i++) {
+            buffers.add(pool.acquire());
+        }
+
+        buffers.forEach(pool::release);
+
+        assertThat(pool.getPooledBufferCount()).isEqualTo(2);
+    }
+
+    @Test
+    void whenAcquiredByVirtualThreadsThenBuffersAreReused() throws Exception {
+        var pool = new HeapBufferPool(1024, 4);
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < 1000; i++) {
+                executor.submit(() -> pool.release(pool.acquire())).get();
+            }
+        }
+
+        assertThat(pool.getAcquireCount()).isEqualTo(1000);
+        assertThat(pool.getAllocationCount()).isLessThan(1000);
+    }
+}
@@ -0,0 +1,132 @@
+package io.crunch.download;
+
+import io.netty.buffer.PooledByteBufAllocator;
+import org.junit.jupiter.api.Test;
+
+import java.util.function.UnaryOperator;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HotFileCacheTest {
+
+    private static final int ONE_MB = 1024 * 1024;
+
+    @Test
+    void whenPutThenHitWithSameVersion() {
+        var cache = HotFileCache.heap(10L * ONE_MB);
+        var content = new byte[1024];
+
+        assertThat(cache.get("a.pdf", "v1")).isNull();
+        cache.put("a.pdf", "v1", content);
+
+        assertThat(cache.get("a.pdf", "v1")).isSameAs(content);
+        assertThat(cache.getHitCount()).isEqualTo(1);
+        assertThat(cache.getMissCount()).isEqualTo(1);
+    }
+
+    @Test
+    void whenVersionChangesThenMissAndStaleEntryRemoved() {
+        var cache = HotFileCache.heap(10L * ONE_MB);
+        cache.put("a.pdf", "v1", new byte[1024]);
+
+        assertThat(cache.get("a.pdf", "v2")).isNull();
+        assertThat(cache.getEntryCount()).isZero();
+        assertThat(cache.getWeightedSize()).isZero();
+    }
+
+    @Test
+    void whenContainsThenNoHitOrMissIsCounted() {
+        var cache = HotFileCache.heap(10L * ONE_MB);
+        cache.put("a.pdf", "v1", new byte[1024]);
+
+        assertThat(cache.contains("a.pdf", "v1")).isTrue();
+        assertThat(cache.contains("a.pdf", "v2")).isFalse();
+        assertThat(cache.contains("b.pdf", "v1")).isFalse();
+        assertThat(cache.getHitCount()).isZero();
+        assertThat(cache.getMissCount()).isZero();
+        assertThat(cache.getEntryCount()).isEqualTo(1);
+    }
+
+    @Test
+    void whenContainsThenLruOrderIsUnchanged() {
+        var cache = new HotFileCache<byte[]>(10_000, content -> content.length, UnaryOperator.identity(), content -> { });
+        cache.put("a.pdf", "v1", new byte[4900]);
+        cache.put("b.pdf", "v1", new byte[4900]);
+        assertThat(cache.contains("a.pdf", "v1")).isTrue();
+
+        IntStream.range(0, 3).forEach(i -> cache.get("c.pdf", "v1"));
+        cache.put("c.pdf", "v1", new byte[4900]);
+
+        assertThat(cache.contains("a.pdf", "v1")).isFalse();
+        assertThat(cache.contains("b.pdf", "v1")).isTrue();
+        assertThat(cache.contains("c.pdf", "v1")).isTrue();
+    }
+
+    @Test
+    void whenLargeColdFileThenHotSmallFilesAreKept() {
+        var cache = HotFileCache.heap(100L * ONE_MB);
+        var hot = IntStream.range(0, 90).mapToObj(i -> "hot_" + i + ".pdf").toList();
+        hot.forEach(name -> cache.put(name, "v1", new byte[ONE_MB]));
+        for (int round = 0; round < 3; round++) {
+            hot.forEach(name -> cache.get(name, "v1"));
+        }
+
+        cache.get("large.pdf", "v1");
+        cache.put("large.pdf", "v1", new byte[20 * ONE_MB]);
+        cache.put("other.pdf", "v1", new byte[ONE_MB]);
+
+        assertThat(cache.get("large.pdf", "v1")).isNull();
+        assertThat(hot).allMatch(name -> cache.get(name, "v1") != null);
+        assertThat(cache.getWeightedSize()).isLessThanOrEqualTo(cache.getMaximumWeight());
+    }
+
+    @Test
+    void whenBudgetExceededThenWeightStaysWithinBudget() {
+        var cache = HotFileCache.heap(10L * ONE_MB);
+        IntStream.range(0, 50).forEach(i -> cache.put("file_" + i + ".pdf", "v1", new byte[ONE_MB]));
+
+        assertThat(cache.getWeightedSize()).isLessThanOrEqualTo(10L * ONE_MB);
+        assertThat(cache.getEvictionCount()).isPositive();
+    }
+
+    @Test
+    void whenOffHeapEntryEvictedWhileInUseThenReleasedByLastHolder() {
+        var cache = HotFileCache.offHeap(ONE_MB);
+        var content = PooledByteBufAllocator.DEFAULT.directBuffer(1024).writeZero(1024);
+        cache.put("a.pdf", "v1", content);
+
+        var slice = cache.get("a.pdf", "v1");
+        assertThat(content.refCnt()).isEqualTo(2);
+
+        var replacement = PooledByteBufAllocator.DEFAULT.directBuffer(1024).writeZero(1024);
+        cache.put("a.pdf", "v2", replacement);
+        assertThat(content.refCnt()).isEqualTo(1);
+        assertThat(slice.readableBytes()).isEqualTo(1024);
+
+        slice.release();
+        assertThat(content.refCnt()).isZero();
+
+        assertThat(cache.get("a.pdf", "v3")).isNull();
+        assertThat(replacement.refCnt()).isZero();
+    }
+
+    @Test
+    void whenOffHeapEntryRejectedThenReleased() {
+        var cache = HotFileCache.offHeap(1024);
+        var content = PooledByteBufAllocator.DEFAULT.directBuffer(2048).writeZero(2048);
+        cache.put("a.pdf", "v1", content);
+
+        assertThat(content.refCnt()).isZero();
+        assertThat(cache.getEntryCount()).isZero();
+    }
+
+    @Test
+    void whenDisabledThenNothingIsCached() {
+        var cache = HotFileCache.heap(0);
+        cache.put("a.pdf", "v1", new byte[1]);
+
+        assertThat(cache.isEnabled()).isFalse();
+        assertThat(cache.get("a.pdf", "v1")).isNull();
+    }
+}
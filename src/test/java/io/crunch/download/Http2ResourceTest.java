@@ -0,0 +1,158 @@
+package io.crunch.download;
+
+import io.quarkus.test.common.http.TestHTTPResource;
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.junit.QuarkusTestProfile;
+import io.quarkus.test.junit.TestProfile;
+import io.smallrye.mutiny.Uni;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpVersion;
+import io.vertx.mutiny.core.Vertx;
+import io.vertx.mutiny.core.http.HttpClient;
+import jakarta.inject.Inject;
+import org.jboss.resteasy.reactive.RestResponse;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@QuarkusTest
+@TestProfile(Http2ResourceTest.Http2Profile.class)
+class Http2ResourceTest {
+
+    private static final int SMALL_SIZE = 2 * 1024 * 1024;
+
+    private static final int LARGE_SIZE = 32 * 1024 * 1024;
+
+    public static class Http2Profile implements QuarkusTestProfile {
+
+        @Override
+        public Map<String, String> getConfigOverrides() {
+            try {
+                var root = Files.createTempDirectory("http2");
+                Files.copy(Paths.get(Objects.requireNonNull(Http2ResourceTest.class.getClassLoader().getResource("sample/sample.pdf")).toURI()),
+                    root.resolve("sample.pdf"));
+                var random = new Random(42);
+                for (var file : Map.of("small.pdf", SMALL_SIZE, "large.pdf", LARGE_SIZE).entrySet()) {
+                    var content = new byte[file.getValue()];
+                    random.nextBytes(content);
+                    Files.write(root.resolve(file.getKey()), content);
+                }
+                return Map.of(
+                    "quarkus.http.http2", "true",
+                    "app.filestore.root", root.toString(),
+                    "app.http2.priority.reference-size", "1M");
+            } catch (IOException | URISyntaxException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    @Inject
+    Vertx vertx;
+
+    @TestHTTPResource("/")
+    URL url;
+
+    private HttpClient client;
+
+    @BeforeEach
+    void setUp() {
+        // h2c with prior knowledge, as h2load does
+        client = vertx.createHttpClient(new HttpClientOptions()
+            .setProtocolVersion(HttpVersion.HTTP_2)
+            .setHttp2ClearTextUpgrade(false)
+            .setDefaultHost(url.getHost())
+            .setDefaultPort(url.getPort()));
+    }
+
+    @AfterEach
+    void tearDown() {
+        client.closeAndAwait();
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"asyncFile", "asyncBuffer", "asyncMultiBuffer", "sendFile", "stream", "byteArray", "byteArrayVirtual"})
+    void whenFileIsDownloadedOverH2cThenContentIsSent(String endpoint) throws IOException, URISyntaxException {
+        // the body is read as soon as the response arrives, so that no frame is dropped
+        var response = client.request(HttpMethod.GET, "/download/" + endpoint + "/sample.pdf")
+            .flatMap(request -> request.send())
+            .flatMap(r -> r.body().map(body -> Map.entry(r, body)))
+            .await()
+            .indefinitely();
+
+        assertThat(response.getKey().version()).isEqualTo(HttpVersion.HTTP_2);
+        assertThat(response.getKey().statusCode()).isEqualTo(RestResponse.Status.OK.getStatusCode());
+        assertThat(response.getValue().getBytes()).isEqualTo(Files.readAllBytes(getSampleFile()));
+    }
+
+    @Test
+    void whenFilesAreDownloadedOnOneConnectionThenEveryStreamCompletes() throws IOException, URISyntaxException {
+        var sample = Files.readAllBytes(getSampleFile());
+        var requests = IntStream.range(0, 20)
+            .mapToObj(i -> client.request(HttpMethod.GET, "/download/asyncMultiBuffer/sample.pdf")
+                .flatMap(request -> request.send())
+                .flatMap(response -> response.body()))
+            .toList();
+
+        var bodies = Uni.join().all(requests).andFailFast().await().indefinitely();
+
+        assertThat(bodies).allSatisfy(body -> assertThat(body.getBytes()).isEqualTo(sample));
+    }
+
+    @Test
+    void whenSmallFileSharesConnectionWithLargeFileThenSmallFileOvertakesIt() {
+        var largeReceived = new AtomicLong();
+        var largeEnd = client.request(HttpMethod.GET, "/download/asyncBuffer/large.pdf")
+            .flatMap(request -> request.send())
+            .map(response -> response.handler(chunk -> largeReceived.addAndGet(chunk.length())).end().subscribeAsCompletionStage())
+            .await()
+            .indefinitely();
+
+        var small = client.request(HttpMethod.GET, "/download/asyncBuffer/small.pdf")
+            .flatMap(request -> request.send())
+            .flatMap(response -> {
+                var largeReceivedAtStart = largeReceived.get();
+                return response.body().map(body -> Map.entry(body.length(), largeReceived.get() - largeReceivedAtStart));
+            })
+            .await()
+            .indefinitely();
+        largeEnd.join();
+
+        // weights 128 and 8: without them, the streams would share the connection evenly while the small file is sent
+        assertThat(small.getKey()).isEqualTo(SMALL_SIZE);
+        assertThat(small.getValue()).isLessThan(SMALL_SIZE / 4);
+        assertThat(largeReceived.get()).isEqualTo(LARGE_SIZE);
+    }
+
+    @Test
+    void whenFileIsLargerThenStreamWeightIsLower() {
+        var reference = 1024 * 1024;
+
+        assertThat(StreamPriorityFilter.weight(0, reference)).isEqualTo(StreamPriorityFilter.MAX_WEIGHT);
+        assertThat(StreamPriorityFilter.weight(reference, reference)).isEqualTo(StreamPriorityFilter.MAX_WEIGHT);
+        assertThat(StreamPriorityFilter.weight(2L * reference, reference)).isEqualTo(128);
+        assertThat(StreamPriorityFilter.weight(20L * reference, reference)).isEqualTo(12);
+        assertThat(StreamPriorityFilter.weight(Long.MAX_VALUE, reference)).isEqualTo(1);
+    }
+
+    private Path getSampleFile() throws URISyntaxException {
+        return Paths.get(Objects.requireNonNull(getClass().getClassLoader().getResource("sample/sample.pdf")).toURI());
+    }
+}
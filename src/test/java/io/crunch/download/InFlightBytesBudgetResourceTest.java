@@ -0,0 +1,101 @@
+package io.crunch.download;
+
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.junit.QuarkusTestProfile;
+import io.quarkus.test.junit.TestProfile;
+import jakarta.inject.Inject;
+import org.jboss.resteasy.reactive.RestResponse;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Objects;
+
+import static io.restassured.RestAssured.given;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+
+@QuarkusTest
+@TestProfile(InFlightBytesBudgetResourceTest.BudgetProfile.class)
+class InFlightBytesBudgetResourceTest {
+
+    /**
+     * A budget smaller than the sample file, that overflows to the streaming strategies.
+     */
+    public static class BudgetProfile implements QuarkusTestProfile {
+
+        @Override
+        public Map<String, String> getConfigOverrides() {
+            return Map.of(
+                "app.download.memory-budget.max-size", "200K",
+                "app.download.memory-budget.overflow", "stream");
+        }
+    }
+
+    @Inject
+    InFlightBytesBudget budget;
+
+    @ParameterizedTest
+    @ValueSource(strings = {"asyncBuffer", "byteArray", "byteArrayVirtual"})
+    void whenFileIsLargerThanBudgetThenItIsStreamed(String endpoint) throws IOException, URISyntaxException {
+        var overflows = budget.getOverflowCount();
+
+        var content = given().get("/download/" + endpoint + "/sample.pdf")
+            .then()
+            .statusCode(RestResponse.Status.OK.getStatusCode())
+            .extract()
+            .asByteArray();
+
+        assertThat(content).isEqualTo(getSampleContent());
+        assertThat(budget.getOverflowCount()).isEqualTo(overflows + 1);
+        assertThat(budget.getReservedBytes()).isZero();
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"asyncBuffer", "byteArray", "byteArrayVirtual"})
+    void whenRangeFitsInBudgetThenItIsReservedUntilTheResponseEnds(String endpoint) throws IOException, URISyntaxException {
+        var granted = budget.getGrantedCount();
+
+        var content = given().header("Range", "bytes=0-999")
+            .get("/download/" + endpoint + "/sample.pdf")
+            .then()
+            .statusCode(RestResponse.Status.PARTIAL_CONTENT.getStatusCode())
+            .extract()
+            .asByteArray();
+
+        assertThat(content).isEqualTo(Arrays.copyOf(getSampleContent(), 1000));
+        assertThat(budget.getGrantedCount()).isEqualTo(granted + 1);
+        // the reservation is released when the response has been sent
+        await().atMost(Duration.ofSeconds(5)).until(() -> budget.getReservedBytes() == 0);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"asyncBuffer", "byteArray", "byteArrayVirtual"})
+    void whenBudgetIsFullThenRangeIsStreamed(String endpoint) throws IOException, URISyntaxException {
+        var held = budget.tryReserve(budget.getMaxSize());
+        assertThat(held).isNotNull();
+        try {
+            var content = given().header("Range", "bytes=1000-1999")
+                .get("/download/" + endpoint + "/sample.pdf")
+                .then()
+                .statusCode(RestResponse.Status.PARTIAL_CONTENT.getStatusCode())
+                .extract()
+                .asByteArray();
+
+            assertThat(content).isEqualTo(Arrays.copyOfRange(getSampleContent(), 1000, 2000));
+        } finally {
+            held.close();
+        }
+        assertThat(budget.getReservedBytes()).isZero();
+    }
+
+    private byte[] getSampleContent() throws IOException, URISyntaxException {
+        return Files.readAllBytes(Paths.get(Objects.requireNonNull(getClass().getClassLoader().getResource("sample/sample.pdf")).toURI()));
+    }
+}
@@ -0,0 +1,119 @@
+package io.crunch.download;
+
+import io.smallrye.mutiny.helpers.test.UniAssertSubscriber;
+import io.vertx.mutiny.core.Vertx;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class InFlightBytesBudgetTest {
+
+    private Vertx vertx;
+
+    @BeforeEach
+    void setUp() {
+        vertx = Vertx.vertx();
+    }
+
+    @AfterEach
+    void tearDown() {
+        vertx.closeAndAwait();
+    }
+
+    @Test
+    void whenBudgetIsFullThenReservationOverflowsUntilReleased() {
+        var budget = new InFlightBytesBudget(vertx, 100, InFlightBytesBudget.Overflow.STREAM, Duration.ofSeconds(1));
+
+        var first = budget.reserve(60).await().indefinitely();
+        var second = budget.reserve(60).await().indefinitely();
+
+        assertThat(first).isNotNull();
+        assertThat(second).isNull();
+        assertThat(budget.getReservedBytes()).isEqualTo(60);
+        assertThat(budget.getOverflowCount()).isEqualTo(1);
+
+        first.close();
+        first.close();
+
+        assertThat(budget.getReservedBytes()).isZero();
+        assertThat(budget.reserve(60).await().indefinitely()).isNotNull();
+        assertThat(budget.getPeakReservedBytes()).isEqualTo(60);
+    }
+
+    @Test
+    void whenContentIsLargerThanBudgetThenItNeverWaits() {
+        var budget = new InFlightBytesBudget(vertx, 100, InFlightBytesBudget.Overflow.QUEUE, Duration.ofSeconds(10));
+
+        assertThat(budget.reserve(101).await().atMost(Duration.ofSeconds(1))).isNull();
+        assertThat(budget.getQueuedCount()).isZero();
+    }
+
+    @Test
+    void whenBudgetIsReleasedThenQueuedReservationsAreGrantedInOrder() {
+        var budget = new InFlightBytesBudget(vertx, 100, InFlightBytesBudget.Overflow.QUEUE, Duration.ofSeconds(10));
+        var held = budget.reserve(100).await().indefinitely();
+
+        var large = budget.reserve(80).subscribe().withSubscriber(UniAssertSubscriber.create());
+        var small = budget.reserve(10).subscribe().withSubscriber(UniAssertSubscriber.create());
+
+        assertThat(budget.getWaitingCount()).isEqualTo(2);
+        // a small reservation does not overtake the waiting ones
+        assertThat(budget.tryReserve(1)).isNull();
+
+        held.close();
+
+        assertThat(large.awaitItem().getItem().bytes()).isEqualTo(80);
+        assertThat(small.awaitItem().getItem().bytes()).isEqualTo(10);
+        assertThat(budget.getReservedBytes()).isEqualTo(90);
+        assertThat(budget.getWaitingCount()).isZero();
+    }
+
+    @Test
+    void whenQueuedReservationIsGrantedThenItsSubscriberRunsWithoutTheLock() {
+        var budget = new InFlightBytesBudget(vertx, 100, InFlightBytesBudget.Overflow.QUEUE, Duration.ofSeconds(10));
+        var held = budget.reserve(100).await().indefinitely();
+
+        var locked = budget.reserve(50)
+            .onItem().transform(ignored -> Thread.holdsLock(budget))
+            .subscribe().withSubscriber(UniAssertSubscriber.create());
+
+        held.close();
+
+        assertThat(locked.awaitItem().getItem()).isFalse();
+    }
+
+    @Test
+    void whenQueuedReservationWaitsTooLongThenItOverflows() {
+        var budget = new InFlightBytesBudget(vertx, 100, InFlightBytesBudget.Overflow.QUEUE, Duration.ofMillis(50));
+        var held = budget.reserve(100).await().indefinitely();
+
+        var reservation = budget.reserve(10).await().atMost(Duration.ofSeconds(5));
+
+        assertThat(reservation).isNull();
+        assertThat(budget.getWaitingCount()).isZero();
+        assertThat(budget.getOverflowCount()).isEqualTo(1);
+        held.close();
+        assertThat(budget.getReservedBytes()).isZero();
+    }
+
+    @Test
+    void whenQueuedReservationIsCancelledThenItIsWithdrawn() {
+        var budget = new InFlightBytesBudget(vertx, 100, InFlightBytesBudget.Overflow.QUEUE, Duration.ofSeconds(10));
+        var held = budget.reserve(100).await().indefinitely();
+
+        var cancelled = budget.reserve(50).subscribe().withSubscriber(UniAssertSubscriber.create());
+        var waiting = budget.reserve(30).subscribe().withSubscriber(UniAssertSubscriber.create());
+        cancelled.cancel();
+
+        assertThat(budget.getWaitingCount()).isEqualTo(1);
+
+        held.close();
+
+        assertThat(waiting.awaitItem().getItem().bytes()).isEqualTo(30);
+        assertThat(budget.getReservedBytes()).isEqualTo(30);
+    }
+}
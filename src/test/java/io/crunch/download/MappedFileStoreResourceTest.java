@@ -0,0 +1,68 @@
+package io.crunch.download;
+
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.junit.QuarkusTestProfile;
+import io.quarkus.test.junit.TestProfile;
+import org.jboss.resteasy.reactive.RestResponse;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.Stream;
+
+import static io.restassured.RestAssured.given;
+import static org.assertj.core.api.AssertionsForInterfaceTypes.assertThat;
+
+@QuarkusTest
+@TestProfile(MappedFileStoreResourceTest.MappedProfile.class)
+class MappedFileStoreResourceTest {
+
+    public static class MappedProfile implements QuarkusTestProfile {
+
+        @Override
+        public Map<String, String> getConfigOverrides() {
+            return Map.of(
+                "app.filestore.type", "mapped",
+                "app.filestore.cache.max-size", "0",
+                "app.filestore.cache.off-heap.max-size", "0");
+        }
+    }
+
+    @ParameterizedTest
+    @MethodSource("endpoints")
+    void whenDownloadFileFromMappedStoreDownloadSuccessfully(String url) throws Exception {
+        var content = given().when().get(url).then().statusCode(RestResponse.Status.OK.getStatusCode()).extract().asByteArray();
+
+        assertThat(content).isEqualTo(Files.readAllBytes(getSampleFile()));
+    }
+
+    @ParameterizedTest
+    @MethodSource("endpoints")
+    void whenDownloadRangeFromMappedStoreThenPartialContent(String url) throws Exception {
+        var content = given()
+            .when()
+            .header("Range", "bytes=100-1099")
+            .get(url)
+            .then()
+            .statusCode(RestResponse.Status.PARTIAL_CONTENT.getStatusCode())
+            .extract()
+            .asByteArray();
+
+        assertThat(content).isEqualTo(Arrays.copyOfRange(Files.readAllBytes(getSampleFile()), 100, 1100));
+    }
+
+    static Stream<String> endpoints() {
+        return FileDownloadResourceTest.endpoints();
+    }
+
+    private Path getSampleFile() throws URISyntaxException {
+        var url = MappedFileStoreResourceTest.class.getResource("/sample/sample.pdf");
+        return Paths.get(Objects.requireNonNull(url).toURI());
+    }
+}
@@ -0,0 +1,181 @@
+package io.crunch.download;
+
+import io.netty.buffer.ByteBufUtil;
+import io.vertx.mutiny.core.Vertx;
+import io.vertx.mutiny.core.buffer.Buffer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.management.JMX;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MappedFileStoreTest {
+
+    private static final int SIZE = 200 * 1024 + 17;
+
+    @TempDir
+    Path root;
+
+    private Vertx vertx;
+
+    private MappedFileStore store;
+
+    private byte[] content;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        vertx = Vertx.vertx();
+        store = new MappedFileStore(root.toString(), 2, new ChunkSizePolicy(8 * 1024, 64 * 1024, 64 * 1024 * 1024),
+            new HeapBufferPool(64 * 1024, 4), vertx);
+        content = new byte[SIZE];
+        new Random(42).nextBytes(content);
+        Files.write(root.resolve("a.pdf"), content);
+    }
+
+    @AfterEach
+    void tearDown() {
+        store.close();
+        vertx.closeAndAwait();
+    }
+
+    @Test
+    void whenReadThenContentOfTheFile() throws IOException {
+        var output = new ByteArrayOutputStream();
+        store.writeContent("a.pdf", output);
+
+        assertThat(store.getByteArray("a.pdf")).isEqualTo(content);
+        assertThat(store.getBuffer("a.pdf").await().indefinitely().getBytes()).isEqualTo(content);
+        assertThat(collect(store.getMultiBuffer("a.pdf").collect().asList().await().indefinitely())).isEqualTo(content);
+        assertThat(output.toByteArray()).isEqualTo(content);
+    }
+
+    @Test
+    void whenReadRangeThenContentOfTheRange() throws IOException {
+        var range = new ByteRange(70_000, 100_000);
+        var expected = Arrays.copyOfRange(content, 70_000, 170_000);
+        var output = new ByteArrayOutputStream();
+        store.writeContent("a.pdf", range, output);
+
+        assertThat(store.getByteArray("a.pdf", range)).isEqualTo(expected);
+        assertThat(store.getBuffer("a.pdf", range).await().indefinitely().getBytes()).isEqualTo(expected);
+        assertThat(collect(store.getMultiBuffer("a.pdf", range).collect().asList().await().indefinitely())).isEqualTo(expected);
+        assertThat(output.toByteArray()).isEqualTo(expected);
+    }
+
+    @Test
+    void whenReadRangesThenDelimitedContentOfTheRanges() throws IOException {
+        var ranges = List.of(new ByteRange(0, 10), new ByteRange(SIZE - 10, 10));
+        var expected = new ByteArrayOutputStream();
+        expected.write('-');
+        expected.write(content, 0, 10);
+        expected.write('-');
+        expected.write(content, SIZE - 10, 10);
+        var output = new ByteArrayOutputStream();
+        store.writeContent("a.pdf", ranges, range -> new byte[]{'-'}, output);
+
+        assertThat(collect(store.getMultiBuffer("a.pdf", ranges, range -> new byte[]{'-'}).collect().asList().await().indefinitely()))
+            .isEqualTo(expected.toByteArray());
+        assertThat(output.toByteArray()).isEqualTo(expected.toByteArray());
+    }
+
+    @Test
+    void whenReadAgainThenMappingIsReused() {
+        store.getByteArray("a.pdf");
+        store.getByteArray("a.pdf");
+        store.getBuffer("a.pdf").await().indefinitely();
+
+        assertThat(mappings().getMapCount()).isEqualTo(1);
+        assertThat(mappings().getMappingCount()).isEqualTo(1);
+        assertThat(mappings().getMappedBytes()).isEqualTo(SIZE);
+    }
+
+    @Test
+    void whenFileChangesThenStaleMappingIsUnmapped() throws IOException {
+        store.getByteArray("a.pdf");
+        var changed = "changed".getBytes();
+        Files.write(root.resolve("a.pdf"), changed);
+        Files.setLastModifiedTime(root.resolve("a.pdf"), FileTime.from(Instant.now().plusSeconds(10)));
+
+        assertThat(store.getByteArray("a.pdf")).isEqualTo(changed);
+        assertThat(mappings().getUnmapCount()).isEqualTo(1);
+        assertThat(mappings().getMappedBytes()).isEqualTo(changed.length);
+    }
+
+    @Test
+    void whenMoreFilesThanMaximumThenLeastRecentlyUsedIsUnmapped() throws IOException {
+        Files.write(root.resolve("b.pdf"), content);
+        Files.write(root.resolve("c.pdf"), content);
+
+        store.getByteArray("a.pdf");
+        store.getByteArray("b.pdf");
+        store.getByteArray("a.pdf");
+        store.getByteArray("c.pdf");
+
+        assertThat(mappings().getMappingCount()).isEqualTo(2);
+        assertThat(mappings().getUnmapCount()).isEqualTo(1);
+        store.getByteArray("a.pdf");
+        assertThat(mappings().getMapCount()).isEqualTo(3);
+    }
+
+    @Test
+    void whenPooledBufferIsHeldThenItDoesNotKeepTheMapping() {
+        var buffer = store.getPooledBuffer("a.pdf").await().indefinitely();
+        store.close();
+
+        assertThat(mappings().getUnmapCount()).isEqualTo(1);
+        assertThat(mappings().getMappedBytes()).isZero();
+        assertThat(buffer.byteBuf().isDirect()).isTrue();
+        var bytes = new byte[buffer.length()];
+        buffer.byteBuf().getBytes(buffer.byteBuf().readerIndex(), bytes);
+        assertThat(bytes).isEqualTo(content);
+
+        buffer.release();
+        assertThat(buffer.byteBuf().refCnt()).isZero();
+    }
+
+    @Test
+    void whenPooledChunksAreHeldThenTheyDoNotKeepTheMapping() {
+        var range = new ByteRange(70_000, 100_000);
+        var chunks = store.getPooledMultiBuffer("a.pdf", range).collect().asList().await().indefinitely();
+        store.close();
+
+        assertThat(mappings().getUnmapCount()).isEqualTo(1);
+        assertThat(mappings().getMappedBytes()).isZero();
+        var output = new ByteArrayOutputStream();
+        chunks.forEach(chunk -> output.writeBytes(ByteBufUtil.getBytes(chunk.byteBuf())));
+        assertThat(output.toByteArray()).isEqualTo(Arrays.copyOfRange(content, 70_000, 170_000));
+        assertThat(chunks).hasSizeGreaterThan(1);
+
+        chunks.forEach(PooledBuffer::release);
+    }
+
+    private static FileMappingCacheMXBean mappings() {
+        try {
+            return JMX.newMXBeanProxy(ManagementFactory.getPlatformMBeanServer(),
+                new ObjectName(MBeans.DOMAIN, "type", "FileMappingCache"), FileMappingCacheMXBean.class);
+        } catch (MalformedObjectNameException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] collect(List<Buffer> buffers) {
+        var output = new ByteArrayOutputStream();
+        buffers.forEach(buffer -> output.writeBytes(buffer.getBytes()));
+        return output.toByteArray();
+    }
+}
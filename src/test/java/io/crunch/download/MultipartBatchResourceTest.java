@@ -0,0 +1,158 @@
+package io.crunch.download;
+
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.junit.TestProfile;
+import io.restassured.http.ContentType;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.resteasy.reactive.RestResponse;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static io.restassured.RestAssured.given;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.startsWith;
+
+@QuarkusTest
+@TestProfile(ZipBundleResourceTest.BundleProfile.class)
+class MultipartBatchResourceTest {
+
+    @ConfigProperty(name = "app.filestore.root")
+    String root;
+
+    @Inject
+    InFlightBytesBudget memoryBudget;
+
+    @Test
+    void whenFilesAreRequestedThenEveryPartCarriesItsFileInOrder() throws IOException {
+        var response = given().contentType(ContentType.JSON).body(List.of("c.pdf", "empty.pdf", "a.pdf", "b.pdf", "c.pdf")).post("/download/batch")
+            .then()
+            .statusCode(RestResponse.Status.OK.getStatusCode())
+            .contentType(startsWith("multipart/mixed; boundary="))
+            .extract()
+            .response();
+
+        var boundary = response.contentType().substring(response.contentType().indexOf("boundary=") + "boundary=".length());
+        var parts = parse(response.asByteArray(), boundary);
+
+        assertThat(parts).extracting(Part::name).containsExactly("c.pdf", "empty.pdf", "a.pdf", "b.pdf");
+        for (var part : parts) {
+            var file = Path.of(root, part.name());
+            var metadata = new FileMetadata(Files.size(file), Files.getLastModifiedTime(file).toInstant());
+            assertThat(part.content()).isEqualTo(Files.readAllBytes(file));
+            assertThat(part.headers())
+                .containsEntry("Content-Type", "application/pdf")
+                .containsEntry("Content-Length", String.valueOf(metadata.size()))
+                .containsEntry("ETag", "\"" + metadata.etag() + "\"")
+                .containsKey("Last-Modified");
+        }
+    }
+
+    @Test
+    void whenFilesAreRequestedThenBodyLengthIsKnownUpFront() {
+        var response = given().contentType(ContentType.JSON).body(List.of("a.pdf", "empty.pdf", "b.pdf")).post("/download/batch")
+            .then()
+            .statusCode(RestResponse.Status.OK.getStatusCode())
+            .header("Transfer-Encoding", nullValue())
+            .extract()
+            .response();
+
+        assertThat(response.header("Content-Length")).isEqualTo(String.valueOf(response.asByteArray().length));
+    }
+
+    @Test
+    void whenPartsArePrefetchedThenTheyReserveTheMemoryBudgetUntilSent() throws IOException {
+        var requested = List.of("a.pdf", "b.pdf", "c.pdf", "empty.pdf");
+        var prefetched = 0;
+        for (var name : requested) {
+            if (Files.size(Path.of(root, name)) <= 256 * 1024) {
+                prefetched++;
+            }
+        }
+        var granted = memoryBudget.getGrantedCount();
+
+        given().contentType(ContentType.JSON).body(requested).post("/download/batch")
+            .then()
+            .statusCode(RestResponse.Status.OK.getStatusCode());
+
+        assertThat(memoryBudget.getGrantedCount()).isEqualTo(granted + prefetched);
+        await().atMost(Duration.ofSeconds(5)).until(() -> memoryBudget.getReservedBytes() == 0);
+    }
+
+    @Test
+    void whenFileIsMissingThenNotFound() {
+        given().contentType(ContentType.JSON).body(List.of("a.pdf", "missing.pdf")).post("/download/batch")
+            .then()
+            .statusCode(RestResponse.Status.NOT_FOUND.getStatusCode());
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"[]", "[\"../a.pdf\"]", "[\"a.pdf\\r\\nX-Injected: 1\"]"})
+    void whenRequestIsInvalidThenBadRequest(String body) {
+        given().contentType(ContentType.JSON).body(body).post("/download/batch")
+            .then()
+            .statusCode(RestResponse.Status.BAD_REQUEST.getStatusCode());
+    }
+
+    @Test
+    void whenTooManyFilesAreRequestedThenBadRequest() {
+        given().contentType(ContentType.JSON).body(Collections.nCopies(1001, "a.pdf")).post("/download/batch")
+            .then()
+            .statusCode(RestResponse.Status.BAD_REQUEST.getStatusCode());
+    }
+
+    private record Part(String name, Map<String, String> headers, byte[] content) {
+    }
+
+    /**
+     * Parses a {@code multipart/mixed} body, reading the content of every part by its {@code Content-Length}, so the
+     * framing of the body is checked too.
+     */
+    private static List<Part> parse(byte[] body, String boundary) {
+        var parts = new ArrayList<Part>();
+        var delimiter = ("\r\n--" + boundary).getBytes(StandardCharsets.US_ASCII);
+        var offset = 0;
+        while (true) {
+            assertThat(Arrays.copyOfRange(body, offset, offset + delimiter.length)).isEqualTo(delimiter);
+            offset += delimiter.length;
+            if (body[offset] == '-' && body[offset + 1] == '-') {
+                assertThat(offset + 4).isEqualTo(body.length);
+                return parts;
+            }
+            offset += 2;
+            var headers = new LinkedHashMap<String, String>();
+            while (true) {
+                var end = offset;
+                while (body[end] != '\r') {
+                    end++;
+                }
+                var line = new String(body, offset, end - offset, StandardCharsets.UTF_8);
+                offset = end + 2;
+                if (line.isEmpty()) {
+                    break;
+                }
+                headers.put(line.substring(0, line.indexOf(':')), line.substring(line.indexOf(':') + 1).trim());
+            }
+            var disposition = headers.get("Content-Disposition");
+            var name = disposition.substring(disposition.indexOf("filename=\"") + 10, disposition.length() - 1);
+            var length = Integer.parseInt(headers.get("Content-Length"));
+            parts.add(new Part(name, headers, Arrays.copyOfRange(body, offset, offset + length)));
+            offset += length;
+        }
+    }
+}
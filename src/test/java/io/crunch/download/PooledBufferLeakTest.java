@@ -0,0 +1,163 @@
+package io.crunch.download;
+
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.helpers.test.AssertSubscriber;
+import io.vertx.mutiny.core.Vertx;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+
+class PooledBufferLeakTest {
+
+    private static final int KB = 1024;
+
+    private static final int SIZE = 200 * KB + 17;
+
+    @TempDir
+    Path root;
+
+    private Vertx vertx;
+
+    private LocalFileStore store;
+
+    private byte[] content;
+
+    @BeforeAll
+    static void installLeakDetector() {
+        ByteBufLeakDetector.install();
+    }
+
+    @BeforeEach
+    void setUp() throws IOException {
+        vertx = Vertx.vertx();
+        store = new LocalFileStore(root.toString(), 16, Duration.ofSeconds(30), new ChunkSizePolicy(8 * KB, 8 * KB, 64 * KB * KB),
+            new HeapBufferPool(64 * KB, 4), vertx);
+        content = new byte[SIZE];
+        new Random(42).nextBytes(content);
+        Files.write(root.resolve("a.pdf"), content);
+    }
+
+    @AfterEach
+    void tearDown() {
+        store.close();
+        vertx.closeAndAwait();
+        assertThat(ByteBufLeakDetector.collectLeaks()).isEmpty();
+    }
+
+    @Test
+    void whenBufferIsNotReleasedThenLeakIsDetected() {
+        leak();
+
+        assertThat(ByteBufLeakDetector.collectLeaks()).hasSize(1);
+    }
+
+    @Test
+    void whenReadPooledThenContentOfTheFileInPooledChunks() {
+        var chunks = store.getPooledMultiBuffer("a.pdf").collect().asList().await().indefinitely();
+
+        assertThat(chunks).hasSize(SIZE / (8 * KB) + 1);
+        assertThat(chunks).allMatch(chunk -> chunk.byteBuf().isDirect());
+        assertThat(release(chunks)).isEqualTo(content);
+        assertThat(release(List.of(store.getPooledBuffer("a.pdf").await().indefinitely()))).isEqualTo(content);
+    }
+
+    @Test
+    void whenReadPooledRangeThenContentOfTheRange() {
+        var range = new ByteRange(70_000, 100_000);
+        var expected = Arrays.copyOfRange(content, 70_000, 170_000);
+
+        assertThat(release(store.getPooledMultiBuffer("a.pdf", range).collect().asList().await().indefinitely())).isEqualTo(expected);
+        assertThat(release(List.of(store.getPooledBuffer("a.pdf", range).await().indefinitely()))).isEqualTo(expected);
+    }
+
+    @Test
+    void whenReadPooledRangesThenDelimitedContentOfTheRanges() {
+        var ranges = List.of(new ByteRange(0, 100), new ByteRange(SIZE - 50, 50), new ByteRange(1000, 20_000));
+
+        var chunks = store.getPooledMultiBuffer("a.pdf", ranges, range -> ("--" + range.offset()).getBytes(StandardCharsets.US_ASCII))
+            .collect().asList().await().indefinitely();
+
+        var expected = new ByteArrayOutputStream();
+        for (var range : ranges) {
+            expected.writeBytes(("--" + range.offset()).getBytes(StandardCharsets.US_ASCII));
+            expected.write(content, (int) range.offset(), (int) range.length());
+        }
+        assertThat(release(chunks)).isEqualTo(expected.toByteArray());
+    }
+
+    @Test
+    void whenCancelledWhileReadingThenChunksAreReleased() throws InterruptedException {
+        var subscriber = store.getPooledMultiBuffer("a.pdf").subscribe().withSubscriber(AssertSubscriber.create(2));
+
+        // the second chunk may be delivered or still be read when the subscriber cancels
+        await().atMost(Duration.ofSeconds(5)).until(() -> !subscriber.getItems().isEmpty());
+        subscriber.cancel();
+        Thread.sleep(100);
+
+        release(subscriber.getItems());
+    }
+
+    @Test
+    void whenPooledChunksAreCoalescedThenEveryChunkIsReleasedOnceWritten() {
+        var coalescer = new WriteCoalescer(32 * KB, Duration.ZERO, vertx);
+        var written = new ByteArrayOutputStream();
+
+        var writes = coalescer.coalescePooled(store.getPooledMultiBuffer("a.pdf"))
+            .onItem()
+            .transform(write -> {
+                var bytes = ByteBufUtil.getBytes(write.byteBuf());
+                write.release();
+                return bytes;
+            })
+            .collect().asList().await().indefinitely();
+
+        writes.forEach(written::writeBytes);
+        assertThat(written.toByteArray()).isEqualTo(content);
+        assertThat(writes).hasSize(SIZE / (32 * KB) + 1);
+    }
+
+    @Test
+    void whenCoalescedStreamIsCancelledThenBatchIsReleased() {
+        var coalescer = new WriteCoalescer(32 * KB, Duration.ZERO, vertx);
+        var chunk = new PooledBuffer(PooledByteBufAllocator.DEFAULT.directBuffer(KB).writeZero(KB));
+
+        var subscriber = coalescer.coalescePooled(Multi.createBy().concatenating().streams(
+                Multi.createFrom().item(chunk),
+                Multi.createFrom().nothing()))
+            .subscribe().withSubscriber(AssertSubscriber.create(1));
+        subscriber.cancel();
+
+        assertThat(chunk.byteBuf().refCnt()).isZero();
+    }
+
+    private static void leak() {
+        PooledByteBufAllocator.DEFAULT.directBuffer(KB);
+    }
+
+    private static byte[] release(List<PooledBuffer> chunks) {
+        var bytes = new ByteArrayOutputStream();
+        for (var chunk : chunks) {
+            bytes.writeBytes(ByteBufUtil.getBytes(chunk.byteBuf()));
+            chunk.release();
+            assertThat(chunk.byteBuf().refCnt()).isZero();
+        }
+        return bytes.toByteArray();
+    }
+}
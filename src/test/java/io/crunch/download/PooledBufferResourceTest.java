@@ -0,0 +1,131 @@
+package io.crunch.download;
+
+import io.netty.util.ResourceLeakDetector;
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.junit.QuarkusTestProfile;
+import io.quarkus.test.junit.TestProfile;
+import org.jboss.resteasy.reactive.RestResponse;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.lang.management.ManagementFactory;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Objects;
+
+import static io.restassured.RestAssured.given;
+import static org.assertj.core.api.AssertionsForInterfaceTypes.assertThat;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.startsWith;
+
+@QuarkusTest
+@TestProfile(PooledBufferResourceTest.PooledBuffersProfile.class)
+class PooledBufferResourceTest {
+
+    public static class PooledBuffersProfile implements QuarkusTestProfile {
+
+        @Override
+        public Map<String, String> getConfigOverrides() {
+            return Map.of(
+                "app.download.async.pooled-buffers", "true",
+                "app.filestore.cache.max-size", "0");
+        }
+    }
+
+    @BeforeAll
+    static void installLeakDetector() {
+        ByteBufLeakDetector.install();
+    }
+
+    @AfterEach
+    void assertNoLeaks() {
+        assertThat(ByteBufLeakDetector.collectLeaks()).isEmpty();
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"asyncBuffer", "asyncMultiBuffer", "asyncMultiBuffer"})
+    void whenDownloadPooledThenContentOfTheFile(String endpoint) throws Exception {
+        var content = given().when().get("/download/" + endpoint + "/sample.pdf")
+            .then().statusCode(RestResponse.Status.OK.getStatusCode()).extract().asByteArray();
+
+        assertThat(content).isEqualTo(Files.readAllBytes(getSampleFile()));
+    }
+
+    @Test
+    void whenDownloadPooledStreamThenItIsNotChunked() throws Exception {
+        given().when().get("/download/asyncMultiBuffer/sample.pdf")
+            .then()
+            .statusCode(RestResponse.Status.OK.getStatusCode())
+            .header("Transfer-Encoding", nullValue())
+            .header("Content-Length", String.valueOf(Files.size(getSampleFile())));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"asyncBuffer", "asyncMultiBuffer"})
+    void whenDownloadPooledRangeThenContentOfTheRange(String endpoint) throws Exception {
+        var sample = Files.readAllBytes(getSampleFile());
+
+        var content = given().when().header("Range", "bytes=100-200099").get("/download/" + endpoint + "/sample.pdf")
+            .then().statusCode(RestResponse.Status.PARTIAL_CONTENT.getStatusCode()).extract().asByteArray();
+
+        assertThat(content).isEqualTo(Arrays.copyOfRange(sample, 100, 200_100));
+    }
+
+    @Test
+    void whenDownloadPooledRangesThenMultipartByteRanges() throws Exception {
+        var sample = Files.readAllBytes(getSampleFile());
+
+        var response = given().when().header("Range", "bytes=0-99,-50").get("/download/asyncMultiBuffer/sample.pdf")
+            .then()
+            .statusCode(RestResponse.Status.PARTIAL_CONTENT.getStatusCode())
+            .contentType(startsWith("multipart/byteranges; boundary="))
+            .extract()
+            .response();
+
+        var body = new String(response.asByteArray(), StandardCharsets.ISO_8859_1);
+        assertThat(body).contains(new String(sample, 0, 100, StandardCharsets.ISO_8859_1));
+        assertThat(body).contains(new String(sample, sample.length - 50, 50, StandardCharsets.ISO_8859_1));
+    }
+
+    @Test
+    void whenDownloadPooledStreamThenChunksAreNotCopiedIntoTheHeap() throws Exception {
+        var size = Files.size(getSampleFile());
+        given().when().get("/download/asyncMultiBuffer/sample.pdf").then().statusCode(RestResponse.Status.OK.getStatusCode());
+
+        // the paranoid leak detector records a stack trace on every access of a buffer
+        ResourceLeakDetector.setLevel(ResourceLeakDetector.Level.DISABLED);
+        try {
+            var before = eventLoopAllocatedBytes();
+            for (var i = 0; i < 10; i++) {
+                given().when().get("/download/asyncMultiBuffer/sample.pdf").then().statusCode(RestResponse.Status.OK.getStatusCode());
+            }
+            var allocated = eventLoopAllocatedBytes() - before;
+
+            assertThat(allocated).as("bytes allocated by the event loops").isLessThan(10 * size / 4);
+        } finally {
+            ResourceLeakDetector.setLevel(ResourceLeakDetector.Level.PARANOID);
+        }
+    }
+
+    private static long eventLoopAllocatedBytes() {
+        var threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        var ids = Thread.getAllStackTraces().keySet().stream()
+            .filter(thread -> thread.getName().startsWith("vert.x-eventloop-thread"))
+            .mapToLong(Thread::threadId)
+            .toArray();
+        return Arrays.stream(threads.getThreadAllocatedBytes(ids)).filter(bytes -> bytes > 0).sum();
+    }
+
+    private Path getSampleFile() throws URISyntaxException {
+        var url = PooledBufferResourceTest.class.getResource("/sample/sample.pdf");
+        return Paths.get(Objects.requireNonNull(url).toURI());
+    }
+}
@@ -0,0 +1,272 @@
+package io.crunch.download;
+
+import com.aayushatharva.brotli4j.Brotli4jLoader;
+import com.aayushatharva.brotli4j.decoder.BrotliInputStream;
+import com.github.luben.zstd.ZstdInputStream;
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.junit.QuarkusTestProfile;
+import io.quarkus.test.junit.TestProfile;
+import io.restassured.config.DecoderConfig;
+import io.restassured.config.RestAssuredConfig;
+import io.restassured.specification.RequestSpecification;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.resteasy.reactive.RestResponse;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+import static io.restassured.RestAssured.given;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+
+@QuarkusTest
+@TestProfile(PrecompressedVariantsResourceTest.PrecompressProfile.class)
+class PrecompressedVariantsResourceTest {
+
+    private static final String FILE = "text.pdf";
+
+    public static class PrecompressProfile implements QuarkusTestProfile {
+
+        @Override
+        public Map<String, String> getConfigOverrides() {
+            try {
+                var root = Files.createTempDirectory("precompressed-variants");
+                Files.write(root.resolve(FILE), content("v1"));
+                return Map.of(
+                    "app.filestore.root", root.toString(),
+                    "app.filestore.precompress.enabled", "true",
+                    "app.filestore.precompress.interval", "1h",
+                    "app.filestore.metadata-cache.ttl", "0",
+                    "app.filestore.cache.max-size", "0",
+                    "app.filestore.cache.off-heap.max-size", "0",
+                    "app.download.shaping.tenant-rate", "8K",
+                    "app.download.shaping.tenant-burst", "1K");
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    @Inject
+    PrecompressedVariants variants;
+
+    @Inject
+    BandwidthShaper shaper;
+
+    @ConfigProperty(name = "app.filestore.root")
+    String root;
+
+    @BeforeEach
+    void generateVariants() throws IOException {
+        Files.write(file(), content("v1"));
+        Files.setLastModifiedTime(file(), FileTime.from(Instant.parse("2025-01-01T00:00:00Z")));
+        variants.scan();
+    }
+
+    @ParameterizedTest
+    @MethodSource("endpoints")
+    void whenCodingIsAcceptedThenVariantIsSent(String url) throws IOException {
+        var response = request("br, gzip, zstd").get(url)
+            .then()
+            .statusCode(RestResponse.Status.OK.getStatusCode())
+            .header("Content-Encoding", "br")
+            .header("Vary", "Accept-Encoding")
+            .header("Accept-Ranges", nullValue())
+            .extract()
+            .response();
+
+        var body = response.asByteArray();
+        assertThat(body.length).isLessThan((int) Files.size(file()) / 10);
+        assertThat(decode("br", body)).isEqualTo(Files.readAllBytes(file()));
+        assertThat(response.header("ETag")).endsWith("-br\"");
+    }
+
+    @ParameterizedTest
+    @CsvSource(delimiter = '|', value = {
+        "gzip, deflate         | gzip",
+        "zstd, gzip;q=0.5      | zstd",
+        "br;q=0, *             | zstd",
+        "gzip;q=0.2, zstd;q=0.1 | gzip",
+    })
+    void whenCodingsAreAcceptedThenPreferredVariantIsSent(String acceptEncoding, String expected) throws IOException {
+        var body = request(acceptEncoding).get("/download/stream/" + FILE)
+            .then()
+            .statusCode(RestResponse.Status.OK.getStatusCode())
+            .header("Content-Encoding", expected)
+            .extract()
+            .asByteArray();
+
+        assertThat(decode(expected, body)).isEqualTo(Files.readAllBytes(file()));
+    }
+
+    @Test
+    void whenNoCodingIsAcceptedThenIdentityIsSent() throws IOException {
+        var body = request(null).get("/download/sendFile/" + FILE)
+            .then()
+            .statusCode(RestResponse.Status.OK.getStatusCode())
+            .header("Content-Encoding", nullValue())
+            .header("Vary", "Accept-Encoding")
+            .header("Accept-Ranges", "bytes")
+            .extract()
+            .asByteArray();
+
+        assertThat(body).isEqualTo(Files.readAllBytes(file()));
+    }
+
+    @Test
+    void whenRangeIsRequestedThenIdentityRangeIsSent() throws IOException {
+        var body = request("br").header("Range", "bytes=10-109").get("/download/asyncFile/" + FILE)
+            .then()
+            .statusCode(RestResponse.Status.PARTIAL_CONTENT.getStatusCode())
+            .header("Content-Encoding", nullValue())
+            .extract()
+            .asByteArray();
+
+        assertThat(body).isEqualTo(Arrays.copyOfRange(Files.readAllBytes(file()), 10, 110));
+    }
+
+    @Test
+    void whenDownloadIsShapedThenVariantIsSentAtTheRate() throws IOException {
+        var shapedBytes = shaper.getShapedBytes();
+
+        var start = System.nanoTime();
+        var body = request("br").header("X-Tenant-Id", "bulk").get("/download/sendFile/" + FILE)
+            .then()
+            .statusCode(RestResponse.Status.OK.getStatusCode())
+            .header("Content-Encoding", "br")
+            .extract()
+            .asByteArray();
+        var elapsed = Duration.ofNanos(System.nanoTime() - start);
+
+        assertThat(decode("br", body)).isEqualTo(Files.readAllBytes(file()));
+        assertThat(shaper.getShapedBytes() - shapedBytes).isEqualTo(body.length);
+        // at most the burst is sent ahead of the rate
+        assertThat(elapsed).isGreaterThanOrEqualTo(Duration.ofMillis((body.length - 1024) * 1000L / (8 * 1024)));
+    }
+
+    @Test
+    void whenVariantIsNotModifiedThenNotModified() {
+        var etag = request("gzip").get("/download/byteArray/" + FILE).then().extract().header("ETag");
+
+        request("gzip").header("If-None-Match", etag).get("/download/byteArray/" + FILE)
+            .then()
+            .statusCode(RestResponse.Status.NOT_MODIFIED.getStatusCode())
+            .header("ETag", equalTo(etag))
+            .header("Vary", "Accept-Encoding");
+        request("br").header("If-None-Match", etag).get("/download/byteArray/" + FILE)
+            .then()
+            .statusCode(RestResponse.Status.OK.getStatusCode())
+            .header("Content-Encoding", "br");
+    }
+
+    @Test
+    void whenFileChangesThenIdentityIsSentUntilVariantsAreCompressedAgain() throws IOException {
+        Files.write(file(), content("v2"));
+        Files.setLastModifiedTime(file(), FileTime.from(Instant.parse("2025-02-01T00:00:00Z")));
+
+        var identity = request("br").get("/download/sendFile/" + FILE)
+            .then()
+            .header("Content-Encoding", nullValue())
+            .extract()
+            .asByteArray();
+        assertThat(identity).isEqualTo(content("v2"));
+
+        variants.scan();
+        var variant = request("br").get("/download/sendFile/" + FILE)
+            .then()
+            .header("Content-Encoding", "br")
+            .extract()
+            .asByteArray();
+        assertThat(decode("br", variant)).isEqualTo(content("v2"));
+        assertThat(Files.getLastModifiedTime(Paths.get(root, FILE + ".br"))).isEqualTo(Files.getLastModifiedTime(file()));
+    }
+
+    @Test
+    void whenVariantSavesTooFewBytesThenItIsNotKept() throws IOException {
+        var random = new byte[16 * 1024];
+        new Random(42).nextBytes(random);
+        Files.write(Paths.get(root, "random.pdf"), random);
+
+        variants.scan();
+
+        assertThat(variants.hasVariants("random.pdf")).isFalse();
+        assertThat(Paths.get(root, "random.pdf.gz")).doesNotExist();
+        request("gzip").get("/download/sendFile/random.pdf")
+            .then()
+            .statusCode(RestResponse.Status.OK.getStatusCode())
+            .header("Content-Encoding", nullValue());
+    }
+
+    @Test
+    void whenFileIsInSubdirectoryThenItIsNotCompressed() throws IOException {
+        var directory = Files.createDirectories(Paths.get(root, "archive"));
+        Files.write(directory.resolve(FILE), content("v1"));
+
+        variants.scan();
+
+        assertThat(variants.hasVariants("archive/" + FILE)).isFalse();
+        assertThat(directory.resolve(FILE + ".gz")).doesNotExist();
+        assertThat(variants.hasVariants(FILE)).isTrue();
+    }
+
+    static Stream<String> endpoints() {
+        return FileDownloadResourceTest.endpoints().map(url -> url.replace("sample.pdf", FILE));
+    }
+
+    /**
+     * A request that sends the given {@code Accept-Encoding} header, and leaves the response body as it is.
+     */
+    private static RequestSpecification request(String acceptEncoding) {
+        var request = given().config(RestAssuredConfig.config().decoderConfig(DecoderConfig.decoderConfig().noContentDecoders()));
+        return acceptEncoding == null ? request : request.header("Accept-Encoding", acceptEncoding);
+    }
+
+    private static byte[] decode(String encoding, byte[] body) throws IOException {
+        Brotli4jLoader.ensureAvailability();
+        var input = new ByteArrayInputStream(body);
+        try (InputStream decoded = switch (encoding) {
+            case "br" -> new BrotliInputStream(input);
+            case "zstd" -> new ZstdInputStream(input);
+            case "gzip" -> new GZIPInputStream(input);
+            default -> throw new IllegalArgumentException(encoding);
+        }) {
+            return decoded.readAllBytes();
+        }
+    }
+
+    private Path file() {
+        return Paths.get(root, FILE);
+    }
+
+    /**
+     * A well compressible content of about 200 KB, that differs for every version.
+     */
+    private static byte[] content(String version) {
+        var content = new StringBuilder("%PDF-1.7 " + version + "\n");
+        for (int i = 0; content.length() < 200 * 1024; i++) {
+            content.append("BT /F1 12 Tf 72 ").append(i % 700).append(" Td (Line ").append(i).append(" of ").append(version).append(") Tj ET\n");
+        }
+        return content.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+}
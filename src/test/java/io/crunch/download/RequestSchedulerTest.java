@@ -0,0 +1,116 @@
+package io.crunch.download;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RequestSchedulerTest {
+
+    private static final long MILLIS = 1_000_000;
+
+    private final List<String> started = new ArrayList<>();
+
+    @Test
+    void whenSlotIsFreeThenRequestStartsAtOnce() {
+        var scheduler = new RequestScheduler(2);
+
+        scheduler.schedule(ticket("a"), 0);
+        scheduler.schedule(ticket("b"), 0);
+
+        assertThat(started).containsExactly("a", "b");
+        assertThat(scheduler.getRunningCount()).isEqualTo(2);
+        assertThat(scheduler.isIdle()).isFalse();
+    }
+
+    @Test
+    void whenRequestsWaitThenTheEarliestDeadlineStartsFirst() {
+        var scheduler = new RequestScheduler(1);
+        var running = ticket("running");
+        scheduler.schedule(running, 0);
+
+        var bulk = ticket("bulk");
+        scheduler.schedule(bulk, 2000 * MILLIS);
+        var normal = ticket("normal");
+        scheduler.schedule(normal, 100 * MILLIS);
+        var interactive = ticket("interactive");
+        scheduler.schedule(interactive, 0);
+
+        assertThat(scheduler.getWaitingCount()).isEqualTo(3);
+
+        scheduler.complete(running);
+        scheduler.complete(interactive);
+        scheduler.complete(normal);
+
+        assertThat(started).containsExactly("running", "interactive", "normal", "bulk");
+        assertThat(scheduler.getQueuedCount()).isEqualTo(3);
+    }
+
+    @Test
+    void whenRequestHasWaitedLongerThanTheCostOfNewerOnesThenItStartsFirst() throws InterruptedException {
+        var scheduler = new RequestScheduler(1);
+        var running = ticket("running");
+        scheduler.schedule(running, 0);
+        var bulk = ticket("bulk");
+        scheduler.schedule(bulk, 20 * MILLIS);
+
+        Thread.sleep(50);
+        scheduler.schedule(ticket("small"), 10 * MILLIS);
+        scheduler.complete(running);
+
+        assertThat(started).containsExactly("running", "bulk");
+    }
+
+    @Test
+    void whenSameDeadlineThenArrivalOrderIsKept() {
+        var scheduler = new RequestScheduler(1);
+        var running = ticket("running");
+        scheduler.schedule(running, Long.MAX_VALUE / 4);
+        var first = ticket("first");
+        var second = ticket("second");
+        scheduler.schedule(first, 0);
+        scheduler.schedule(second, 0);
+
+        scheduler.complete(running);
+        scheduler.complete(first);
+
+        assertThat(started).containsExactly("running", "first", "second");
+    }
+
+    @Test
+    void whenWaitingRequestIsCompletedThenItIsWithdrawn() {
+        var scheduler = new RequestScheduler(1);
+        var running = ticket("running");
+        scheduler.schedule(running, 0);
+        var gone = ticket("gone");
+        scheduler.schedule(gone, 0);
+        var waiting = ticket("waiting");
+        scheduler.schedule(waiting, 0);
+
+        scheduler.complete(gone);
+        scheduler.complete(gone);
+        scheduler.complete(running);
+
+        assertThat(started).containsExactly("running", "waiting");
+        assertThat(scheduler.getRunningCount()).isEqualTo(1);
+        assertThat(scheduler.getWaitingCount()).isZero();
+    }
+
+    @Test
+    void whenRequestIsCompletedBeforeBeingScheduledThenItNeverStarts() {
+        var scheduler = new RequestScheduler(1);
+        var gone = ticket("gone");
+
+        scheduler.complete(gone);
+        scheduler.schedule(gone, 0);
+
+        assertThat(started).isEmpty();
+        assertThat(scheduler.isIdle()).isTrue();
+    }
+
+    private RequestScheduler.Ticket ticket(String name) {
+        return new RequestScheduler.Ticket(() -> started.add(name));
+    }
+}
@@ -0,0 +1,101 @@
+package io.crunch.download;
+
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.junit.QuarkusTestProfile;
+import io.quarkus.test.junit.TestProfile;
+import jakarta.inject.Inject;
+import org.jboss.resteasy.reactive.RestResponse;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static io.restassured.RestAssured.given;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+
+@QuarkusTest
+@TestProfile(RequestSchedulingResourceTest.SchedulingProfile.class)
+class RequestSchedulingResourceTest {
+
+    /**
+     * Runs a single download per pool, so the requests queue as soon as a slot is held, without the limiter that
+     * would shed the requests waiting that long. The bulk requests are not aged past the interactive ones during the
+     * test.
+     */
+    public static class SchedulingProfile implements QuarkusTestProfile {
+
+        @Override
+        public Map<String, String> getConfigOverrides() {
+            return Map.of(
+                "app.download.limiter.enabled", "false",
+                "app.download.scheduler.priority.bulk", "1m",
+                "app.download.scheduler.worker.max-concurrency", "1",
+                "app.download.scheduler.virtual.max-concurrency", "1");
+        }
+    }
+
+    @Inject
+    RequestSchedulingFilter filter;
+
+    @ParameterizedTest
+    @ValueSource(strings = {"stream", "byteArray", "byteArrayVirtual"})
+    void whenRequestsWaitThenInteractiveOnesStartBeforeBulkOnes(String endpoint) {
+        // warms the endpoint up, so the responses are read as fast as they are sent
+        download(endpoint, "normal", new ConcurrentLinkedQueue<>()).join();
+        var scheduler = filter.scheduler(endpoint);
+        var held = new RequestScheduler.Ticket(() -> {
+        });
+        scheduler.schedule(held, 0);
+        var completed = new ConcurrentLinkedQueue<String>();
+
+        var bulk = download(endpoint, "bulk", completed);
+        await().atMost(Duration.ofSeconds(5)).until(() -> scheduler.getWaitingCount() == 1);
+        var interactive = download(endpoint, "interactive", completed);
+        await().atMost(Duration.ofSeconds(5)).until(() -> scheduler.getWaitingCount() == 2);
+
+        scheduler.complete(held);
+        // the slot is held again once the first request has been sent, so the second one cannot finish first on the
+        // client, even if the client reads the first response late
+        var heldAgain = new RequestScheduler.Ticket(() -> {
+        });
+        scheduler.schedule(heldAgain, 0);
+        await().atMost(Duration.ofSeconds(5)).until(() -> completed.size() == 1);
+        scheduler.complete(heldAgain);
+        CompletableFuture.allOf(bulk, interactive).join();
+
+        assertThat(completed).containsExactly("interactive", "bulk");
+        // the slot is freed when the last response has been sent
+        await().atMost(Duration.ofSeconds(5)).until(scheduler::isIdle);
+    }
+
+    @Test
+    void whenPriorityIsUnknownThenItIsNormal() {
+        assertThat(RequestSchedulingFilter.priority(null)).isEqualTo(RequestSchedulingFilter.Priority.NORMAL);
+        assertThat(RequestSchedulingFilter.priority("urgent")).isEqualTo(RequestSchedulingFilter.Priority.NORMAL);
+        assertThat(RequestSchedulingFilter.priority(" Bulk ")).isEqualTo(RequestSchedulingFilter.Priority.BULK);
+    }
+
+    @Test
+    void whenFileIsLargerThenItsCostIsHigherUpToTheMaximum() {
+        assertThat(filter.sizeCost(0)).isZero();
+        assertThat(filter.sizeCost(1024 * 1024)).isEqualTo(Duration.ofMillis(10).toNanos());
+        assertThat(filter.sizeCost(20L * 1024 * 1024)).isEqualTo(Duration.ofMillis(200).toNanos());
+        assertThat(filter.sizeCost(Long.MAX_VALUE)).isEqualTo(Duration.ofSeconds(2).toNanos());
+    }
+
+    private static CompletableFuture<Void> download(String endpoint, String priority, ConcurrentLinkedQueue<String> completed) {
+        return CompletableFuture.runAsync(() -> {
+            given().header("X-Priority", priority)
+                .get("/download/" + endpoint + "/sample.pdf")
+                .then()
+                .statusCode(RestResponse.Status.OK.getStatusCode());
+            completed.add(priority);
+        });
+    }
+}
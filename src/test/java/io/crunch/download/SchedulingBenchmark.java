@@ -0,0 +1,118 @@
+package io.crunch.download;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures the latency of the blocking downloads by file size under a mixed load, to compare the request scheduling
+ * of the {@link RequestSchedulingFilter} with the arrival order of the worker pool.
+ * <p>
+ * The clients download the 1-20 MB sample set (the files created by {@link SamplePDFFactory}) from a running server,
+ * one download after the other, with the mix of an interactive application bursting with bulk transfers: most
+ * requests are 1 MB files marked {@code interactive}, a tenth are 20 MB files marked {@code bulk}, and the others are
+ * 2-10 MB files without priority. The p50, p99 and maximum latencies, until the whole body has been received, are
+ * printed by file, with the rejected requests. Running it against the server started with
+ * {@code -Dapp.download.scheduler.enabled=false}, then with the defaults, gives the latencies before and after.
+ * <p>
+ * The arguments are the server URL ({@code http://localhost:8080}), the download strategy ({@code stream}), the number
+ * of clients ({@code 64}) and the duration of the measurement in seconds ({@code 60}), after a warm-up of a tenth of it.
+ */
+public class SchedulingBenchmark {
+
+    private record Sample(String fileName, String priority, int weight) {
+    }
+
+    private static final List<Sample> SAMPLES = List.of(
+        new Sample("sample_001mb.pdf", "interactive", 60),
+        new Sample("sample_002mb.pdf", null, 15),
+        new Sample("sample_005mb.pdf", null, 10),
+        new Sample("sample_010mb.pdf", null, 5),
+        new Sample("sample_020mb.pdf", "bulk", 10));
+
+    public static void main(String[] args) throws InterruptedException {
+        var server = args.length > 0 ? args[0] : "http://localhost:8080";
+        var strategy = args.length > 1 ? args[1] : "stream";
+        var clients = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+        var duration = Duration.ofSeconds(args.length > 3 ? Long.parseLong(args[3]) : 60);
+
+        var client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        var latencies = new ConcurrentHashMap<String, ConcurrentLinkedQueue<Long>>();
+        var rejected = new ConcurrentHashMap<String, LongAdder>();
+        var warmUpEnd = System.nanoTime() + duration.toNanos() / 10;
+        var end = warmUpEnd + duration.toNanos();
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < clients; i++) {
+                executor.submit(() -> {
+                    while (System.nanoTime() < end) {
+                        var sample = pick();
+                        var builder = HttpRequest.newBuilder(URI.create(server + "/download/" + strategy + "/" + sample.fileName()));
+                        if (sample.priority() != null) {
+                            builder.header("X-Priority", sample.priority());
+                        }
+                        var start = System.nanoTime();
+                        try {
+                            var response = client.send(builder.build(), HttpResponse.BodyHandlers.discarding());
+                            if (start < warmUpEnd) {
+                                continue;
+                            }
+                            if (response.statusCode() == 200) {
+                                latencies.computeIfAbsent(sample.fileName(), key -> new ConcurrentLinkedQueue<>()).add(System.nanoTime() - start);
+                            } else {
+                                rejected.computeIfAbsent(sample.fileName(), key -> new LongAdder()).increment();
+                            }
+                        } catch (IOException e) {
+                            rejected.computeIfAbsent(sample.fileName(), key -> new LongAdder()).increment();
+                        }
+                    }
+                    return null;
+                });
+            }
+        }
+        print(latencies, rejected);
+    }
+
+    private static Sample pick() {
+        var total = SAMPLES.stream().mapToInt(Sample::weight).sum();
+        var pick = ThreadLocalRandom.current().nextInt(total);
+        for (var sample : SAMPLES) {
+            pick -= sample.weight();
+            if (pick < 0) {
+                return sample;
+            }
+        }
+        return SAMPLES.getLast();
+    }
+
+    private static void print(Map<String, ConcurrentLinkedQueue<Long>> latencies, Map<String, LongAdder> rejected) {
+        System.out.printf("%-18s %-12s %10s %10s %10s %10s %10s%n", "sample", "priority", "requests", "p50 ms", "p99 ms", "max ms", "rejected");
+        for (var sample : SAMPLES) {
+            var sorted = new ArrayList<>(latencies.getOrDefault(sample.fileName(), new ConcurrentLinkedQueue<>()));
+            Collections.sort(sorted);
+            System.out.printf("%-18s %-12s %10d %10.1f %10.1f %10.1f %10d%n", sample.fileName(),
+                sample.priority() == null ? "normal" : sample.priority(), sorted.size(),
+                percentile(sorted, 0.50), percentile(sorted, 0.99), percentile(sorted, 1.0),
+                rejected.getOrDefault(sample.fileName(), new LongAdder()).sum());
+        }
+    }
+
+    private static double percentile(List<Long> sorted, double percentile) {
+        if (sorted.isEmpty()) {
+            return 0;
+        }
+        var index = (int) Math.ceil(percentile * sorted.size()) - 1;
+        return sorted.get(Math.max(0, index)) / 1e6;
+    }
+}
@@ -0,0 +1,120 @@
+package io.crunch.download;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.smallrye.mutiny.Uni;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SingleFlightTest {
+
+    @Test
+    void whenConcurrentSubscribersThenOneLoadIsShared() {
+        var singleFlight = new SingleFlight<String>();
+        var loads = new AtomicInteger();
+        var read = new CompletableFuture<String>();
+        var results = new ArrayList<CompletableFuture<String>>();
+
+        for (int i = 0; i < 10; i++) {
+            results.add(singleFlight.load("a.pdf", () -> {
+                loads.incrementAndGet();
+                return Uni.createFrom().completionStage(read);
+            }).subscribeAsCompletionStage());
+        }
+        read.complete("content");
+
+        assertThat(results).allSatisfy(result -> assertThat(result.join()).isSameAs("content"));
+        assertThat(loads).hasValue(1);
+        assertThat(singleFlight.getCoalescedCount()).isEqualTo(9);
+        assertThat(singleFlight.getInFlightCount()).isZero();
+    }
+
+    @Test
+    void whenReferenceCountedContentSharedThenEveryCallerOwnsAReference() {
+        var singleFlight = new SingleFlight<String>();
+        var read = new CompletableFuture<ByteBuf>();
+        var content = Unpooled.directBuffer(16).writeZero(16);
+        var results = new ArrayList<CompletableFuture<ByteBuf>>();
+
+        for (int i = 0; i < 3; i++) {
+            results.add(singleFlight.load("a.pdf", () -> Uni.createFrom().completionStage(read),
+                ByteBuf::retainedDuplicate, ByteBuf::release).subscribeAsCompletionStage());
+        }
+        read.complete(content);
+
+        assertThat(content.refCnt()).isEqualTo(3);
+        results.forEach(result -> result.join().release());
+        assertThat(content.refCnt()).isZero();
+    }
+
+    @Test
+    void whenLoadCompletedThenNextCallerLoadsAgain() {
+        var singleFlight = new SingleFlight<String>();
+        var loads = new AtomicInteger();
+
+        singleFlight.load("a.pdf", () -> Uni.createFrom().item(loads.incrementAndGet())).await().indefinitely();
+        singleFlight.load("a.pdf", () -> Uni.createFrom().item(loads.incrementAndGet())).await().indefinitely();
+
+        assertThat(loads).hasValue(2);
+    }
+
+    @Test
+    void whenConcurrentBlockingCallersThenOneLoadIsShared() throws Exception {
+        var singleFlight = new SingleFlight<String>();
+        var loads = new AtomicInteger();
+        var started = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            var leader = executor.submit(() -> singleFlight.loadBlocking("a.pdf", () -> {
+                loads.incrementAndGet();
+                started.countDown();
+                await(release);
+                return new byte[10];
+            }));
+            started.await();
+            var followers = new ArrayList<Future<byte[]>>();
+            for (int i = 0; i < 5; i++) {
+                followers.add(executor.submit(() -> singleFlight.loadBlocking("a.pdf", () -> {
+                    loads.incrementAndGet();
+                    return new byte[0];
+                })));
+            }
+            while (singleFlight.getCoalescedCount() < 5) {
+                Thread.sleep(1);
+            }
+            release.countDown();
+
+            for (var follower : followers) {
+                assertThat(follower.get()).isSameAs(leader.get());
+            }
+        }
+        assertThat(loads).hasValue(1);
+    }
+
+    @Test
+    void whenBlockingLoadFailsThenFailureIsRethrown() {
+        var singleFlight = new SingleFlight<String>();
+
+        assertThatThrownBy(() -> singleFlight.loadBlocking("a.pdf", () -> {
+            throw new IllegalStateException("read failed");
+        })).isInstanceOf(IllegalStateException.class);
+        assertThat(singleFlight.getInFlightCount()).isZero();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package io.crunch.download;
+
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.junit.QuarkusTestProfile;
+import io.quarkus.test.junit.TestProfile;
+import jakarta.inject.Inject;
+import org.jboss.resteasy.reactive.RestResponse;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Objects;
+
+import static io.restassured.RestAssured.given;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+
+@QuarkusTest
+@TestProfile(StrategySelectionResourceTest.SelectionProfile.class)
+class StrategySelectionResourceTest {
+
+    /**
+     * A small file threshold below the size of the sample file, and a memory budget that holds it twice.
+     */
+    public static class SelectionProfile implements QuarkusTestProfile {
+
+        @Override
+        public Map<String, String> getConfigOverrides() {
+            return Map.of(
+                "app.download.auto.small-file-max-size", "100K",
+                "app.download.auto.memory-pressure", "0.75",
+                "app.download.memory-budget.max-size", "1M");
+        }
+    }
+
+    @Inject
+    StrategySelector selector;
+
+    @Inject
+    InFlightBytesBudget budget;
+
+    @Inject
+    FileStore fileStore;
+
+    @Test
+    void whenRangeIsSmallThenItIsSentFromMemory() throws IOException, URISyntaxException {
+        var buffered = selector.getAsyncBufferCount();
+
+        var content = given().header("Range", "bytes=0-999")
+            .get("/download/auto/sample.pdf")
+            .then()
+            .statusCode(RestResponse.Status.PARTIAL_CONTENT.getStatusCode())
+            .extract()
+            .asByteArray();
+
+        assertThat(content).isEqualTo(Arrays.copyOf(getSampleContent(), 1000));
+        assertThat(selector.getAsyncBufferCount()).isEqualTo(buffered + 1);
+        await().atMost(Duration.ofSeconds(5)).until(() -> budget.getReservedBytes() == 0);
+    }
+
+    @Test
+    void whenFileIsSentFromMemoryThenItHasTheTypeOfTheAsyncBufferEndpoint() {
+        var buffered = selector.getAsyncBufferCount();
+
+        var auto = given().header("Range", "bytes=0-999").get("/download/auto/sample.pdf")
+            .then()
+            .statusCode(RestResponse.Status.PARTIAL_CONTENT.getStatusCode())
+            .extract()
+            .contentType();
+        var asyncBuffer = given().header("Range", "bytes=0-999").get("/download/asyncBuffer/sample.pdf")
+            .then()
+            .statusCode(RestResponse.Status.PARTIAL_CONTENT.getStatusCode())
+            .extract()
+            .contentType();
+
+        assertThat(selector.getAsyncBufferCount()).isEqualTo(buffered + 1);
+        assertThat(auto).isEqualTo(asyncBuffer).startsWith("application/pdf");
+        await().atMost(Duration.ofSeconds(5)).until(() -> budget.getReservedBytes() == 0);
+    }
+
+    @Test
+    void whenRangeIsLargeThenItIsSentWithSendFile() throws IOException, URISyntaxException {
+        var sent = selector.getSendFileCount();
+
+        var content = given().header("Range", "bytes=1000-200999")
+            .get("/download/auto/sample.pdf")
+            .then()
+            .statusCode(RestResponse.Status.PARTIAL_CONTENT.getStatusCode())
+            .extract()
+            .asByteArray();
+
+        assertThat(content).isEqualTo(Arrays.copyOfRange(getSampleContent(), 1000, 201000));
+        assertThat(selector.getSendFileCount()).isEqualTo(sent + 1);
+        assertThat(budget.getReservedBytes()).isZero();
+    }
+
+    @Test
+    void whenFileIsCachedThenItIsSentFromMemory() throws IOException, URISyntaxException {
+        cacheSampleFile();
+        var buffered = selector.getAsyncBufferCount();
+
+        var content = given().get("/download/auto/sample.pdf")
+            .then()
+            .statusCode(RestResponse.Status.OK.getStatusCode())
+            .extract()
+            .asByteArray();
+
+        assertThat(content).isEqualTo(getSampleContent());
+        assertThat(selector.getAsyncBufferCount()).isEqualTo(buffered + 1);
+        await().atMost(Duration.ofSeconds(5)).until(() -> budget.getReservedBytes() == 0);
+    }
+
+    @Test
+    void whenMemoryIsUnderPressureThenCachedFileIsSentWithSendFile() throws IOException, URISyntaxException {
+        cacheSampleFile();
+        var sent = selector.getSendFileCount();
+        var pressured = selector.getMemoryPressureCount();
+
+        try (var held = budget.tryReserve(600 * 1024)) {
+            assertThat(held).isNotNull();
+
+            var content = given().get("/download/auto/sample.pdf")
+                .then()
+                .statusCode(RestResponse.Status.OK.getStatusCode())
+                .extract()
+                .asByteArray();
+
+            assertThat(content).isEqualTo(getSampleContent());
+            assertThat(selector.getSendFileCount()).isEqualTo(sent + 1);
+            assertThat(selector.getMemoryPressureCount()).isEqualTo(pressured + 1);
+        }
+    }
+
+    private void cacheSampleFile() {
+        given().get("/download/asyncBuffer/sample.pdf")
+            .then()
+            .statusCode(RestResponse.Status.OK.getStatusCode());
+        var metadata = fileStore.getMetadata("sample.pdf").await().indefinitely();
+        await().atMost(Duration.ofSeconds(5)).until(() -> fileStore.isCached("sample.pdf", metadata));
+    }
+
+    private static byte[] getSampleContent() throws IOException, URISyntaxException {
+        var url = StrategySelectionResourceTest.class.getResource("/sample/sample.pdf");
+        return Files.readAllBytes(Paths.get(Objects.requireNonNull(url).toURI()));
+    }
+}
@@ -0,0 +1,97 @@
+package io.crunch.download;
+
+import io.vertx.mutiny.core.Vertx;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static io.crunch.download.StrategySelector.Strategy.ASYNC_BUFFER;
+import static io.crunch.download.StrategySelector.Strategy.ASYNC_FILE;
+import static io.crunch.download.StrategySelector.Strategy.SEND_FILE;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StrategySelectorTest {
+
+    private Vertx vertx;
+
+    private InFlightBytesBudget budget;
+
+    private LoadSampler loadSampler;
+
+    private StrategySelector selector;
+
+    @BeforeEach
+    void setUp() {
+        vertx = Vertx.vertx();
+        budget = new InFlightBytesBudget(vertx, 1000, InFlightBytesBudget.Overflow.STREAM, Duration.ofSeconds(1));
+        // not started, the lag is sampled by the tests
+        loadSampler = new LoadSampler(vertx, () -> 0);
+        selector = new StrategySelector(budget, 100, 0.5, Duration.ofMillis(20), loadSampler);
+    }
+
+    @AfterEach
+    void tearDown() {
+        vertx.closeAndAwait();
+    }
+
+    @Test
+    void whenFileIsSmallOrCachedThenItIsSentFromMemory() {
+        var small = selector.select(100, false, true, false);
+        var cached = selector.select(300, true, true, false);
+
+        assertThat(small.strategy()).isEqualTo(ASYNC_BUFFER);
+        assertThat(cached.strategy()).isEqualTo(ASYNC_BUFFER);
+        assertThat(budget.getReservedBytes()).isEqualTo(400);
+
+        small.reservation().close();
+        cached.reservation().close();
+
+        assertThat(budget.getReservedBytes()).isZero();
+        assertThat(selector.getAsyncBufferCount()).isEqualTo(2);
+    }
+
+    @Test
+    void whenFileIsLargeAndColdThenItIsSentWithoutCopy() {
+        assertThat(selector.select(101, false, true, false).strategy()).isEqualTo(SEND_FILE);
+        assertThat(selector.select(101, false, false, false).strategy()).isEqualTo(ASYNC_FILE);
+        assertThat(selector.select(100, true, true, true)).isEqualTo(new StrategySelector.Choice(ASYNC_FILE, null));
+
+        assertThat(budget.getReservedBytes()).isZero();
+        assertThat(selector.getSendFileCount()).isEqualTo(1);
+        assertThat(selector.getAsyncFileCount()).isEqualTo(2);
+        assertThat(selector.getMemoryPressureCount()).isZero();
+    }
+
+    @Test
+    void whenBudgetIsUnderPressureThenFilesAreStreamed() {
+        var held = budget.tryReserve(450);
+
+        assertThat(selector.select(50, true, true, false).strategy()).isEqualTo(ASYNC_BUFFER);
+        assertThat(selector.select(10, true, true, false).strategy()).isEqualTo(SEND_FILE);
+        assertThat(selector.select(10, false, false, false).strategy()).isEqualTo(ASYNC_FILE);
+        assertThat(selector.getMemoryPressureCount()).isEqualTo(2);
+
+        held.close();
+
+        assertThat(selector.select(10, false, true, false).strategy()).isEqualTo(ASYNC_BUFFER);
+    }
+
+    @Test
+    void whenEventLoopLagsThenColdFilesAreNotLoaded() {
+        for (int i = 0; i < 8; i++) {
+            loadSampler.sample(Duration.ofMillis(100).toNanos(), 0);
+        }
+
+        assertThat(selector.getEventLoopLagMillis()).isGreaterThanOrEqualTo(20);
+        assertThat(selector.select(10, false, true, false).strategy()).isEqualTo(SEND_FILE);
+        assertThat(selector.select(10, true, true, false).strategy()).isEqualTo(ASYNC_BUFFER);
+
+        for (int i = 0; i < 16; i++) {
+            loadSampler.sample(0, 0);
+        }
+
+        assertThat(selector.select(10, false, true, false).strategy()).isEqualTo(ASYNC_BUFFER);
+    }
+}
@@ -0,0 +1,108 @@
+package io.crunch.download;
+
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.junit.QuarkusTestProfile;
+import io.quarkus.test.junit.TestProfile;
+import io.restassured.config.DecoderConfig;
+import io.restassured.config.RestAssuredConfig;
+import io.restassured.specification.RequestSpecification;
+import org.jboss.resteasy.reactive.RestResponse;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Objects;
+import java.util.zip.GZIPInputStream;
+
+import static io.restassured.RestAssured.given;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.startsWith;
+
+@QuarkusTest
+@TestProfile(StreamingCompressionResourceTest.CompressionProfile.class)
+class StreamingCompressionResourceTest {
+
+    public static class CompressionProfile implements QuarkusTestProfile {
+
+        @Override
+        public Map<String, String> getConfigOverrides() {
+            return Map.of(
+                "app.download.compression.enabled", "true",
+                // the load of the build machine must not turn the compression off
+                "app.download.compression.cpu-high", "1.1",
+                "app.download.compression.max-event-loop-lag", "1h");
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"asyncMultiBuffer", "stream"})
+    void whenCodingIsAcceptedThenContentIsCompressedOnTheFly(String endpoint) throws Exception {
+        var response = request("gzip").get("/download/" + endpoint + "/sample.pdf")
+            .then()
+            .statusCode(RestResponse.Status.OK.getStatusCode())
+            .header("Content-Encoding", "gzip")
+            .header("Vary", "Accept-Encoding")
+            .header("Accept-Ranges", nullValue())
+            .header("ETag", startsWith("W/"))
+            .extract()
+            .response();
+
+        try (var decoded = new GZIPInputStream(new ByteArrayInputStream(response.asByteArray()))) {
+            assertThat(decoded.readAllBytes()).isEqualTo(Files.readAllBytes(getSampleFile()));
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"asyncMultiBuffer", "stream"})
+    void whenCompressedResponseIsNotModifiedThenNotModified(String endpoint) {
+        var etag = request("gzip").get("/download/" + endpoint + "/sample.pdf").then().extract().header("ETag");
+
+        request("gzip").header("If-None-Match", etag).get("/download/" + endpoint + "/sample.pdf")
+            .then()
+            .statusCode(RestResponse.Status.NOT_MODIFIED.getStatusCode());
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"asyncMultiBuffer", "stream"})
+    void whenRangeOrNoCodingIsRequestedThenIdentity(String endpoint) throws IOException, URISyntaxException {
+        var sample = Files.readAllBytes(getSampleFile());
+
+        var range = request("gzip").header("Range", "bytes=100-1099").get("/download/" + endpoint + "/sample.pdf")
+            .then()
+            .statusCode(RestResponse.Status.PARTIAL_CONTENT.getStatusCode())
+            .header("Content-Encoding", nullValue())
+            .extract()
+            .asByteArray();
+        var identity = request(null).get("/download/" + endpoint + "/sample.pdf")
+            .then()
+            .statusCode(RestResponse.Status.OK.getStatusCode())
+            .header("Content-Encoding", nullValue())
+            .header("Accept-Ranges", "bytes")
+            .extract()
+            .asByteArray();
+
+        assertThat(range).isEqualTo(Arrays.copyOfRange(sample, 100, 1100));
+        assertThat(identity).isEqualTo(sample);
+    }
+
+    /**
+     * A request that sends the given {@code Accept-Encoding} header, and leaves the response body as it is.
+     */
+    private static RequestSpecification request(String acceptEncoding) {
+        var request = given().config(RestAssuredConfig.config().decoderConfig(DecoderConfig.decoderConfig().noContentDecoders()));
+        return acceptEncoding == null ? request : request.header("Accept-Encoding", acceptEncoding);
+    }
+
+    private Path getSampleFile() throws URISyntaxException {
+        var url = StreamingCompressionResourceTest.class.getResource("/sample/sample.pdf");
+        return Paths.get(Objects.requireNonNull(url).toURI());
+    }
+}
@@ -0,0 +1,171 @@
+package io.crunch.download;
+
+import com.aayushatharva.brotli4j.Brotli4jLoader;
+import com.aayushatharva.brotli4j.decoder.BrotliInputStream;
+import com.github.luben.zstd.ZstdInputStream;
+import io.quarkus.runtime.configuration.MemorySize;
+import io.smallrye.mutiny.Multi;
+import io.vertx.mutiny.core.Vertx;
+import io.vertx.mutiny.core.buffer.Buffer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.GZIPInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+
+class StreamingCompressorTest {
+
+    private static final int CHUNK = 16 * 1024;
+
+    private static final FileMetadata METADATA = new FileMetadata(1024 * 1024, Instant.EPOCH);
+
+    @TempDir
+    Path root;
+
+    private Vertx vertx;
+
+    private volatile double cpuLoad;
+
+    private LoadSampler loadSampler;
+
+    private StreamingCompressor compressor;
+
+    @BeforeEach
+    void setUp() {
+        vertx = Vertx.vertx();
+        var variants = new PrecompressedVariants(root.toString(), false, new MemorySize(BigInteger.valueOf(1024)), 0.05);
+        loadSampler = new LoadSampler(vertx, () -> cpuLoad);
+        loadSampler.start();
+        compressor = new StreamingCompressor(true, 1024, 0.5, 0.85, Duration.ofMillis(50), variants, loadSampler, vertx);
+    }
+
+    @AfterEach
+    void tearDown() {
+        loadSampler.close();
+        vertx.closeAndAwait();
+    }
+
+    @Test
+    void whenLoadRisesThenEffortDropsUntilIdentity() {
+        assertThat(compressor.select("a.pdf", METADATA, "gzip, zstd")).isEqualTo(
+            new StreamingCompressor.Compression(ContentEncoding.ZSTD, ContentEncoding.Effort.BALANCED));
+
+        cpuLoad = 0.7;
+        await().atMost(Duration.ofSeconds(5)).until(() -> compressor.getCurrentEffort().equals("FAST"));
+        assertThat(compressor.select("a.pdf", METADATA, "gzip")).isEqualTo(
+            new StreamingCompressor.Compression(ContentEncoding.GZIP, ContentEncoding.Effort.FAST));
+
+        cpuLoad = 0.95;
+        await().atMost(Duration.ofSeconds(5)).until(() -> compressor.getCurrentEffort().equals("IDENTITY"));
+        assertThat(compressor.select("a.pdf", METADATA, "gzip")).isNull();
+        assertThat(compressor.getFallbackCount()).isEqualTo(1);
+        assertThat(compressor.getCompressedCount()).isEqualTo(2);
+    }
+
+    @Test
+    void whenNoCodingIsAcceptedOrFileIsSmallThenIdentity() {
+        assertThat(compressor.select("a.pdf", METADATA, null)).isNull();
+        assertThat(compressor.select("a.pdf", METADATA, "identity")).isNull();
+        assertThat(compressor.select("a.pdf", new FileMetadata(100, METADATA.lastModified()), "gzip")).isNull();
+        assertThat(compressor.getFallbackCount()).isZero();
+    }
+
+    @ParameterizedTest
+    @EnumSource(ContentEncoding.class)
+    void whenContentIsCompressedThenEveryBufferIsBoundedAndContentIsRestored(ContentEncoding encoding) throws IOException {
+        var content = content();
+        var chunks = new ArrayList<Buffer>();
+        for (int offset = 0; offset < content.length; offset += CHUNK) {
+            chunks.add(Buffer.buffer(content).slice(offset, Math.min(content.length, offset + CHUNK)));
+        }
+
+        var compressed = compressor.compress(Multi.createFrom().iterable(chunks),
+                new StreamingCompressor.Compression(encoding, ContentEncoding.Effort.FAST))
+            .collect().asList().await().indefinitely();
+
+        assertThat(compressed).allMatch(buffer -> buffer.length() > 0 && buffer.length() <= CHUNK + 64 * 1024);
+        assertThat(decode(encoding, collect(compressed))).isEqualTo(content);
+        assertThat(compressor.getBytesIn()).isEqualTo(content.length);
+        assertThat(compressor.getBytesOut()).isLessThan(content.length / 4);
+    }
+
+    @Test
+    void whenContentIsEmittedOnEventLoopThenCompressedBuffersAreEmittedBackOnIt() throws IOException {
+        var content = content();
+        var threads = new ArrayList<Thread>();
+        var compressed = new ArrayList<Buffer>();
+        var done = new CompletableFuture<Thread>();
+
+        vertx.runOnContext(() -> compressor.compress(Multi.createFrom().items(Buffer.buffer(content)),
+                new StreamingCompressor.Compression(ContentEncoding.GZIP, ContentEncoding.Effort.FAST))
+            .subscribe().with(buffer -> {
+                threads.add(Thread.currentThread());
+                compressed.add(buffer);
+            }, done::completeExceptionally, () -> done.complete(Thread.currentThread())));
+
+        var eventLoop = done.join();
+        assertThat(threads).isNotEmpty().allMatch(thread -> thread == eventLoop);
+        assertThat(eventLoop.getName()).contains("eventloop");
+        assertThat(decode(ContentEncoding.GZIP, collect(compressed))).isEqualTo(content);
+    }
+
+    @ParameterizedTest
+    @EnumSource(ContentEncoding.class)
+    void whenStreamIsWrappedThenContentIsCompressed(ContentEncoding encoding) throws IOException {
+        var content = content();
+        var output = new ByteArrayOutputStream();
+
+        try (var compressed = compressor.wrap(output, new StreamingCompressor.Compression(encoding, ContentEncoding.Effort.BALANCED))) {
+            for (int offset = 0; offset < content.length; offset += CHUNK) {
+                compressed.write(content, offset, Math.min(CHUNK, content.length - offset));
+            }
+        }
+
+        assertThat(decode(encoding, output.toByteArray())).isEqualTo(content);
+        assertThat(compressor.getBytesOut()).isEqualTo(output.size());
+    }
+
+    private static byte[] content() {
+        var content = new StringBuilder();
+        for (int i = 0; content.length() < 1024 * 1024; i++) {
+            content.append("BT /F1 12 Tf 72 ").append(i % 700).append(" Td (Line ").append(i).append(") Tj ET\n");
+        }
+        return content.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static byte[] collect(List<Buffer> buffers) {
+        var output = new ByteArrayOutputStream();
+        buffers.forEach(buffer -> output.writeBytes(buffer.getBytes()));
+        return output.toByteArray();
+    }
+
+    private static byte[] decode(ContentEncoding encoding, byte[] body) throws IOException {
+        Brotli4jLoader.ensureAvailability();
+        var input = new ByteArrayInputStream(body);
+        try (InputStream decoded = switch (encoding) {
+            case BROTLI -> new BrotliInputStream(input);
+            case ZSTD -> new ZstdInputStream(input);
+            case GZIP -> new GZIPInputStream(input);
+        }) {
+            return decoded.readAllBytes();
+        }
+    }
+}
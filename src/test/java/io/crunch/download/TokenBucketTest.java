@@ -0,0 +1,59 @@
+package io.crunch.download;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class TokenBucketTest {
+
+    private static final long MILLIS = 1_000_000;
+
+    @Test
+    void whenBucketIsFullThenBurstIsSentAtOnce() {
+        var bucket = new TokenBucket(1000, 100);
+        var now = System.nanoTime();
+
+        assertThat(bucket.acquire(100, now)).isZero();
+        // 1000 bytes per second, a byte per millisecond
+        assertThat(bucket.acquire(50, now)).isCloseTo(50 * MILLIS, within(MILLIS));
+        assertThat(bucket.acquire(50, now)).isCloseTo(100 * MILLIS, within(MILLIS));
+    }
+
+    @Test
+    void whenBucketIsIdleThenItRefillsUpToBurst() {
+        var bucket = new TokenBucket(1000, 100);
+        var now = System.nanoTime();
+        bucket.acquire(200, now);
+
+        assertThat(bucket.isFull(now)).isFalse();
+        assertThat(bucket.isFull(now + 100 * MILLIS)).isFalse();
+        assertThat(bucket.isFull(now + 200 * MILLIS)).isTrue();
+        // an hour of idleness still allows a single burst
+        var later = now + 3_600_000 * MILLIS;
+        assertThat(bucket.acquire(100, later)).isZero();
+        assertThat(bucket.acquire(10, later)).isCloseTo(10 * MILLIS, within(MILLIS));
+    }
+
+    @Test
+    void whenStreamsShareBucketThenTheyShareTheRate() {
+        var bucket = new TokenBucket(1_000_000, 0);
+        var now = System.nanoTime();
+        var maxDelay = new AtomicLong();
+
+        try (var executor = Executors.newFixedThreadPool(8)) {
+            IntStream.range(0, 8).forEach(stream -> executor.submit(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    maxDelay.accumulateAndGet(bucket.acquire(125, now), Math::max);
+                }
+            }));
+        }
+
+        // a million bytes at a million bytes per second, whatever the interleaving
+        assertThat(maxDelay.get()).isCloseTo(1000 * MILLIS, within(MILLIS));
+    }
+}
@@ -0,0 +1,103 @@
+package io.crunch.download;
+
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.helpers.test.AssertSubscriber;
+import io.vertx.mutiny.core.Vertx;
+import io.vertx.mutiny.core.buffer.Buffer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class WriteCoalescerTest {
+
+    private static final int KB = 1024;
+
+    private final Vertx vertx = Vertx.vertx();
+
+    @AfterEach
+    void tearDown() {
+        vertx.closeAndAwait();
+    }
+
+    @Test
+    void whenChunksAreSmallThenTheyAreWrittenUpToTheHighWaterMark() {
+        var coalescer = new WriteCoalescer(32 * KB, Duration.ZERO, vertx);
+        var content = new byte[80 * KB];
+        new Random(42).nextBytes(content);
+
+        var writes = coalescer.coalesce(Multi.createFrom().range(0, 10)
+                .map(i -> Buffer.buffer(Buffer.buffer(content).getBytes(i * 8 * KB, (i + 1) * 8 * KB))))
+            .collect().asList().await().indefinitely();
+
+        assertThat(writes).extracting(Buffer::length).containsExactly(32 * KB, 32 * KB, 16 * KB);
+        var written = new ByteArrayOutputStream();
+        writes.forEach(write -> written.writeBytes(write.getBytes()));
+        assertThat(written.toByteArray()).isEqualTo(content);
+        assertThat(coalescer.getBufferCount()).isEqualTo(10);
+        assertThat(coalescer.getWriteCount()).isEqualTo(3);
+    }
+
+    @Test
+    void whenDeadlinePassesThenBatchIsWrittenBeforeItIsFull() {
+        var coalescer = new WriteCoalescer(32 * KB, Duration.ofMillis(20), vertx);
+
+        var subscriber = coalescer.coalesce(Multi.createBy().concatenating().streams(
+                Multi.createFrom().item(Buffer.buffer(new byte[KB])),
+                Multi.createFrom().nothing()))
+            .subscribe().withSubscriber(AssertSubscriber.create(1));
+
+        subscriber.awaitItems(1, Duration.ofSeconds(5));
+        assertThat(subscriber.getItems().getFirst().length()).isEqualTo(KB);
+        subscriber.cancel();
+    }
+
+    @Test
+    void whenDownstreamHasNoDemandThenContentIsNotRead() {
+        var coalescer = new WriteCoalescer(32 * KB, Duration.ZERO, vertx);
+        var reads = new AtomicInteger();
+
+        var subscriber = coalescer.coalesce(Multi.createFrom().range(0, 100)
+                .onItem().invoke(reads::incrementAndGet)
+                .map(i -> Buffer.buffer(new byte[8 * KB])))
+            .subscribe().withSubscriber(AssertSubscriber.create(1));
+
+        assertThat(subscriber.getItems()).hasSize(1);
+        assertThat(reads).hasValue(4);
+        subscriber.cancel();
+    }
+
+    @Test
+    void whenStreamIsFlushedThenFlushIsPassedOnOnlyAtTheEnd() throws IOException {
+        var coalescer = new WriteCoalescer(32 * KB, Duration.ofHours(1), vertx);
+        var flushes = new AtomicInteger();
+        var response = new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void flush() {
+                flushes.incrementAndGet();
+            }
+        };
+
+        try (var output = coalescer.wrap(response)) {
+            for (int i = 0; i < 10; i++) {
+                output.write(new byte[4 * KB]);
+                output.flush();
+            }
+        }
+
+        assertThat(flushes).hasValue(1);
+        assertThat(coalescer.getFlushRequestCount()).isEqualTo(10);
+        assertThat(coalescer.getFlushCount()).isEqualTo(1);
+    }
+}
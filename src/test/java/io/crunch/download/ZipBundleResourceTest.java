@@ -0,0 +1,136 @@
+package io.crunch.download;
+
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.junit.QuarkusTestProfile;
+import io.quarkus.test.junit.TestProfile;
+import io.restassured.http.ContentType;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.resteasy.reactive.RestResponse;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static io.restassured.RestAssured.given;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.containsString;
+
+@QuarkusTest
+@TestProfile(ZipBundleResourceTest.BundleProfile.class)
+class ZipBundleResourceTest {
+
+    private static final List<String> FILES = List.of("a.pdf", "b.pdf", "c.pdf", "empty.pdf");
+
+    public static class BundleProfile implements QuarkusTestProfile {
+
+        @Override
+        public Map<String, String> getConfigOverrides() {
+            try {
+                var root = Files.createTempDirectory("zip-bundle");
+                var random = new Random(42);
+                for (var file : FILES) {
+                    var content = new byte[file.equals("empty.pdf") ? 0 : 100_000 + random.nextInt(1_000_000)];
+                    random.nextBytes(content);
+                    Files.write(root.resolve(file), content);
+                }
+                return Map.of(
+                    "app.filestore.root", root.toString(),
+                    "app.download.bundle.read-ahead", "2",
+                    "app.download.bundle.max-files", "5",
+                    // fewer worker threads than concurrent bundles
+                    "quarkus.thread-pool.max-threads", "2");
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    @ConfigProperty(name = "app.filestore.root")
+    String root;
+
+    @Inject
+    ZipBundleWriter bundleWriter;
+
+    @Test
+    void whenFilesAreRequestedThenArchiveStoresThemInOrder() throws IOException {
+        var requested = List.of("c.pdf", "a.pdf", "empty.pdf", "b.pdf", "a.pdf");
+        var bundles = bundleWriter.getBundleCount();
+
+        var body = given().contentType(ContentType.JSON).body(requested).post("/download/bundle")
+            .then()
+            .statusCode(RestResponse.Status.OK.getStatusCode())
+            .contentType("application/zip")
+            .header("Content-Disposition", containsString("bundle.zip"))
+            .extract()
+            .asByteArray();
+
+        var entries = new LinkedHashMap<String, byte[]>();
+        var methods = new ArrayList<Integer>();
+        try (var zip = new ZipInputStream(new ByteArrayInputStream(body))) {
+            for (ZipEntry entry; (entry = zip.getNextEntry()) != null; ) {
+                methods.add(entry.getMethod());
+                entries.put(entry.getName(), zip.readAllBytes());
+            }
+        }
+        assertThat(entries.keySet()).containsExactly("c.pdf", "a.pdf", "empty.pdf", "b.pdf");
+        for (var entry : entries.entrySet()) {
+            assertThat(entry.getValue()).isEqualTo(Files.readAllBytes(Path.of(root, entry.getKey())));
+        }
+        assertThat(methods).containsOnly(ZipEntry.STORED);
+        assertThat(bundleWriter.getBundleCount()).isEqualTo(bundles + 1);
+        assertThat(bundleWriter.getActiveBundleCount()).isZero();
+    }
+
+    @Test
+    void whenBundlesHoldEveryWorkerThreadThenTheirChecksumsStillComplete() {
+        var requests = IntStream.range(0, 4)
+            .mapToObj(i -> CompletableFuture.supplyAsync(() -> given().contentType(ContentType.JSON)
+                .body(List.of("a.pdf", "b.pdf", "c.pdf"))
+                .post("/download/bundle")
+                .then()
+                .statusCode(RestResponse.Status.OK.getStatusCode())
+                .extract()
+                .asByteArray()))
+            .toList();
+
+        var bodies = CompletableFuture.allOf(requests.toArray(CompletableFuture[]::new))
+            .thenApply(ignored -> requests.stream().map(CompletableFuture::join).toList())
+            .orTimeout(30, TimeUnit.SECONDS)
+            .join();
+
+        assertThat(bodies).allSatisfy(body -> assertThat(body).isEqualTo(bodies.getFirst()));
+        assertThat(bundleWriter.getActiveBundleCount()).isZero();
+    }
+
+    @Test
+    void whenFileIsMissingThenNotFound() {
+        given().contentType(ContentType.JSON).body(List.of("a.pdf", "missing.pdf")).post("/download/bundle")
+            .then()
+            .statusCode(RestResponse.Status.NOT_FOUND.getStatusCode());
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"[]", "[\"../a.pdf\"]", "[\"dir/a.pdf\"]", "[\"..\"]", "[\" \"]",
+        "[\"a.pdf\", \"b.pdf\", \"c.pdf\", \"a.pdf\", \"b.pdf\", \"c.pdf\"]"})
+    void whenRequestIsInvalidThenBadRequest(String body) {
+        given().contentType(ContentType.JSON).body(body).post("/download/bundle")
+            .then()
+            .statusCode(RestResponse.Status.BAD_REQUEST.getStatusCode());
+    }
+}